@@ -0,0 +1,81 @@
+package com.charlesdrews.neighborhoodguide;
+
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.charlesdrews.neighborhoodguide.images.ImageResources;
+
+/**
+ * Microbenchmark of ImageResources against Resources.getIdentifier, run as an instrumentation
+ * test so it measures the real resource table on a device. Results are written to logcat.
+ */
+public class ImageResourcesBenchmark extends AndroidTestCase {
+    private static final String TAG = "ImageResourcesBenchmark";
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    // a screenful of cards, plus one image that does not exist
+    private static final String[] IMAGE_NAMES = {"beer_garden", "brooklyn_museum", "central_park",
+            "coffee", "ethiopian_food", "grand_central", "izakaya", "lincoln_center", "met_museum",
+            "movie_theater", "prospect_park", "seaport", "szechuan_food", "no_such_image"};
+
+    public void testLookupsAgree() {
+        Resources res = getContext().getResources();
+        ImageResources imageResources = ImageResources.getInstance();
+
+        for (String name : IMAGE_NAMES) {
+            assertEquals(name, getIdentifier(res, name), imageResources.getHeroImageId(name));
+            assertEquals(name, getIdentifier(res, name + ImageResources.THUMBNAIL_SUFFIX),
+                    imageResources.getThumbnailId(name));
+        }
+    }
+
+    public void testBenchmarkLookups() {
+        Resources res = getContext().getResources();
+        ImageResources imageResources = ImageResources.getInstance();
+
+        long sink = 0; // keeps the lookups from being optimized away
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += runGetIdentifier(res) + runImageResources(imageResources);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += runGetIdentifier(res);
+        }
+        long getIdentifierNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += runImageResources(imageResources);
+        }
+        long imageResourcesNanos = System.nanoTime() - start;
+
+        long lookups = (long) ITERATIONS * IMAGE_NAMES.length;
+        Log.i(TAG, "getIdentifier: " + getIdentifierNanos / lookups + " ns/lookup; ImageResources: "
+                + imageResourcesNanos / lookups + " ns/lookup (" + lookups + " lookups, sink " + sink + ")");
+        assertTrue("map lookup should be faster than getIdentifier",
+                imageResourcesNanos < getIdentifierNanos);
+    }
+
+    private int runGetIdentifier(Resources res) {
+        int sum = 0;
+        for (String name : IMAGE_NAMES) {
+            sum += getIdentifier(res, name + ImageResources.THUMBNAIL_SUFFIX);
+        }
+        return sum;
+    }
+
+    private static int runImageResources(ImageResources imageResources) {
+        int sum = 0;
+        for (String name : IMAGE_NAMES) {
+            sum += imageResources.getThumbnailId(name);
+        }
+        return sum;
+    }
+
+    private int getIdentifier(Resources res, String name) {
+        return res.getIdentifier(name, "raw", getContext().getPackageName());
+    }
+}
@@ -4,7 +4,6 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
@@ -23,8 +22,16 @@ import android.widget.ImageView;
 import android.widget.RatingBar;
 import android.widget.TextView;
 
+import com.charlesdrews.neighborhoodguide.images.BitmapPool;
+import com.charlesdrews.neighborhoodguide.images.ImageResources;
+import com.charlesdrews.neighborhoodguide.images.ImageSizing;
 import com.charlesdrews.neighborhoodguide.places.Place;
 import com.charlesdrews.neighborhoodguide.places.PlaceDbOpenHelper;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
+import com.charlesdrews.neighborhoodguide.places.PlaceWriteQueue;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskGroup;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
 
 /**
  * Defines the UI of the detail screen
@@ -43,7 +50,10 @@ public class DetailActivity extends AppCompatActivity {
     private RatingBar mRatingBar;
     private FloatingActionButton mFab;
     private String mNoteDraft = "";
-    private boolean mChangeToFavStatus = false;
+    private boolean mSavedFavStatus; // as last written to the db, to roll back to if a write fails
+    private Bitmap mHeroImage;
+    private DecodeHeroImageTask mDecodeHeroImageTask;
+    private final TaskGroup mTasks = new TaskGroup(); // cancelled in onDestroy
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,13 +73,22 @@ public class DetailActivity extends AppCompatActivity {
         mDescriptionView = (TextView) findViewById(R.id.detail_description);
         mRatingBar = (RatingBar) findViewById(R.id.detail_rating_bar);
         mFab = (FloatingActionButton) findViewById(R.id.fab);
+        mHelper = PlaceDbOpenHelper.getInstance(DetailActivity.this);
 
         mSelectedPlaceId = getIntent().getExtras().getInt(MainActivity.SELECTED_PLACE_KEY, -1);
 
         if (mSelectedPlaceId >= 0) {
 
-            GetSelectedPlaceAndSetViewsAsyncTask task = new GetSelectedPlaceAndSetViewsAsyncTask();
-            task.execute();
+            // the list passes along the image name so decoding can start now, alongside the db
+            // lookup; hold the shared element transition until the image is ready to show
+            String heroImageName = getIntent().getStringExtra(ListBaseActivity.SELECTED_PLACE_IMAGE_KEY);
+            if (heroImageName != null) {
+                supportPostponeEnterTransition();
+                startHeroImageDecode(heroImageName);
+            }
+
+            mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.HIGH,
+                    new GetSelectedPlaceAndSetViewsTask());
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                 mImageView.setTransitionName(getString(R.string.card_transition_name_image));
@@ -85,16 +104,26 @@ public class DetailActivity extends AppCompatActivity {
             mRatingBar.setOnRatingBarChangeListener(new RatingBar.OnRatingBarChangeListener() {
                 @Override
                 public void onRatingChanged(RatingBar ratingBar, float rating, boolean fromUser) {
-                    UpdateRatingAsyncTask task = new UpdateRatingAsyncTask();
-                    task.execute(rating);
+                    // ignore setRating calls made while binding the views - those are not changes
+                    if (!fromUser || mSelectedPlace == null) {
+                        return;
+                    }
+                    // a drag across the bar is coalesced into one write by the queue
+                    mSelectedPlace.setRating(rating);
+                    mHelper.savePlaceChanges(mSelectedPlace, mRatingWrittenListener);
                 }
             });
 
             mFab.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    UpdateFavStatusAsyncClass task = new UpdateFavStatusAsyncClass();
-                    task.execute();
+                    if (mSelectedPlace == null) {
+                        return;
+                    }
+                    // show the change right away; roll it back if the write fails
+                    mSelectedPlace.setFavoriteStatus(!mSelectedPlace.isFavorite()); // toggle to opposite value
+                    bindFavStatus();
+                    mHelper.savePlaceChanges(mSelectedPlace, mFavStatusWrittenListener);
                 }
             });
 
@@ -103,11 +132,36 @@ public class DetailActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Commit any queued changes now rather than after the write-behind delay, so the list screen
+     * being returned to is notified of them right away
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHelper.flushPlaceUpdates();
+    }
+
+    /**
+     * Cancel this screen's background tasks, and hand the hero image back to the bitmap pool so
+     * the next detail screen can decode into it
+     */
+    @Override
+    protected void onDestroy() {
+        mTasks.cancelAll(); // a cancelled hero image decode returns its bitmap to the pool
+        if (mHeroImage != null) {
+            mImageView.setImageDrawable(null);
+            BitmapPool.getInstance().put(mHeroImage);
+            mHeroImage = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case android.R.id.home:
-                finishWithResultCode();
+                finish();
                 return true;
 
             default:
@@ -115,23 +169,22 @@ public class DetailActivity extends AppCompatActivity {
         }
     }
 
-    @Override
-    public void onBackPressed() {
-        finishWithResultCode();
+    private void startHeroImageDecode(String imageName) {
+        // the image view fills the width of the screen; its height follows the image's aspect ratio
+        int targetWidth = getResources().getDisplayMetrics().widthPixels;
+        mDecodeHeroImageTask = new DecodeHeroImageTask(imageName, targetWidth);
+
+        // runs on the image lane, in parallel with the db lookup on the read lane
+        mTasks.execute(TaskLanes.getInstance().getImageLane(), Task.Priority.HIGH, mDecodeHeroImageTask);
     }
 
-    /**
-     * If the favorite status of the selected place was changed, return RESULT_OK so the parent
-     * activity knows it must refresh its cursor, otherwise return RESULT_CANCELED so the parent
-     * activity can save the overhead and not update its cursor.
-     */
-    private void finishWithResultCode() {
-        if (mChangeToFavStatus) {
-            setResult(RESULT_OK);
+    private void bindFavStatus() {
+        setFabFavIcon();
+        if (mSelectedPlace.isFavorite()) {
+            mFab.setContentDescription("Click to remove this place from favorites");
         } else {
-            setResult(RESULT_CANCELED);
+            mFab.setContentDescription("Click to add this place to favorites");
         }
-        finish();
     }
 
     private void setFabFavIcon() {
@@ -207,8 +260,8 @@ public class DetailActivity extends AppCompatActivity {
             public void onClick(DialogInterface dialog, int which) {
                 String note = input.getText().toString();
 
-                UpdateNoteAsyncTask task = new UpdateNoteAsyncTask();
-                task.execute(note);
+                mSelectedPlace.setNote(note);
+                mHelper.savePlaceChanges(mSelectedPlace, mNoteWrittenListener); // no-op if unchanged
 
                 dialog.dismiss();
             }
@@ -217,32 +270,27 @@ public class DetailActivity extends AppCompatActivity {
         builder.show();
     }
 
-    private class GetSelectedPlaceAndSetViewsAsyncTask extends AsyncTask<Void, Void, Boolean> {
+    private class GetSelectedPlaceAndSetViewsTask extends Task<Boolean> {
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            mHelper = PlaceDbOpenHelper.getInstance(DetailActivity.this);
+        protected Boolean doInBackground() {
             mSelectedPlace = mHelper.getPlaceById(mSelectedPlaceId);
+            if (mSelectedPlace != null) {
+                mSavedFavStatus = mSelectedPlace.isFavorite();
+            }
             return mSelectedPlace != null;
         }
 
         @Override
         protected void onPostExecute(Boolean aBoolean) {
-            super.onPostExecute(aBoolean);
             if (aBoolean) {
                 if (getSupportActionBar() != null) {
                     getSupportActionBar().setTitle(mSelectedPlace.getTitle());
                 }
                 mToolbar.setContentDescription(mSelectedPlace.getTitle());
 
-                int resId = getResources().getIdentifier(
-                        mSelectedPlace.getImageRes(),    // file name w/o extension
-                        "raw",                          // file stored in res/raw/
-                        getPackageName()
-                );
-                if (resId != 0) { // getIdentifier returns 0 if resource not found
-                    Bitmap image = BitmapFactory.decodeResource(getResources(), resId);
-                    mImageView.setImageBitmap(image);
+                if (mDecodeHeroImageTask == null) { // not started from onCreate
+                    startHeroImageDecode(mSelectedPlace.getImageRes());
                 }
 
                 String overviewText = mSelectedPlace.getCategory() + " | "
@@ -272,33 +320,71 @@ public class DetailActivity extends AppCompatActivity {
                     mRatingBar.setContentDescription("Rating bar: give this place a rating of 0 to 5 stars. No rating set.");
                 }
 
-                setFabFavIcon();
-                if (mSelectedPlace.isFavorite()) {
-                    mFab.setContentDescription("Click to remove this place from favorites");
-                } else {
-                    mFab.setContentDescription("Click to add this place to favorites");
-                }
+                bindFavStatus();
             }
         }
     }
 
-    private class UpdateRatingAsyncTask extends AsyncTask<Float, Void, Boolean> {
+    /**
+     * Decode the hero image at the size it is displayed at instead of at full resolution, and
+     * without an alpha channel for JPEGs, which halves the memory per pixel.
+     */
+    private class DecodeHeroImageTask extends Task<Bitmap> {
+        private final String mImageName;
+        private final int mTargetWidth;
+
+        DecodeHeroImageTask(String imageName, int targetWidth) {
+            mImageName = imageName;
+            mTargetWidth = targetWidth;
+        }
 
         @Override
-        protected Boolean doInBackground(Float... params) {
-            mSelectedPlace.setRating(params[0]);
-            return mHelper.setRatingById(mSelectedPlaceId, params[0]); // true if successful, else false
+        protected Bitmap doInBackground() {
+            int resId = ImageResources.getInstance().getHeroImageId(mImageName);
+            if (resId == 0) { // no such image in res/raw/
+                return null;
+            }
+
+            // get size and type of original image
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(getResources(), resId, options);
+
+            options.inSampleSize = ImageSizing.calculateInSampleSizeForWidth(options.outWidth, mTargetWidth);
+            if ("image/jpeg".equals(options.outMimeType)) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+            }
+            return BitmapPool.getInstance().decodeResource(getResources(), resId, options);
         }
 
         @Override
-        protected void onPostExecute(Boolean aBoolean) {
-            super.onPostExecute(aBoolean);
+        protected void onPostExecute(Bitmap bitmap) {
+            if (bitmap != null) {
+                mHeroImage = bitmap;
+                mImageView.setImageBitmap(bitmap);
+            }
+            supportStartPostponedEnterTransition();
+        }
 
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    /**
+     * Listeners for the write queue, called on the main thread once a change is committed; each is
+     * called once per commit however many changes were coalesced into it
+     */
+    private final PlaceWriteQueue.OnWrittenListener mRatingWrittenListener = new PlaceWriteQueue.OnWrittenListener() {
+        @Override
+        public void onWritten(int id, PlaceUpdate written) {
             String msg;
-            if (aBoolean) {
+            if (written != null) {
                 msg = "Your rating of " + mSelectedPlace.getRating() + " stars was saved for "
                         + mSelectedPlace.getTitle();
             } else {
+                mSelectedPlace.markUnsaved();
                 msg = ERR_MSG_RATING_NOT_SAVED;
             }
 
@@ -316,38 +402,24 @@ public class DetailActivity extends AppCompatActivity {
                     Snackbar.LENGTH_SHORT
             ).show();
         }
-    }
-
-    private class UpdateFavStatusAsyncClass extends AsyncTask<Void, Void, Boolean> {
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            mSelectedPlace.setFavoriteStatus(!mSelectedPlace.isFavorite()); // toggle to opposite value
-            return mHelper.setFavoriteStatusById(mSelectedPlaceId, mSelectedPlace.isFavorite());
-        }
+    };
 
+    private final PlaceWriteQueue.OnWrittenListener mFavStatusWrittenListener = new PlaceWriteQueue.OnWrittenListener() {
         @Override
-        protected void onPostExecute(Boolean aBoolean) {
-            super.onPostExecute(aBoolean);
-
+        public void onWritten(int id, PlaceUpdate written) {
             String msg;
-            if (aBoolean) {
-                setFabFavIcon();
-                if (mSelectedPlace.isFavorite()) {
+            if (written == null) {
+                mSelectedPlace.setFavoriteStatus(mSavedFavStatus); // roll back
+                mSelectedPlace.markUnsaved();
+                bindFavStatus();
+                msg = ERR_MSG_FAVORITE_STATUS_NOT_SAVED;
+            } else {
+                mSavedFavStatus = written.getFavoriteStatus(); // always set: this listener only waits on favorite changes
+                if (mSavedFavStatus) {
                     msg = mSelectedPlace.getTitle() + " favorited";
                 } else {
                     msg = mSelectedPlace.getTitle() + " unfavorited";
                 }
-                mChangeToFavStatus = !mChangeToFavStatus; // toggle to indicate change and allow change to be "undone" by next change
-            } else {
-                msg = ERR_MSG_FAVORITE_STATUS_NOT_SAVED;
-            }
-
-            // reset content descriptions on click
-            if (mSelectedPlace.isFavorite()) {
-                mFab.setContentDescription("Click to remove this place from favorites");
-            } else {
-                mFab.setContentDescription("Click to add this place to favorites");
             }
 
             Snackbar.make(
@@ -356,22 +428,13 @@ public class DetailActivity extends AppCompatActivity {
                     Snackbar.LENGTH_SHORT
             ).show();
         }
-    }
-
-    private class UpdateNoteAsyncTask extends AsyncTask<String, Void, Boolean> {
-
-        @Override
-        protected Boolean doInBackground(String... params) {
-            mSelectedPlace.setNote(params[0]);
-            return mHelper.setNoteById(mSelectedPlaceId, mSelectedPlace.getNote());
-        }
+    };
 
+    private final PlaceWriteQueue.OnWrittenListener mNoteWrittenListener = new PlaceWriteQueue.OnWrittenListener() {
         @Override
-        protected void onPostExecute(Boolean aBoolean) {
-            super.onPostExecute(aBoolean);
-
+        public void onWritten(int id, PlaceUpdate written) {
             String msg;
-            if (aBoolean) {
+            if (written != null) {
                 String note = mSelectedPlace.getNote();
                 if (note.isEmpty()) {
                     mNoteView.setText(getString(R.string.detail_msg_click_to_add_note));
@@ -382,6 +445,7 @@ public class DetailActivity extends AppCompatActivity {
                 }
                 msg = "Your note was saved to " + mSelectedPlace.getTitle();
             } else {
+                mSelectedPlace.markUnsaved();
                 msg = ERR_MSG_NOTE_NOT_SAVED;
             }
 
@@ -391,5 +455,5 @@ public class DetailActivity extends AppCompatActivity {
                     Snackbar.LENGTH_SHORT
             ).show();
         }
-    }
+    };
 }
@@ -4,11 +4,10 @@ import android.app.SearchManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.support.design.widget.Snackbar;
+import android.os.Handler;
+import android.os.Parcelable;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.view.MenuItemCompat;
@@ -18,6 +17,7 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -27,10 +27,17 @@ import android.widget.ArrayAdapter;
 import android.widget.RelativeLayout;
 import android.widget.Spinner;
 
-import com.charlesdrews.neighborhoodguide.places.PlaceDbAssetHelper;
 import com.charlesdrews.neighborhoodguide.places.PlaceDbOpenHelper;
+import com.charlesdrews.neighborhoodguide.places.PlaceFacetCounts;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlacePagedList;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskGroup;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Parent class for MainActivity and FavoritesActivity - implements the functionality that is
@@ -39,9 +46,15 @@ import java.util.ArrayList;
  */
 public abstract class ListBaseActivity extends AppCompatActivity {
     public static final String SELECTED_PLACE_KEY = "selected_place_key";
+    public static final String SELECTED_PLACE_IMAGE_KEY = "selected_place_image_key";
     public static final String CATEGORY_FILTER_VALUE_KEY = "category_filter_value_key";
     public static final String SEARCH_QUERY_KEY = "search_query_key";
 
+    private static final String TAG = "ListBaseActivity";
+
+    // wait this long after the last keypress before querying, so typing a word runs one query
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+
     protected Menu mMenu;
     protected PlaceDbOpenHelper mHelper;
     protected RecyclerCursorAdapter mAdapter;
@@ -49,11 +62,37 @@ public abstract class ListBaseActivity extends AppCompatActivity {
     protected String mUserQuery;
 
     private SearchView mSearchView;
-    private Cursor mCursor;
+    private ListResultsHolder mResults; // kept across configuration changes
     private RecyclerView mRecyclerView;
     private boolean mMenuLoading = true;
-    private ArrayList<String> mCategories;
+    private List<PlaceFacetCounts.Count> mCategories; // choices of the filter dialog's spinner
     private Spinner mSpinner;
+    private Handler mSearchHandler = new Handler();
+    private final TaskGroup mTasks = new TaskGroup(); // cancelled in onDestroy
+
+    private final Runnable mDebouncedChangeAdapterCursor = new Runnable() {
+        @Override
+        public void run() {
+            changeAdapterCursorIfQueryChanged();
+        }
+    };
+
+    private final ListResultsHolder.Listener mResultsListener = new ListResultsHolder.Listener() {
+        @Override
+        public PlacePagedList arrangePlaces(PlacePagedList queriedPlaces) {
+            return ListBaseActivity.this.arrangePlaces(queriedPlaces);
+        }
+
+        @Override
+        public void showPlaces(PlacePagedList places, PlaceListDiff diff) {
+            ListBaseActivity.this.showPlaces(places, diff);
+        }
+
+        @Override
+        public boolean showCommittedFavoriteStatus(int id, boolean isFav) {
+            return mAdapter.showCommittedFavoriteStatus(id, isFav);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -82,9 +121,24 @@ public abstract class ListBaseActivity extends AppCompatActivity {
         LinearLayoutManager linearLayoutManager = new LinearLayoutManager(ListBaseActivity.this);
         mRecyclerView.setLayoutManager(linearLayoutManager);
 
-        // update mCursor and set adapter on worker thread
-        GetCursorAndSetAdapterAsyncTask task = new GetCursorAndSetAdapterAsyncTask();
-        task.execute(isFavoritesActivity);
+        // the database is opened once per process, normally already by the application's warm-up;
+        // if that is still running the first query waits for it
+        mHelper = PlaceDbOpenHelper.getInstance(ListBaseActivity.this);
+
+        // after a rotation, show the previous instance's list and scroll position right away;
+        // otherwise start loading the list on the read lane
+        mResults = (ListResultsHolder) getLastCustomNonConfigurationInstance();
+        if (mResults == null) {
+            mResults = new ListResultsHolder(mHelper, getBaseQuery());
+        }
+        mResults.attach(mResultsListener);
+        if (mResults.getShownPlaces() != null) {
+            showPlaces(mResults.getShownPlaces(), null);
+            Parcelable scrollState = mResults.takeScrollState();
+            if (scrollState != null) {
+                linearLayoutManager.onRestoreInstanceState(scrollState);
+            }
+        }
 
         // set up toolbar
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
@@ -133,14 +187,14 @@ public abstract class ListBaseActivity extends AppCompatActivity {
 
             @Override
             public boolean onQueryTextChange(String newText) {
-                if (!mMenuLoading) {
+                if (!mMenuLoading) { // not the restored query being set in onPrepareOptionsMenu
                     if (newText.isEmpty()) {
                         mUserQuery = null;
                     } else {
                         mUserQuery = newText;
                     }
+                    scheduleChangeAdapterCursor();
                 }
-                changeAdapterCursor();
                 return true;
             }
         });
@@ -159,19 +213,20 @@ public abstract class ListBaseActivity extends AppCompatActivity {
 
     /**
      * On device rotation, need to update the SearchView to contain the same user input it had
-     * prior to rotation. Menu must be inflated before this can be done, so do this here.
+     * prior to rotation. Menu must be inflated before this can be done, so do this here. The list
+     * for that search and filter is normally retained along with it, so is only queried again if
+     * it was not (e.g. the process was killed while in the background).
      */
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         // once menu is set up, incorporate pre-existing filter & query values if present
-        if (mUserQuery != null) {
+        if (mMenuLoading && mUserQuery != null) {
             MenuItemCompat.expandActionView(mMenu.findItem(R.id.action_search));
             mSearchView.setQuery(mUserQuery, false);
             mSearchView.clearFocus(); // close the soft keyboard
-            changeAdapterCursor();
-        } else if (mCategoryFilterValue != null) {
-            changeAdapterCursor();
         }
+        changeAdapterCursorIfQueryChanged();
+        showFilterIcon();
 
         mMenuLoading = false;
         return super.onPrepareOptionsMenu(menu);
@@ -189,15 +244,6 @@ public abstract class ListBaseActivity extends AppCompatActivity {
                 startActivity(intent);
                 return true;
 
-            case R.id.action_refresh:
-                changeAdapterCursor();
-                Snackbar.make(
-                        findViewById(R.id.coordinator_layout),
-                        "Favorites refreshed",
-                        Snackbar.LENGTH_SHORT
-                ).show();
-                return true;
-
             case android.R.id.home:
                 NavUtils.navigateUpFromSameTask(ListBaseActivity.this);
                 return true;
@@ -222,23 +268,41 @@ public abstract class ListBaseActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Commit favorite changes made from the list before the detail screen reads the place
+     */
     @Override
-    protected void onDestroy() {
-        Cursor cursor = mAdapter.getCursor();
-        cursor.close();
-        super.onDestroy();
+    protected void onPause() {
+        super.onPause();
+        PlaceDbOpenHelper.getInstance(ListBaseActivity.this).flushPlaceUpdates();
+        TaskLanes.getInstance().logMetrics();
+        Log.d(TAG, "List queries: " + mHelper.getStatementCache());
+        Log.d(TAG, "List results: " + mHelper.getResultCache());
     }
 
     /**
-     * When returning from the detail activity, refresh the cursor if a change was made to a
-     * place's favorite status, otherwise no need to update the cursor
+     * Hand the list, and the tasks loading it, to the instance created for the new configuration
      */
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
-        if (resultCode == RESULT_OK) { // indicates user changed place's fav status on detail screen
-            changeAdapterCursor();
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mResults;
+    }
+
+    /**
+     * Cancel this screen's background tasks so none of them touch the views of a destroyed
+     * activity. The list's own tasks carry on across a configuration change, and deliver to the
+     * next instance; otherwise they are cancelled too - a query in flight is aborted inside SQLite.
+     */
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mDebouncedChangeAdapterCursor);
+        mTasks.cancelAll();
+        if (isChangingConfigurations()) {
+            mResults.detach(mRecyclerView.getLayoutManager().onSaveInstanceState());
+        } else {
+            mResults.release();
         }
+        super.onDestroy();
     }
 
     private void setStatusBarColor(int colorResource) {
@@ -252,7 +316,8 @@ public abstract class ListBaseActivity extends AppCompatActivity {
 
     /**
      * Use an alert dialog to gather user input on which place category filter to apply, or whether
-     * to clear the filter.
+     * to clear the filter. Each category is shown with its number of places (of favorites, on the
+     * favorites screen).
      */
     private void launchFilterDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(ListBaseActivity.this);
@@ -260,9 +325,14 @@ public abstract class ListBaseActivity extends AppCompatActivity {
 
         mSpinner = new Spinner(ListBaseActivity.this);
 
-        // get list of categories & set up spinner & adapter on worker thread
-        GetCategoriesAsyncTask task = new GetCategoriesAsyncTask();
-        task.execute();
+        // the counts are normally in memory; if a write has changed them, read them on the read lane
+        PlaceFacetCounts facetCounts = mHelper.peekFacetCounts();
+        if (facetCounts != null) {
+            showCategoryChoices(facetCounts);
+        } else {
+            mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.HIGH,
+                    new GetCategoriesTask());
+        }
 
         RelativeLayout relativeLayout = new RelativeLayout(ListBaseActivity.this);
         relativeLayout.setPadding(0, 40, 0, 0); // left, top, right, bottom
@@ -273,8 +343,12 @@ public abstract class ListBaseActivity extends AppCompatActivity {
         builder.setPositiveButton("Set Filter", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                mCategoryFilterValue = mSpinner.getSelectedItem().toString();
-                if (mCategoryFilterValue.equals("All")) {
+                int position = mSpinner.getSelectedItemPosition();
+                if (mCategories == null || position < 0) {
+                    return; // the categories haven't loaded
+                }
+                mCategoryFilterValue = mCategories.get(position).getValue();
+                if (mCategoryFilterValue.equals(PlaceListSql.ALL_CATEGORIES)) {
                     mCategoryFilterValue = null;
                 }
                 changeAdapterCursor();
@@ -293,63 +367,126 @@ public abstract class ListBaseActivity extends AppCompatActivity {
     }
 
     /**
-     * Require each child class to implement this method - main activity should update the cursor
-     * to include all places, not just favorites while favorites activity should limit cursor to
-     * include only favorites
+     * Require each child class to implement this method - main activity should query all places,
+     * not just favorites while favorites activity should limit the query to only favorites. The
+     * search and category filter are added to it.
+     * @return - the query for the list with no search or filter
      */
-    protected abstract void changeAdapterCursor();
+    protected abstract PlaceQuery getBaseQuery();
 
+    /**
+     * @return - the query for the current search and category filter
+     */
+    private PlaceQuery getListQuery() {
+        return getBaseQuery().withCategory(mCategoryFilterValue).withSearch(mUserQuery);
+    }
 
-    private class GetCursorAndSetAdapterAsyncTask extends AsyncTask<Boolean, Void, Void> {
+    /**
+     * Override to show query results in a different order than the query's, without querying
+     * again (e.g. by distance from the user). Called on a read lane thread, for every new set of
+     * query results and again on each call to rearrangePlaces; never called concurrently.
+     * @param queriedPlaces - the current query results, in query order
+     * @return - the list to show, or null to leave the list currently shown as it is
+     */
+    protected PlacePagedList arrangePlaces(PlacePagedList queriedPlaces) {
+        return queriedPlaces;
+    }
 
-        @Override
-        protected Void doInBackground(Boolean... params) {
-            // set up DB Asset Helper & Open Helper
-            PlaceDbAssetHelper dbAssetHelper = new PlaceDbAssetHelper(ListBaseActivity.this);
-            dbAssetHelper.getReadableDatabase();
-            mHelper = PlaceDbOpenHelper.getInstance(ListBaseActivity.this);
-
-            // params[0] = true if this is instance of FavoritesActivity, else false
-            if (params[0]) {
-                mCursor = mHelper.getFavoritePlaces();
-            } else {
-                mCursor = mHelper.getAllPlaces();
-            }
-            return null;
+    /**
+     * Run arrangePlaces again on the current query results and show the new order
+     */
+    protected void rearrangePlaces() {
+        mResults.rearrangePlaces();
+    }
+
+    /**
+     * Re-run the query with the current search and filter values and swap the results into the
+     * adapter. Any query still in flight is cancelled, since its results are already stale.
+     */
+    protected void changeAdapterCursor() {
+        mSearchHandler.removeCallbacks(mDebouncedChangeAdapterCursor);
+        mResults.changeQuery(getListQuery());
+        showFilterIcon();
+    }
+
+    /**
+     * Re-run the query only if the search or filter differs from that of the list shown, e.g. not
+     * when they are restored after a rotation along with the list itself
+     */
+    private void changeAdapterCursorIfQueryChanged() {
+        if (getListQuery().equals(mResults.getQuery())) {
+            mSearchHandler.removeCallbacks(mDebouncedChangeAdapterCursor);
+        } else {
+            changeAdapterCursor();
+        }
+    }
+
+    private void showFilterIcon() {
+        if (mCategoryFilterValue != null && !mCategoryFilterValue.equals("All")) {
+            mMenu.findItem(R.id.action_filter).setIcon(R.drawable.filter);
+        } else {
+            mMenu.findItem(R.id.action_filter).setIcon(R.drawable.filter_outline);
         }
+    }
 
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
-            mAdapter = new RecyclerCursorAdapter(ListBaseActivity.this, mCursor);
+    /**
+     * Call changeAdapterCursor once the user stops typing for SEARCH_DEBOUNCE_MS
+     */
+    private void scheduleChangeAdapterCursor() {
+        mSearchHandler.removeCallbacks(mDebouncedChangeAdapterCursor);
+        mSearchHandler.postDelayed(mDebouncedChangeAdapterCursor, SEARCH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Show the first results: create the adapter, or update it if it has already been created
+     */
+    private void showPlaces(PlacePagedList places, PlaceListDiff diff) {
+        if (mAdapter == null) {
+            mAdapter = new RecyclerCursorAdapter(ListBaseActivity.this, places);
             mRecyclerView.setAdapter(mAdapter);
+            NeighborhoodGuideApplication.logStartupPhase("First list shown");
+        } else {
+            mAdapter.changePlaces(places, diff);
+        }
+    }
+
+    /**
+     * Fill the filter dialog's spinner with the categories and their counts, and select the
+     * current filter
+     */
+    private void showCategoryChoices(PlaceFacetCounts facetCounts) {
+        boolean favoritesOnly = getBaseQuery().isFavoritesOnly();
+        mCategories = facetCounts.getCategoryChoices(favoritesOnly);
+        ArrayList<String> labels = new ArrayList<>();
+        int selection = 0;
+        for (int i = 0; i < mCategories.size(); i++) {
+            PlaceFacetCounts.Count category = mCategories.get(i);
+            labels.add(category.getValue() + " (" + category.getCount(favoritesOnly) + ")");
+            if (category.getValue().equals(mCategoryFilterValue)) {
+                selection = i;
+            }
         }
+
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                ListBaseActivity.this,
+                android.R.layout.simple_spinner_item,
+                labels
+        );
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mSpinner.setAdapter(adapter);
+        mSpinner.setSelection(selection);
     }
 
-    private class GetCategoriesAsyncTask extends AsyncTask<Void, Void, Void> {
+    private class GetCategoriesTask extends Task<PlaceFacetCounts> {
 
         @Override
-        protected Void doInBackground(Void... params) {
-            mCategories = mHelper.getCategories();
-            return null;
+        protected PlaceFacetCounts doInBackground() {
+            return mHelper.getFacetCounts();
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            super.onPostExecute(aVoid);
-
-            ArrayAdapter<String> adapter = new ArrayAdapter<>(
-                    ListBaseActivity.this,
-                    android.R.layout.simple_spinner_item,
-                    mCategories
-            );
-            adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-            mSpinner.setAdapter(adapter);
-
-            if (mCategoryFilterValue != null) {
-                mSpinner.setSelection(mCategories.indexOf(mCategoryFilterValue));
-            }
-
+        protected void onPostExecute(PlaceFacetCounts facetCounts) {
+            showCategoryChoices(facetCounts);
         }
     }
 }
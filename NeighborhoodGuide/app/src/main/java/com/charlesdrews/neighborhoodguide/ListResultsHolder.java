@@ -0,0 +1,537 @@
+package com.charlesdrews.neighborhoodguide;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.charlesdrews.neighborhoodguide.images.ImageResources;
+import com.charlesdrews.neighborhoodguide.places.PlaceChange;
+import com.charlesdrews.neighborhoodguide.places.PlaceChangeTracker;
+import com.charlesdrews.neighborhoodguide.places.PlaceDbOpenHelper;
+import com.charlesdrews.neighborhoodguide.places.PlacePagedList;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskGroup;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
+
+/**
+ * The list of a ListBaseActivity: the current query results, the list shown and its scroll
+ * position, and the tasks that load, refresh and re-arrange them. It outlives the activity across
+ * a configuration change - the activity hands it to its next instance through
+ * onRetainCustomNonConfigurationInstance - so a rotated screen shows its list right away with no
+ * query, and tasks still in flight deliver their results to the new instance.
+ *
+ * Tasks reach an activity only through the attached Listener, which is dropped when the activity
+ * is destroyed, so none of them holds on to an old instance. Results that arrive while no activity
+ * is attached are kept, and shown by the next one.
+ *
+ * Called on the main thread.
+ */
+class ListResultsHolder {
+    private static final String TAG = "ListResultsHolder";
+
+    /**
+     * The attached activity's side of the list
+     */
+    interface Listener {
+        /**
+         * See ListBaseActivity.arrangePlaces. Called on a read lane thread; never concurrently.
+         */
+        PlacePagedList arrangePlaces(PlacePagedList queriedPlaces);
+
+        /**
+         * Show a new list
+         * @param places - the list to show
+         * @param diff - changes from the list currently shown, or null to refresh everything
+         */
+        void showPlaces(PlacePagedList places, PlaceListDiff diff);
+
+        /**
+         * See RecyclerCursorAdapter.showCommittedFavoriteStatus
+         */
+        boolean showCommittedFavoriteStatus(int id, boolean isFav);
+    }
+
+    private final PlaceDbOpenHelper mHelper;
+    private final PlaceQuery mBaseQuery;
+    private volatile Listener mListener; // read by arrangePlaces on the read lane
+    private PlaceQuery mQuery; // query of the list shown, or of the query in flight to replace it
+    private PlacePagedList mQueriedPlaces; // results of the current query, before arrangePlaces
+    private PlacePagedList mShownPlaces;
+    private Parcelable mScrollState;
+    private ChangeQueryTask mChangeQueryTask;
+    private RearrangePlacesTask mRearrangeTask;
+    private RefreshPlacesTask mRefreshTask;
+    private boolean mRefreshPending = false; // a write committed while a query was in flight
+    private int mQueryGeneration = 0;
+    private final TaskGroup mTasks = new TaskGroup(); // cancelled in release
+    private final Object mArrangeLock = new Object(); // arrangePlaces never runs concurrently
+
+    private final PlaceChangeTracker.Observer mPlacesObserver = new PlaceChangeTracker.Observer() {
+        @Override
+        public void onPlacesChanged(PlaceChange change) {
+            applyPlaceChange(change);
+        }
+    };
+
+    /**
+     * Start loading the list with no search or filter
+     * @param helper - the database
+     * @param baseQuery - query for the list with no search or filter
+     */
+    ListResultsHolder(PlaceDbOpenHelper helper, PlaceQuery baseQuery) {
+        mHelper = helper;
+        mBaseQuery = baseQuery;
+        mQuery = baseQuery;
+
+        // keep the list up to date with writes from this and other screens; notes aren't shown
+        // in the list, and ratings only matter to a list filtered by a minimum rating
+        mHelper.getChangeTracker().addObserver(mPlacesObserver, PlaceChange.FAVORITE
+                | PlaceChange.RATING | PlaceChange.CATALOG | PlaceChange.ROWS);
+
+        mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.HIGH,
+                new LoadFirstPlacesTask());
+    }
+
+    /**
+     * Deliver results to an activity from now on
+     */
+    void attach(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Stop delivering results to the activity, e.g. when it is destroyed by a rotation; results
+     * are kept until the next one attaches
+     * @param scrollState - the list's scroll position, to restore in the next activity (can be null)
+     */
+    void detach(Parcelable scrollState) {
+        mListener = null;
+        mScrollState = scrollState;
+        if (mShownPlaces != null) {
+            mShownPlaces.setOnPageLoadedListener(null); // the adapter belongs to the old activity
+        }
+    }
+
+    /**
+     * Cancel every task and close the list, once the activity is finished for good
+     */
+    void release() {
+        mListener = null;
+        mHelper.getChangeTracker().removeObserver(mPlacesObserver);
+        mTasks.cancelAll();
+        if (mShownPlaces != null) {
+            mShownPlaces.close();
+            mShownPlaces = null;
+        }
+    }
+
+    /**
+     * @return - the list to show, or null if the first query hasn't finished
+     */
+    PlacePagedList getShownPlaces() {
+        return mShownPlaces;
+    }
+
+    /**
+     * @return - the scroll position saved by detach, once; null after that
+     */
+    Parcelable takeScrollState() {
+        Parcelable scrollState = mScrollState;
+        mScrollState = null;
+        return scrollState;
+    }
+
+    /**
+     * @return - query of the list shown, or of the query in flight that will replace it
+     */
+    PlaceQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Run a new query and show its results. Any query still in flight is cancelled, since its
+     * results are already stale.
+     */
+    void changeQuery(PlaceQuery query) {
+        if (mChangeQueryTask != null) {
+            mChangeQueryTask.cancel();
+        }
+        if (mRefreshTask != null) {
+            mRefreshTask.cancel(); // the new query reads everything it shows afresh
+            mRefreshTask = null;
+        }
+
+        mQueryGeneration++;
+        mQuery = query;
+        mChangeQueryTask = new ChangeQueryTask(mQueryGeneration, query, mShownPlaces);
+        mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.HIGH, mChangeQueryTask);
+    }
+
+    /**
+     * Run arrangePlaces again on the current query results and show the new order
+     */
+    void rearrangePlaces() {
+        if (mQueriedPlaces == null || mShownPlaces == null) {
+            return; // the first query hasn't finished; it will be arranged when it does
+        }
+        if (mRearrangeTask != null) {
+            mRearrangeTask.cancel(); // superseded before it ran
+        }
+        mRearrangeTask = new RearrangePlacesTask(mQueryGeneration, mQueriedPlaces, mShownPlaces);
+        mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.NORMAL, mRearrangeTask);
+    }
+
+    /**
+     * Bring the list up to date with a committed write, from this screen or another one. A new
+     * favorite status of a place already in the list is shown in place, with no query. Changes
+     * that can add places to the list or remove them from it re-run the current query, re-reading
+     * only the ids and the rows that changed. In the favorites list, an un-faved place stays
+     * (struck through, so it can be re-faved) until the next search or filter.
+     */
+    private void applyPlaceChange(PlaceChange change) {
+        if (!change.affects(PlaceChange.FAVORITE | PlaceChange.CATALOG | PlaceChange.ROWS)
+                && mQuery.getMinRating() == 0) {
+            return; // only ratings changed, and they don't filter this list
+        }
+        if (mShownPlaces == null || mChangeQueryTask != null) {
+            // the query in flight may have read the database before this write committed
+            mRefreshPending = true;
+            return;
+        }
+
+        boolean needsRefresh = change.isAllRows()
+                || change.affects(PlaceChange.CATALOG | PlaceChange.ROWS)
+                || (change.affects(PlaceChange.RATING) && mQuery.getMinRating() > 0);
+        for (int i = 0; i < change.getRowCount() && !needsRefresh; i++) {
+            Boolean isFavorite = change.getFavoriteStatus(i);
+            if (isFavorite == null) {
+                continue; // e.g. only its rating changed, in the same transaction
+            }
+            boolean inList = showCommittedFavoriteStatus(change.getId(i), isFavorite);
+            if (!inList && isFavorite && mBaseQuery.isFavoritesOnly()) {
+                needsRefresh = true; // a new favorite to add to the list
+            }
+        }
+
+        if (needsRefresh || mRefreshTask != null) { // a refresh in flight may have missed this write
+            refreshPlaces(change.isAllRows() ? null : change.getIds());
+        }
+    }
+
+    /**
+     * @return - false if the place is not in the list
+     */
+    private boolean showCommittedFavoriteStatus(int id, boolean isFav) {
+        Listener listener = mListener;
+        if (listener != null) {
+            return listener.showCommittedFavoriteStatus(id, isFav);
+        }
+        int position = mShownPlaces.getPosition(id);
+        if (position >= 0) {
+            mShownPlaces.setFavorite(position, isFav); // bound by the next activity's adapter
+        }
+        return position >= 0;
+    }
+
+    /**
+     * Re-run the current query in the background and show the new results as a diff against the
+     * list on screen, reusing its loaded rows other than the stale ones. A refresh still in flight
+     * is superseded, and its stale rows are carried over.
+     * @param staleIds - _ids of rows written since they were loaded, or null if any row may have
+     *                 changed, so no rows are reused
+     */
+    private void refreshPlaces(int[] staleIds) {
+        if (mRefreshTask != null) {
+            mRefreshTask.cancel();
+            staleIds = unionOfStaleIds(mRefreshTask.mStaleIds, staleIds);
+        }
+        mRefreshTask = new RefreshPlacesTask(mQueryGeneration, mQueriedPlaces, mShownPlaces,
+                staleIds);
+        mTasks.execute(TaskLanes.getInstance().getReadLane(), Task.Priority.NORMAL, mRefreshTask);
+    }
+
+    /**
+     * @return - the ids in either array, or null if either is null (any row may be stale)
+     */
+    private static int[] unionOfStaleIds(int[] ids, int[] moreIds) {
+        if (ids == null || moreIds == null) {
+            return null;
+        }
+        int[] union = new int[ids.length + moreIds.length];
+        System.arraycopy(ids, 0, union, 0, ids.length);
+        System.arraycopy(moreIds, 0, union, ids.length, moreIds.length);
+        return union;
+    }
+
+    /**
+     * Called once the results of a new query are shown; refresh them if a write committed while
+     * the query was running
+     */
+    private void onQueryResultsShown() {
+        if (mRefreshPending) {
+            mRefreshPending = false;
+            refreshPlaces(null);
+        }
+    }
+
+    /**
+     * Run the attached activity's arrangePlaces, one call at a time - the read lane has more than
+     * one thread. With no activity attached the query order is kept; the next activity can
+     * re-arrange it.
+     */
+    private PlacePagedList arrangeQueriedPlaces(PlacePagedList queriedPlaces) {
+        synchronized (mArrangeLock) {
+            Listener listener = mListener;
+            return (listener != null) ? listener.arrangePlaces(queriedPlaces) : queriedPlaces;
+        }
+    }
+
+    /**
+     * Make a new list the one shown, and show it in the attached activity if there is one
+     */
+    private void showPlaces(PlacePagedList places, PlaceListDiff diff) {
+        PlacePagedList oldPlaces = mShownPlaces;
+        mShownPlaces = places;
+        if (mListener != null) {
+            mListener.showPlaces(places, diff); // the adapter closes the old list
+        } else if (oldPlaces != null) {
+            oldPlaces.close();
+        }
+    }
+
+    /**
+     * Loads the unfiltered list. A search or filter restored after the process was killed can
+     * start its own query while this one is running, on the other read lane thread; these results
+     * are dropped if the search's are already shown.
+     */
+    private class LoadFirstPlacesTask extends Task<PlacePagedList> {
+        private final int mGeneration = mQueryGeneration;
+        private PlacePagedList mQueriedResults;
+
+        @Override
+        protected PlacePagedList doInBackground() {
+            // build the image name -> resource id map here rather than on the first bind
+            ImageResources.getInstance();
+
+            mQueriedResults = PlacePagedList.load(mHelper, mBaseQuery, null);
+            PlacePagedList places = arrangeQueriedPlaces(mQueriedResults);
+            return (places != null) ? places : mQueriedResults;
+        }
+
+        @Override
+        protected void onCancelled(PlacePagedList places) {
+            if (places != null) {
+                places.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PlacePagedList places) {
+            if (mShownPlaces != null) { // a newer query's results are already shown
+                places.close();
+                return;
+            }
+            if (mGeneration == mQueryGeneration) {
+                mQueriedPlaces = mQueriedResults;
+            }
+            showPlaces(places, null);
+            if (mChangeQueryTask == null) {
+                onQueryResultsShown();
+            }
+        }
+    }
+
+    /**
+     * Runs one list query. Each task is tagged with the generation it was started for, and its
+     * results are dropped if a newer query has been started since - so results can never arrive
+     * out of order and overwrite a newer search. The diff against the list currently shown is
+     * also worked out here, off the main thread. Cancelling the task aborts the query inside SQLite.
+     */
+    private class ChangeQueryTask extends Task<PlacePagedList> {
+        private final int mGeneration;
+        private final PlaceQuery mQuery;
+        private final PlacePagedList mOldPlaces;
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+        private final long mStartTime = SystemClock.elapsedRealtime();
+        private PlaceListDiff mDiff;
+        private PlacePagedList mQueriedResults;
+
+        public ChangeQueryTask(int generation, PlaceQuery query, PlacePagedList oldPlaces) {
+            mGeneration = generation;
+            mQuery = query;
+            mOldPlaces = oldPlaces;
+        }
+
+        @Override
+        protected void onCancel() {
+            mCancellationSignal.cancel();
+        }
+
+        @Override
+        protected PlacePagedList doInBackground() {
+            try {
+                mQueriedResults = PlacePagedList.load(mHelper, mQuery, mCancellationSignal);
+                PlacePagedList places = arrangeQueriedPlaces(mQueriedResults);
+                if (places == null) {
+                    places = mQueriedResults;
+                }
+                if (mOldPlaces != null && !isCancelled()) {
+                    mDiff = PlaceListDiff.calculate(mOldPlaces, places);
+                }
+                return places;
+            } catch (OperationCanceledException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onCancelled(PlacePagedList places) {
+            if (places != null) {
+                places.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PlacePagedList places) {
+            if (places == null) {
+                return;
+            }
+
+            long latency = SystemClock.elapsedRealtime() - mStartTime;
+            if (mGeneration != mQueryGeneration) { // a newer query has been started; drop these results
+                Log.d(TAG, "Dropped stale query #" + mGeneration + " after " + latency + " ms");
+                places.close();
+                return;
+            }
+            Log.d(TAG, "Query #" + mGeneration + " (" + mQuery + ") matched "
+                    + places.getCount() + " rows in " + latency + " ms");
+
+            mChangeQueryTask = null;
+            mQueriedPlaces = mQueriedResults;
+            if (mShownPlaces != mOldPlaces) {
+                mDiff = null; // worked out against another list, or nothing is shown yet
+            }
+            showPlaces(places, mDiff);
+            onQueryResultsShown();
+        }
+    }
+
+    /**
+     * Re-runs the current query after a write changed which places match it, e.g. a new place was
+     * faved from the detail screen while the favorites list is open. Only the ids and the first
+     * page are queried; the other rows already loaded are copied over unless they are stale.
+     * Dropped if a new query has started since.
+     */
+    private class RefreshPlacesTask extends Task<PlacePagedList> {
+        private final int mGeneration;
+        private final PlacePagedList mOldQueriedResults;
+        private final PlacePagedList mOldPlaces;
+        private final int[] mStaleIds;
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+        private PlaceListDiff mDiff;
+        private PlacePagedList mQueriedResults;
+
+        public RefreshPlacesTask(int generation, PlacePagedList oldQueriedResults,
+                                 PlacePagedList oldPlaces, int[] staleIds) {
+            mGeneration = generation;
+            mOldQueriedResults = oldQueriedResults;
+            mOldPlaces = oldPlaces;
+            mStaleIds = staleIds;
+        }
+
+        @Override
+        protected void onCancel() {
+            mCancellationSignal.cancel();
+        }
+
+        @Override
+        protected PlacePagedList doInBackground() {
+            try {
+                mQueriedResults = mOldQueriedResults.reload(mCancellationSignal);
+                PlacePagedList places = arrangeQueriedPlaces(mQueriedResults);
+                if (places == null) {
+                    places = mQueriedResults;
+                }
+                if (!isCancelled()) {
+                    mDiff = PlaceListDiff.calculate(mOldPlaces, places, mStaleIds);
+                }
+                return places;
+            } catch (OperationCanceledException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onCancelled(PlacePagedList places) {
+            if (places != null) {
+                places.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PlacePagedList places) {
+            if (mRefreshTask == this) {
+                mRefreshTask = null;
+            }
+            if (places == null) {
+                return;
+            }
+            if (mGeneration != mQueryGeneration) { // a new query has been started; it shows these changes
+                places.close();
+                return;
+            }
+
+            Log.d(TAG, "Refreshed query #" + mGeneration + ": " + places.getCount() + " rows");
+            PlacePagedList shownPlaces = mShownPlaces;
+            if (mStaleIds != null) {
+                places.copyLoadedRows(shownPlaces, mStaleIds);
+            }
+            mQueriedPlaces = mQueriedResults;
+            showPlaces(places, (shownPlaces == mOldPlaces) ? mDiff : null);
+        }
+    }
+
+    /**
+     * Re-orders the current query results with arrangePlaces, with no database query. Rows the
+     * list shown has already loaded are carried over, so the new order shows without waiting on
+     * any page loads. Dropped if a new query has started since.
+     */
+    private class RearrangePlacesTask extends Task<PlacePagedList> {
+        private final int mGeneration;
+        private final PlacePagedList mQueriedResults;
+        private final PlacePagedList mOldPlaces;
+        private PlaceListDiff mDiff;
+
+        public RearrangePlacesTask(int generation, PlacePagedList queriedResults,
+                                   PlacePagedList oldPlaces) {
+            mGeneration = generation;
+            mQueriedResults = queriedResults;
+            mOldPlaces = oldPlaces;
+        }
+
+        @Override
+        protected PlacePagedList doInBackground() {
+            PlacePagedList places = arrangeQueriedPlaces(mQueriedResults);
+            if (places != null && places != mOldPlaces) {
+                mDiff = PlaceListDiff.calculate(mOldPlaces, places);
+            }
+            return places;
+        }
+
+        @Override
+        protected void onPostExecute(PlacePagedList places) {
+            if (mRearrangeTask == this) {
+                mRearrangeTask = null;
+            }
+            if (places == null || places == mOldPlaces || mGeneration != mQueryGeneration
+                    || mShownPlaces != mOldPlaces) {
+                return; // nothing changed, or the list has been replaced since
+            }
+            places.copyLoadedRows(mOldPlaces);
+            showPlaces(places, mDiff);
+        }
+    }
+}
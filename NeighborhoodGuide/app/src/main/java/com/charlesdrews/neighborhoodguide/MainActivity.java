@@ -1,56 +1,167 @@
 package com.charlesdrews.neighborhoodguide;
 
-import android.database.Cursor;
-import android.os.AsyncTask;
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.design.widget.Snackbar;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
+import android.view.Menu;
+import android.view.MenuItem;
+
+import com.charlesdrews.neighborhoodguide.location.FusedPlaceLocationSource;
+import com.charlesdrews.neighborhoodguide.location.PlaceLocationSource;
+import com.charlesdrews.neighborhoodguide.places.PlaceDistanceRanking;
+import com.charlesdrews.neighborhoodguide.places.PlacePagedList;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
 
 /**
- * Extend ListBaseActivity & override changeAdapterCursor to use PlaceDbOpenHelper methods that
- * include all places, rather than restrict to only favorite places
+ * Extend ListBaseActivity & override getBaseQuery to load lists that include all places, rather
+ * than restrict to only favorite places. Can also sort the list by distance from the user, which
+ * is re-ranked in memory as the user moves (see PlaceDistanceRanking).
  */
-public class MainActivity extends ListBaseActivity {
+public class MainActivity extends ListBaseActivity implements PlaceLocationSource.Listener {
+    public static final String SORT_BY_DISTANCE_KEY = "sort_by_distance_key";
+    private static final int REQUEST_LOCATION_PERMISSION = 1;
+
+    private PlaceLocationSource mLocationSource;
+    private volatile boolean mSortByDistance = false;
+    private volatile Location mLocation;
+
+    // only touched in arrangePlaces, which never runs concurrently
+    private PlacePagedList mRankedPlaces;
+    private PlaceDistanceRanking mRanking;
 
-    /**
-     * Use the database open helper methods with "AllPlaces" in the name in order to NOT restrict
-     * query results to favorites only
-     */
     @Override
-    protected void changeAdapterCursor() {
-        ChangeCursorAsyncTask task = new ChangeCursorAsyncTask();
-        task.execute();
+    protected void onCreate(Bundle savedInstanceState) {
+        if (savedInstanceState != null) {
+            mSortByDistance = savedInstanceState.getBoolean(SORT_BY_DISTANCE_KEY);
+        }
+        super.onCreate(savedInstanceState);
+        mLocationSource = new FusedPlaceLocationSource(MainActivity.this);
+    }
 
-        if (mCategoryFilterValue != null && !mCategoryFilterValue.equals("All")) {
-            mMenu.findItem(R.id.action_filter).setIcon(R.drawable.filter);
-        } else {
-            mMenu.findItem(R.id.action_filter).setIcon(R.drawable.filter_outline);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mSortByDistance && hasLocationPermission()) {
+            mLocationSource.start(this);
         }
     }
 
-    private class ChangeCursorAsyncTask extends AsyncTask<Void, Void, Cursor> {
+    @Override
+    protected void onStop() {
+        mLocationSource.stop();
+        super.onStop();
+    }
 
-        @Override
-        protected Cursor doInBackground(Void... params) {
-            if (mCategoryFilterValue != null && mUserQuery != null) {
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(SORT_BY_DISTANCE_KEY, mSortByDistance);
+    }
 
-                return mHelper.searchAllPlacesByCategory(mUserQuery, mCategoryFilterValue);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+        menu.findItem(R.id.action_sort_by_distance).setChecked(mSortByDistance);
+        return true;
+    }
 
-            } else if (mCategoryFilterValue != null) { // && mUserQuery == null
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_sort_by_distance) {
+            if (mSortByDistance) {
+                setSortByDistance(false);
+            } else if (hasLocationPermission()) {
+                setSortByDistance(true);
+            } else {
+                ActivityCompat.requestPermissions(MainActivity.this,
+                        new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
+                        REQUEST_LOCATION_PERMISSION);
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
 
-                return mHelper.getAllPlacesByCategory(mCategoryFilterValue);
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != REQUEST_LOCATION_PERMISSION) {
+            return;
+        }
+        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            setSortByDistance(true);
+        } else {
+            Snackbar.make(
+                    findViewById(R.id.coordinator_layout),
+                    "Location permission is needed to sort by distance",
+                    Snackbar.LENGTH_SHORT
+            ).show();
+        }
+    }
 
-            } else if (mUserQuery != null) { // && mCategoryFilterValue == null
+    /**
+     * Called on the main thread with each new position. Re-ranking happens on the query thread,
+     * and is skipped there if the user hasn't moved far enough to change the order.
+     */
+    @Override
+    public void onLocationChanged(Location location) {
+        mLocation = location;
+        rearrangePlaces();
+    }
 
-                return mHelper.searchAllPlaces(mUserQuery);
+    /**
+     * Do NOT restrict query results to favorites only
+     */
+    @Override
+    protected PlaceQuery getBaseQuery() {
+        return PlaceQuery.allPlaces();
+    }
 
-            } else { // mCategoryFilterValue == null && mUserQuery == null
+    /**
+     * Sort by distance from the user's last known position, if that mode is on and a position is
+     * known. Results of a new query get a new ranking; otherwise the existing ranking is re-used,
+     * and null is returned if the user hasn't moved far enough to change the order.
+     */
+    @Override
+    protected PlacePagedList arrangePlaces(PlacePagedList queriedPlaces) {
+        Location location = mLocation;
+        if (!mSortByDistance || location == null) {
+            mRankedPlaces = null;
+            mRanking = null;
+            return queriedPlaces;
+        }
 
-                return mHelper.getAllPlaces();
-            }
+        if (mRankedPlaces != queriedPlaces) {
+            mRanking = new PlaceDistanceRanking(queriedPlaces.getIds(), mHelper.getPlaceKdTree());
+            mRankedPlaces = queriedPlaces;
+        } else if (!mRanking.needsRank(location.getLatitude(), location.getLongitude())) {
+            return null;
         }
+        return queriedPlaces.reorder(mRanking.rank(location.getLatitude(), location.getLongitude()));
+    }
 
-        @Override
-        protected void onPostExecute(Cursor cursor) {
-            super.onPostExecute(cursor);
-            mAdapter.changeCursor(cursor);
+    private void setSortByDistance(boolean sortByDistance) {
+        mSortByDistance = sortByDistance;
+        if (mMenu != null) {
+            mMenu.findItem(R.id.action_sort_by_distance).setChecked(sortByDistance);
+        }
+        if (sortByDistance) {
+            mLocationSource.start(this); // the list is re-sorted when the first position arrives
+        } else {
+            mLocationSource.stop();
+            mLocation = null;
+            changeAdapterCursor();
         }
     }
+
+    private boolean hasLocationPermission() {
+        return ContextCompat.checkSelfPermission(MainActivity.this,
+                Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
 }
@@ -0,0 +1,85 @@
+package com.charlesdrews.neighborhoodguide;
+
+import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.charlesdrews.neighborhoodguide.images.ImageResources;
+import com.charlesdrews.neighborhoodguide.places.PlaceDbOpenHelper;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
+
+import java.util.HashSet;
+
+/**
+ * Starts opening the database as soon as the process starts, in the background, so it is usually
+ * ready by the time the first list queries it. Also logs how long each phase of a cold start takes.
+ */
+public class NeighborhoodGuideApplication extends Application {
+    private static final String TAG = "NeighborhoodGuideApp";
+
+    private static long mCreatedAt; // elapsedRealtime when onCreate was called
+    private static final HashSet<String> mLoggedPhases = new HashSet<>();
+
+    @Override
+    public void onCreate() {
+        mCreatedAt = SystemClock.elapsedRealtime();
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            Log.i(TAG, "Application created " + (mCreatedAt - Process.getStartElapsedRealtime())
+                    + " ms after process start");
+        }
+
+        // create the helper here, on the main thread, so there is only ever one
+        final PlaceDbOpenHelper helper = PlaceDbOpenHelper.getInstance(this);
+
+        // opening the database may copy it and run migrations, so it goes on the write lane; the
+        // first list query on the read lane waits for it
+        TaskLanes lanes = TaskLanes.getInstance();
+        lanes.getWriteLane().execute(new Task<Void>() {
+            @Override
+            protected Void doInBackground() {
+                helper.warmUp();
+                logStartupPhase("Database warmed up");
+                return null;
+            }
+        }, Task.Priority.HIGH);
+        lanes.getImageLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                ImageResources.getInstance();
+                logStartupPhase("Image resources mapped");
+            }
+        });
+    }
+
+    /**
+     * Give back the cached query results when the system needs memory; they are re-queried as
+     * needed
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            PlaceDbOpenHelper.getInstance(this).getResultCache().clear();
+        }
+    }
+
+    /**
+     * Log how long after the application was created a phase of the cold start was reached. Only
+     * the first time in the process is logged, so e.g. a rotation doesn't log "First list shown"
+     * again. Can be called from any thread.
+     * @param phase - name of the phase
+     */
+    public static void logStartupPhase(String phase) {
+        synchronized (mLoggedPhases) {
+            if (mCreatedAt == 0 || !mLoggedPhases.add(phase)) {
+                return;
+            }
+        }
+        Log.i(TAG, phase + " " + (SystemClock.elapsedRealtime() - mCreatedAt)
+                + " ms after Application.onCreate");
+    }
+}
@@ -0,0 +1,169 @@
+package com.charlesdrews.neighborhoodguide;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import com.charlesdrews.neighborhoodguide.places.PlacePagedList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The minimal set of adapter notifications needed to turn one version of a list of places into
+ * another, keyed by _id. Calculate it on a worker thread, then dispatch it on the main thread
+ * right after swapping the new list into the adapter.
+ */
+public class PlaceListDiff {
+    public static final Object PAYLOAD_FAVORITE_STATUS = "favorite_status";
+
+    // DiffUtil's cost grows with (list size x number of changes) - past this size a full refresh
+    // is cheaper than working out a big diff, e.g. when a filter swaps out most of the list
+    private static final int MAX_DIFF_SIZE = 10000;
+
+    private final DiffUtil.DiffResult mDiffResult;
+    private final int[] mChangedPositions;
+    private final Object[] mChangePayloads; // for each changed position; null to rebind the card
+
+    private PlaceListDiff(DiffUtil.DiffResult diffResult, int[] changedPositions,
+                          Object[] changePayloads) {
+        mDiffResult = diffResult;
+        mChangedPositions = changedPositions;
+        mChangePayloads = changePayloads;
+    }
+
+    /**
+     * Compare two versions of a list of places whose rows have not been written in between, e.g.
+     * the results of a new query or a re-ordered list. Only reads the lists' ids and favorite
+     * statuses, so it is safe to call on a worker thread.
+     * @param oldList - list currently shown by the adapter
+     * @param newList - list about to replace it
+     * @return - the diff, or null if the adapter should just be fully refreshed
+     */
+    public static PlaceListDiff calculate(PlacePagedList oldList, PlacePagedList newList) {
+        return calculate(oldList, newList, new int[0]);
+    }
+
+    /**
+     * Compare two versions of a list of places. A place whose favorite status alone changed is
+     * updated with PAYLOAD_FAVORITE_STATUS; a stale place is rebound, since its title, location or
+     * image may have changed too. Only reads the lists' ids and favorite statuses, so it is safe
+     * to call on a worker thread.
+     * @param oldList - list currently shown by the adapter
+     * @param newList - list about to replace it
+     * @param staleIds - _ids of rows written since oldList loaded them, or null if any row may have
+     *                 been written (e.g. by a catalog import)
+     * @return - the diff, or null if the adapter should just be fully refreshed
+     */
+    public static PlaceListDiff calculate(final PlacePagedList oldList, final PlacePagedList newList,
+                                          int[] staleIds) {
+        final int[] sortedStaleIds = (staleIds != null) ? staleIds.clone() : null;
+        if (sortedStaleIds != null) {
+            Arrays.sort(sortedStaleIds);
+        }
+
+        // fast path: same places in the same order (e.g. a refresh after a place was edited elsewhere)
+        if (oldList.getCount() == newList.getCount()) {
+            boolean sameIds = true;
+            ArrayList<Integer> changed = new ArrayList<>();
+            ArrayList<Object> payloads = new ArrayList<>();
+            for (int i = 0; i < oldList.getCount() && sameIds; i++) {
+                sameIds = (oldList.getId(i) == newList.getId(i));
+                if (isStale(sortedStaleIds, newList.getId(i))) {
+                    changed.add(i);
+                    payloads.add(null);
+                } else if (oldList.isFavorite(i) != newList.isFavorite(i)) {
+                    changed.add(i);
+                    payloads.add(PAYLOAD_FAVORITE_STATUS);
+                }
+            }
+            if (sameIds) {
+                int[] positions = new int[changed.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = changed.get(i);
+                }
+                return new PlaceListDiff(null, positions, payloads.toArray());
+            }
+        }
+
+        if (oldList.getCount() + newList.getCount() > MAX_DIFF_SIZE) {
+            return null;
+        }
+
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.getCount();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.getCount();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldList.getId(oldItemPosition) == newList.getId(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return !isStale(sortedStaleIds, newList.getId(newItemPosition))
+                        && oldList.isFavorite(oldItemPosition) == newList.isFavorite(newItemPosition);
+            }
+
+            @Override
+            public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+                return isStale(sortedStaleIds, newList.getId(newItemPosition))
+                        ? null : PAYLOAD_FAVORITE_STATUS;
+            }
+        }, isReordered(oldList, newList)); // moves are only worth detecting if there can be any
+
+        return new PlaceListDiff(result, null, null);
+    }
+
+    /**
+     * @param sortedStaleIds - sorted _ids of stale rows, or null if every row is stale
+     */
+    private static boolean isStale(int[] sortedStaleIds, int id) {
+        return sortedStaleIds == null || Arrays.binarySearch(sortedStaleIds, id) >= 0;
+    }
+
+    /**
+     * @return - true if the places in both lists are not in the same order in each, e.g. after
+     * the list was re-arranged by distance from the user
+     */
+    private static boolean isReordered(PlacePagedList oldList, PlacePagedList newList) {
+        // ids are in title or distance order, not id order, so a SparseIntArray would be filled
+        // by insertion sort
+        HashMap<Integer, Integer> oldPositions = new HashMap<>(oldList.getCount() * 2);
+        for (int i = 0; i < oldList.getCount(); i++) {
+            oldPositions.put(oldList.getId(i), i);
+        }
+        int lastOldPosition = -1;
+        for (int i = 0; i < newList.getCount(); i++) {
+            Integer oldPosition = oldPositions.get(newList.getId(i));
+            if (oldPosition != null) {
+                if (oldPosition < lastOldPosition) {
+                    return true;
+                }
+                lastOldPosition = oldPosition;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send the minimal set of insert/remove/change notifications to the adapter
+     * @param adapter - adapter that has just switched to the new list
+     */
+    public void dispatchUpdatesTo(RecyclerView.Adapter adapter) {
+        if (mDiffResult != null) {
+            mDiffResult.dispatchUpdatesTo(adapter);
+        } else {
+            for (int i = 0; i < mChangedPositions.length; i++) {
+                adapter.notifyItemChanged(mChangedPositions[i], mChangePayloads[i]);
+            }
+        }
+    }
+}
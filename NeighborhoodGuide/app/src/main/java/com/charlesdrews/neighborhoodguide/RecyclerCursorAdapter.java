@@ -5,22 +5,15 @@ import android.animation.StateListAnimator;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.util.Pair;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
-import android.text.Spannable;
-import android.text.Spanned;
-import android.text.style.StrikethroughSpan;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -28,25 +21,88 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.charlesdrews.neighborhoodguide.images.ImageResources;
+import com.charlesdrews.neighborhoodguide.images.ThumbnailLoader;
 import com.charlesdrews.neighborhoodguide.places.PlaceDbOpenHelper;
+import com.charlesdrews.neighborhoodguide.places.PlacePagedList;
+import com.charlesdrews.neighborhoodguide.places.PlaceRow;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
+import com.charlesdrews.neighborhoodguide.places.PlaceWriteQueue;
+
+import java.util.List;
 
 
 /**
- * Implements an Adapter for a RecyclerView based on data from a Cursor
+ * Implements an Adapter for a RecyclerView based on data from a PlacePagedList, which supplies
+ * rows of places one page at a time
  * Created by charlie on 2/4/16.
  */
-public class RecyclerCursorAdapter extends RecyclerView.Adapter<RecyclerCursorAdapter.ViewHolder> {
-    private static final String ERR_MSG_ITEM_NOT_FOUND = "Error: item not found";
-    private static final StrikethroughSpan STRIKE_THROUGH_SPAN = new StrikethroughSpan();
-
+public class RecyclerCursorAdapter extends RecyclerView.Adapter<RecyclerCursorAdapter.ViewHolder>
+        implements PlacePagedList.OnPageLoadedListener {
     private Context mContext;
-    private Cursor mCursor;
+    private PlacePagedList mPlaces;
     private Drawable mFavIcon;
     private Drawable mNonFavIcon;
     private Drawable mRemoveFavIcon;
     private Drawable mAddFavIcon;
     private boolean mContextIsFavs;
     private PlaceDbOpenHelper mHelper;
+    private ThumbnailLoader mThumbnailLoader;
+    private int mCardBgColor;
+    private int mCardUnFavedBgColor;
+    private String mTransitionName;
+
+    // status to restore, by place id, if a queued favorite toggle fails to be written
+    private final SparseBooleanArray mFavStatusRollback = new SparseBooleanArray();
+
+    // one instance of each listener is shared by every card, rather than new ones on each bind
+    private final View.OnTouchListener mIconTouchListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            // icon is within the card view - in order to not trigger the card view's onClick method
+            // when the icon is clicked, consume the whole click event
+            switch (event.getAction()) {
+                case MotionEvent.ACTION_DOWN:
+                    return true;
+                case MotionEvent.ACTION_UP:
+                    ViewHolder holder = (ViewHolder) v.getTag();
+                    int position = holder.getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        toggleFavorite(position);
+                    }
+                    return true; // this consumes the entire touch event; will not trigger CardView's onclick()
+            }
+            return false;
+        }
+    };
+
+    private final View.OnClickListener mCardClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            int position = holder.getAdapterPosition();
+            PlaceRow row = (position != RecyclerView.NO_POSITION) ? mPlaces.peekRow(position) : null;
+            if (row == null) {
+                return;
+            }
+
+            Intent intent = new Intent(mContext, DetailActivity.class);
+            intent.putExtra(ListBaseActivity.SELECTED_PLACE_KEY, row.getId());
+            intent.putExtra(ListBaseActivity.SELECTED_PLACE_IMAGE_KEY, row.getImageRes());
+
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
+                ActivityOptionsCompat options = ActivityOptionsCompat
+                        .makeSceneTransitionAnimation(
+                                ((Activity) mContext),
+                                holder.mThumbnailImgView,
+                                mTransitionName
+                        );
+                ((Activity) mContext).startActivity(intent, options.toBundle());
+            } else {
+                mContext.startActivity(intent);
+            }
+        }
+    };
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         public CardView mCardView;
@@ -65,140 +121,166 @@ public class RecyclerCursorAdapter extends RecyclerView.Adapter<RecyclerCursorAd
         }
     }
 
-    public RecyclerCursorAdapter(Context context, Cursor cursor) {
+    public RecyclerCursorAdapter(Context context, PlacePagedList places) {
         mContext = context;
-        mCursor = cursor;
+        mPlaces = places;
+        mPlaces.setOnPageLoadedListener(this);
         mFavIcon = ContextCompat.getDrawable(context, R.drawable.ic_favorite_pink_a200_24dp);
         mNonFavIcon = ContextCompat.getDrawable(context, R.drawable.ic_favorite_border_grey_800_24dp);
         mRemoveFavIcon = ContextCompat.getDrawable(context, R.drawable.ic_remove_circle_outline_grey_800_24dp);
         mAddFavIcon = ContextCompat.getDrawable(context, R.drawable.ic_add_circle_outline_grey_800_24dp);
         mContextIsFavs = (context instanceof FavoritesActivity);
         mHelper = PlaceDbOpenHelper.getInstance(context);
+        mThumbnailLoader = ThumbnailLoader.getInstance(context);
+        mCardBgColor = ContextCompat.getColor(context, R.color.cardBg);
+        mCardUnFavedBgColor = ContextCompat.getColor(context, R.color.cardUnFavedBg);
+        mTransitionName = context.getString(R.string.card_transition_name_image);
+        setHasStableIds(true);
     }
 
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext())
                     .inflate(R.layout.place_card_item, parent, false);
-        return new ViewHolder(v);
+        ViewHolder holder = new ViewHolder(v);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // raise card on press (will only see if long press; on tap the details activity starts before animation complets)
+            StateListAnimator animator = AnimatorInflater.loadStateListAnimator(mContext, R.anim.raise);
+            holder.mCardView.setStateListAnimator(animator);
+
+            // set transitionName for image
+            holder.mThumbnailImgView.setTransitionName(mTransitionName);
+        }
+
+        // the shared listeners find the holder, and from it the bound position, through these tags
+        holder.mCardView.setTag(holder);
+        holder.mIconImgView.setTag(holder);
+        return holder;
     }
 
+    /**
+     * If the only change to the item is its favorite status (see PlaceListDiff), update just the
+     * icon instead of rebinding the whole card
+     */
     @Override
-    public void onBindViewHolder(final ViewHolder holder, final int position) {
-        if (mCursor.moveToPosition(position)) {
-            holder.mCardView.setCardBackgroundColor(ContextCompat.getColor(mContext, R.color.cardBg));
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                // raise card on press (will only see if long press; on tap the details activity starts before animation complets)
-                StateListAnimator animator = AnimatorInflater.loadStateListAnimator(mContext, R.anim.raise);
-                holder.mCardView.setStateListAnimator(animator);
-
-                // set transitionName for image
-                holder.mThumbnailImgView.setTransitionName(
-                        mContext.getString(R.string.card_transition_name_image));
-            }
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.contains(PlaceListDiff.PAYLOAD_FAVORITE_STATUS)) {
+            bindFavoriteStatus(holder, mPlaces.isFavorite(position));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
 
-            int imageRes = mContext.getResources().getIdentifier(
-                    mCursor.getString(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_IMAGE_RES)) + "_small",
-                    "raw",
-                    mContext.getPackageName()
-            );
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        PlaceRow row = mPlaces.getRow(position);
+        if (row != null) {
+            int imageRes = ImageResources.getInstance().getThumbnailId(row.getImageRes());
             if (imageRes != 0) {
-                holder.mThumbnailImgView.setImageBitmap(
-                        decodeThumbnailBitmapFromRes(
-                                mContext.getResources(),
-                                imageRes,
-                                holder.mThumbnailImgView.getMaxHeight()
-                        )
+                mThumbnailLoader.loadThumbnail(
+                        holder.mThumbnailImgView,
+                        row.getThumbnailName(),
+                        imageRes,
+                        holder.mThumbnailImgView.getMaxHeight()
                 );
+            } else {
+                mThumbnailLoader.release(holder.mThumbnailImgView);
             }
 
-            String title = mCursor.getString(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_TITLE));
-            holder.mTitleTextView.setText(title, TextView.BufferType.SPANNABLE);
-
-            String overview = mCursor.getString(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_CATEGORY))
-                    + " | " + mCursor.getString(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_LOCATION))
-                    + " | " + mCursor.getString(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_NEIGHBORHOOD));
-
-            holder.mOverviewTextView.setText(overview, TextView.BufferType.SPANNABLE);
+            holder.mTitleTextView.setText(row.getTitle());
+            holder.mOverviewTextView.setText(row.getOverview());
+            bindFavoriteStatus(holder, mPlaces.isFavorite(position)); // includes any change not yet written
 
-            final int id = mCursor.getInt(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_ID));
-            boolean isFav = (mCursor.getInt(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_IS_FAVORITE)) == 1);
-            holder.mIconImgView.setImageDrawable(pickIconDrawable(isFav));
+            holder.mIconImgView.setOnTouchListener(mIconTouchListener);
+            holder.mCardView.setOnClickListener(mCardClickListener);
 
-            // icon is within the card view - in order to not trigger the card view's onClick method
-            // when the icon is clicked, add an onTouch listener that consumes the whole click event
-            holder.mIconImgView.setOnTouchListener(new View.OnTouchListener() {
-                @Override
-                public boolean onTouch(View v, MotionEvent event) {
-                    switch (event.getAction()) {
-                        case MotionEvent.ACTION_DOWN:
-                            return true;
-                        case MotionEvent.ACTION_UP:
-                            UpdateIconImgAsyncTask task = new UpdateIconImgAsyncTask(holder);
-                            task.execute(id);
-                            return true; // this consumes the entire touch event; will not trigger CardView's onclick()
-                    }
-                    return false;
-                }
-            });
-
-            holder.mCardView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    Intent intent = new Intent(mContext, DetailActivity.class);
-                    intent.putExtra(ListBaseActivity.SELECTED_PLACE_KEY, id);
-
-                    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                        ActivityOptionsCompat options = ActivityOptionsCompat
-                                .makeSceneTransitionAnimation(
-                                        ((Activity) mContext),
-                                        holder.mThumbnailImgView,
-                                        mContext.getString(R.string.card_transition_name_image)
-                                );
-                        ((Activity) mContext).startActivityForResult(intent, 0, options.toBundle());
-                    } else {
-                        ((Activity) mContext).startActivityForResult(intent, 0);
-                    }
-                }
-            });
+            // set content description
+            holder.mThumbnailImgView.setContentDescription(row.getImageDescription());
 
-            // set content descriptions
-            if (isFav) {
-                holder.mIconImgView.setContentDescription("Icon indicating this place is a favorite.");
-            } else {
-                holder.mIconImgView.setContentDescription("Icon indicating this place is not a favorite.");
-            }
-            holder.mThumbnailImgView.setContentDescription("Image of " + holder.mTitleTextView.getText());
-
-        } else { // if mCursor.moveToPosition(position) fails
-            holder.mTitleTextView.setText(ERR_MSG_ITEM_NOT_FOUND);
+        } else { // page is still loading - show an empty card; onPageLoaded will rebind it
+            mThumbnailLoader.release(holder.mThumbnailImgView);
+            holder.mTitleTextView.setText(null);
+            holder.mOverviewTextView.setText(null);
+            holder.mIconImgView.setImageDrawable(null);
+            holder.mIconImgView.setOnTouchListener(null);
+            holder.mCardView.setOnClickListener(null);
         }
     }
 
+    /**
+     * Give the thumbnail back to the loader so its bitmap can be reused once it is no longer cached
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        super.onViewRecycled(holder);
+        mThumbnailLoader.release(holder.mThumbnailImgView);
+    }
+
     @Override
     public int getItemCount() {
-        return mCursor.getCount();
+        return mPlaces.getCount();
     }
 
     @Override
     public long getItemId(int position) {
-        if (mCursor != null) {
-            mCursor.moveToPosition(position);
-            return (long) mCursor.getInt(mCursor.getColumnIndex(PlaceDbOpenHelper.COL_ID));
+        return (long) mPlaces.getId(position);
+    }
+
+    @Override
+    public void onPageLoaded(int positionStart, int itemCount) {
+        notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    public PlacePagedList getPlaces() {
+        return mPlaces;
+    }
+
+    /**
+     * Swap in a new list of places
+     * @param newPlaces - the new list
+     * @param diff - changes from the current list to the new one, or null to refresh everything
+     */
+    public void changePlaces(PlacePagedList newPlaces, PlaceListDiff diff) {
+        PlacePagedList oldPlaces = mPlaces;
+        mPlaces = newPlaces;
+        mPlaces.setOnPageLoadedListener(this);
+        if (diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
         }
-        return -1;
+        oldPlaces.close();
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /**
+     * Strike through the text of an un-faved card in the favorites list. Uses a paint flag rather
+     * than a span so the title and overview can be bound as plain Strings.
+     */
+    private void setStrikeThrough(ViewHolder holder, boolean strikeThrough) {
+        int flags = holder.mTitleTextView.getPaintFlags();
+        flags = strikeThrough ? (flags | Paint.STRIKE_THRU_TEXT_FLAG) : (flags & ~Paint.STRIKE_THRU_TEXT_FLAG);
+        holder.mTitleTextView.setPaintFlags(flags);
+        holder.mOverviewTextView.setPaintFlags(flags);
     }
 
-    public void changeCursor(Cursor newCursor) {
-        Cursor oldCursor = mCursor;
-        mCursor = newCursor;
-        notifyDataSetChanged();
-        oldCursor.close();
+    private void bindFavoriteStatus(ViewHolder holder, boolean isFav) {
+        // set text strikethru if context is favs & item is un-faved, otherwise not strikethru
+        // also set card background to same grey as recyclerview background
+        if (mContextIsFavs & !isFav) {
+            setStrikeThrough(holder, true);
+            holder.mCardView.setCardBackgroundColor(mCardUnFavedBgColor);
+        } else {
+            setStrikeThrough(holder, false);
+            holder.mCardView.setCardBackgroundColor(mCardBgColor);
+        }
+
+        holder.mIconImgView.setImageDrawable(pickIconDrawable(isFav));
+        if (isFav) {
+            holder.mIconImgView.setContentDescription("Icon indicating this place is a favorite.");
+        } else {
+            holder.mIconImgView.setContentDescription("Icon indicating this place is not a favorite.");
+        }
     }
 
     private Drawable pickIconDrawable(boolean isFav) {
@@ -218,102 +300,72 @@ public class RecyclerCursorAdapter extends RecyclerView.Adapter<RecyclerCursorAd
     }
 
     /**
-     * Determine the factor by which to scale down the image resource for use as a thumbnail. Per
-     * Google, factor should be a power of 2.
-     * @param sourceHeight - original height in px of image resource
-     * @param sourceWidth - original width in px of image resource
-     * @param thumbSize - size in px of square thumbnail in card view
-     * @return - int factor to use for scaling
+     * Show the heart icon's new state right away and queue the toggle to be written, so a tap
+     * never waits on the database. The toggle flips whatever is stored when it is written, so it
+     * doesn't need to read the current status first. If the write fails the card is put back.
+     * @param position - position of the tapped card
      */
-    public static int calculateInSampleSize(int sourceHeight, int sourceWidth, int thumbSize) {
-        int smallerSourceDimen = (sourceHeight < sourceWidth) ? sourceHeight : sourceWidth;
-        int inSampleSize = 1;
-
-        if (smallerSourceDimen > thumbSize) {
-            int halfDimen = smallerSourceDimen / 2;
-
-            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-            // height and width larger than the requested height and width.
-            while ((halfDimen / inSampleSize) > thumbSize) {
-                inSampleSize *= 2;
-            }
+    private void toggleFavorite(int position) {
+        int id = mPlaces.getId(position);
+        boolean wasFav = mPlaces.isFavorite(position);
+        if (mFavStatusRollback.indexOfKey(id) < 0) { // not already waiting on an earlier tap
+            mFavStatusRollback.put(id, wasFav);
         }
-        return inSampleSize;
+        showFavoriteStatus(position, !wasFav);
+        mHelper.getWriteQueue().toggleFavorite(id, mFavStatusWrittenListener);
     }
 
     /**
-     * Retrieve bitmap from raw folder for use as thumbnail in card view. Scale image down to avoid
-     * overflowing memory.
-     * @param res - reference to app resources
-     * @param resId - id of specific image reference to be used
-     * @param thumbSize - size in px of the square thumbnail in the card view
-     * @return - bitmap to be used as a thumbnail
+     * Show a favorite status committed elsewhere, e.g. on the detail screen, without querying
+     * again. Ignored while a toggle of the same place from this list is still being written; its
+     * own listener settles the card.
+     * @param id - _id of the place
+     * @param isFav - the status now in the database
+     * @return - false if the place is not in the list
      */
-    public static Bitmap decodeThumbnailBitmapFromRes(Resources res, int resId, int thumbSize) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-
-        // get size of original image
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeResource(res, resId, options);
-
-        // calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options.outHeight, options.outWidth, thumbSize);
+    public boolean showCommittedFavoriteStatus(int id, boolean isFav) {
+        int position = mPlaces.getPosition(id);
+        if (position < 0) {
+            return false;
+        }
+        if (mFavStatusRollback.indexOfKey(id) < 0 && mPlaces.isFavorite(position) != isFav) {
+            showFavoriteStatus(position, isFav);
+        }
+        return true;
+    }
 
-        // decode bitmap at scaled down sample size
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+    private void showFavoriteStatus(int position, boolean isFav) {
+        mPlaces.setFavorite(position, isFav);
+        notifyItemChanged(position, PlaceListDiff.PAYLOAD_FAVORITE_STATUS);
     }
 
     /**
-     * Update both the database and the card view in response to the heart icon being clicked
+     * Confirm a favorite toggle once it has been written, or roll the card back if it failed.
+     * Called on the main thread, once per write however many taps were coalesced into it.
      */
-    private class UpdateIconImgAsyncTask
-            extends AsyncTask<Integer, Void, Pair<Boolean, Boolean>> {
-        private ViewHolder mViewHolder;
-
-        public UpdateIconImgAsyncTask(ViewHolder viewHolder) {
-            mViewHolder = viewHolder;
-        }
-
-        @Override
-        protected Pair<Boolean, Boolean> doInBackground(Integer... params) {
-            int id = params[0];
-            boolean isFav = !mHelper.isFavoriteById(id); // toggle fav status - get opposite of current
-            boolean updateSuccessful = mHelper.setFavoriteStatusById(id, isFav);
-            return new Pair<>(updateSuccessful, isFav);
-        }
-
+    private final PlaceWriteQueue.OnWrittenListener mFavStatusWrittenListener = new PlaceWriteQueue.OnWrittenListener() {
         @Override
-        protected void onPostExecute(Pair<Boolean, Boolean> successAndFavStatus) {
-            super.onPostExecute(successAndFavStatus);
+        public void onWritten(int id, PlaceUpdate written) {
+            int rollbackIndex = mFavStatusRollback.indexOfKey(id);
+            if (rollbackIndex < 0) {
+                return;
+            }
+            boolean rollbackStatus = mFavStatusRollback.valueAt(rollbackIndex);
+            mFavStatusRollback.removeAt(rollbackIndex);
 
-            boolean updateSuccessful = successAndFavStatus.first;
-            boolean isFav = successAndFavStatus.second;
+            int position = mPlaces.getPosition(id); // the list may have been re-queried since the tap
+            PlaceRow row = (position != -1) ? mPlaces.peekRow(position) : null;
 
             String msg;
-            if (updateSuccessful) {
-
-                // set icon
-                mViewHolder.mIconImgView.setImageDrawable(pickIconDrawable(isFav));
-
-                // set text strikethru if context is favs & item is un-faved, otherwise not strikethru
-                // also set card background to same grey as recyclerview background
-                Spannable titleSpannable = (Spannable) mViewHolder.mTitleTextView.getText();
-                Spannable overviewSpannable = (Spannable) mViewHolder.mOverviewTextView.getText();
-
-                if (mContextIsFavs & !isFav) {
-                    titleSpannable.setSpan(STRIKE_THROUGH_SPAN, 0, titleSpannable.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    overviewSpannable.setSpan(STRIKE_THROUGH_SPAN, 0, overviewSpannable.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    mViewHolder.mCardView.setCardBackgroundColor(ContextCompat.getColor(mContext, R.color.cardUnFavedBg));
-                } else {
-                    titleSpannable.removeSpan(STRIKE_THROUGH_SPAN);
-                    overviewSpannable.removeSpan(STRIKE_THROUGH_SPAN);
-                    mViewHolder.mCardView.setCardBackgroundColor(ContextCompat.getColor(mContext, R.color.cardBg));
+            if (written == null) {
+                if (position != -1) {
+                    showFavoriteStatus(position, rollbackStatus);
                 }
-
-                msg = mViewHolder.mTitleTextView.getText().toString() + (isFav ? " favorited" : " unfavorited");
-            } else {
                 msg = DetailActivity.ERR_MSG_FAVORITE_STATUS_NOT_SAVED;
+            } else if (written.getFavoriteStatus() == null || row == null) {
+                return; // toggled back to where it started, or no longer shown
+            } else {
+                msg = row.getTitle() + (written.getFavoriteStatus() ? " favorited" : " unfavorited");
             }
 
             // launch a Snackbar to notify user of success/failure
@@ -321,5 +373,5 @@ public class RecyclerCursorAdapter extends RecyclerView.Adapter<RecyclerCursorAd
             rootView = ((Activity) mContext).findViewById(R.id.coordinator_layout);
             Snackbar.make(rootView, msg, Snackbar.LENGTH_SHORT).show();
         }
-    }
+    };
 }
@@ -0,0 +1,227 @@
+package com.charlesdrews.neighborhoodguide.images;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Holds on to bitmaps that are no longer displayed so their memory can be reused for the next
+ * decode via BitmapFactory.Options.inBitmap, instead of allocating a new bitmap every time and
+ * leaving the old one for the garbage collector. Bitmaps are grouped into buckets by the power of
+ * two just above their size in bytes, so finding a candidate only means looking in two buckets.
+ *
+ * Before KitKat, inBitmap only works for a bitmap of exactly the same dimensions decoded with an
+ * inSampleSize of 1, so on those versions only exact matches are handed out.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+
+    private static BitmapPool mInstance;
+
+    private final long mMaxBytes;
+    private final SparseArray<ArrayList<Bitmap>> mBuckets = new SparseArray<>();
+    private final LinkedList<Bitmap> mLeastRecentlyAdded = new LinkedList<>();
+    private long mCurrentBytes = 0;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    public static synchronized BitmapPool getInstance() {
+        if (mInstance == null) {
+            // use up to 1/8 of the heap available to the app
+            mInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return mInstance;
+    }
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap that can be passed as inBitmap to decode an image of the given size
+     * @param width - width in px of the decoded image
+     * @param height - height in px of the decoded image
+     * @param config - config the image will be decoded with
+     * @return - a reusable bitmap, or null if the pool has none that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int requiredBytes = width * height * bytesPerPixel(config);
+        int bucket = bucketFor(requiredBytes);
+
+        // a bitmap in the next bucket up is always big enough; this one might not be
+        for (int b = bucket; b <= bucket + 1; b++) {
+            ArrayList<Bitmap> bitmaps = mBuckets.get(b);
+            if (bitmaps == null) {
+                continue;
+            }
+            for (int i = 0; i < bitmaps.size(); i++) {
+                Bitmap candidate = bitmaps.get(i);
+                if (canReuse(candidate, width, height, config, requiredBytes)) {
+                    bitmaps.remove(i);
+                    mLeastRecentlyAdded.remove(candidate);
+                    mCurrentBytes -= sizeOf(candidate);
+                    mHitCount++;
+                    return candidate;
+                }
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Give a bitmap to the pool. The caller must no longer display or otherwise use it.
+     * @param bitmap - bitmap to be reused; ignored if it is immutable or recycled
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || sizeOf(bitmap) > mMaxBytes || mLeastRecentlyAdded.contains(bitmap)) {
+            return;
+        }
+
+        int bucket = bucketFor(sizeOf(bitmap));
+        ArrayList<Bitmap> bitmaps = mBuckets.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>();
+            mBuckets.put(bucket, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mLeastRecentlyAdded.addLast(bitmap);
+        mCurrentBytes += sizeOf(bitmap);
+
+        while (mCurrentBytes > mMaxBytes) {
+            Bitmap evicted = mLeastRecentlyAdded.removeFirst();
+            mBuckets.get(bucketFor(sizeOf(evicted))).remove(evicted);
+            mCurrentBytes -= sizeOf(evicted);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Decode a resource, reusing a pooled bitmap for it if possible. The result is mutable so it
+     * can be put back in the pool once it is no longer displayed.
+     * @param res - reference to app resources
+     * @param resId - id of the image resource
+     * @param options - decode options; must hold the results of an inJustDecodeBounds pass
+     * @return - the decoded bitmap
+     */
+    public Bitmap decodeResource(final Resources res, final int resId, BitmapFactory.Options options) {
+        return decode(options, new Decoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeResource(res, resId, options);
+            }
+        });
+    }
+
+    /**
+     * Decode a file, reusing a pooled bitmap for it if possible. The result is mutable so it can
+     * be put back in the pool once it is no longer displayed.
+     * @param path - path of the image file
+     * @param options - decode options; must hold the results of an inJustDecodeBounds pass
+     * @return - the decoded bitmap
+     */
+    public Bitmap decodeFile(final String path, BitmapFactory.Options options) {
+        return decode(options, new Decoder() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(path, options);
+            }
+        });
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mCurrentBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = (accesses != 0) ? (100 * mHitCount / accesses) : 0;
+        return "BitmapPool[hits=" + mHitCount + ", misses=" + mMissCount + ", hitRate=" + hitPercent
+                + "%, evictions=" + mEvictionCount + ", size=" + mCurrentBytes / 1024 + "KB]";
+    }
+
+    private interface Decoder {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private Bitmap decode(BitmapFactory.Options options, Decoder decoder) {
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+
+        if (options.inPreferredConfig == null) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        if (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.inBitmap = get(width, height, options.inPreferredConfig);
+        }
+
+        if (options.inBitmap != null) {
+            try {
+                return decoder.decode(options);
+            } catch (IllegalArgumentException e) {
+                // the candidate turned out not to be reusable for this image - decode without it
+                Log.d(TAG, "Unable to reuse bitmap", e);
+                put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+        return decoder.decode(options);
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, Bitmap.Config config,
+                                    int requiredBytes) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return candidate.getAllocationByteCount() >= requiredBytes;
+        }
+        return candidate.getWidth() == width && candidate.getHeight() == height
+                && candidate.getConfig() == config;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * @return - the exponent of the smallest power of two that is >= bytes
+     */
+    static int bucketFor(int bytes) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
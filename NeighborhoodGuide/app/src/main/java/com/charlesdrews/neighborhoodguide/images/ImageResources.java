@@ -0,0 +1,68 @@
+package com.charlesdrews.neighborhoodguide.images;
+
+import android.util.Log;
+
+import com.charlesdrews.neighborhoodguide.R;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+
+/**
+ * Maps the image names stored in the database to the ids of the images in res/raw. The map is
+ * built once from the fields of R.raw, so looking up an image is a HashMap get instead of a call
+ * to Resources.getIdentifier, which searches the resource table by name every time.
+ */
+public class ImageResources {
+    private static final String TAG = "ImageResources";
+    public static final String THUMBNAIL_SUFFIX = "_small";
+
+    private static ImageResources mInstance;
+
+    private final HashMap<String, Integer> mRawIds = new HashMap<>();
+
+    public static synchronized ImageResources getInstance() {
+        if (mInstance == null) {
+            mInstance = new ImageResources();
+        }
+        return mInstance;
+    }
+
+    private ImageResources() {
+        for (Field field : R.raw.class.getFields()) {
+            if (field.getType() != int.class || !Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                mRawIds.put(field.getName(), field.getInt(null));
+            } catch (IllegalAccessException e) {
+                Log.w(TAG, "Unable to read id of raw resource " + field.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @param name - file name w/o extension of an image in res/raw
+     * @return - id of the image, or 0 if there is no such image (same as getIdentifier)
+     */
+    public int getRawId(String name) {
+        Integer id = (name != null) ? mRawIds.get(name) : null;
+        return (id != null) ? id : 0;
+    }
+
+    /**
+     * @param imageRes - image name from the database's image_res column
+     * @return - id of the full-size image, or 0 if not found
+     */
+    public int getHeroImageId(String imageRes) {
+        return getRawId(imageRes);
+    }
+
+    /**
+     * @param imageRes - image name from the database's image_res column
+     * @return - id of the small version of the image used for card thumbnails, or 0 if not found
+     */
+    public int getThumbnailId(String imageRes) {
+        return (imageRes != null) ? getRawId(imageRes + THUMBNAIL_SUFFIX) : 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.charlesdrews.neighborhoodguide.images;
+
+/**
+ * Size calculations for decoding images no larger than the views that display them
+ */
+public class ImageSizing {
+
+    private ImageSizing() {}
+
+    /**
+     * Determine the factor by which to scale down an image that will be shown at a given width,
+     * e.g. a hero image that fills the width of the screen. Per Google, factor should be a power
+     * of 2; the decoded width will never be less than the target width.
+     * @param sourceWidth - original width in px of the image
+     * @param targetWidth - width in px the image will be displayed at
+     * @return - int factor to use for scaling
+     */
+    public static int calculateInSampleSizeForWidth(int sourceWidth, int targetWidth) {
+        int inSampleSize = 1;
+        if (targetWidth <= 0) {
+            return inSampleSize;
+        }
+
+        while (sourceWidth / (inSampleSize * 2) >= targetWidth) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
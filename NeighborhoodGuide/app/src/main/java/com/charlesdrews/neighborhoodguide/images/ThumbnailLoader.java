@@ -0,0 +1,399 @@
+package com.charlesdrews.neighborhoodguide.images;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.charlesdrews.neighborhoodguide.R;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Loads card thumbnails on the image lane (see TaskLanes). Decoded thumbnails are kept in an in-memory LRU
+ * cache, and thumbnails scaled to the exact size of the card image are saved to a disk cache so
+ * the full-size resource only has to be decoded once per thumbnail size.
+ *
+ * Thumbnails are decoded into bitmaps from the BitmapPool when possible. A thumbnail goes back to
+ * the pool once it has been evicted from the memory cache AND is no longer shown in any ImageView,
+ * so the loader counts how many views each cached thumbnail is currently shown in.
+ */
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+    private static final String DISK_CACHE_DIR = "thumbnails";
+    private static final long DISK_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int DISK_CACHE_JPEG_QUALITY = 90;
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private static ThumbnailLoader mInstance;
+
+    private final Resources mResources;
+    private final File mDiskCacheDir;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final BitmapPool mBitmapPool = BitmapPool.getInstance();
+    private final HashMap<Bitmap, Integer> mDisplayCounts = new HashMap<>();
+    private final HashSet<Bitmap> mEvictedWhileDisplayed = new HashSet<>();
+
+    public static ThumbnailLoader getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        mResources = context.getResources();
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        // use 1/8 of the heap available to the app, measured in KB
+        int cacheSizeKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (oldValue != newValue) {
+                    onRemovedFromMemoryCache(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show a thumbnail in the given ImageView - immediately if it is in the memory cache,
+     * otherwise once it has been loaded in the background. If the ImageView has been rebound to a
+     * different thumbnail by the time loading finishes (e.g. its ViewHolder was recycled), the
+     * result is cached but not shown.
+     * @param imageView - view to show the thumbnail in
+     * @param imageName - name of the raw image resource, used as the cache key
+     * @param resId - id of the raw image resource
+     * @param thumbSize - size in px of the square thumbnail
+     */
+    public void loadThumbnail(ImageView imageView, final String imageName, final int resId,
+                              final int thumbSize) {
+        final String key = imageName + "_" + thumbSize;
+        if (key.equals(imageView.getTag(R.id.tag_thumbnail_key))
+                && imageView.getTag(R.id.tag_thumbnail_bitmap) != null) {
+            return; // already showing this thumbnail
+        }
+        release(imageView);
+        imageView.setTag(R.id.tag_thumbnail_key, key);
+
+        if (showIfCached(imageView, key)) {
+            return;
+        }
+
+        final WeakReference<ImageView> imageViewRef = new WeakReference<>(imageView);
+        TaskLanes.getInstance().getImageLane().execute(new Task<Boolean>() {
+            @Override
+            protected Boolean doInBackground() {
+                Bitmap thumbnail = loadFromDiskOrResource(key, resId, thumbSize);
+                if (thumbnail == null) {
+                    return false;
+                }
+                mMemoryCache.put(key, thumbnail);
+                return true;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean loaded) {
+                ImageView view = imageViewRef.get();
+                if (loaded && view != null && key.equals(view.getTag(R.id.tag_thumbnail_key))
+                        && view.getTag(R.id.tag_thumbnail_bitmap) == null
+                        && !showIfCached(view, key)) {
+                    // evicted (and possibly reused) before it could be shown - try again
+                    loadThumbnail(view, imageName, resId, thumbSize);
+                }
+            }
+        }, Task.Priority.NORMAL);
+    }
+
+    /**
+     * Clear the view, and clear its thumbnail key so a load still in flight for it will not be
+     * shown in it. Call this when the view is recycled or rebound to something other than a
+     * thumbnail, so the thumbnail it was showing can be reused once it leaves the memory cache.
+     * @param imageView - view that was showing a thumbnail
+     */
+    public void release(ImageView imageView) {
+        imageView.setTag(R.id.tag_thumbnail_key, null);
+        Bitmap bitmap = (Bitmap) imageView.getTag(R.id.tag_thumbnail_bitmap);
+        imageView.setTag(R.id.tag_thumbnail_bitmap, null);
+        imageView.setImageDrawable(null);
+
+        if (bitmap != null) {
+            synchronized (mDisplayCounts) {
+                Integer count = mDisplayCounts.get(bitmap);
+                if (count == null || count <= 1) {
+                    mDisplayCounts.remove(bitmap);
+                    if (mEvictedWhileDisplayed.remove(bitmap)) {
+                        mBitmapPool.put(bitmap);
+                    }
+                } else {
+                    mDisplayCounts.put(bitmap, count - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Show the cached thumbnail for key, if there is one. The cache lookup and the display count
+     * update happen under one lock, so the thumbnail cannot be evicted and handed to the pool in
+     * between.
+     */
+    private boolean showIfCached(ImageView imageView, String key) {
+        Bitmap bitmap;
+        synchronized (mDisplayCounts) {
+            bitmap = mMemoryCache.get(key);
+            if (bitmap == null) {
+                return false;
+            }
+            Integer count = mDisplayCounts.get(bitmap);
+            mDisplayCounts.put(bitmap, (count == null) ? 1 : count + 1);
+        }
+        imageView.setTag(R.id.tag_thumbnail_bitmap, bitmap);
+        imageView.setImageBitmap(bitmap);
+        return true;
+    }
+
+    private void onRemovedFromMemoryCache(Bitmap bitmap) {
+        synchronized (mDisplayCounts) {
+            if (mDisplayCounts.containsKey(bitmap)) {
+                mEvictedWhileDisplayed.add(bitmap); // pooled once the last view releases it
+            } else {
+                mBitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Drop the in-memory cache (e.g. when the system is low on memory); the disk cache is kept
+     */
+    public void clearMemoryCache() {
+        mMemoryCache.evictAll();
+    }
+
+    private Bitmap loadFromDiskOrResource(String key, int resId, int thumbSize) {
+        File file = new File(mDiskCacheDir, key + ".jpg");
+        if (file.exists()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+
+            // BitmapFactory fills in the missing part of a truncated JPEG rather than failing, so
+            // check the file is whole before decoding it
+            Bitmap bitmap = (options.outWidth > 0 && options.outHeight > 0 && isCompleteJpeg(file))
+                    ? mBitmapPool.decodeFile(file.getPath(), options) : null;
+            if (bitmap != null) {
+                file.setLastModified(System.currentTimeMillis()); // mark as recently used
+                return bitmap;
+            }
+            Log.w(TAG, "Dropping unreadable thumbnail " + file.getName());
+            deleteFromDiskCache(file);
+        }
+
+        Bitmap sampled = decodeThumbnailBitmapFromRes(mResources, resId, thumbSize);
+        if (sampled == null) {
+            return null;
+        }
+        Bitmap thumbnail = scaleToThumbnail(sampled, thumbSize);
+        if (thumbnail != sampled) {
+            mBitmapPool.put(sampled); // only needed long enough to draw the thumbnail from it
+        }
+        writeToDiskCache(file, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Scale the bitmap so its smaller side is exactly thumbSize (the card image is center-cropped,
+     * so the larger side is allowed to overflow). Draws into a pooled bitmap when one fits.
+     */
+    private Bitmap scaleToThumbnail(Bitmap bitmap, int thumbSize) {
+        int smallerSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (smallerSide <= thumbSize) {
+            return bitmap;
+        }
+        float scale = (float) thumbSize / smallerSide;
+        int width = Math.round(bitmap.getWidth() * scale);
+        int height = Math.round(bitmap.getHeight() * scale);
+
+        Bitmap.Config config = (bitmap.getConfig() != null) ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap thumbnail = mBitmapPool.get(width, height, config);
+        if (thumbnail != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            thumbnail.reconfigure(width, height, config);
+        } else if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(width, height, config);
+        }
+
+        Canvas canvas = new Canvas(thumbnail);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawBitmap(bitmap, null, new Rect(0, 0, width, height), SCALE_PAINT);
+        return thumbnail;
+    }
+
+    /**
+     * Write the thumbnail to a temporary file, then rename it to its cache name, so a concurrent
+     * load of the same key or a process killed mid-write never leaves a partial file under that name
+     */
+    private synchronized void writeToDiskCache(File file, Bitmap bitmap) {
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+
+        File tmpFile = new File(mDiskCacheDir, file.getName() + ".tmp");
+        boolean written = false;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            written = bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache thumbnail " + file.getName(), e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                    Log.w(TAG, "Unable to close thumbnail " + file.getName(), e);
+                }
+            }
+        }
+        if (!written || !tmpFile.renameTo(file)) {
+            if (!tmpFile.delete() && tmpFile.exists()) {
+                Log.w(TAG, "Unable to delete " + tmpFile.getName());
+            }
+            return;
+        }
+        trimDiskCache();
+    }
+
+    private synchronized void deleteFromDiskCache(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.w(TAG, "Unable to delete thumbnail " + file.getName());
+        }
+    }
+
+    /**
+     * @return - true if the file ends with the JPEG end-of-image marker, which a write cut short
+     * never reaches
+     */
+    private static boolean isCompleteJpeg(File file) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            if (in.length() < 2) {
+                return false;
+            }
+            in.seek(in.length() - 2);
+            return in.read() == 0xFF && in.read() == 0xD9;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // only read from
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the disk cache fits in DISK_CACHE_MAX_BYTES
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= DISK_CACHE_MAX_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long diff = lhs.lastModified() - rhs.lastModified();
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && totalBytes > DISK_CACHE_MAX_BYTES; i++) {
+            totalBytes -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Determine the factor by which to scale down the image resource for use as a thumbnail. Per
+     * Google, factor should be a power of 2.
+     * @param sourceHeight - original height in px of image resource
+     * @param sourceWidth - original width in px of image resource
+     * @param thumbSize - size in px of square thumbnail in card view
+     * @return - int factor to use for scaling
+     */
+    public static int calculateInSampleSize(int sourceHeight, int sourceWidth, int thumbSize) {
+        int smallerSourceDimen = (sourceHeight < sourceWidth) ? sourceHeight : sourceWidth;
+        int inSampleSize = 1;
+
+        if (smallerSourceDimen > thumbSize) {
+            int halfDimen = smallerSourceDimen / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
+            // height and width larger than the requested height and width.
+            while ((halfDimen / inSampleSize) > thumbSize) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Retrieve bitmap from raw folder for use as thumbnail in card view. Scale image down to avoid
+     * overflowing memory.
+     * @param res - reference to app resources
+     * @param resId - id of specific image reference to be used
+     * @param thumbSize - size in px of the square thumbnail in the card view
+     * @return - bitmap to be used as a thumbnail
+     */
+    public static Bitmap decodeThumbnailBitmapFromRes(Resources res, int resId, int thumbSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        // get size of original image
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+
+        // calculate inSampleSize
+        options.inSampleSize = calculateInSampleSize(options.outHeight, options.outWidth, thumbSize);
+
+        // decode bitmap at scaled down sample size, into a pooled bitmap if one fits
+        return BitmapPool.getInstance().decodeResource(res, resId, options);
+    }
+}
@@ -0,0 +1,94 @@
+package com.charlesdrews.neighborhoodguide.location;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+/**
+ * A PlaceLocationSource backed by the fused location provider in Google Play services. The caller
+ * must hold the ACCESS_FINE_LOCATION permission before calling start.
+ */
+public class FusedPlaceLocationSource implements PlaceLocationSource,
+        GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener,
+        LocationListener {
+    private static final String TAG = "FusedPlaceLocationSource";
+    private static final long UPDATE_INTERVAL_MS = 5000;
+    private static final long FASTEST_UPDATE_INTERVAL_MS = 1000;
+
+    private final GoogleApiClient mClient;
+    private Listener mListener;
+
+    public FusedPlaceLocationSource(Context context) {
+        mClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(LocationServices.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    @Override
+    public void start(Listener listener) {
+        mListener = listener;
+        if (mClient.isConnected()) {
+            requestUpdates();
+        } else if (!mClient.isConnecting()) {
+            mClient.connect();
+        }
+    }
+
+    @Override
+    public void stop() {
+        mListener = null;
+        if (mClient.isConnected()) {
+            LocationServices.FusedLocationApi.removeLocationUpdates(mClient, this);
+        }
+        mClient.disconnect();
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        if (mListener != null) {
+            requestUpdates();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // the client reconnects by itself and calls onConnected again
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Log.w(TAG, "Could not connect to location services: " + connectionResult);
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        if (mListener != null) {
+            mListener.onLocationChanged(location);
+        }
+    }
+
+    private void requestUpdates() {
+        LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                .setInterval(UPDATE_INTERVAL_MS)
+                .setFastestInterval(FASTEST_UPDATE_INTERVAL_MS);
+        try {
+            Location lastLocation = LocationServices.FusedLocationApi.getLastLocation(mClient);
+            if (lastLocation != null) {
+                onLocationChanged(lastLocation); // show something right away
+            }
+            LocationServices.FusedLocationApi.requestLocationUpdates(mClient, request, this);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Location permission was revoked", e);
+        }
+    }
+}
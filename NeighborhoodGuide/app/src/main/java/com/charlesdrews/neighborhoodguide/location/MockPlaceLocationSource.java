@@ -0,0 +1,81 @@
+package com.charlesdrews.neighborhoodguide.location;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A PlaceLocationSource that replays a fixed route, for emulators and tests where there is no
+ * GPS fix. The default route walks down 5th Avenue from the Met to Grand Central, passing several
+ * of the bundled places.
+ */
+public class MockPlaceLocationSource implements PlaceLocationSource {
+    public static final String PROVIDER = "mock";
+    private static final float ACCURACY_METERS = 10f;
+
+    private static final double[][] FIFTH_AVENUE_ROUTE = new double[][]{
+            {40.7794, -73.9632},
+            {40.7730, -73.9670},
+            {40.7644, -73.9730},
+            {40.7590, -73.9770},
+            {40.7540, -73.9805},
+            {40.7527, -73.9772}
+    };
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final double[][] mRoute;
+    private final long mIntervalMs;
+    private Listener mListener;
+    private int mNextPoint;
+
+    private final Runnable mDeliverNextPoint = new Runnable() {
+        @Override
+        public void run() {
+            if (mListener == null) {
+                return;
+            }
+            double[] point = mRoute[mNextPoint];
+            mNextPoint = (mNextPoint + 1) % mRoute.length;
+
+            Location location = new Location(PROVIDER);
+            location.setLatitude(point[0]);
+            location.setLongitude(point[1]);
+            location.setAccuracy(ACCURACY_METERS);
+            location.setTime(System.currentTimeMillis());
+            mListener.onLocationChanged(location);
+
+            if (mRoute.length > 1) {
+                mMainHandler.postDelayed(this, mIntervalMs);
+            }
+        }
+    };
+
+    public MockPlaceLocationSource() {
+        this(FIFTH_AVENUE_ROUTE, 1000);
+    }
+
+    /**
+     * @param route - latitude/longitude pairs, repeated in order; a single point is delivered once
+     * @param intervalMs - time between positions
+     */
+    public MockPlaceLocationSource(double[][] route, long intervalMs) {
+        if (route.length == 0) {
+            throw new IllegalArgumentException("route must have at least one point");
+        }
+        mRoute = route;
+        mIntervalMs = intervalMs;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        stop();
+        mListener = listener;
+        mMainHandler.post(mDeliverNextPoint);
+    }
+
+    @Override
+    public void stop() {
+        mMainHandler.removeCallbacks(mDeliverNextPoint);
+        mListener = null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.charlesdrews.neighborhoodguide.location;
+
+import android.location.Location;
+
+/**
+ * Supplies the user's position to the screens that sort or filter places by distance
+ */
+public interface PlaceLocationSource {
+
+    interface Listener {
+        /**
+         * Called on the main thread with each new position
+         * @param location - the new position
+         */
+        void onLocationChanged(Location location);
+    }
+
+    /**
+     * Start delivering positions to the listener, replacing any previous listener
+     * @param listener - receives each new position
+     */
+    void start(Listener listener);
+
+    /**
+     * Stop delivering positions
+     */
+    void stop();
+}
@@ -0,0 +1,132 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Reads a CSV catalog (RFC 4180: fields containing commas, quotes or line breaks are quoted, and
+ * quotes inside them are doubled). The first row names the columns, using the database column
+ * names - title, location, neighborhood, category, description, image_resource, image_credit,
+ * latitude, longitude - in any order. Blank lines are skipped.
+ */
+public class CsvPlaceCatalogReader implements PlaceCatalogReader {
+    private static final int END = -1;
+
+    private final BufferedReader mReader;
+    private String[] mHeader;
+    private int mPeeked = -2; // -2 = nothing peeked
+    private int mLineNumber = 1;
+
+    public CsvPlaceCatalogReader(Reader reader) {
+        mReader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public PlaceCatalogRecord read() throws IOException {
+        if (mHeader == null) {
+            ArrayList<String> header = readNonBlankRow();
+            if (header == null) {
+                return null;
+            }
+            mHeader = new String[header.size()];
+            for (int i = 0; i < mHeader.length; i++) {
+                mHeader[i] = header.get(i).trim().toLowerCase(Locale.US);
+            }
+        }
+
+        ArrayList<String> fields = readNonBlankRow();
+        if (fields == null) {
+            return null;
+        }
+        HashMap<String, String> values = new HashMap<>();
+        for (int i = 0; i < mHeader.length && i < fields.size(); i++) {
+            values.put(mHeader[i], fields.get(i));
+        }
+        return PlaceCatalogRecord.fromColumns(values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    private ArrayList<String> readNonBlankRow() throws IOException {
+        ArrayList<String> row = readRow();
+        while (row != null && row.size() == 1 && row.get(0).trim().isEmpty()) {
+            row = readRow();
+        }
+        return row;
+    }
+
+    /**
+     * @return - the fields of the next row, or null at the end of the file
+     */
+    private ArrayList<String> readRow() throws IOException {
+        int c = next();
+        if (c == END) {
+            return null;
+        }
+
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        int quotedFieldLine = 0;
+
+        while (true) {
+            if (inQuotes) {
+                if (c == END) {
+                    throw new IOException("Unterminated quoted field starting on line " + quotedFieldLine);
+                } else if (c == '"') {
+                    if (peek() == '"') {
+                        next();
+                        field.append('"'); // doubled quote is a literal quote
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                inQuotes = true;
+                quotedFieldLine = mLineNumber;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r' || c == END) {
+                if (c == '\r' && peek() == '\n') {
+                    next();
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = next();
+        }
+    }
+
+    private int next() throws IOException {
+        int c;
+        if (mPeeked != -2) {
+            c = mPeeked;
+            mPeeked = -2;
+        } else {
+            c = mReader.read();
+        }
+        if (c == '\n') {
+            mLineNumber++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (mPeeked == -2) {
+            mPeeked = mReader.read();
+        }
+        return mPeeked;
+    }
+}
@@ -0,0 +1,84 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * An immutable latitude/longitude rectangle, in degrees, such as the visible region of a map.
+ * Boxes that cross the 180th meridian are not supported - they are clamped at it.
+ */
+public class GeoBox {
+    private final double mSouth;
+    private final double mWest;
+    private final double mNorth;
+    private final double mEast;
+
+    /**
+     * @param south - minimum latitude
+     * @param west - minimum longitude
+     * @param north - maximum latitude
+     * @param east - maximum longitude
+     */
+    public GeoBox(double south, double west, double north, double east) {
+        if (south > north || west > east) {
+            throw new IllegalArgumentException("Empty or inverted box: " + south + ", " + west
+                    + " to " + north + ", " + east);
+        }
+        mSouth = south;
+        mWest = west;
+        mNorth = north;
+        mEast = east;
+    }
+
+    /**
+     * The smallest box containing every point within radiusMeters of a point
+     * @param latitude - latitude of the center
+     * @param longitude - longitude of the center
+     * @param radiusMeters - distance from the center
+     * @return - the bounding box of the circle
+     */
+    public static GeoBox around(double latitude, double longitude, double radiusMeters) {
+        double angularRadius = radiusMeters / PlaceGeo.EARTH_RADIUS_METERS;
+        double south = latitude - Math.toDegrees(angularRadius);
+        double north = latitude + Math.toDegrees(angularRadius);
+        if (south <= -90 || north >= 90) {
+            // the circle contains a pole, so it spans every longitude
+            return new GeoBox(Math.max(south, -90), -180, Math.min(north, 90), 180);
+        }
+
+        // widest longitude of the circle, which is reached north or south of the center's latitude
+        double sinLongitudeDelta = Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude));
+        if (sinLongitudeDelta >= 1) {
+            return new GeoBox(south, -180, north, 180);
+        }
+        double longitudeDelta = Math.toDegrees(Math.asin(sinLongitudeDelta));
+        return new GeoBox(south, Math.max(longitude - longitudeDelta, -180),
+                north, Math.min(longitude + longitudeDelta, 180));
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        return latitude >= mSouth && latitude <= mNorth && longitude >= mWest && longitude <= mEast;
+    }
+
+    public boolean coversWholeWorld() {
+        return mSouth <= -90 && mNorth >= 90 && mWest <= -180 && mEast >= 180;
+    }
+
+    public double getSouth() {
+        return mSouth;
+    }
+
+    public double getWest() {
+        return mWest;
+    }
+
+    public double getNorth() {
+        return mNorth;
+    }
+
+    public double getEast() {
+        return mEast;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoBox(" + mSouth + ", " + mWest + " to " + mNorth + ", " + mEast + ")";
+    }
+}
@@ -0,0 +1,54 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+
+/**
+ * Reads a JSON catalog: an array of objects whose keys are the database column names - title,
+ * location, neighborhood, category, description, image_resource, image_credit, latitude,
+ * longitude. Other keys and null values are ignored. The array is streamed, so only one place
+ * is in memory at a time.
+ */
+public class JsonPlaceCatalogReader implements PlaceCatalogReader {
+    private final JsonReader mReader;
+    private boolean mStarted;
+
+    public JsonPlaceCatalogReader(Reader reader) {
+        mReader = new JsonReader(reader);
+    }
+
+    @Override
+    public PlaceCatalogRecord read() throws IOException {
+        if (!mStarted) {
+            mReader.beginArray();
+            mStarted = true;
+        }
+        if (!mReader.hasNext()) {
+            return null;
+        }
+
+        HashMap<String, String> values = new HashMap<>();
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if (mReader.peek() == JsonToken.NULL) {
+                mReader.nextNull();
+            } else if (mReader.peek() == JsonToken.STRING || mReader.peek() == JsonToken.NUMBER) {
+                values.put(name, mReader.nextString());
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return PlaceCatalogRecord.fromColumns(values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
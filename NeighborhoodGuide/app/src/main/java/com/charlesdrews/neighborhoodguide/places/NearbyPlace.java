@@ -0,0 +1,35 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * A place's id and coordinates, with its distance from the point a nearby-place search was made
+ * around
+ */
+public class NearbyPlace {
+    private final int mId;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mDistanceMeters;
+
+    public NearbyPlace(int id, double latitude, double longitude, double distanceMeters) {
+        mId = id;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDistanceMeters = distanceMeters;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getDistanceMeters() {
+        return mDistanceMeters;
+    }
+}
@@ -1,7 +1,9 @@
 package com.charlesdrews.neighborhoodguide.places;
 
 /**
- * Models a Place object representing a physical location in the real world
+ * Models a Place object representing a physical location in the real world. Remembers the
+ * persisted values of the fields the user can change - favorite status, rating and note - so
+ * only the ones that actually changed are written (see getChanges).
  * Created by charlie on 2/2/16.
  */
 public class Place {
@@ -16,6 +18,13 @@ public class Place {
     private boolean mIsFavorite;
     private float mRating;
     private String mNote;
+    private Double mLatitude;
+    private Double mLongitude;
+
+    // values in the database, or already queued to be written; null if unknown
+    private Boolean mSavedIsFavorite;
+    private Float mSavedRating;
+    private String mSavedNote;
 
     public Place (int id, String title, String location, String neighborhood, String category,
                   String description, String imageRes, String imageCredit, boolean isFavorite,
@@ -32,6 +41,21 @@ public class Place {
         mIsFavorite = isFavorite;
         mRating = rating;
         mNote = note;
+        markSaved();
+    }
+
+    /**
+     * @param latitude - latitude in degrees, or null if the place's coordinates are unknown
+     * @param longitude - longitude in degrees, or null if the place's coordinates are unknown
+     */
+    public Place (int id, String title, String location, String neighborhood, String category,
+                  String description, String imageRes, String imageCredit, boolean isFavorite,
+                  float rating, String note, Double latitude, Double longitude)
+    {
+        this(id, title, location, neighborhood, category, description, imageRes, imageCredit,
+                isFavorite, rating, note);
+        mLatitude = latitude;
+        mLongitude = longitude;
     }
 
     public int getId() {
@@ -93,4 +117,78 @@ public class Place {
     public void setNote(String note) {
         mNote = note;
     }
+
+    public boolean hasCoordinates() {
+        return mLatitude != null && mLongitude != null;
+    }
+
+    public Double getLatitude() {
+        return mLatitude;
+    }
+
+    public Double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setCoordinates(Double latitude, Double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * @return - true if the favorite status, rating or note differs from its persisted value
+     */
+    public boolean isDirty() {
+        return getChanges() != null;
+    }
+
+    /**
+     * @return - an update with only the fields that differ from their persisted values, or null
+     * if nothing changed
+     */
+    public PlaceUpdate getChanges() {
+        Boolean isFavorite = (mSavedIsFavorite == null || mSavedIsFavorite != mIsFavorite)
+                ? mIsFavorite : null;
+        Float rating = (mSavedRating == null || Float.compare(mSavedRating, mRating) != 0)
+                ? mRating : null;
+        String note = (mSavedNote == null || !mSavedNote.equals(getNote())) ? getNote() : null;
+        if (isFavorite == null && rating == null && note == null) {
+            return null;
+        }
+        return new PlaceUpdate(mId, isFavorite, false, rating, note);
+    }
+
+    /**
+     * Record the current favorite status, rating and note as persisted
+     */
+    public void markSaved() {
+        mSavedIsFavorite = mIsFavorite;
+        mSavedRating = mRating;
+        mSavedNote = getNote();
+    }
+
+    /**
+     * Record the fields an update changed as persisted, e.g. once it is queued to be written
+     * @param update - the update; a favorite toggle is ignored, as its result is not known yet
+     */
+    public void markSaved(PlaceUpdate update) {
+        if (update.getFavoriteStatus() != null) {
+            mSavedIsFavorite = update.getFavoriteStatus();
+        }
+        if (update.getRating() != null) {
+            mSavedRating = update.getRating();
+        }
+        if (update.getNote() != null) {
+            mSavedNote = update.getNote();
+        }
+    }
+
+    /**
+     * Forget the persisted values, e.g. after a write failed, so the next save writes every field
+     */
+    public void markUnsaved() {
+        mSavedIsFavorite = null;
+        mSavedRating = null;
+        mSavedNote = null;
+    }
 }
@@ -0,0 +1,239 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Loads a place catalog into the database in large transactions through two compiled statements
+ * that are reused for every row, instead of one implicit transaction (and one disk sync) per
+ * place as PlaceDbOpenHelper.insertPlace does.
+ *
+ * Places are upserted by their natural key, (title, location): a place already in the database
+ * has its catalog columns updated and keeps the user's favorite status, rating and note. Only
+ * places whose catalog columns differ are written (see PlaceSchema.SQL_UPDATE_CATALOG_PLACE), so
+ * importing the same catalog again changes nothing and notifies no one. The search index is kept up to date by the
+ * triggers on the places table, and observers of the change tracker are told once the import ends.
+ */
+public class PlaceCatalogImporter {
+    private static final String TAG = "PlaceCatalogImporter";
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread after each committed batch
+         * @param rowsProcessed - catalog rows read so far
+         * @param rowsPerSecond - average import rate so far
+         */
+        void onProgress(int rowsProcessed, float rowsPerSecond);
+    }
+
+    public static class Result {
+        private final int mInserted;
+        private final int mUpdated;
+        private final int mUnchanged;
+        private final int mSkipped;
+        private final long mElapsedMs;
+
+        Result(int inserted, int updated, int unchanged, int skipped, long elapsedMs) {
+            mInserted = inserted;
+            mUpdated = updated;
+            mUnchanged = unchanged;
+            mSkipped = skipped;
+            mElapsedMs = elapsedMs;
+        }
+
+        public int getInserted() {
+            return mInserted;
+        }
+
+        public int getUpdated() {
+            return mUpdated;
+        }
+
+        /**
+         * @return - rows already in the database with the same catalog columns
+         */
+        public int getUnchanged() {
+            return mUnchanged;
+        }
+
+        /**
+         * @return - rows without a title and location, or rejected by the schema (e.g. no category)
+         */
+        public int getSkipped() {
+            return mSkipped;
+        }
+
+        public long getElapsedMs() {
+            return mElapsedMs;
+        }
+
+        public float getRowsPerSecond() {
+            return rowsPerSecond(mInserted + mUpdated + mUnchanged + mSkipped, mElapsedMs);
+        }
+    }
+
+    private final PlaceDbOpenHelper mHelper;
+    private final int mBatchSize;
+
+    public PlaceCatalogImporter(PlaceDbOpenHelper helper) {
+        this(helper, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param helper - database to import into
+     * @param batchSize - rows committed per transaction
+     */
+    public PlaceCatalogImporter(PlaceDbOpenHelper helper, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        mHelper = helper;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Import every place in the catalog, then close the reader. Must not be called on the main
+     * thread. Batches committed before an IOException are kept.
+     * @param reader - catalog to import
+     * @param listener - notified after each batch (can be null)
+     * @return - counts of inserted, updated and skipped rows
+     * @throws IOException - if the catalog cannot be read
+     */
+    public Result importCatalog(PlaceCatalogReader reader, ProgressListener listener)
+            throws IOException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SQLiteStatement update = db.compileStatement(PlaceSchema.SQL_UPDATE_CATALOG_PLACE);
+        SQLiteStatement count = db.compileStatement(PlaceSchema.SQL_COUNT_CATALOG_PLACE);
+        SQLiteStatement insert = db.compileStatement(PlaceSchema.SQL_INSERT_CATALOG_PLACE);
+
+        long start = SystemClock.elapsedRealtime();
+        int inserted = 0, updated = 0, unchanged = 0, skipped = 0;
+        try {
+            PlaceCatalogRecord record = reader.read();
+            while (record != null) {
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < mBatchSize && record != null; i++) {
+                        if (!record.hasNaturalKey()) {
+                            skipped++;
+                        } else if (updatePlace(update, record)) {
+                            updated++;
+                        } else if (hasPlace(count, record)) {
+                            unchanged++;
+                        } else if (insertPlace(insert, record)) {
+                            inserted++;
+                        } else {
+                            skipped++;
+                        }
+                        record = reader.read();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (listener != null) {
+                    int processed = inserted + updated + unchanged + skipped;
+                    listener.onProgress(processed,
+                            rowsPerSecond(processed, SystemClock.elapsedRealtime() - start));
+                }
+            }
+        } finally {
+            update.close();
+            count.close();
+            insert.close();
+            reader.close();
+            if (inserted + updated > 0) { // batches committed before an IOException still count
+                mHelper.invalidatePlaceKdTree();
+                mHelper.onPlacesWritten(PlaceChange.allRows(PlaceChange.CATALOG | PlaceChange.ROWS));
+            }
+        }
+        if (inserted + updated > 0) {
+            // not in the finally block, where a failure would hide the IOException; the
+            // statistics of an import cut short are brought up to date by the next one
+            mHelper.updateIndexStats(); // the import can change how places spread over the filters
+        }
+
+        Result result = new Result(inserted, updated, unchanged, skipped,
+                SystemClock.elapsedRealtime() - start);
+        Log.i(TAG, "Imported catalog: " + inserted + " inserted, " + updated + " updated, "
+                + unchanged + " unchanged, " + skipped + " skipped in " + result.getElapsedMs()
+                + " ms (" + Math.round(result.getRowsPerSecond()) + " rows/sec)");
+        return result;
+    }
+
+    /**
+     * @return - true if a place with the record's title and location existed, and any of its
+     * catalog columns differed
+     */
+    private static boolean updatePlace(SQLiteStatement update, PlaceCatalogRecord record) {
+        update.clearBindings();
+        bindNullable(update, 1, record.getNeighborhood());
+        bindNullable(update, 2, record.getCategory());
+        bindNullable(update, 3, record.getDescription());
+        bindNullable(update, 4, record.getImageRes());
+        bindNullable(update, 5, record.getImageCredit());
+        bindNullable(update, 6, record.getLatitude());
+        bindNullable(update, 7, record.getLongitude());
+        update.bindString(8, record.getTitle());
+        update.bindString(9, record.getLocation());
+        return update.executeUpdateDelete() > 0;
+    }
+
+    /**
+     * @return - true if a place with the record's title and location exists
+     */
+    private static boolean hasPlace(SQLiteStatement count, PlaceCatalogRecord record) {
+        count.bindString(1, record.getTitle());
+        count.bindString(2, record.getLocation());
+        return count.simpleQueryForLong() > 0;
+    }
+
+    /**
+     * @return - true if inserted, false if the schema rejected the row
+     */
+    private static boolean insertPlace(SQLiteStatement insert, PlaceCatalogRecord record) {
+        insert.clearBindings();
+        insert.bindString(1, record.getTitle());
+        insert.bindString(2, record.getLocation());
+        bindNullable(insert, 3, record.getNeighborhood());
+        bindNullable(insert, 4, record.getCategory());
+        bindNullable(insert, 5, record.getDescription());
+        bindNullable(insert, 6, record.getImageRes());
+        bindNullable(insert, 7, record.getImageCredit());
+        bindNullable(insert, 8, record.getLatitude());
+        bindNullable(insert, 9, record.getLongitude());
+        try {
+            return insert.executeInsert() != -1;
+        } catch (SQLiteConstraintException e) {
+            Log.w(TAG, "Skipped catalog row " + record.getTitle() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static float rowsPerSecond(int rows, long elapsedMs) {
+        return rows * 1000f / Math.max(1, elapsedMs);
+    }
+}
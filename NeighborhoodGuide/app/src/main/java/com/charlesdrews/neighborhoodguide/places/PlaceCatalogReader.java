@@ -0,0 +1,17 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the places in a catalog file one at a time, so a catalog of any size can be imported
+ * without holding it in memory
+ */
+public interface PlaceCatalogReader extends Closeable {
+
+    /**
+     * @return - the next place in the catalog, or null at the end of the catalog
+     * @throws IOException - if the file cannot be read or is malformed
+     */
+    PlaceCatalogRecord read() throws IOException;
+}
@@ -0,0 +1,120 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.Map;
+
+/**
+ * One place read from a catalog file by a PlaceCatalogReader. Holds only the catalog columns -
+ * favorite status, rating and note belong to the user and are never imported. A place is
+ * identified by its natural key, (title, location), so importing the same catalog twice updates
+ * the places from the first import instead of duplicating them.
+ */
+public class PlaceCatalogRecord {
+    private final String mTitle;
+    private final String mLocation;
+    private final String mNeighborhood;
+    private final String mCategory;
+    private final String mDescription;
+    private final String mImageRes;
+    private final String mImageCredit;
+    private final Double mLatitude;
+    private final Double mLongitude;
+
+    public PlaceCatalogRecord(String title, String location, String neighborhood, String category,
+                              String description, String imageRes, String imageCredit,
+                              Double latitude, Double longitude) {
+        mTitle = title;
+        mLocation = location;
+        mNeighborhood = neighborhood;
+        mCategory = category;
+        mDescription = description;
+        mImageRes = imageRes;
+        mImageCredit = imageCredit;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * Build a record from a row keyed by database column names (see PlaceSchema); other keys are
+     * ignored, and blank values (and coordinates that are not numbers) are treated as missing
+     * @param values - column name -> value
+     * @return - the record
+     */
+    public static PlaceCatalogRecord fromColumns(Map<String, String> values) {
+        return new PlaceCatalogRecord(
+                valueOf(values, PlaceSchema.COL_TITLE),
+                valueOf(values, PlaceSchema.COL_LOCATION),
+                valueOf(values, PlaceSchema.COL_NEIGHBORHOOD),
+                valueOf(values, PlaceSchema.COL_CATEGORY),
+                valueOf(values, PlaceSchema.COL_DESCRIPTION),
+                valueOf(values, PlaceSchema.COL_IMAGE_RES),
+                valueOf(values, PlaceSchema.COL_IMAGE_CREDIT),
+                coordinateOf(values, PlaceSchema.COL_LATITUDE, 90),
+                coordinateOf(values, PlaceSchema.COL_LONGITUDE, 180)
+        );
+    }
+
+    private static String valueOf(Map<String, String> values, String column) {
+        String value = values.get(column);
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Double coordinateOf(Map<String, String> values, String column, double limit) {
+        String value = valueOf(values, column);
+        if (value == null) {
+            return null;
+        }
+        try {
+            double coordinate = Double.parseDouble(value);
+            return (Math.abs(coordinate) <= limit) ? coordinate : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return - true if the record has both parts of its natural key
+     */
+    public boolean hasNaturalKey() {
+        return mTitle != null && mLocation != null;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public String getNeighborhood() {
+        return mNeighborhood;
+    }
+
+    public String getCategory() {
+        return mCategory;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public String getImageRes() {
+        return mImageRes;
+    }
+
+    public String getImageCredit() {
+        return mImageCredit;
+    }
+
+    public Double getLatitude() {
+        return mLatitude;
+    }
+
+    public Double getLongitude() {
+        return mLongitude;
+    }
+}
@@ -0,0 +1,149 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.Arrays;
+
+/**
+ * What one committed write changed in the places table: which kinds of columns, and either which
+ * rows or, for a bulk write such as a catalog import, every row. Favorite changes carry the status
+ * each place ended up with, so a list can show it without reading the row again. Immutable.
+ */
+public class PlaceChange {
+    public static final int FAVORITE = 1;
+    public static final int RATING = 1 << 1;
+    public static final int NOTE = 1 << 2;
+    public static final int CATALOG = 1 << 3; // title, location, category, image, coordinates...
+    public static final int ROWS = 1 << 4; // places inserted or deleted
+    public static final int ALL = FAVORITE | RATING | NOTE | CATALOG | ROWS;
+
+    private final int mColumns;
+    private final int[] mIds; // null if any row may have changed
+    private final Boolean[] mFavoriteStatus; // per id: the new status, or null if not changed/known
+
+    private PlaceChange(int columns, int[] ids, Boolean[] favoriteStatus) {
+        mColumns = columns;
+        mIds = ids;
+        mFavoriteStatus = favoriteStatus;
+    }
+
+    /**
+     * @param columns - kinds of columns changed, e.g. CATALOG | ROWS
+     * @return - a change to any number of rows, e.g. from a catalog import
+     */
+    public static PlaceChange allRows(int columns) {
+        return new PlaceChange(columns, null, null);
+    }
+
+    /**
+     * @param id - _id of the changed place
+     * @param columns - kinds of columns changed; for FAVORITE, use favoriteStatus instead
+     * @return - a change to one place
+     */
+    public static PlaceChange row(int id, int columns) {
+        return new PlaceChange(columns, new int[]{id}, new Boolean[1]);
+    }
+
+    /**
+     * @param id - _id of the changed place
+     * @param isFavorite - the favorite status it now has
+     * @return - a change to one place's favorite status
+     */
+    public static PlaceChange favoriteStatus(int id, boolean isFavorite) {
+        return new PlaceChange(FAVORITE, new int[]{id}, new Boolean[]{isFavorite});
+    }
+
+    /**
+     * @param written - updates committed in one transaction, with toggles resolved; null entries
+     *                (places not found) and empty updates are skipped
+     * @return - the change they made, or null if they changed nothing
+     */
+    public static PlaceChange forUpdates(PlaceUpdate[] written) {
+        int count = 0;
+        for (PlaceUpdate update : written) {
+            if (update != null && !update.isEmpty()) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        int columns = 0;
+        int[] ids = new int[count];
+        Boolean[] favoriteStatus = new Boolean[count];
+        int i = 0;
+        for (PlaceUpdate update : written) {
+            if (update == null || update.isEmpty()) {
+                continue;
+            }
+            ids[i] = update.getId();
+            favoriteStatus[i] = update.getFavoriteStatus();
+            if (update.getFavoriteStatus() != null || update.isFavoriteToggle()) {
+                columns |= FAVORITE;
+            }
+            if (update.getRating() != null) {
+                columns |= RATING;
+            }
+            if (update.getNote() != null) {
+                columns |= NOTE;
+            }
+            i++;
+        }
+        return new PlaceChange(columns, ids, favoriteStatus);
+    }
+
+    /**
+     * @param columns - kinds of columns, e.g. FAVORITE | CATALOG
+     * @return - true if any of them changed
+     */
+    public boolean affects(int columns) {
+        return (mColumns & columns) != 0;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * @return - true if the changed rows are not known, so any row may have changed
+     */
+    public boolean isAllRows() {
+        return mIds == null;
+    }
+
+    /**
+     * @return - number of changed rows; 0 if isAllRows()
+     */
+    public int getRowCount() {
+        return (mIds == null) ? 0 : mIds.length;
+    }
+
+    /**
+     * @param index - 0 to getRowCount() - 1
+     * @return - _id of a changed place
+     */
+    public int getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * @param index - 0 to getRowCount() - 1
+     * @return - the favorite status the place now has, or null if it was not changed or is not
+     * known
+     */
+    public Boolean getFavoriteStatus(int index) {
+        return mFavoriteStatus[index];
+    }
+
+    /**
+     * @return - a copy of the changed _ids, or null if isAllRows()
+     */
+    public int[] getIds() {
+        return (mIds == null) ? null : mIds.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceChange{columns=" + mColumns + ", ids="
+                + ((mIds == null) ? "all" : Arrays.toString(mIds)) + "}";
+    }
+}
@@ -0,0 +1,101 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells observers - e.g. the open lists - about writes to the places table once they have been
+ * committed, so they can update just the rows that changed instead of being refreshed by hand or
+ * re-running their whole query. Each observer subscribes to the kinds of columns it shows (see
+ * PlaceChange), so e.g. a rating change doesn't wake the lists, which don't show ratings.
+ *
+ * All methods are thread safe.
+ */
+public class PlaceChangeTracker {
+
+    public interface Observer {
+        /**
+         * Called on the callback executor after a write that touched the observed columns
+         * @param change - what the write changed
+         */
+        void onPlacesChanged(PlaceChange change);
+    }
+
+    private static class Subscription {
+        private final Observer mObserver;
+        private final int mColumns;
+        private volatile boolean mActive = true;
+
+        Subscription(Observer observer, int columns) {
+            mObserver = observer;
+            mColumns = columns;
+        }
+    }
+
+    private final Executor mCallbackExecutor;
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param callbackExecutor - where observers are called, e.g. the main thread; null to call
+     *                         them on the writing thread
+     */
+    public PlaceChangeTracker(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @param observer - notified of changes until removed
+     * @param columns - kinds of columns to be notified about, e.g. PlaceChange.FAVORITE
+     */
+    public void addObserver(Observer observer, int columns) {
+        mSubscriptions.add(new Subscription(observer, columns));
+    }
+
+    /**
+     * Stop notifying the observer, including of changes committed but not yet delivered to it
+     * @param observer - observer passed to addObserver
+     */
+    public void removeObserver(Observer observer) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mObserver == observer) {
+                subscription.mActive = false;
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Notify the observers of the changed columns. Call only after the write has committed.
+     * @param change - what was written (can be null, for nothing)
+     */
+    public void notifyChanged(final PlaceChange change) {
+        if (change == null) {
+            return;
+        }
+        for (final Subscription subscription : mSubscriptions) {
+            if (!change.affects(subscription.mColumns)) {
+                continue;
+            }
+            Runnable notify = new Runnable() {
+                @Override
+                public void run() {
+                    if (subscription.mActive) {
+                        subscription.mObserver.onPlacesChanged(change);
+                    }
+                }
+            };
+            if (mCallbackExecutor == null) {
+                notify.run();
+            } else {
+                mCallbackExecutor.execute(notify);
+            }
+        }
+    }
+
+    /**
+     * @return - observers currently subscribed
+     */
+    public int getObserverCount() {
+        return mSubscriptions.size();
+    }
+}
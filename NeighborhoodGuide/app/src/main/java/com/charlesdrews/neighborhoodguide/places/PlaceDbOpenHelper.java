@@ -3,57 +3,78 @@ package com.charlesdrews.neighborhoodguide.places;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 /**
- * Provides access to the table "places" in the database places.db
+ * Provides access to the table "places" in the database places.db. This is the only way the app
+ * opens the database: the first open copies it out of assets/databases (once per install), turns
+ * on write-ahead logging so list queries can read while the write queue commits, and applies any
+ * pending migrations. NeighborhoodGuideApplication does that open in the background at startup.
  * Created by charlie on 2/2/16.
  */
 public class PlaceDbOpenHelper extends SQLiteOpenHelper {
+    private static final String TAG = "PlaceDbOpenHelper";
     private static final String DATABASE_NAME = "places.db";
     private static final int DATABASE_VERSION = 1;
-
-    private static final String ALL_CATEGORIES = "All";
-    private static final String UNCATEGORIZED = "Uncategorized";
-
-    public static final String TABLE_NAME_PLACES = "places";
-    public static final String COL_ID = "_id";
-    public static final String COL_TITLE = "title";
-    public static final String COL_LOCATION = "location";
-    public static final String COL_NEIGHBORHOOD = "neighborhood";
-    public static final String COL_CATEGORY = "category";
-    public static final String COL_DESCRIPTION = "description";
-    public static final String COL_IMAGE_RES = "image_resource";
-    public static final String COL_IMAGE_CREDIT = "image_credit";
-    public static final String COL_IS_FAVORITE = "is_favorite";
-    public static final String COL_RATING = "rating";
-    public static final String COL_NOTE = "note";
-
-    private static final String[] SEARCH_RESULT_COLUMNS = new String[]{ COL_ID, COL_TITLE,
-            COL_CATEGORY, COL_LOCATION, COL_NEIGHBORHOOD, COL_IS_FAVORITE, COL_IMAGE_RES};
-
-    private static final String SQL_DROP_PLACES_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME_PLACES;
-    private static final String SQL_CREATE_PLACES_TABLE =
-            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME_PLACES + " ("
-                    + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                    + COL_TITLE + " TEXT, "
-                    + COL_LOCATION + " TEXT, "
-                    + COL_NEIGHBORHOOD + " TEXT, "
-                    + COL_CATEGORY + " TEXT, "
-                    + COL_DESCRIPTION + " TEXT, "
-                    + COL_IMAGE_RES + " TEXT, "
-                    + COL_IMAGE_CREDIT + " TEXT, "
-                    + COL_IS_FAVORITE + " INTEGER, "
-                    + COL_RATING + " REAL, "
-                    + COL_NOTE + " TEXT)";
+    private static final String DATABASE_ASSET_PATH = "databases/" + DATABASE_NAME;
+    private static final long WRITE_QUEUE_FLUSH_TIMEOUT_MS = 2000;
+    private static final int RESULT_CACHE_BYTES = 256 * 1024; // about 50,000 ids
+
+    public static final String TABLE_NAME_PLACES = PlaceSchema.TABLE_NAME_PLACES;
+    public static final String COL_ID = PlaceSchema.COL_ID;
+    public static final String COL_TITLE = PlaceSchema.COL_TITLE;
+    public static final String COL_LOCATION = PlaceSchema.COL_LOCATION;
+    public static final String COL_NEIGHBORHOOD = PlaceSchema.COL_NEIGHBORHOOD;
+    public static final String COL_CATEGORY = PlaceSchema.COL_CATEGORY;
+    public static final String COL_DESCRIPTION = PlaceSchema.COL_DESCRIPTION;
+    public static final String COL_IMAGE_RES = PlaceSchema.COL_IMAGE_RES;
+    public static final String COL_IMAGE_CREDIT = PlaceSchema.COL_IMAGE_CREDIT;
+    public static final String COL_IS_FAVORITE = PlaceSchema.COL_IS_FAVORITE;
+    public static final String COL_RATING = PlaceSchema.COL_RATING;
+    public static final String COL_NOTE = PlaceSchema.COL_NOTE;
+    public static final String COL_LATITUDE = PlaceSchema.COL_LATITUDE;
+    public static final String COL_LONGITUDE = PlaceSchema.COL_LONGITUDE;
+
+    public static final String COL_SEARCH_RANK = PlaceSchema.COL_SEARCH_RANK;
+
+    private static final String[] VIEWPORT_COLUMNS = new String[]{ COL_ID, COL_TITLE,
+            COL_CATEGORY, COL_LOCATION, COL_NEIGHBORHOOD, COL_IS_FAVORITE, COL_IMAGE_RES,
+            COL_LATITUDE, COL_LONGITUDE};
 
     private static PlaceDbOpenHelper mInstance;
 
-    public static PlaceDbOpenHelper getInstance(Context context) {
+    private final Context mContext;
+    private volatile boolean mDatabaseFileReady; // the asset has been copied, or was already
+
+    private volatile Boolean mHasSpatialIndex; // whether the optional R*Tree migration succeeded
+    private PlaceKdTree mPlaceKdTree; // built on first use by getPlaceKdTree
+    private PlaceWriteQueue mWriteQueue; // created on first use by getWriteQueue
+    private final PlaceChangeTracker mChangeTracker;
+    private final PlaceStatementCache mStatementCache = new PlaceStatementCache();
+    private final PlaceResultCache mResultCache = new PlaceResultCache(RESULT_CACHE_BYTES);
+    private PlaceFacetCounts mFacetCounts; // read on first use by getFacetCounts
+    private long mFacetCountsVersion = 0; // bumped by each write that changes the counts
+    private volatile PlaceIndexStats mIndexStats; // read on first use by getIndexStats
+
+    public static synchronized PlaceDbOpenHelper getInstance(Context context) {
         if (mInstance == null) {
             mInstance = new PlaceDbOpenHelper(context.getApplicationContext());
         }
@@ -62,163 +83,477 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
 
     private PlaceDbOpenHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        mChangeTracker = new PlaceChangeTracker(TaskLanes.getInstance().getMainThreadExecutor());
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Get the tracker that tells observers about each write to the places table once it has
+     * committed. Every write method of this class reports to it. Observers are called on the main
+     * thread.
+     * @return - the tracker
+     */
+    public PlaceChangeTracker getChangeTracker() {
+        return mChangeTracker;
+    }
+
+    /**
+     * Get the SQL of the list queries, one per shape, with its hit rate
+     * @return - the cache
+     */
+    public PlaceStatementCache getStatementCache() {
+        return mStatementCache;
+    }
+
+    /**
+     * Get the cache of recently loaded lists of ids, which PlacePagedList.load reads through.
+     * Every write method of this class invalidates it.
+     * @return - the cache
+     */
+    public PlaceResultCache getResultCache() {
+        return mResultCache;
+    }
+
+    /**
+     * Report a committed write: drop the cached lists and facet counts it changed, then notify the
+     * change tracker's observers. Call only after the write has committed.
+     * @param change - what was written (can be null, for nothing)
+     */
+    void onPlacesWritten(PlaceChange change) {
+        mResultCache.invalidate(change);
+        invalidateFacetCounts(change);
+        mChangeTracker.notifyChanged(change);
     }
 
     @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.execSQL(SQL_CREATE_PLACES_TABLE);
+    public SQLiteDatabase getWritableDatabase() {
+        copyDatabaseAssetIfNeeded();
+        return super.getWritableDatabase();
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(SQL_DROP_PLACES_TABLE);
-        onCreate(db);
+    public SQLiteDatabase getReadableDatabase() {
+        copyDatabaseAssetIfNeeded();
+        return super.getReadableDatabase();
     }
 
     /**
-     * Queries the db for places based on isFavorite status and category
-     * @param favoritesOnly - boolean status for desired results
-     * @param category - value to be used to constrain results (can be null)
-     * @return - a Cursor of db query results
+     * Open the database now - copying it out of assets and migrating it if need be - so the first
+     * screen doesn't wait for it. Call on a worker thread.
      */
-    private Cursor getPlaces(boolean favoritesOnly, String category) {
-        StringBuilder selectionStrBuilder = new StringBuilder();
-        ArrayList<String> selectionArgsList = new ArrayList<>();
+    public void warmUp() {
+        long start = SystemClock.elapsedRealtime();
+        getWritableDatabase();
+        getFacetCounts(); // so the first filter dialog opens with its counts
+        Log.i(TAG, "Database ready in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
 
-        if (favoritesOnly) {
-            selectionStrBuilder.append(COL_IS_FAVORITE + "=1");
+    /**
+     * On first run, copy the database shipped in assets to where SQLiteOpenHelper opens it. The
+     * copy is written to a temporary file and renamed into place, so a copy interrupted by the
+     * process being killed is started over rather than opened half-written.
+     */
+    private void copyDatabaseAssetIfNeeded() {
+        if (mDatabaseFileReady) {
+            return;
         }
-
-        if (category != null && !category.equals(ALL_CATEGORIES)) {
-            if (selectionStrBuilder.length() > 0) {
-                selectionStrBuilder.append(" AND ");
+        synchronized (this) {
+            if (mDatabaseFileReady) {
+                return;
+            }
+            File dbFile = mContext.getDatabasePath(DATABASE_NAME);
+            if (!dbFile.exists()) {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    copyDatabaseAsset(dbFile);
+                } catch (IOException e) {
+                    throw new SQLiteException("Could not copy " + DATABASE_ASSET_PATH, e);
+                }
+                Log.i(TAG, "Copied " + DATABASE_ASSET_PATH + " in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
             }
+            mDatabaseFileReady = true;
+        }
+    }
 
-            if (category.equals(UNCATEGORIZED)) {
-                selectionStrBuilder.append(COL_CATEGORY + " IS NULL");
-            } else {
-                selectionStrBuilder.append(COL_CATEGORY + "=?");
-                selectionArgsList.add(category);
+    private void copyDatabaseAsset(File dbFile) throws IOException {
+        File dir = dbFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File tmpFile = new File(dir, DATABASE_NAME + ".tmp");
+        InputStream in = mContext.getAssets().open(DATABASE_ASSET_PATH);
+        try {
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
             }
+        } finally {
+            in.close();
         }
+        if (!tmpFile.renameTo(dbFile)) {
+            throw new IOException("Could not rename " + tmpFile + " to " + dbFile);
+        }
+    }
 
-        String selection = selectionStrBuilder.toString();
-        String[] selectionArgs;
-        if (selectionArgsList.size() > 0) {
-            selectionArgs = new String[selectionArgsList.size()];
-            selectionArgs = selectionArgsList.toArray(selectionArgs);
-        } else {
-            selectionArgs = null;
+    /**
+     * Let each connection keep a prepared statement for every list query shape it runs (see
+     * PlaceStatementCache), rather than the default handful
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+    }
+
+    /**
+     * A database copied out of assets has the places table already, and one copied by an older
+     * version of the app may not have been migrated - bring the schema up to date every time it
+     * is opened
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            runMigrations(db);
         }
+    }
 
-        SQLiteDatabase db = getReadableDatabase();
-        return db.query(
-                TABLE_NAME_PLACES,      // table
-                SEARCH_RESULT_COLUMNS,  // columns
-                selection,              // selection
-                selectionArgs,          // selectionArgs
-                null,                   // group by
-                null,                   // having
-                COL_TITLE,              // order by
-                null                    // limit
-        );
+    /**
+     * Schema changes are made by PlaceMigrations, which keep the user's data; the places table is
+     * never dropped
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        runMigrations(db);
+    }
+
+    /**
+     * Apply every migration newer than the database, in order, each in its own transaction so a
+     * failure leaves the database at the last version that fully applied
+     * @param db - writable database
+     */
+    private void runMigrations(SQLiteDatabase db) {
+        db.execSQL(PlaceMigrations.SQL_CREATE_MIGRATIONS_TABLE);
+        int version = (int) DatabaseUtils.longForQuery(db, PlaceMigrations.SQL_SELECT_CURRENT_VERSION, null);
+
+        for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(version)) {
+            long start = SystemClock.elapsedRealtime();
+            SQLiteException failure = null;
+            db.beginTransaction();
+            try {
+                for (String statement : migration.getStatements()) {
+                    db.execSQL(statement);
+                }
+                recordMigration(db, migration);
+                db.setTransactionSuccessful();
+            } catch (SQLiteException e) {
+                if (!migration.isOptional()) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                db.endTransaction();
+            }
+
+            if (failure != null) {
+                // recorded anyway, so it is not retried on every open and later migrations still apply
+                recordMigration(db, migration);
+                Log.w(TAG, "Skipped optional migration " + migration.getVersion() + " ("
+                        + migration.getName() + "): " + failure.getMessage());
+            } else {
+                Log.i(TAG, "Applied migration " + migration.getVersion() + " (" + migration.getName()
+                        + ") in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        }
+        mHasSpatialIndex = null;
     }
 
-    public Cursor getAllPlaces() {
-        return getPlaces(false, null);
+    private static void recordMigration(SQLiteDatabase db, PlaceMigrations.Migration migration) {
+        ContentValues values = new ContentValues();
+        values.put(PlaceMigrations.COL_VERSION, migration.getVersion());
+        values.put(PlaceMigrations.COL_NAME, migration.getName());
+        values.put(PlaceMigrations.COL_APPLIED_AT, System.currentTimeMillis());
+        db.insertOrThrow(PlaceMigrations.TABLE_NAME_MIGRATIONS, null, values);
     }
 
-    public Cursor getAllPlacesByCategory(String category) {
-        return getPlaces(false, category);
+    /**
+     * Run a list query; see PlaceListSql.buildListQuery for the filters and sort order. The SQL
+     * comes from the statement cache, so a query of a shape that has run before is not parsed or
+     * planned again. A filtered query is driven by the index a PlaceFilterPlan chooses for it.
+     * @param query - which places, in what order
+     * @param idsOnly - true for just COL_ID and COL_IS_FAVORITE, false for the list columns
+     * @param after - key of the last row of the previous page; results start after it (can be null)
+     * @param offset - number of rows to skip; only used when the previous page's key is unknown
+     * @param limit - maximum number of rows to return, or 0 for no limit
+     * @param cancellationSignal - signal used to abort the query if it is superseded (can be null)
+     * @return - a Cursor of db query results, including a COL_SEARCH_RANK column
+     */
+    private Cursor queryPlaces(PlaceQuery query, boolean idsOnly, PlacePageKey after, int offset,
+                               int limit, CancellationSignal cancellationSignal) {
+        int shape = PlaceListSql.getListShape(query, planFilters(query).getDriver(), idsOnly,
+                after, offset, limit);
+        String sql = mStatementCache.getListSql(shape);
+        String[] selectionArgs = PlaceListSql.getListArgs(shape, query, after, offset, limit);
+
+        SQLiteDatabase db = getReadableDatabase();
+        return db.rawQuery(sql, selectionArgs, cancellationSignal);
     }
 
-    public Cursor getFavoritePlaces() {
-        return getPlaces(true, null);
+    /**
+     * Get one page of a list of places; see queryPlaces for the sort order
+     * @param query - which places, in what order
+     * @param after - key of the last row of the previous page, or null for the first page or if
+     *              the previous page's key is not known
+     * @param offset - position of the first row of the page; only used if after is null
+     * @param pageSize - maximum number of rows in the page
+     * @param cancellationSignal - signal used to abort the query (can be null)
+     * @return - a Cursor of at most pageSize rows
+     */
+    public Cursor getPlacesPage(PlaceQuery query, PlacePageKey after, int offset, int pageSize,
+                                CancellationSignal cancellationSignal) {
+        return queryPlaces(query, false, after, offset, pageSize, cancellationSignal);
     }
 
-    public Cursor getFavoritePlacesByCategory(String category) {
-        return getPlaces(true, category);
+    /**
+     * Get just the _id and is_favorite status of every place in a list, in list order. This is
+     * much cheaper than loading the rows themselves and is enough to count the list, supply
+     * stable item ids, and diff one version of the list against another.
+     * @param query - which places, in what order; its limit applies
+     * @param cancellationSignal - signal used to abort the query (can be null)
+     * @return - a Cursor with COL_ID and COL_IS_FAVORITE for every place in the list
+     */
+    public Cursor getPlaceIds(PlaceQuery query, CancellationSignal cancellationSignal) {
+        return queryPlaces(query, true, null, 0, query.getLimit(), cancellationSignal);
     }
 
     /**
-     * Queries the db for places based on the user's search query, isFavorite status, and category
-     * @param query - the string the user entered in the SearchView
-     * @param favoritesOnly - indicates whether search is for all places (home screen) or favorites only (favorites screen)
-     * @param category - if filter is set, specify category to limit search results
-     * @return - a Cursor of db query results
+     * Plan a list query's filters; see PlaceFilterPlan
+     * @param query - which places, in what order
+     * @return - the plan; queries the facet counts and index statistics unless they are in
+     * memory, so call off the main thread
      */
-    private Cursor searchPlaces(String query, boolean favoritesOnly, String category) {
-        String[] queryTokens = query.split(" ");
+    public PlaceFilterPlan planFilters(PlaceQuery query) {
+        if (!PlaceFilterPlan.needsEstimates(query)) {
+            return PlaceFilterPlan.plan(query, null, null);
+        }
+        return PlaceFilterPlan.plan(query, getFacetCounts(), getIndexStats());
+    }
 
-        StringBuilder selectionStrBuilder = new StringBuilder();
-        ArrayList<String> selectionArgsList = new ArrayList<>();
+    /**
+     * Get the _id and is_favorite status of every place in a list by a plan that usesBitsets:
+     * the ids matching each filter are read from its own index and intersected in memory.
+     * @param plan - the list's plan, from planFilters
+     * @param cancellationSignal - signal used to abort the queries (can be null)
+     * @return - the places, in list order, as getPlaceIds would return them
+     */
+    public PlaceFilterPlan.Matches getFilteredPlaceIds(PlaceFilterPlan plan,
+                                                       CancellationSignal cancellationSignal) {
+        PlaceFilterPlan.Matches driver = readPlaceIds(plan.getPredicateQuery(plan.getDriver()),
+                cancellationSignal);
+        ArrayList<int[]> predicateIds = new ArrayList<>();
+        for (PlaceFilterPlan.Predicate predicate : plan.getBitsetPredicates()) {
+            predicateIds.add(readPlaceIds(plan.getPredicateQuery(predicate), cancellationSignal)
+                    .getIds());
+        }
+        return plan.intersect(driver.getIds(), driver.getIsFavorite(), predicateIds);
+    }
 
-        selectionStrBuilder.append(
-                "(" + COL_TITLE + " LIKE ? OR "
-                    + COL_LOCATION + " LIKE ? OR "
-                    + COL_NEIGHBORHOOD + " LIKE ? OR "
-                    + COL_CATEGORY + " LIKE ?)"
-        );
-        selectionArgsList.add("%" + queryTokens[0] + "%");
-        selectionArgsList.add("%" + queryTokens[0] + "%");
-        selectionArgsList.add("%" + queryTokens[0] + "%");
-        selectionArgsList.add("%" + queryTokens[0] + "%");
-
-        if (queryTokens.length > 1) {
-            for (int i = 1; i < queryTokens.length; i++) {
-                selectionStrBuilder.append(
-                        " AND (" + COL_TITLE + " LIKE ? OR "
-                                + COL_LOCATION + " LIKE ? OR "
-                                + COL_NEIGHBORHOOD + " LIKE ? OR "
-                                + COL_CATEGORY + " LIKE ?)"
-                );
-                selectionArgsList.add("%" + queryTokens[i] + "%");
-                selectionArgsList.add("%" + queryTokens[i] + "%");
-                selectionArgsList.add("%" + queryTokens[i] + "%");
-                selectionArgsList.add("%" + queryTokens[i] + "%");
+    /**
+     * @return - the _id and is_favorite status of every place in a list, in list order
+     */
+    private PlaceFilterPlan.Matches readPlaceIds(PlaceQuery query,
+                                                 CancellationSignal cancellationSignal) {
+        Cursor cursor = getPlaceIds(query, cancellationSignal);
+        try {
+            int[] ids = new int[cursor.getCount()];
+            boolean[] isFavorite = new boolean[ids.length];
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                ids[i] = cursor.getInt(0);
+                isFavorite[i] = (cursor.getInt(1) == 1);
             }
+            return new PlaceFilterPlan.Matches(ids, isFavorite);
+        } finally {
+            cursor.close();
         }
+    }
 
-        if (favoritesOnly) {
-            selectionStrBuilder.append(" AND " + COL_IS_FAVORITE + "=1");
-        }
+    /**
+     * Get the places inside a map viewport
+     * @param box - the viewport; must not cross the 180th meridian
+     * @param limit - maximum number of rows to return, or 0 for no limit
+     * @param cancellationSignal - signal used to abort the query (can be null)
+     * @return - a Cursor of the list columns plus COL_LATITUDE and COL_LONGITUDE, in no particular order
+     */
+    public Cursor getPlacesInViewport(GeoBox box, int limit, CancellationSignal cancellationSignal) {
+        SQLiteDatabase db = getReadableDatabase();
+        ArrayList<String> selectionArgsList = new ArrayList<>();
+        String sql = PlaceGeoSql.buildViewportQuery(VIEWPORT_COLUMNS, hasSpatialIndex(db), box,
+                limit, selectionArgsList);
+        return db.rawQuery(sql, selectionArgsList.toArray(new String[selectionArgsList.size()]),
+                cancellationSignal);
+    }
 
-        if (category != null) {
-            selectionStrBuilder.append(" AND " + COL_CATEGORY + "=?");
-            selectionArgsList.add(category);
+    /**
+     * Get the places nearest to a point. Answered from the in-memory PlaceKdTree if it has been
+     * built, otherwise from the database; see PlaceGeo.findNearest. Places without coordinates
+     * are never returned.
+     * @param latitude - latitude of the point
+     * @param longitude - longitude of the point
+     * @param count - maximum number of places to return
+     * @return - ids, coordinates and distances of up to count places, nearest first
+     */
+    public List<NearbyPlace> getNearestPlaces(double latitude, double longitude, int count) {
+        PlaceKdTree tree;
+        synchronized (this) {
+            tree = mPlaceKdTree;
+        }
+        if (tree != null) {
+            return tree.nearest(latitude, longitude, count);
         }
 
-        String selection = selectionStrBuilder.toString();
-        String[] selectionArgs = new String[selectionArgsList.size()];
-        selectionArgs = selectionArgsList.toArray(selectionArgs);
+        final SQLiteDatabase db = getReadableDatabase();
+        final boolean useRTree = hasSpatialIndex(db);
+        return PlaceGeo.findNearest(new PlaceGeo.CandidateSource() {
+            @Override
+            public void findInBox(GeoBox box, PlaceGeo.Candidates candidates) {
+                ArrayList<String> selectionArgsList = new ArrayList<>();
+                String sql = PlaceGeoSql.buildCandidateQuery(useRTree, box, selectionArgsList);
+                Cursor cursor = db.rawQuery(sql,
+                        selectionArgsList.toArray(new String[selectionArgsList.size()]));
+                try {
+                    while (cursor.moveToNext()) {
+                        candidates.add(cursor.getInt(0), cursor.getDouble(1), cursor.getDouble(2));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }, latitude, longitude, count);
+    }
 
-        SQLiteDatabase db = getReadableDatabase();
-        return db.query(
-                TABLE_NAME_PLACES,      // table
-                SEARCH_RESULT_COLUMNS,  // columns
-                selection,              // selection
-                selectionArgs,          // selectionArgs
-                null,                   // group by
-                null,                   // having
-                COL_TITLE,              // order by
-                null                    // limit
-        );
+    /**
+     * Get the in-memory spatial index of every located place, reading it from the database the
+     * first time. It is kept up to date by insertPlace and deletePlaceById. Call on a worker thread.
+     * @return - the index
+     */
+    public synchronized PlaceKdTree getPlaceKdTree() {
+        if (mPlaceKdTree == null) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = getReadableDatabase().rawQuery(PlaceGeoSql.SQL_SELECT_ALL_COORDINATES, null);
+            try {
+                int[] ids = new int[cursor.getCount()];
+                double[] latitudes = new double[ids.length];
+                double[] longitudes = new double[ids.length];
+                for (int i = 0; cursor.moveToPosition(i); i++) {
+                    ids[i] = cursor.getInt(0);
+                    latitudes[i] = cursor.getDouble(1);
+                    longitudes[i] = cursor.getDouble(2);
+                }
+                mPlaceKdTree = new PlaceKdTree(ids, latitudes, longitudes);
+            } finally {
+                cursor.close();
+            }
+            Log.d(TAG, "Built spatial index of " + mPlaceKdTree.size() + " places in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        return mPlaceKdTree;
     }
 
-    public Cursor searchAllPlaces(String query) {
-        return searchPlaces(query, false, null);
+    /**
+     * Drop the in-memory spatial index after a bulk change (e.g. a catalog import) so it is
+     * rebuilt from the database when next needed
+     */
+    synchronized void invalidatePlaceKdTree() {
+        mPlaceKdTree = null;
     }
 
-    public Cursor searchAllPlacesByCategory(String query, String category) {
-        return searchPlaces(query, false, category);
+    /**
+     * Get list rows for the given places, e.g. one page of a list sorted in memory
+     * @param ids - ids of the places
+     * @return - a row for each id, in the same order; null for ids that no longer exist
+     */
+    public PlaceRow[] getPlaceRowsByIds(int[] ids) {
+        if (ids.length == 0) {
+            return new PlaceRow[0];
+        }
+        // pad with the last id, so lookups of similar numbers of ids share one statement
+        String[] selectionArgs = new String[PlaceListSql.getPaddedIdCount(ids.length)];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selectionArgs[i] = String.valueOf(ids[Math.min(i, ids.length - 1)]);
+        }
+        Cursor cursor = getReadableDatabase().rawQuery(
+                mStatementCache.getIdsSql(selectionArgs.length), selectionArgs);
+        PlaceRow[] unordered;
+        try {
+            unordered = readPlaceRows(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        PlaceRow[] rows = new PlaceRow[ids.length];
+        for (PlaceRow row : unordered) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == row.getId()) {
+                    rows[i] = row;
+                    break;
+                }
+            }
+        }
+        return rows;
     }
 
-    public Cursor searchFavoritePlaces(String query) {
-        return searchPlaces(query, true, null);
+    private boolean hasSpatialIndex(SQLiteDatabase db) {
+        Boolean hasSpatialIndex = mHasSpatialIndex;
+        if (hasSpatialIndex == null) {
+            hasSpatialIndex = DatabaseUtils.longForQuery(db,
+                    PlaceSchema.SQL_SELECT_HAS_PLACES_RTREE_TABLE, null) > 0;
+            mHasSpatialIndex = hasSpatialIndex;
+        }
+        return hasSpatialIndex;
     }
 
-    public Cursor searchFavoritePlacesByCategory(String query, String category) {
-        return searchPlaces(query, true, category);
+    /**
+     * Project every row of a page into a PlaceRow. Column indices are looked up once for the whole
+     * cursor rather than once per field per row.
+     * @param cursor - a Cursor returned by getPlacesPage; the caller still has to close it
+     * @return - the rows, in cursor order
+     */
+    public static PlaceRow[] readPlaceRows(Cursor cursor) {
+        int idIndex = cursor.getColumnIndex(COL_ID);
+        int searchRankIndex = cursor.getColumnIndex(COL_SEARCH_RANK);
+        int titleIndex = cursor.getColumnIndex(COL_TITLE);
+        int categoryIndex = cursor.getColumnIndex(COL_CATEGORY);
+        int locationIndex = cursor.getColumnIndex(COL_LOCATION);
+        int neighborhoodIndex = cursor.getColumnIndex(COL_NEIGHBORHOOD);
+        int imageResIndex = cursor.getColumnIndex(COL_IMAGE_RES);
+        int isFavoriteIndex = cursor.getColumnIndex(COL_IS_FAVORITE);
+
+        PlaceRow[] rows = new PlaceRow[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            rows[i] = new PlaceRow(
+                    cursor.getInt(idIndex),
+                    cursor.getInt(searchRankIndex),
+                    cursor.getString(titleIndex),
+                    cursor.getString(categoryIndex),
+                    cursor.getString(locationIndex),
+                    cursor.getString(neighborhoodIndex),
+                    cursor.getString(imageResIndex),
+                    cursor.getInt(isFavoriteIndex) == 1
+            );
+        }
+        return rows;
     }
 
     /**
@@ -249,16 +584,23 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
             Boolean isFavorite = (cursor.getInt(cursor.getColumnIndex(COL_IS_FAVORITE)) == 1);
             Float rating = cursor.getFloat(cursor.getColumnIndex(COL_RATING));
             String note = cursor.getString(cursor.getColumnIndex(COL_NOTE));
+            Double latitude = getNullableDouble(cursor, COL_LATITUDE);
+            Double longitude = getNullableDouble(cursor, COL_LONGITUDE);
 
             cursor.close();
             return new Place(id, title, location, neighborhood, category, description, imageRes,
-                    imageCredit, isFavorite, rating, note);
+                    imageCredit, isFavorite, rating, note, latitude, longitude);
         } else {
             cursor.close();
             return null;
         }
     }
 
+    private static Double getNullableDouble(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return (index == -1 || cursor.isNull(index)) ? null : cursor.getDouble(index);
+    }
+
     /**
      * Inserts a Place object into the database
      * @param place - Place object to be inserted
@@ -272,13 +614,27 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
         values.put(COL_CATEGORY, place.getCategory());
         values.put(COL_DESCRIPTION, place.getDescription());
         values.put(COL_IMAGE_RES, place.getImageRes());
+        values.put(COL_IMAGE_CREDIT, place.getImageCredit());
         values.put(COL_IS_FAVORITE, (place.isFavorite() ? 1 : 0));
         values.put(COL_RATING, place.getRating());
         values.put(COL_NOTE, place.getNote());
+        values.put(COL_LATITUDE, place.getLatitude());
+        values.put(COL_LONGITUDE, place.getLongitude());
 
         SQLiteDatabase db = getWritableDatabase();
         long newRowId = db.insert(TABLE_NAME_PLACES, null, values);
 
+        if (newRowId != -1 && place.hasCoordinates()) {
+            synchronized (this) {
+                if (mPlaceKdTree != null) {
+                    mPlaceKdTree.insert((int) newRowId, place.getLatitude(), place.getLongitude());
+                }
+            }
+        }
+        if (newRowId != -1) {
+            onPlacesWritten(PlaceChange.row((int) newRowId, PlaceChange.ALL));
+        }
+
         return (newRowId != -1); // true if OK, false if error and db.insert returned -1
     }
 
@@ -294,42 +650,226 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
                 COL_ID + "=?",
                 new String[]{String.valueOf(id)}
         );
+        if (rowsAffected > 0) {
+            synchronized (this) {
+                if (mPlaceKdTree != null) {
+                    mPlaceKdTree.remove(id);
+                }
+            }
+            onPlacesWritten(PlaceChange.row(id, PlaceChange.ROWS));
+        }
         return (rowsAffected > 0);
     }
 
     /**
-     * Get a list of category values present in the database for use in category spinner
-     * (list will also include "All" at head of list and "Uncategorized" at tail of list)
-     * @return - ArrayList of Strings
+     * Get the queue that writes the user's favorite, rating and note changes in the background,
+     * coalesced and batched into few transactions on the write lane. Its listeners are called on
+     * the main thread.
+     * @return - the queue
      */
-    public ArrayList<String> getCategories() {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.query(
-                true,
-                TABLE_NAME_PLACES,
-                new String[]{COL_CATEGORY},
-                null,
-                null,
-                COL_CATEGORY,
-                null,
-                COL_CATEGORY,
-                null
-        );
+    public synchronized PlaceWriteQueue getWriteQueue() {
+        if (mWriteQueue == null) {
+            TaskLanes lanes = TaskLanes.getInstance();
+            mWriteQueue = new PlaceWriteQueue(new PlaceWriteQueue.Writer() {
+                @Override
+                public PlaceUpdate[] writeUpdates(List<PlaceUpdate> updates) {
+                    return writePlaceUpdates(updates);
+                }
+            }, lanes.getWriteLane(), lanes.getMainThreadExecutor(), PlaceWriteQueue.DEFAULT_DELAY_MS);
+        }
+        return mWriteQueue;
+    }
 
-        ArrayList<String> categories = new ArrayList<>();
-        if (cursor.moveToFirst()) {
-            while (!cursor.isAfterLast()) {
-                categories.add(cursor.getString(cursor.getColumnIndex(COL_CATEGORY)));
-                cursor.moveToNext();
+    /**
+     * Queue the place's changed fields - only those that differ from their persisted values - to
+     * be written by the write queue. Nothing is written if nothing changed. If the write fails,
+     * call place.markUnsaved() so the next save writes every field again.
+     * @param place - place whose favorite status, rating and/or note may have been changed
+     * @param listener - notified when written (can be null); not called if nothing changed
+     * @return - true if a write was queued
+     */
+    public boolean savePlaceChanges(Place place, PlaceWriteQueue.OnWrittenListener listener) {
+        PlaceUpdate changes = place.getChanges();
+        if (changes == null) {
+            return false;
+        }
+        place.markSaved(changes); // queued, so a change back to the old value is written too
+        getWriteQueue().enqueue(changes, listener);
+        return true;
+    }
+
+    /**
+     * Commit any changes waiting in the write queue, blocking until they are written. Call from
+     * onPause, so they are saved before the next screen reads them or the process is killed.
+     */
+    public void flushPlaceUpdates() {
+        PlaceWriteQueue queue;
+        synchronized (this) {
+            queue = mWriteQueue;
+        }
+        if (queue == null) {
+            return;
+        }
+        // flush even with nothing pending: the drain task may have taken the last batch and still
+        // be committing it, and flush waits for that too
+        if (!queue.flush(WRITE_QUEUE_FLUSH_TIMEOUT_MS)) {
+            Log.w(TAG, "Timed out flushing place updates");
+        }
+        Log.d(TAG, "Write queue: " + queue.getMetrics());
+    }
+
+    /**
+     * Apply a batch from the write queue in a single transaction
+     * @param updates - at most one update per place
+     * @return - for each update, the values written with any toggle resolved; null if the place
+     * was not found
+     */
+    private PlaceUpdate[] writePlaceUpdates(List<PlaceUpdate> updates) {
+        PlaceUpdate[] written = new PlaceUpdate[updates.size()];
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        SQLiteStatement toggle = null;
+        try {
+            for (int i = 0; i < written.length; i++) {
+                PlaceUpdate update = updates.get(i);
+                if (update.isEmpty()) { // e.g. favorite toggled twice
+                    written[i] = update;
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                if (update.getFavoriteStatus() != null) {
+                    values.put(COL_IS_FAVORITE, update.getFavoriteStatus());
+                }
+                if (update.getRating() != null) {
+                    values.put(COL_RATING, clampRating(update.getRating()));
+                }
+                if (update.getNote() != null) {
+                    values.put(COL_NOTE, update.getNote());
+                }
+
+                if (update.isFavoriteToggle()) {
+                    if (toggle == null) {
+                        toggle = db.compileStatement(PlaceSchema.SQL_TOGGLE_FAVORITE);
+                    }
+                    Boolean isFavorite = toggleFavorite(db, toggle, update.getId());
+                    if (isFavorite == null) {
+                        continue; // place not found
+                    }
+                    update = update.withFavoriteStatus(isFavorite);
+                }
+                if (values.size() == 0 || updatePlaceById(db, update.getId(), values)) {
+                    written[i] = update;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (toggle != null) {
+                toggle.close();
             }
-            Collections.sort(categories);
+            db.endTransaction();
         }
+        onPlacesWritten(PlaceChange.forUpdates(written));
+        return written;
+    }
 
-        categories.add(0, ALL_CATEGORIES);  // add'l item a start of list
-        categories.add(UNCATEGORIZED);      // add'l item at end of list
+    /**
+     * Get the number of places, and of favorites, in each category and neighborhood, for the
+     * category filter. Read from the summary table the triggers of migration 5 maintain, and kept
+     * in memory until a write changes a favorite status, a category or which places exist.
+     * @return - the counts; queries the database unless they are in memory, so call off the main
+     * thread
+     */
+    public PlaceFacetCounts getFacetCounts() {
+        long version;
+        synchronized (this) {
+            if (mFacetCounts != null) {
+                return mFacetCounts;
+            }
+            version = mFacetCountsVersion;
+        }
 
-        cursor.close();
-        return categories;
+        ArrayList<PlaceFacetCounts.Count> categories = new ArrayList<>();
+        ArrayList<PlaceFacetCounts.Count> neighborhoods = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(PlaceSchema.SQL_SELECT_FACET_COUNTS, null);
+        try {
+            while (cursor.moveToNext()) {
+                PlaceFacetCounts.Count count = new PlaceFacetCounts.Count(
+                        cursor.isNull(1) ? null : cursor.getString(1), cursor.getInt(2), cursor.getInt(3));
+                if (PlaceSchema.FACET_CATEGORY.equals(cursor.getString(0))) {
+                    categories.add(count);
+                } else {
+                    neighborhoods.add(count);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        PlaceFacetCounts counts = new PlaceFacetCounts(categories, neighborhoods);
+        synchronized (this) {
+            if (version == mFacetCountsVersion) { // no write committed while reading
+                mFacetCounts = counts;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return - the facet counts if they are in memory, without querying; otherwise null
+     */
+    public synchronized PlaceFacetCounts peekFacetCounts() {
+        return mFacetCounts;
+    }
+
+    /**
+     * Drop the facet counts held in memory if a write can have changed them
+     */
+    private synchronized void invalidateFacetCounts(PlaceChange change) {
+        if (change != null
+                && change.affects(PlaceChange.FAVORITE | PlaceChange.CATALOG | PlaceChange.ROWS)) {
+            mFacetCounts = null;
+            mFacetCountsVersion++;
+        }
+    }
+
+    /**
+     * Get the sqlite_stat1 statistics of the places indexes, which planFilters falls back on.
+     * Kept in memory until updateIndexStats runs ANALYZE again.
+     * @return - the statistics; empty if ANALYZE has never run
+     */
+    public PlaceIndexStats getIndexStats() {
+        PlaceIndexStats stats = mIndexStats;
+        if (stats == null) {
+            HashMap<String, String> rows = new HashMap<>();
+            try {
+                Cursor cursor = getReadableDatabase().rawQuery(
+                        PlaceSchema.SQL_SELECT_PLACES_INDEX_STATS, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        rows.put(cursor.getString(0), cursor.getString(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (SQLiteException e) {
+                Log.w(TAG, "No index statistics: " + e.getMessage()); // no sqlite_stat1 table yet
+            }
+            stats = new PlaceIndexStats(rows);
+            mIndexStats = stats;
+        }
+        return stats;
+    }
+
+    /**
+     * Run ANALYZE on the places table, e.g. after an import, so SQLite and planFilters see how
+     * the places are spread across the indexes now. Must not be called on the main thread.
+     */
+    public void updateIndexStats() {
+        long start = SystemClock.elapsedRealtime();
+        getWritableDatabase().execSQL(PlaceSchema.SQL_ANALYZE_PLACES);
+        mIndexStats = null;
+        Log.i(TAG, "Analyzed places in " + (SystemClock.elapsedRealtime() - start) + " ms");
     }
 
     /**
@@ -356,7 +896,8 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Sets the isFavorite status for the specified Place
+     * Sets the isFavorite status for the specified Place, in its own transaction - changes made
+     * by the user go through getWriteQueue instead
      * @param id - unique id of the Place to be updated
      * @param isFavorite - boolean status to be set
      * @return true if db updated, false otherwise
@@ -364,15 +905,48 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
     public boolean setFavoriteStatusById(int id, boolean isFavorite) {
         ContentValues values = new ContentValues();
         values.put(COL_IS_FAVORITE, isFavorite);
+        if (!updatePlaceById(getWritableDatabase(), id, values)) {
+            return false;
+        }
+        onPlacesWritten(PlaceChange.favoriteStatus(id, isFavorite));
+        return true;
+    }
 
+    /**
+     * Flip the favorite status of the specified Place in the database, whatever it currently is,
+     * in one transaction. The flip is a single UPDATE that reads and writes the column itself, so
+     * a concurrent toggle from another screen can't be lost between a read and a write.
+     * @param id - unique id of the Place to be updated
+     * @return - the new favorite status, or null if the Place was not found
+     */
+    public Boolean toggleFavoriteById(int id) {
         SQLiteDatabase db = getWritableDatabase();
-        int rowsAffected = db.update(
-                TABLE_NAME_PLACES,
-                values,
-                COL_ID + " = ?",
-                new String[]{String.valueOf(id)}
-        );
-        return (rowsAffected > 0);
+        SQLiteStatement toggle = db.compileStatement(PlaceSchema.SQL_TOGGLE_FAVORITE);
+        Boolean isFavorite;
+        db.beginTransaction();
+        try {
+            isFavorite = toggleFavorite(db, toggle, id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            toggle.close();
+        }
+        if (isFavorite != null) {
+            onPlacesWritten(PlaceChange.favoriteStatus(id, isFavorite));
+        }
+        return isFavorite;
+    }
+
+    /**
+     * Run the compiled toggle statement, then read back the status it set. Call within a transaction.
+     */
+    private static Boolean toggleFavorite(SQLiteDatabase db, SQLiteStatement toggle, int id) {
+        toggle.bindLong(1, id);
+        if (toggle.executeUpdateDelete() == 0) {
+            return null;
+        }
+        return DatabaseUtils.longForQuery(db, PlaceSchema.SQL_SELECT_IS_FAVORITE,
+                new String[]{String.valueOf(id)}) == 1;
     }
 
     /**
@@ -382,23 +956,13 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
      * @return true if db updated, false otherwise
      */
     public boolean setRatingById(int id, float rating) {
-        if (rating < 0.0) {
-            rating = (float) 0.0;
-        } else if (rating > 5.0) {
-            rating = (float) 5.0;
-        }
-
         ContentValues values = new ContentValues();
-        values.put(COL_RATING, rating);
-
-        SQLiteDatabase db = getWritableDatabase();
-        int rowsAffected = db.update(
-                TABLE_NAME_PLACES,
-                values,
-                COL_ID + "=?",
-                new String[]{String.valueOf(id)}
-        );
-        return (rowsAffected > 0);
+        values.put(COL_RATING, clampRating(rating));
+        if (!updatePlaceById(getWritableDatabase(), id, values)) {
+            return false;
+        }
+        onPlacesWritten(PlaceChange.row(id, PlaceChange.RATING));
+        return true;
     }
 
     /**
@@ -410,8 +974,14 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
     public boolean setNoteById(int id, String note) {
         ContentValues values = new ContentValues();
         values.put(COL_NOTE, note);
+        if (!updatePlaceById(getWritableDatabase(), id, values)) {
+            return false;
+        }
+        onPlacesWritten(PlaceChange.row(id, PlaceChange.NOTE));
+        return true;
+    }
 
-        SQLiteDatabase db = getWritableDatabase();
+    private static boolean updatePlaceById(SQLiteDatabase db, int id, ContentValues values) {
         int rowsAffected = db.update(
                 TABLE_NAME_PLACES,
                 values,
@@ -420,4 +990,13 @@ public class PlaceDbOpenHelper extends SQLiteOpenHelper {
         );
         return (rowsAffected > 0);
     }
+
+    private static float clampRating(float rating) {
+        if (rating < 0.0) {
+            return (float) 0.0;
+        } else if (rating > 5.0) {
+            return (float) 5.0;
+        }
+        return rating;
+    }
 }
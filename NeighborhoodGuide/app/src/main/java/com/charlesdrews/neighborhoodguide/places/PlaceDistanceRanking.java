@@ -0,0 +1,94 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Orders one list of places by distance from the user, again and again as the user moves,
+ * without going back to the database. Each place's position is copied out of the PlaceKdTree
+ * once, so a re-rank is one dot product per place plus a sort. The sort starts from the previous
+ * order, which is already nearly right after a short move, so it runs in close to linear time.
+ *
+ * Not thread safe; rank from one thread at a time.
+ */
+public class PlaceDistanceRanking {
+    // GPS fixes jitter by this much while standing still; ignore moves smaller than it
+    public static final double MIN_RERANK_DISTANCE_METERS = 20;
+
+    private final int[] mIds;
+    private final double[] mPoints;
+    private final double[] mChordsSquared;
+    private final Integer[] mOrder; // positions in mIds, nearest first as of the last rank
+    private final double[] mQuery = new double[3];
+    private double mRankedLatitude = Double.NaN;
+    private double mRankedLongitude = Double.NaN;
+
+    private final Comparator<Integer> mByDistance = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            int result = Double.compare(mChordsSquared[a], mChordsSquared[b]);
+            return (result != 0) ? result : a.compareTo(b); // unlocated places keep their list order
+        }
+    };
+
+    /**
+     * @param ids - the places in the list, in their original order
+     * @param tree - index to read the places' positions from
+     */
+    public PlaceDistanceRanking(int[] ids, PlaceKdTree tree) {
+        mIds = ids;
+        mPoints = new double[ids.length * 3];
+        tree.getPoints(ids, mPoints);
+        mChordsSquared = new double[ids.length];
+        mOrder = new Integer[ids.length];
+        for (int i = 0; i < mOrder.length; i++) {
+            mOrder[i] = i;
+        }
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @return - true if the list has never been ranked, or was ranked from further than
+     * MIN_RERANK_DISTANCE_METERS away
+     */
+    public boolean needsRank(double latitude, double longitude) {
+        return Double.isNaN(mRankedLatitude) || PlaceGeo.distanceMeters(mRankedLatitude,
+                mRankedLongitude, latitude, longitude) >= MIN_RERANK_DISTANCE_METERS;
+    }
+
+    /**
+     * @param latitude - the user's latitude
+     * @param longitude - the user's longitude
+     * @return - positions in the original list, nearest place first; places without coordinates
+     * come last, in their original order
+     */
+    public int[] rank(double latitude, double longitude) {
+        PlaceKdTree.toUnitVector(latitude, longitude, mQuery, 0);
+        for (int i = 0; i < mIds.length; i++) {
+            double chordSquared = PlaceKdTree.chordSquared(mQuery, mPoints, i * 3);
+            mChordsSquared[i] = Double.isNaN(chordSquared) ? Double.POSITIVE_INFINITY : chordSquared;
+        }
+        Arrays.sort(mOrder, mByDistance); // TimSort: near-linear on the nearly sorted previous order
+        mRankedLatitude = latitude;
+        mRankedLongitude = longitude;
+
+        int[] positions = new int[mOrder.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = mOrder[i];
+        }
+        return positions;
+    }
+
+    /**
+     * @param position - position in the original list
+     * @return - distance from where the list was last ranked, or NaN if the place has no coordinates
+     */
+    public double getDistanceMeters(int position) {
+        double chordSquared = mChordsSquared[position];
+        return Double.isInfinite(chordSquared) ? Double.NaN
+                : PlaceKdTree.chordSquaredToMeters(chordSquared);
+    }
+}
@@ -0,0 +1,170 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Number of places, and of favorites, in each category and each neighborhood, as read from the
+ * place_facet_counts table that triggers keep up to date (see PlaceSchema). Places with no
+ * category are counted as Uncategorized, from the same rows, so its count always agrees with the
+ * others. Immutable; PlaceDbOpenHelper keeps the latest one in memory until a write changes it.
+ */
+public class PlaceFacetCounts {
+
+    /**
+     * The counts for one value of a facet
+     */
+    public static class Count {
+        private final String mValue;
+        private final int mTotal;
+        private final int mFavorites;
+
+        /**
+         * @param value - the category or neighborhood, or null for places with none
+         * @param total - number of places with the value
+         * @param favorites - number of those that are favorites
+         */
+        public Count(String value, int total, int favorites) {
+            mValue = value;
+            mTotal = total;
+            mFavorites = favorites;
+        }
+
+        public String getValue() {
+            return mValue;
+        }
+
+        public int getTotal() {
+            return mTotal;
+        }
+
+        public int getFavorites() {
+            return mFavorites;
+        }
+
+        /**
+         * @param favoritesOnly - true to count only favorites
+         */
+        public int getCount(boolean favoritesOnly) {
+            return favoritesOnly ? mFavorites : mTotal;
+        }
+
+        @Override
+        public String toString() {
+            return mValue + "=" + mTotal + "/" + mFavorites;
+        }
+    }
+
+    private static final Comparator<Count> BY_VALUE = new Comparator<Count>() {
+        @Override
+        public int compare(Count a, Count b) {
+            return a.mValue.compareTo(b.mValue);
+        }
+    };
+
+    private final List<Count> mCategories;
+    private final List<Count> mNeighborhoods;
+    private final Count mUncategorized;
+    private final Count mNoNeighborhood;
+    private final Count mAll;
+
+    /**
+     * @param categoryCounts - one per category, including null for places with no category
+     * @param neighborhoodCounts - one per neighborhood, including null for places with none
+     */
+    public PlaceFacetCounts(List<Count> categoryCounts, List<Count> neighborhoodCounts) {
+        ArrayList<Count> categories = new ArrayList<>();
+        Count uncategorized = new Count(PlaceListSql.UNCATEGORIZED, 0, 0);
+        int total = 0;
+        int favorites = 0;
+        for (Count count : categoryCounts) {
+            total += count.mTotal;
+            favorites += count.mFavorites;
+            if (count.mValue == null) {
+                uncategorized = new Count(PlaceListSql.UNCATEGORIZED, count.mTotal, count.mFavorites);
+            } else {
+                categories.add(count);
+            }
+        }
+        Collections.sort(categories, BY_VALUE);
+
+        ArrayList<Count> neighborhoods = new ArrayList<>();
+        Count noNeighborhood = new Count(null, 0, 0);
+        for (Count count : neighborhoodCounts) {
+            if (count.mValue == null) {
+                noNeighborhood = count;
+            } else {
+                neighborhoods.add(count);
+            }
+        }
+        Collections.sort(neighborhoods, BY_VALUE);
+
+        mCategories = Collections.unmodifiableList(categories);
+        mNeighborhoods = Collections.unmodifiableList(neighborhoods);
+        mUncategorized = uncategorized;
+        mNoNeighborhood = noNeighborhood;
+        mAll = new Count(PlaceListSql.ALL_CATEGORIES, total, favorites);
+    }
+
+    /**
+     * @return - every place, with the value PlaceListSql.ALL_CATEGORIES
+     */
+    public Count getAll() {
+        return mAll;
+    }
+
+    /**
+     * @return - each category that has places, sorted by name
+     */
+    public List<Count> getCategories() {
+        return mCategories;
+    }
+
+    /**
+     * @return - places with no category, with the value PlaceListSql.UNCATEGORIZED
+     */
+    public Count getUncategorized() {
+        return mUncategorized;
+    }
+
+    /**
+     * @return - each neighborhood that has places, sorted by name
+     */
+    public List<Count> getNeighborhoods() {
+        return mNeighborhoods;
+    }
+
+    /**
+     * @return - places with no neighborhood, with a null value
+     */
+    public Count getNoNeighborhood() {
+        return mNoNeighborhood;
+    }
+
+    /**
+     * @param favoritesOnly - true to leave out categories with no favorites
+     * @return - the choices of the category filter: All, each category, then Uncategorized if
+     * any place has no category
+     */
+    public List<Count> getCategoryChoices(boolean favoritesOnly) {
+        ArrayList<Count> choices = new ArrayList<>();
+        choices.add(mAll);
+        for (Count count : mCategories) {
+            if (count.getCount(favoritesOnly) > 0) {
+                choices.add(count);
+            }
+        }
+        if (mUncategorized.getCount(favoritesOnly) > 0) {
+            choices.add(mUncategorized);
+        }
+        return choices;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceFacetCounts{all=" + mAll + ", categories=" + mCategories
+                + ", uncategorized=" + mUncategorized + ", neighborhoods=" + mNeighborhoods.size() + "}";
+    }
+}
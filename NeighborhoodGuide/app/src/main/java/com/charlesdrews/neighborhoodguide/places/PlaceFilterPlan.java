@@ -0,0 +1,332 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How to run a list query filtered by favorites, categories, neighborhoods or a minimum rating.
+ * SQLite uses one index per query and, given the choice, reads every place off the title index
+ * rather than sort the places a filter matches - so a filter no index returns in title order (a
+ * rating range, or more than one category or neighborhood) reads the whole table. A plan picks the
+ * filter whose index drives the query instead: the only filter, or of several the one matching
+ * fewest places - counted exactly by PlaceFacetCounts where it can, otherwise estimated from the
+ * sqlite_stat1 figures in PlaceIndexStats. The other filters are checked against just the places
+ * it finds (see PlaceListSql.getListShape).
+ *
+ * When the driver matches many places and the other filters not many more, the plan can instead
+ * read the ids matching each filter from its own index and intersect them in memory as bitsets
+ * (see usesBitsets), which never reads a place's row just to turn it away. Note this is the
+ * opposite of intersecting in memory when the sets are small: FilterBenchmark finds a small driver
+ * is checked against its places' rows faster than the other filters' ids can be read at all. At
+ * 10,000 places a category and a neighborhood take 0.5 ms driven and 1.1 ms by bitsets, and all
+ * four filters 0.9 ms and 7.8 ms. At 100,000 places bitsets cut a category and a neighborhood
+ * from 21 ms driven (18 ms as SQLite plans it) to 6 ms, and a neighborhood and a rating from
+ * 33 ms to 22 ms, but lose once the other filters match well over twice the driver's places
+ * (favorites in three categories: 20 ms driven, 31 ms by bitsets).
+ *
+ * Searches are left to the full-text index, and favorites in one category to the index made for
+ * them. Kept free of Android dependencies so the JVM benchmarks run the same plans as the app.
+ */
+public final class PlaceFilterPlan {
+
+    public enum Predicate {
+        FAVORITES,
+        CATEGORY,
+        NEIGHBORHOOD,
+        RATING
+    }
+
+    // the bitset plan reads each filter's ids from its index alone, where checking a filter
+    // against the driver's places reads each place's row. It pays off when the driver matches
+    // enough places to outweigh the extra queries, and the other filters match at most twice as
+    // many between them as the driver does (see the class comment).
+    public static final int BITSET_MIN_DRIVER_ROWS = 4096;
+    public static final float BITSET_MAX_ROWS_PER_DRIVER_ROW = 2f;
+
+    // ratings run from 0 to this; with no statistics on how they are spread, a minimum rating is
+    // assumed to keep the places in its share of that range
+    private static final float MAX_RATING = 5;
+
+    /**
+     * The _id and is_favorite status of each place in a list, in list order
+     */
+    public static final class Matches {
+        private final int[] mIds;
+        private final boolean[] mIsFavorite;
+
+        Matches(int[] ids, boolean[] isFavorite) {
+            mIds = ids;
+            mIsFavorite = isFavorite;
+        }
+
+        public int[] getIds() {
+            return mIds;
+        }
+
+        public boolean[] getIsFavorite() {
+            return mIsFavorite;
+        }
+    }
+
+    private final PlaceQuery mQuery;
+    private final long[] mEstimates; // places each predicate matches, by ordinal; -1 if not set
+    private final Predicate mDriver;
+    private final boolean mUsesBitsets;
+
+    private PlaceFilterPlan(PlaceQuery query, long[] estimates, Predicate driver,
+                            boolean usesBitsets) {
+        mQuery = query;
+        mEstimates = estimates;
+        mDriver = driver;
+        mUsesBitsets = usesBitsets;
+    }
+
+    /**
+     * @param query - a list query
+     * @return - true if the query has filters to plan
+     */
+    public static boolean isPlanned(PlaceQuery query) {
+        boolean favoritesInOneCategory = query.isFavoritesOnly() && query.getFilterCount() == 2
+                && query.getCategories().size() == 1;
+        return !query.isSearch() && query.getFilterCount() > 0 && !favoritesInOneCategory;
+    }
+
+    /**
+     * @param query - a list query
+     * @return - true if planning the query needs the facet counts and index statistics, to choose
+     * between its filters
+     */
+    public static boolean needsEstimates(PlaceQuery query) {
+        return isPlanned(query) && query.getFilterCount() >= 2;
+    }
+
+    /**
+     * Plan a list query
+     * @param query - which places, in what order
+     * @param counts - exact numbers of places per category and neighborhood (can be null, but
+     *               should not be if needsEstimates)
+     * @param stats - statistics of the places indexes (can be null)
+     * @return - the plan; one with no driver if the query is not planned
+     */
+    public static PlaceFilterPlan plan(PlaceQuery query, PlaceFacetCounts counts,
+                                       PlaceIndexStats stats) {
+        long[] estimates = new long[Predicate.values().length];
+        Arrays.fill(estimates, -1);
+        if (!isPlanned(query)) {
+            return new PlaceFilterPlan(query, estimates, null, false);
+        }
+        if (stats == null) {
+            stats = new PlaceIndexStats(Collections.<String, String>emptyMap());
+        }
+        long rowCount = (counts != null) ? counts.getAll().getTotal() : stats.getRowCount();
+
+        if (query.isFavoritesOnly()) {
+            estimates[Predicate.FAVORITES.ordinal()] = (counts != null)
+                    ? counts.getAll().getFavorites()
+                    : estimateFromStats(stats, PlaceSchema.INDEX_PLACES_FAVORITE_TITLE, 1, rowCount);
+        }
+        if (!query.getCategories().isEmpty()) {
+            estimates[Predicate.CATEGORY.ordinal()] = (counts != null)
+                    ? sumCounts(counts.getCategories(), counts.getUncategorized(), query.getCategories())
+                    : estimateFromStats(stats, PlaceSchema.INDEX_PLACES_CATEGORY_TITLE,
+                    query.getCategories().size(), rowCount);
+        }
+        if (!query.getNeighborhoods().isEmpty()) {
+            estimates[Predicate.NEIGHBORHOOD.ordinal()] = (counts != null)
+                    ? sumCounts(counts.getNeighborhoods(), null, query.getNeighborhoods())
+                    : estimateFromStats(stats, PlaceSchema.INDEX_PLACES_NEIGHBORHOOD_TITLE,
+                    query.getNeighborhoods().size(), rowCount);
+        }
+        if (query.getMinRating() > 0) {
+            float share = Math.max(0, MAX_RATING - query.getMinRating()) / MAX_RATING;
+            estimates[Predicate.RATING.ordinal()] = (long) Math.ceil(rowCount * share);
+        }
+
+        Predicate driver = null;
+        for (Predicate predicate : Predicate.values()) {
+            long estimate = estimates[predicate.ordinal()];
+            if (estimate >= 0 && (driver == null || estimate < estimates[driver.ordinal()])) {
+                driver = predicate;
+            }
+        }
+
+        // the favorites filter is checked from the is_favorite column every index includes, so
+        // only the other filters need their ids read
+        boolean hasBitsets = false;
+        long bitsetRows = 0;
+        for (Predicate predicate : Predicate.values()) {
+            if (predicate != driver && predicate != Predicate.FAVORITES
+                    && estimates[predicate.ordinal()] >= 0) {
+                hasBitsets = true;
+                bitsetRows += estimates[predicate.ordinal()];
+            }
+        }
+        long driverRows = estimates[driver.ordinal()];
+        return new PlaceFilterPlan(query, estimates, driver, hasBitsets
+                && driverRows >= BITSET_MIN_DRIVER_ROWS
+                && bitsetRows <= driverRows * BITSET_MAX_ROWS_PER_DRIVER_ROW);
+    }
+
+    /**
+     * @return - the places matching any of the values; values with no places count 0
+     */
+    private static long sumCounts(List<PlaceFacetCounts.Count> counts,
+                                  PlaceFacetCounts.Count nullCount, List<String> values) {
+        long sum = 0;
+        for (String value : values) {
+            if (nullCount != null && nullCount.getValue().equals(value)) {
+                sum += nullCount.getTotal();
+                continue;
+            }
+            for (PlaceFacetCounts.Count count : counts) {
+                if (count.getValue().equals(value)) {
+                    sum += count.getTotal();
+                    break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return - the average places per value of the index's first column times the number of
+     * values, or every place if the index has no statistics
+     */
+    private static long estimateFromStats(PlaceIndexStats stats, String index, int valueCount,
+                                          long rowCount) {
+        long rowsPerValue = stats.getRowsPerValue(index);
+        return (rowsPerValue > 0) ? Math.min(rowCount, rowsPerValue * valueCount) : rowCount;
+    }
+
+    public PlaceQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return - the filter whose index drives the query, or null to let SQLite choose
+     */
+    public Predicate getDriver() {
+        return mDriver;
+    }
+
+    /**
+     * @return - true if the driver's index doesn't return places in title order, so its places
+     * are sorted after they are all read: a rating range, or more than one category or
+     * neighborhood. Pages of such a list are best looked up by id once its ids are loaded.
+     */
+    public boolean isSortedAfterDriver() {
+        if (mDriver == Predicate.CATEGORY) {
+            return mQuery.getCategories().size() > 1;
+        } else if (mDriver == Predicate.NEIGHBORHOOD) {
+            return mQuery.getNeighborhoods().size() > 1;
+        }
+        return mDriver == Predicate.RATING;
+    }
+
+    /**
+     * @param predicate - one of the query's filters
+     * @return - estimated number of places the filter matches on its own (0 if planned without
+     * counts or statistics), or -1 if the query does not set it or is not planned
+     */
+    public long getEstimate(Predicate predicate) {
+        return mEstimates[predicate.ordinal()];
+    }
+
+    /**
+     * @return - true to load the list by intersecting the ids each filter matches (see
+     * getBitsetPredicates and intersect) rather than by one list query
+     */
+    public boolean usesBitsets() {
+        return mUsesBitsets;
+    }
+
+    /**
+     * @return - the filters whose ids are read into bitsets: all but the driver and favorites
+     */
+    public List<Predicate> getBitsetPredicates() {
+        ArrayList<Predicate> predicates = new ArrayList<>();
+        for (Predicate predicate : Predicate.values()) {
+            if (predicate != mDriver && predicate != Predicate.FAVORITES
+                    && mEstimates[predicate.ordinal()] >= 0) {
+                predicates.add(predicate);
+            }
+        }
+        return predicates;
+    }
+
+    /**
+     * @param predicate - one of the query's filters
+     * @return - a query for every place matching just that filter, in list order and with no
+     * limit; it has one filter, so it is read from that filter's index
+     */
+    public PlaceQuery getPredicateQuery(Predicate predicate) {
+        PlaceQuery query = PlaceQuery.allPlaces().withSort(mQuery.getSort());
+        switch (predicate) {
+            case FAVORITES:
+                return query.withFavoritesOnly(true);
+            case CATEGORY:
+                return query.withCategories(mQuery.getCategories());
+            case NEIGHBORHOOD:
+                return query.withNeighborhoods(mQuery.getNeighborhoods());
+            default:
+                return query.withMinRating(mQuery.getMinRating());
+        }
+    }
+
+    /**
+     * Work out a bitset plan's results
+     * @param ids - ids of the places matching the driver's query, in list order
+     * @param isFavorite - favorite status of each of those places
+     * @param predicateIds - ids of the places matching each of getBitsetPredicates' queries, in
+     *                     the same order as that list
+     * @return - the driver's places that match every filter, in list order, up to the query's limit
+     */
+    public Matches intersect(int[] ids, boolean[] isFavorite, List<int[]> predicateIds) {
+        BitSet[] bitsets = new BitSet[predicateIds.size()];
+        for (int i = 0; i < bitsets.length; i++) {
+            bitsets[i] = new BitSet();
+            for (int id : predicateIds.get(i)) {
+                bitsets[i].set(id);
+            }
+        }
+
+        int limit = (mQuery.getLimit() > 0) ? Math.min(mQuery.getLimit(), ids.length) : ids.length;
+        int[] matchIds = new int[limit];
+        boolean[] matchIsFavorite = new boolean[limit];
+        int count = 0;
+        for (int i = 0; i < ids.length && count < limit; i++) {
+            if (mQuery.isFavoritesOnly() && !isFavorite[i]) {
+                continue;
+            }
+            boolean matches = true;
+            for (BitSet bitset : bitsets) {
+                if (!bitset.get(ids[i])) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                matchIds[count] = ids[i];
+                matchIsFavorite[count] = isFavorite[i];
+                count++;
+            }
+        }
+        return new Matches(Arrays.copyOf(matchIds, count), Arrays.copyOf(matchIsFavorite, count));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder estimates = new StringBuilder();
+        for (Predicate predicate : Predicate.values()) {
+            if (mEstimates[predicate.ordinal()] >= 0) {
+                estimates.append((estimates.length() > 0) ? ", " : "").append(predicate)
+                        .append('=').append(mEstimates[predicate.ordinal()]);
+            }
+        }
+        return "PlaceFilterPlan{driver=" + mDriver + ", estimates={" + estimates + "}, bitsets="
+                + mUsesBitsets + "}";
+    }
+}
@@ -0,0 +1,100 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the raw text from the SearchView into FTS4 MATCH expressions for the places_fts table.
+ * Each token becomes a prefix query, and tokens are implicitly ANDed by FTS, so a record is
+ * returned only if every token appears in it (though not necessarily in the same column).
+ */
+public class PlaceFtsQuery {
+    private static final String TITLE_COLUMN_FILTER = "title:";
+
+    private PlaceFtsQuery() {}
+
+    /**
+     * Split the user's query into tokens the FTS "simple" tokenizer would produce. Anything that
+     * is not a letter or digit separates tokens, which also strips out FTS operators like quotes,
+     * asterisks, colons and parentheses so user input can never produce a malformed expression.
+     * @param query - the string the user entered in the SearchView (can be null)
+     * @return - list of lower case tokens, empty if the query contains no searchable characters
+     */
+    public static ArrayList<String> tokenize(String query) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (query == null) {
+            return tokens;
+        }
+
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                tokens.add(token.toString().toLowerCase(Locale.US));
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString().toLowerCase(Locale.US));
+        }
+        return tokens;
+    }
+
+    /**
+     * Build a MATCH expression that prefix-matches every token against all indexed columns
+     * @param query - the string the user entered in the SearchView
+     * @return - MATCH expression, or null if the query has no searchable tokens
+     */
+    public static String buildMatchExpression(String query) {
+        return build(tokenize(query), null);
+    }
+
+    /**
+     * Build a MATCH expression that prefix-matches every token against the title column only;
+     * used to rank places whose title matches the whole query ahead of the rest
+     * @param query - the string the user entered in the SearchView
+     * @return - MATCH expression, or null if the query has no searchable tokens
+     */
+    public static String buildTitleMatchExpression(String query) {
+        return build(tokenize(query), TITLE_COLUMN_FILTER);
+    }
+
+    /**
+     * @param tokens - tokens from tokenize
+     * @return - MATCH expression prefix-matching every token against all indexed columns, or null
+     * if there are no tokens
+     */
+    public static String buildTokensMatchExpression(List<String> tokens) {
+        return build(tokens, null);
+    }
+
+    /**
+     * @param tokens - tokens from tokenize
+     * @return - MATCH expression prefix-matching every token against the title column, or null if
+     * there are no tokens
+     */
+    public static String buildTokensTitleMatchExpression(List<String> tokens) {
+        return build(tokens, TITLE_COLUMN_FILTER);
+    }
+
+    private static String build(List<String> tokens, String columnFilter) {
+        if (tokens.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder expression = new StringBuilder();
+        for (String token : tokens) {
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            if (columnFilter != null) {
+                expression.append(columnFilter);
+            }
+            expression.append(token).append('*');
+        }
+        return expression.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Distance math and the k-nearest search over places' coordinates. The search only needs a way
+ * to list the places inside a box, so the same code runs against the app's database
+ * (PlaceDbOpenHelper.getNearestPlaces) and the JDBC benchmarks.
+ */
+public final class PlaceGeo {
+    public static final double EARTH_RADIUS_METERS = 6371008.8; // mean radius
+    private static final double HALF_EARTH_CIRCUMFERENCE_METERS = Math.PI * EARTH_RADIUS_METERS;
+    static final double INITIAL_SEARCH_RADIUS_METERS = 500;
+    private static final int SEARCH_RADIUS_GROWTH = 4;
+
+    private static final Comparator<NearbyPlace> BY_DISTANCE = new Comparator<NearbyPlace>() {
+        @Override
+        public int compare(NearbyPlace a, NearbyPlace b) {
+            int result = Double.compare(a.getDistanceMeters(), b.getDistanceMeters());
+            return (result != 0) ? result : (a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1));
+        }
+    };
+
+    /**
+     * Lists the places with coordinates inside a box
+     */
+    public interface CandidateSource {
+        void findInBox(GeoBox box, Candidates candidates);
+    }
+
+    /**
+     * Collects the places a CandidateSource finds, measuring each one's distance from the origin
+     */
+    public static class Candidates {
+        private final double mOriginLatitude;
+        private final double mOriginLongitude;
+        private final ArrayList<NearbyPlace> mPlaces = new ArrayList<>();
+
+        Candidates(double originLatitude, double originLongitude) {
+            mOriginLatitude = originLatitude;
+            mOriginLongitude = originLongitude;
+        }
+
+        public void add(int id, double latitude, double longitude) {
+            mPlaces.add(new NearbyPlace(id, latitude, longitude,
+                    distanceMeters(mOriginLatitude, mOriginLongitude, latitude, longitude)));
+        }
+    }
+
+    private PlaceGeo() {}
+
+    /**
+     * Great-circle distance between two points (haversine formula)
+     * @return - distance in meters
+     */
+    public static double distanceMeters(double latitude1, double longitude1,
+                                        double latitude2, double longitude2) {
+        double sinHalfLatitudeDelta = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinHalfLongitudeDelta = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfLatitudeDelta * sinHalfLatitudeDelta
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * sinHalfLongitudeDelta * sinHalfLongitudeDelta;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Find the count places nearest to a point. Searches a box around the point, growing it until
+     * it holds count places; then, since a box can hold places further away than places just
+     * outside it, searches once more with the box around the circle through the count-th place.
+     * @param source - lists the places inside a box
+     * @param latitude - latitude of the point
+     * @param longitude - longitude of the point
+     * @param count - number of places to return
+     * @return - up to count places, nearest first (fewer if fewer places have coordinates)
+     */
+    public static List<NearbyPlace> findNearest(CandidateSource source, double latitude,
+                                                double longitude, int count) {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+
+        double radius = INITIAL_SEARCH_RADIUS_METERS;
+        while (true) {
+            GeoBox box = GeoBox.around(latitude, longitude, Math.min(radius, HALF_EARTH_CIRCUMFERENCE_METERS));
+            Candidates candidates = new Candidates(latitude, longitude);
+            source.findInBox(box, candidates);
+            ArrayList<NearbyPlace> places = candidates.mPlaces;
+
+            boolean searchedEverywhere = box.coversWholeWorld() || radius >= HALF_EARTH_CIRCUMFERENCE_METERS;
+            if (places.size() >= count || searchedEverywhere) {
+                Collections.sort(places, BY_DISTANCE);
+                if (places.size() > count) {
+                    places.subList(count, places.size()).clear();
+                }
+                if (searchedEverywhere) {
+                    return places;
+                }
+                double furthest = places.get(places.size() - 1).getDistanceMeters();
+                if (furthest <= radius) {
+                    return places; // everything within the furthest distance was in the box
+                }
+                radius = furthest;
+            } else {
+                radius *= SEARCH_RADIUS_GROWTH;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_ID;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_LATITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_LONGITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.RTREE_ID;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.RTREE_MAX_LATITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.RTREE_MAX_LONGITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.RTREE_MIN_LATITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.RTREE_MIN_LONGITUDE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.TABLE_NAME_PLACES;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.TABLE_NAME_PLACES_RTREE;
+
+/**
+ * Builds the SQL for finding places by their coordinates. When the database has the R*Tree
+ * index (see PlaceSchema.TABLE_NAME_PLACES_RTREE) the box is looked up in it; otherwise the
+ * latitude/longitude index is range-scanned. Like PlaceListSql, this has no Android dependencies
+ * so the benchmarks and unit tests run the exact same SQL as the app.
+ */
+public final class PlaceGeoSql {
+
+    // every located place, for building the in-memory PlaceKdTree; read from the coordinate index alone
+    public static final String SQL_SELECT_ALL_COORDINATES = "SELECT " + COL_ID + ", " + COL_LATITUDE
+            + ", " + COL_LONGITUDE + " FROM " + TABLE_NAME_PLACES + " WHERE " + COL_LATITUDE
+            + " IS NOT NULL AND " + COL_LONGITUDE + " IS NOT NULL";
+
+    private PlaceGeoSql() {}
+
+    /**
+     * @param columns - columns to return
+     * @param useRTree - true if the database has the R*Tree index
+     * @param box - the viewport
+     * @param limit - maximum number of rows to return, or 0 for no limit
+     * @param args - empty list the selection arguments are added to
+     * @return - SQL selecting the places whose coordinates are inside the box, in no particular order
+     */
+    public static String buildViewportQuery(String[] columns, boolean useRTree, GeoBox box,
+                                            int limit, ArrayList<String> args) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? ", " : "").append(columns[i]);
+        }
+        sql.append(" FROM " + TABLE_NAME_PLACES + " WHERE ")
+                .append(buildBoxSelection(useRTree, box, args));
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @return - SQL selecting the _id, latitude and longitude of the places inside the box, for
+     * PlaceGeo.findNearest; answered from the index without reading the places table when there
+     * is no R*Tree
+     */
+    public static String buildCandidateQuery(boolean useRTree, GeoBox box, ArrayList<String> args) {
+        return buildViewportQuery(new String[]{COL_ID, COL_LATITUDE, COL_LONGITUDE}, useRTree, box,
+                0, args);
+    }
+
+    private static String buildBoxSelection(boolean useRTree, GeoBox box, ArrayList<String> args) {
+        String selection = "";
+        if (useRTree) {
+            // a place is a point, so its (degenerate) R*Tree box overlaps the viewport if it is inside it
+            selection = COL_ID + " IN (SELECT " + RTREE_ID + " FROM " + TABLE_NAME_PLACES_RTREE
+                    + " WHERE " + RTREE_MAX_LATITUDE + ">=? AND " + RTREE_MIN_LATITUDE + "<=?"
+                    + " AND " + RTREE_MAX_LONGITUDE + ">=? AND " + RTREE_MIN_LONGITUDE + "<=?) AND ";
+            addBoxArgs(box, args);
+        }
+
+        // the R*Tree stores 32-bit floats, rounded outward, so the exact check is still needed with it
+        addBoxArgs(box, args);
+        return selection + COL_LATITUDE + " BETWEEN ? AND ? AND " + COL_LONGITUDE + " BETWEEN ? AND ?";
+    }
+
+    private static void addBoxArgs(GeoBox box, ArrayList<String> args) {
+        args.add(String.valueOf(box.getSouth()));
+        args.add(String.valueOf(box.getNorth()));
+        args.add(String.valueOf(box.getWest()));
+        args.add(String.valueOf(box.getEast()));
+    }
+}
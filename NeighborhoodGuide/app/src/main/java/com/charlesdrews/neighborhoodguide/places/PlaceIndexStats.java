@@ -0,0 +1,62 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The index statistics ANALYZE keeps in sqlite_stat1 for the places table: how many places there
+ * are and, for each index, how many places share a value of its first column on average.
+ * PlaceFilterPlan estimates how many places a filter matches from these when it has no exact
+ * PlaceFacetCounts for it. Immutable; PlaceDbOpenHelper keeps the latest one in memory until
+ * ANALYZE runs again.
+ */
+public class PlaceIndexStats {
+    private final long mRowCount;
+    private final HashMap<String, Long> mRowsPerValue = new HashMap<>();
+
+    /**
+     * @param stats - the stat column of each sqlite_stat1 row of the places table, by index name;
+     *              e.g. "1200 150 1" - the number of rows indexed, then the average number of rows
+     *              per distinct value of the first column, of the first two, and so on. Empty if
+     *              ANALYZE has not run.
+     */
+    public PlaceIndexStats(Map<String, String> stats) {
+        long rowCount = 0;
+        for (Map.Entry<String, String> entry : stats.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            String[] fields = entry.getValue().trim().split("\\s+");
+            try {
+                rowCount = Math.max(rowCount, Long.parseLong(fields[0]));
+                if (entry.getKey() != null && fields.length > 1) {
+                    mRowsPerValue.put(entry.getKey(), Long.parseLong(fields[1]));
+                }
+            } catch (NumberFormatException e) {
+                // not written by a version of ANALYZE we understand; leave the index unknown
+            }
+        }
+        mRowCount = rowCount;
+    }
+
+    /**
+     * @return - number of places when ANALYZE last ran, or 0 if not known
+     */
+    public long getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @param index - name of an index of the places table, e.g. PlaceSchema.INDEX_PLACES_CATEGORY_TITLE
+     * @return - average number of places per value of the index's first column, or 0 if not known
+     */
+    public long getRowsPerValue(String index) {
+        Long rows = mRowsPerValue.get(index);
+        return (rows == null) ? 0 : rows;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceIndexStats{rows=" + mRowCount + ", rowsPerValue=" + mRowsPerValue + "}";
+    }
+}
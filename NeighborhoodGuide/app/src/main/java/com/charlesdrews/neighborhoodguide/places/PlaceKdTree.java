@@ -0,0 +1,386 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory spatial index of place coordinates: a 3-d tree over each place's position as a point
+ * on the unit sphere. Straight-line (chord) distance between those points grows with great-circle
+ * distance, so nearest-neighbor pruning is exact everywhere, with no special cases at the poles or
+ * the 180th meridian.
+ *
+ * The tree is stored in flat arrays - the node for a range of slots is its middle slot - so it
+ * costs about 36 bytes per place and no objects per place. Places inserted after the tree was
+ * built go into a small unsorted overflow that queries scan; deleted places are marked and
+ * skipped. Both are folded in by rebuilding the tree once they grow past a fraction of its size.
+ *
+ * All methods are thread safe.
+ */
+public class PlaceKdTree {
+    private static final int MIN_OVERFLOW_BEFORE_REBUILD = 64;
+    private static final int REBUILD_DIVISOR = 8; // rebuild when overflow or deleted > size / 8
+
+    // tree, in build order: the node for slots [lo, hi) is at (lo + hi) / 2
+    private int mTreeSize;
+    private int[] mIds = new int[0];
+    private double[] mPoints = new double[0]; // x, y, z per slot
+    private boolean[] mDeleted = new boolean[0];
+    private int mDeletedCount;
+
+    // id -> slot lookup for the tree: ids ascending, with each id's slot
+    private int[] mSortedIds = new int[0];
+    private int[] mSlotsBySortedId = new int[0];
+
+    // places inserted since the last build
+    private int mOverflowSize;
+    private int[] mOverflowIds = new int[16];
+    private double[] mOverflowPoints = new double[16 * 3];
+
+    /**
+     * @param ids - place ids
+     * @param latitudes - latitude of each place
+     * @param longitudes - longitude of each place
+     */
+    public PlaceKdTree(int[] ids, double[] latitudes, double[] longitudes) {
+        double[] points = new double[ids.length * 3];
+        for (int i = 0; i < ids.length; i++) {
+            toUnitVector(latitudes[i], longitudes[i], points, i * 3);
+        }
+        build(ids.clone(), points, ids.length);
+    }
+
+    public synchronized int size() {
+        return mTreeSize - mDeletedCount + mOverflowSize;
+    }
+
+    /**
+     * Add a place, or move it if it is already indexed
+     */
+    public synchronized void insert(int id, double latitude, double longitude) {
+        remove(id);
+        if (mOverflowSize == mOverflowIds.length) {
+            mOverflowIds = Arrays.copyOf(mOverflowIds, mOverflowSize * 2);
+            mOverflowPoints = Arrays.copyOf(mOverflowPoints, mOverflowSize * 2 * 3);
+        }
+        mOverflowIds[mOverflowSize] = id;
+        toUnitVector(latitude, longitude, mOverflowPoints, mOverflowSize * 3);
+        mOverflowSize++;
+        rebuildIfUnbalanced();
+    }
+
+    /**
+     * @return - true if the place was indexed
+     */
+    public synchronized boolean remove(int id) {
+        int slot = findTreeSlot(id);
+        if (slot != -1) {
+            mDeleted[slot] = true;
+            mDeletedCount++;
+            rebuildIfUnbalanced();
+            return true;
+        }
+        for (int i = 0; i < mOverflowSize; i++) {
+            if (mOverflowIds[i] == id) {
+                mOverflowSize--;
+                mOverflowIds[i] = mOverflowIds[mOverflowSize];
+                System.arraycopy(mOverflowPoints, mOverflowSize * 3, mOverflowPoints, i * 3, 3);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy the unit-sphere positions of some places, e.g. to rank a list by distance repeatedly
+     * without looking each place up again; see PlaceDistanceRanking
+     * @param ids - place ids
+     * @param points - receives x, y, z for each id, or NaN for ids that are not indexed
+     */
+    public synchronized void getPoints(int[] ids, double[] points) {
+        for (int i = 0; i < ids.length; i++) {
+            int slot = findTreeSlot(ids[i]);
+            if (slot != -1) {
+                System.arraycopy(mPoints, slot * 3, points, i * 3, 3);
+                continue;
+            }
+            points[i * 3] = points[i * 3 + 1] = points[i * 3 + 2] = Double.NaN;
+            for (int j = 0; j < mOverflowSize; j++) {
+                if (mOverflowIds[j] == ids[i]) {
+                    System.arraycopy(mOverflowPoints, j * 3, points, i * 3, 3);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the places nearest to a point
+     * @param latitude - latitude of the point
+     * @param longitude - longitude of the point
+     * @param count - maximum number of places to return
+     * @return - up to count places, nearest first
+     */
+    public synchronized List<NearbyPlace> nearest(double latitude, double longitude, int count) {
+        if (count <= 0 || size() == 0) {
+            return new ArrayList<>();
+        }
+        double[] query = new double[3];
+        toUnitVector(latitude, longitude, query, 0);
+
+        Neighbors neighbors = new Neighbors(Math.min(count, mTreeSize + mOverflowSize));
+        search(0, mTreeSize, 0, query, neighbors);
+        for (int i = 0; i < mOverflowSize; i++) {
+            neighbors.offer(mOverflowIds[i], mOverflowPoints, i * 3,
+                    chordSquared(query, mOverflowPoints, i * 3));
+        }
+        return neighbors.toList();
+    }
+
+    /**
+     * Great-circle distance between two unit-sphere points, from the squared chord between them
+     */
+    static double chordSquaredToMeters(double chordSquared) {
+        return 2 * PlaceGeo.EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(chordSquared) / 2));
+    }
+
+    static void toUnitVector(double latitude, double longitude, double[] out, int offset) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        out[offset] = Math.cos(phi) * Math.cos(lambda);
+        out[offset + 1] = Math.cos(phi) * Math.sin(lambda);
+        out[offset + 2] = Math.sin(phi);
+    }
+
+    static double chordSquared(double[] a, double[] points, int offset) {
+        double dx = a[0] - points[offset];
+        double dy = a[1] - points[offset + 1];
+        double dz = a[2] - points[offset + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void search(int lo, int hi, int axis, double[] query, Neighbors neighbors) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!mDeleted[mid]) {
+            neighbors.offer(mIds[mid], mPoints, mid * 3, chordSquared(query, mPoints, mid * 3));
+        }
+
+        double delta = query[axis] - mPoints[mid * 3 + axis];
+        int nextAxis = (axis + 1) % 3;
+        if (delta < 0) {
+            search(lo, mid, nextAxis, query, neighbors);
+            if (delta * delta < neighbors.worstChordSquared()) {
+                search(mid + 1, hi, nextAxis, query, neighbors);
+            }
+        } else {
+            search(mid + 1, hi, nextAxis, query, neighbors);
+            if (delta * delta < neighbors.worstChordSquared()) {
+                search(lo, mid, nextAxis, query, neighbors);
+            }
+        }
+    }
+
+    private int findTreeSlot(int id) {
+        int index = Arrays.binarySearch(mSortedIds, id);
+        if (index < 0) {
+            return -1;
+        }
+        int slot = mSlotsBySortedId[index];
+        return mDeleted[slot] ? -1 : slot;
+    }
+
+    private void rebuildIfUnbalanced() {
+        int limit = Math.max(MIN_OVERFLOW_BEFORE_REBUILD, mTreeSize / REBUILD_DIVISOR);
+        if (mOverflowSize <= limit && mDeletedCount <= limit) {
+            return;
+        }
+
+        int size = mTreeSize - mDeletedCount + mOverflowSize;
+        int[] ids = new int[size];
+        double[] points = new double[size * 3];
+        int n = 0;
+        for (int slot = 0; slot < mTreeSize; slot++) {
+            if (!mDeleted[slot]) {
+                ids[n] = mIds[slot];
+                System.arraycopy(mPoints, slot * 3, points, n * 3, 3);
+                n++;
+            }
+        }
+        System.arraycopy(mOverflowIds, 0, ids, n, mOverflowSize);
+        System.arraycopy(mOverflowPoints, 0, points, n * 3, mOverflowSize * 3);
+        build(ids, points, size);
+    }
+
+    private void build(int[] ids, double[] points, int size) {
+        mIds = ids;
+        mPoints = points;
+        mTreeSize = size;
+        mDeleted = new boolean[size];
+        mDeletedCount = 0;
+        mOverflowSize = 0;
+        arrange(0, size, 0);
+
+        // sort (id << 32 | slot) to get the id -> slot lookup in one primitive sort
+        long[] idSlots = new long[size];
+        for (int slot = 0; slot < size; slot++) {
+            idSlots[slot] = ((long) mIds[slot] << 32) | slot;
+        }
+        Arrays.sort(idSlots);
+        mSortedIds = new int[size];
+        mSlotsBySortedId = new int[size];
+        for (int i = 0; i < size; i++) {
+            mSortedIds[i] = (int) (idSlots[i] >> 32);
+            mSlotsBySortedId[i] = (int) idSlots[i];
+        }
+    }
+
+    /**
+     * Reorder slots [lo, hi) into a k-d tree: the median along axis goes in the middle slot,
+     * smaller values before it and larger after, then each side is arranged on the next axis
+     */
+    private void arrange(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        int nextAxis = (axis + 1) % 3;
+        arrange(lo, mid, nextAxis);
+        arrange(mid + 1, hi, nextAxis);
+    }
+
+    /**
+     * Quickselect: move the k-th smallest slot of [left, right] along axis into slot k
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = mPoints[((left + right) >>> 1) * 3 + axis];
+            int i = left, j = right;
+            while (i <= j) {
+                while (mPoints[i * 3 + axis] < pivot) i++;
+                while (mPoints[j * 3 + axis] > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = mIds[a];
+        mIds[a] = mIds[b];
+        mIds[b] = id;
+        for (int i = 0; i < 3; i++) {
+            double coordinate = mPoints[a * 3 + i];
+            mPoints[a * 3 + i] = mPoints[b * 3 + i];
+            mPoints[b * 3 + i] = coordinate;
+        }
+    }
+
+    /**
+     * The best candidates found so far, as a max-heap on chord distance so the worst is on top
+     */
+    private static class Neighbors {
+        private final int mCapacity;
+        private final int[] mIds;
+        private final double[] mChordsSquared;
+        private final double[] mPoints;
+        private int mSize;
+
+        Neighbors(int capacity) {
+            mCapacity = capacity;
+            mIds = new int[capacity];
+            mChordsSquared = new double[capacity];
+            mPoints = new double[capacity * 3];
+        }
+
+        double worstChordSquared() {
+            return (mSize < mCapacity) ? Double.POSITIVE_INFINITY : mChordsSquared[0];
+        }
+
+        void offer(int id, double[] points, int offset, double chordSquared) {
+            if (mSize < mCapacity) {
+                set(mSize, id, points, offset, chordSquared);
+                siftUp(mSize++);
+            } else if (chordSquared < mChordsSquared[0]) {
+                set(0, id, points, offset, chordSquared);
+                siftDown(0);
+            }
+        }
+
+        List<NearbyPlace> toList() {
+            NearbyPlace[] places = new NearbyPlace[mSize];
+            while (mSize > 0) { // pop the furthest remaining place into the last free position
+                places[mSize - 1] = new NearbyPlace(mIds[0],
+                        Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, mPoints[2])))),
+                        Math.toDegrees(Math.atan2(mPoints[1], mPoints[0])),
+                        chordSquaredToMeters(mChordsSquared[0]));
+                mSize--;
+                move(mSize, 0);
+                siftDown(0);
+            }
+            return new ArrayList<>(Arrays.asList(places));
+        }
+
+        private void set(int index, int id, double[] points, int offset, double chordSquared) {
+            mIds[index] = id;
+            mChordsSquared[index] = chordSquared;
+            System.arraycopy(points, offset, mPoints, index * 3, 3);
+        }
+
+        private void move(int from, int to) {
+            mIds[to] = mIds[from];
+            mChordsSquared[to] = mChordsSquared[from];
+            System.arraycopy(mPoints, from * 3, mPoints, to * 3, 3);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (mChordsSquared[parent] >= mChordsSquared[index]) {
+                    return;
+                }
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int largest = index;
+                int left = index * 2 + 1, right = left + 1;
+                if (left < mSize && mChordsSquared[left] > mChordsSquared[largest]) largest = left;
+                if (right < mSize && mChordsSquared[right] > mChordsSquared[largest]) largest = right;
+                if (largest == index) {
+                    return;
+                }
+                swap(index, largest);
+                index = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = mIds[a];
+            mIds[a] = mIds[b];
+            mIds[b] = id;
+            double chord = mChordsSquared[a];
+            mChordsSquared[a] = mChordsSquared[b];
+            mChordsSquared[b] = chord;
+            for (int i = 0; i < 3; i++) {
+                double coordinate = mPoints[a * 3 + i];
+                mPoints[a * 3 + i] = mPoints[b * 3 + i];
+                mPoints[b * 3 + i] = coordinate;
+            }
+        }
+    }
+}
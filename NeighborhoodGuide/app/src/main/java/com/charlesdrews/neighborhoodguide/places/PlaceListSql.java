@@ -0,0 +1,372 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_CATEGORY;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_ID;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_IMAGE_RES;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_IS_FAVORITE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_LOCATION;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_NEIGHBORHOOD;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_RATING;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_SEARCH_RANK;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.COL_TITLE;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.FTS_DOCID;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.TABLE_NAME_PLACES;
+import static com.charlesdrews.neighborhoodguide.places.PlaceSchema.TABLE_NAME_PLACES_FTS;
+
+/**
+ * Builds the SQL for the list and search queries. Kept free of Android dependencies so the JVM
+ * benchmarks in :benchmarks run exactly the queries the app runs.
+ *
+ * Each list query has a shape - the SHAPE_* flags, the number of category and neighborhood values
+ * rounded up to a power of two, and the predicate a PlaceFilterPlan chose to drive the query -
+ * that decides its SQL text. Every value (the categories, neighborhoods, rating, search, page key,
+ * limit and offset) is bound as an argument rather than written into the SQL, so all queries of
+ * one shape share one prepared statement.
+ */
+public final class PlaceListSql {
+    public static final String ALL_CATEGORIES = "All";
+    public static final String UNCATEGORIZED = "Uncategorized";
+
+    public static final int SHAPE_IDS_ONLY = 1; // only _id and is_favorite, for the whole list
+    public static final int SHAPE_FAVORITES = 1 << 1;
+    public static final int SHAPE_CATEGORY = 1 << 2; // category=?
+    public static final int SHAPE_UNCATEGORIZED = 1 << 3; // category IS NULL
+    public static final int SHAPE_SEARCH = 1 << 4;
+    public static final int SHAPE_RANKED = 1 << 5; // title matches first
+    public static final int SHAPE_AFTER_KEY = 1 << 6; // keyset page: starts after a PlacePageKey
+    public static final int SHAPE_LIMIT = 1 << 7;
+    public static final int SHAPE_OFFSET = 1 << 8; // page whose previous page's key is unknown
+    public static final int SHAPE_NEIGHBORHOOD = 1 << 9; // neighborhood=? or IN (...)
+    public static final int SHAPE_MIN_RATING = 1 << 10; // rating>=?
+
+    // padded number of category and neighborhood values (as a power of two exponent) and the
+    // driving predicate (PlaceFilterPlan.Predicate ordinal + 1, or 0 to let SQLite choose)
+    private static final int CATEGORY_COUNT_SHIFT = 11;
+    private static final int NEIGHBORHOOD_COUNT_SHIFT = 14;
+    private static final int DRIVER_SHIFT = 17;
+    private static final int FIELD_MASK = 7;
+
+    private static final String[] LIST_COLUMNS = new String[]{ COL_ID, COL_TITLE,
+            COL_CATEGORY, COL_LOCATION, COL_NEIGHBORHOOD, COL_IS_FAVORITE, COL_IMAGE_RES};
+    private static final String[] ID_COLUMNS = new String[]{ COL_ID, COL_IS_FAVORITE };
+
+    private static final String FTS_MATCH = COL_ID + " IN (SELECT " + FTS_DOCID + " FROM "
+            + TABLE_NAME_PLACES_FTS + " WHERE " + TABLE_NAME_PLACES_FTS + " MATCH ?)";
+
+    private PlaceListSql() {}
+
+    /**
+     * Work out the shape of a list query, leaving the choice of index to SQLite
+     * @see #getListShape(PlaceQuery, PlaceFilterPlan.Predicate, boolean, PlacePageKey, int, int)
+     */
+    public static int getListShape(PlaceQuery query, boolean idsOnly, PlacePageKey after,
+                                   int offset, int limit) {
+        return getListShape(query, null, idsOnly, after, offset, limit);
+    }
+
+    /**
+     * Work out the shape of a list query
+     * @param query - which places, in what order
+     * @param driver - the filter whose index the query should be driven by, as chosen by a
+     *               PlaceFilterPlan; the other filters are then checked against each row it finds.
+     *               Null to let SQLite choose, as it also does for a page (limit > 0) that would
+     *               have to be sorted after reading the driver's index.
+     * @param idsOnly - true for just the _id and is_favorite status of every place, false for
+     *                the list columns
+     * @param after - key of the last row of the previous page; results start after it (can be null)
+     * @param offset - number of rows to skip; only used when the previous page's key is unknown
+     * @param limit - maximum number of rows to return, or 0 for no limit
+     * @return - the shape
+     */
+    public static int getListShape(PlaceQuery query, PlaceFilterPlan.Predicate driver,
+                                   boolean idsOnly, PlacePageKey after, int offset, int limit) {
+        int shape = 0;
+        if (idsOnly) {
+            shape |= SHAPE_IDS_ONLY;
+        }
+        if (query.isFavoritesOnly()) {
+            shape |= SHAPE_FAVORITES;
+        }
+        int namedCategories = getNamedCategoryCount(query);
+        if (namedCategories < query.getCategories().size()) {
+            shape |= SHAPE_UNCATEGORIZED;
+        }
+        if (namedCategories > 0) {
+            shape |= SHAPE_CATEGORY | (getValueCountBits(namedCategories) << CATEGORY_COUNT_SHIFT);
+        }
+        if (!query.getNeighborhoods().isEmpty()) {
+            shape |= SHAPE_NEIGHBORHOOD
+                    | (getValueCountBits(query.getNeighborhoods().size()) << NEIGHBORHOOD_COUNT_SHIFT);
+        }
+        if (query.getMinRating() > 0) {
+            shape |= SHAPE_MIN_RATING;
+        }
+        if (driver != null) {
+            int driven = shape | (driver.ordinal() + 1) << DRIVER_SHIFT;
+            // a page is found sooner by reading the title index until enough places match than by
+            // reading every match off the driver's index and sorting them
+            if (limit <= 0 || !isSortedAfterDriver(driven)) {
+                shape = driven;
+            }
+        }
+        if (query.isSearch()) {
+            shape |= SHAPE_SEARCH;
+        }
+        if (query.isRanked()) {
+            shape |= SHAPE_RANKED;
+        }
+        if (after != null) {
+            shape |= SHAPE_AFTER_KEY;
+        }
+        if (limit > 0) {
+            shape |= SHAPE_LIMIT;
+            if (after == null && offset > 0) {
+                shape |= SHAPE_OFFSET;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * @return - the number of categories in the query's filter other than UNCATEGORIZED
+     */
+    private static int getNamedCategoryCount(PlaceQuery query) {
+        List<String> categories = query.getCategories();
+        return categories.contains(UNCATEGORIZED) ? categories.size() - 1 : categories.size();
+    }
+
+    /**
+     * @return - the number of arguments bound for a number of filter values, as a power of two
+     * exponent, so e.g. 3 and 4 categories share a query
+     */
+    private static int getValueCountBits(int valueCount) {
+        return Integer.numberOfTrailingZeros(getPaddedIdCount(valueCount));
+    }
+
+    /**
+     * @return - the column, or an expression of it that SQLite won't use an index for when the
+     * shape is driven by another filter
+     */
+    private static String filterColumn(int shape, PlaceFilterPlan.Predicate predicate, String column) {
+        int driver = getDriverField(shape);
+        return (driver == 0 || driver == predicate.ordinal() + 1) ? column : "+" + column;
+    }
+
+    /**
+     * @return - the PlaceFilterPlan.Predicate ordinal + 1 of the filter driving the shape, or 0
+     */
+    private static int getDriverField(int shape) {
+        return (shape >> DRIVER_SHIFT) & FIELD_MASK;
+    }
+
+    /**
+     * @return - true if the shape is driven by a filter whose index can't be read in title order:
+     * a rating range, or more than one category or neighborhood. SQLite would rather read every
+     * place off the title index than sort, so these shapes sort by an expression of title that
+     * no index provides, and read the driver's index instead. See also
+     * PlaceFilterPlan.isSortedAfterDriver.
+     */
+    private static boolean isSortedAfterDriver(int shape) {
+        int driver = getDriverField(shape);
+        if (driver == PlaceFilterPlan.Predicate.CATEGORY.ordinal() + 1) {
+            boolean both = (shape & SHAPE_CATEGORY) != 0 && (shape & SHAPE_UNCATEGORIZED) != 0;
+            return both || ((shape >> CATEGORY_COUNT_SHIFT) & FIELD_MASK) > 0;
+        } else if (driver == PlaceFilterPlan.Predicate.NEIGHBORHOOD.ordinal() + 1) {
+            return ((shape >> NEIGHBORHOOD_COUNT_SHIFT) & FIELD_MASK) > 0;
+        }
+        return driver == PlaceFilterPlan.Predicate.RATING.ordinal() + 1;
+    }
+
+    /**
+     * @return - "column=?" for one value, otherwise "column IN (?,...)"
+     */
+    private static String inValues(String column, int countBits) {
+        if (countBits == 0) {
+            return column + "=?";
+        }
+        StringBuilder sql = new StringBuilder(column).append(" IN (?");
+        for (int i = 1; i < (1 << countBits); i++) {
+            sql.append(",?");
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Build the query for a list of places of the given shape. Results are sorted by search rank
+     * (when ranked, places whose title matches every search token come first), then title, then
+     * _id - which makes (search_rank, title, _id) a unique key that can be used to fetch the list
+     * a page at a time.
+     * @param shape - from getListShape
+     * @return - the SQL query; bind the arguments from getListArgs
+     */
+    public static String buildListQuery(int shape) {
+        boolean search = (shape & SHAPE_SEARCH) != 0;
+        boolean ranked = (shape & SHAPE_RANKED) != 0;
+        boolean categories = (shape & SHAPE_CATEGORY) != 0;
+        boolean uncategorized = (shape & SHAPE_UNCATEGORIZED) != 0;
+        String title = isSortedAfterDriver(shape) ? "+" + COL_TITLE : COL_TITLE;
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String column : ((shape & SHAPE_IDS_ONLY) != 0) ? ID_COLUMNS : LIST_COLUMNS) {
+            sql.append(column).append(", ");
+        }
+
+        // rank: title matches first, then everything else (constant 0 when not ranked)
+        if (ranked) {
+            sql.append("(" + FTS_MATCH + ") AS " + COL_SEARCH_RANK);
+        } else {
+            sql.append("0 AS " + COL_SEARCH_RANK);
+        }
+        sql.append(" FROM " + TABLE_NAME_PLACES);
+
+        ArrayList<String> constraints = new ArrayList<>();
+        if (search) {
+            constraints.add(FTS_MATCH);
+        }
+        if ((shape & SHAPE_FAVORITES) != 0) {
+            constraints.add(filterColumn(shape, PlaceFilterPlan.Predicate.FAVORITES, COL_IS_FAVORITE)
+                    + "=1");
+        }
+        if (categories || uncategorized) {
+            String category = filterColumn(shape, PlaceFilterPlan.Predicate.CATEGORY, COL_CATEGORY);
+            String named = inValues(category, (shape >> CATEGORY_COUNT_SHIFT) & FIELD_MASK);
+            if (!uncategorized) {
+                constraints.add(named);
+            } else if (!categories) {
+                constraints.add(category + " IS NULL");
+            } else {
+                constraints.add("(" + category + " IS NULL OR " + named + ")");
+            }
+        }
+        if ((shape & SHAPE_NEIGHBORHOOD) != 0) {
+            constraints.add(inValues(
+                    filterColumn(shape, PlaceFilterPlan.Predicate.NEIGHBORHOOD, COL_NEIGHBORHOOD),
+                    (shape >> NEIGHBORHOOD_COUNT_SHIFT) & FIELD_MASK));
+        }
+        if ((shape & SHAPE_MIN_RATING) != 0) {
+            // a '+' drops the column's REAL affinity, so the bound String is cast to compare it
+            // as a number either way
+            constraints.add(filterColumn(shape, PlaceFilterPlan.Predicate.RATING, COL_RATING)
+                    + ">=CAST(? AS REAL)");
+        }
+        if ((shape & SHAPE_AFTER_KEY) != 0) {
+            // (title, _id) > (T, I), written as a range on title that the list indexes can seek to
+            // (unless the shape is sorted after its driver, which the range must not replace)
+            String titleThenId = "(" + title + ">=? AND (" + title + ">? OR " + COL_ID + ">?))";
+            if (ranked) {
+                // rank is sorted descending; it is an int computed by the query with no column
+                // affinity, so the bound String is cast to compare it as a number
+                String rank = "CAST(? AS INTEGER)";
+                constraints.add("(" + COL_SEARCH_RANK + "<" + rank + " OR ("
+                        + COL_SEARCH_RANK + "=" + rank + " AND " + titleThenId + "))");
+            } else {
+                constraints.add(titleThenId);
+            }
+        }
+        for (int i = 0; i < constraints.size(); i++) {
+            sql.append((i == 0) ? " WHERE " : " AND ").append(constraints.get(i));
+        }
+
+        sql.append(" ORDER BY ");
+        if (ranked) {
+            sql.append(COL_SEARCH_RANK + " DESC, ");
+        }
+        sql.append(title + ", " + COL_ID);
+
+        if ((shape & SHAPE_LIMIT) != 0) {
+            sql.append(" LIMIT ?");
+            if ((shape & SHAPE_OFFSET) != 0) {
+                sql.append(" OFFSET ?");
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Get the arguments of a list query, in the order buildListQuery binds them
+     * @param shape - from getListShape, for the same values
+     * @param query - which places, in what order
+     * @param after - key of the last row of the previous page (can be null)
+     * @param offset - number of rows to skip
+     * @param limit - maximum number of rows to return, or 0 for no limit
+     * @return - the arguments
+     */
+    public static String[] getListArgs(int shape, PlaceQuery query, PlacePageKey after,
+                                       int offset, int limit) {
+        ArrayList<String> args = new ArrayList<>();
+        if ((shape & SHAPE_RANKED) != 0) {
+            args.add(PlaceFtsQuery.buildTokensTitleMatchExpression(query.getTokens()));
+        }
+        if ((shape & SHAPE_SEARCH) != 0) {
+            args.add(PlaceFtsQuery.buildTokensMatchExpression(query.getTokens()));
+        }
+        if ((shape & SHAPE_CATEGORY) != 0) {
+            ArrayList<String> named = new ArrayList<>(query.getCategories());
+            named.remove(UNCATEGORIZED);
+            addPadded(args, named, 1 << ((shape >> CATEGORY_COUNT_SHIFT) & FIELD_MASK));
+        }
+        if ((shape & SHAPE_NEIGHBORHOOD) != 0) {
+            addPadded(args, query.getNeighborhoods(),
+                    1 << ((shape >> NEIGHBORHOOD_COUNT_SHIFT) & FIELD_MASK));
+        }
+        if ((shape & SHAPE_MIN_RATING) != 0) {
+            args.add(String.valueOf(query.getMinRating()));
+        }
+        if ((shape & SHAPE_AFTER_KEY) != 0) {
+            if ((shape & SHAPE_RANKED) != 0) {
+                args.add(String.valueOf(after.getSearchRank()));
+                args.add(String.valueOf(after.getSearchRank()));
+            }
+            args.add(after.getTitle());
+            args.add(after.getTitle());
+            args.add(String.valueOf(after.getId()));
+        }
+        if ((shape & SHAPE_LIMIT) != 0) {
+            args.add(String.valueOf(limit));
+            if ((shape & SHAPE_OFFSET) != 0) {
+                args.add(String.valueOf(offset));
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Add the values, then repeat the last one until paddedCount arguments have been added
+     */
+    private static void addPadded(ArrayList<String> args, List<String> values, int paddedCount) {
+        args.addAll(values);
+        for (int i = values.size(); i < paddedCount; i++) {
+            args.add(values.get(values.size() - 1));
+        }
+    }
+
+    /**
+     * Round a number of ids up to the next power of two, so lookups of 33 to 64 ids all share
+     * one query; the extra arguments repeat an id
+     * @param idCount - number of ids to look up
+     * @return - number of arguments the ids query should have
+     */
+    public static int getPaddedIdCount(int idCount) {
+        return (idCount <= 1) ? 1 : Integer.highestOneBit(idCount - 1) << 1;
+    }
+
+    /**
+     * @param idCount - number of ids; one argument is bound per id (see getPaddedIdCount)
+     * @return - SQL selecting the list columns of the places with the given ids, in no particular
+     * order
+     */
+    public static String buildIdsQuery(int idCount) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String column : LIST_COLUMNS) {
+            sql.append(column).append(", ");
+        }
+        sql.append("0 AS " + COL_SEARCH_RANK + " FROM " + TABLE_NAME_PLACES + " WHERE " + COL_ID + " IN (");
+        for (int i = 0; i < idCount; i++) {
+            sql.append((i > 0) ? ",?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+}
@@ -0,0 +1,158 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ordered list of changes made to the places database since the version shipped in assets.
+ * Each migration is applied once, in its own transaction, and recorded in the schema_migrations
+ * table; see PlaceDbOpenHelper.runMigrations. Migrations only add to the schema - they must never
+ * drop or rewrite the places table, which holds the user's favorites, ratings and notes.
+ *
+ * Once a migration has shipped, never edit it: add a new one with the next version number.
+ *
+ * Versions are tracked in their own table rather than in user_version because installs that
+ * copied the database with an older version of the app already have user_version set to 1, with
+ * or without some of these migrations applied.
+ */
+public final class PlaceMigrations {
+    public static final String TABLE_NAME_MIGRATIONS = "schema_migrations";
+    public static final String COL_VERSION = "version";
+    public static final String COL_NAME = "name";
+    public static final String COL_APPLIED_AT = "applied_at";
+
+    public static final String SQL_CREATE_MIGRATIONS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME_MIGRATIONS + " ("
+                    + COL_VERSION + " INTEGER PRIMARY KEY, "
+                    + COL_NAME + " TEXT NOT NULL, "
+                    + COL_APPLIED_AT + " INTEGER NOT NULL)";
+    public static final String SQL_SELECT_CURRENT_VERSION =
+            "SELECT IFNULL(MAX(" + COL_VERSION + "), 0) FROM " + TABLE_NAME_MIGRATIONS;
+
+    /**
+     * One step in the schema's history
+     */
+    public static class Migration {
+        private final int mVersion;
+        private final String mName;
+        private final String[] mStatements;
+        private final boolean mOptional;
+
+        Migration(int version, String name, String... statements) {
+            this(version, name, false, statements);
+        }
+
+        /**
+         * @param optional - true if the migration needs a feature some SQLite builds lack (such as
+         *                 the rtree module); if it fails it is recorded as applied and skipped, and
+         *                 code that uses what it creates must check that it exists
+         */
+        Migration(int version, String name, boolean optional, String... statements) {
+            mVersion = version;
+            mName = name;
+            mOptional = optional;
+            mStatements = statements;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String[] getStatements() {
+            return mStatements;
+        }
+
+        public boolean isOptional() {
+            return mOptional;
+        }
+    }
+
+    // coordinates of the places bundled in assets/databases/places.db: _id, title, latitude, longitude
+    private static final String[][] BUNDLED_PLACE_COORDINATES = new String[][]{
+            {"1", "Central Park", "40.7644", "-73.9730"},
+            {"2", "Grand Central Terminal", "40.7527", "-73.9772"},
+            {"3", "Lincoln Center", "40.7725", "-73.9835"},
+            {"4", "South Street Seaport", "40.7063", "-74.0037"},
+            {"5", "Brooklyn Museum", "40.6712", "-73.9636"},
+            {"6", "Bohemian Beer Garden", "40.7728", "-73.9138"},
+            {"7", "Lan Sheng", "40.7525", "-73.9846"},
+            {"8", "Birch Coffee", "40.7434", "-73.9797"},
+            {"9", "Birch Coffee", "40.7440", "-73.9866"},
+            {"10", "Mezkerem", "40.7299", "-74.0005"},
+            {"11", "Sake Bar Hagi", "40.7604", "-73.9834"},
+            {"12", "Regal Battery Park", "40.7149", "-74.0159"},
+            {"13", "Prospect Park", "40.6602", "-73.9690"},
+            {"14", "AMC Loews Kips Bay", "40.7425", "-73.9762"},
+            {"15", "The Metropolitan Art Musuem", "40.7794", "-73.9632"}
+    };
+
+    private static final Migration[] MIGRATIONS = new Migration[]{
+            new Migration(1, "create full-text search index", concat(
+                    new String[]{PlaceSchema.SQL_CREATE_PLACES_FTS_TABLE},
+                    PlaceSchema.SQL_CREATE_PLACES_FTS_TRIGGERS,
+                    new String[]{PlaceSchema.SQL_REBUILD_PLACES_FTS_TABLE})),
+            new Migration(2, "create list indexes", PlaceSchema.SQL_CREATE_PLACES_LIST_INDEXES),
+            new Migration(3, "add place coordinates", concat(
+                    PlaceSchema.SQL_ADD_COORDINATE_COLUMNS,
+                    new String[]{PlaceSchema.SQL_CREATE_PLACES_COORDINATE_INDEX},
+                    buildBundledCoordinateUpdates())),
+            new Migration(4, "create spatial index", true, concat(
+                    new String[]{PlaceSchema.SQL_CREATE_PLACES_RTREE_TABLE},
+                    PlaceSchema.SQL_CREATE_PLACES_RTREE_TRIGGERS,
+                    new String[]{PlaceSchema.SQL_POPULATE_PLACES_RTREE_TABLE})),
+            new Migration(5, "create facet counts", concat(
+                    new String[]{PlaceSchema.SQL_CREATE_FACET_COUNTS_TABLE},
+                    PlaceSchema.SQL_POPULATE_FACET_COUNTS_TABLE,
+                    PlaceSchema.SQL_CREATE_FACET_COUNTS_TRIGGERS)),
+            new Migration(6, "create filter indexes", PlaceSchema.SQL_CREATE_PLACES_FILTER_INDEXES)
+    };
+
+    private PlaceMigrations() {}
+
+    /**
+     * @param version - the version the database is at (0 if no migrations have been applied)
+     * @return - the migrations still to be applied, in order
+     */
+    public static List<Migration> getMigrationsAfter(int version) {
+        ArrayList<Migration> pending = new ArrayList<>();
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > version) {
+                pending.add(migration);
+            }
+        }
+        return pending;
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS[MIGRATIONS.length - 1].getVersion();
+    }
+
+    private static String[] concat(String[]... arrays) {
+        ArrayList<String> statements = new ArrayList<>();
+        for (String[] array : arrays) {
+            statements.addAll(Arrays.asList(array));
+        }
+        return statements.toArray(new String[statements.size()]);
+    }
+
+    /**
+     * Matched on title as well as _id so places the user has since deleted or replaced are left alone
+     */
+    private static String[] buildBundledCoordinateUpdates() {
+        String[] statements = new String[BUNDLED_PLACE_COORDINATES.length];
+        for (int i = 0; i < statements.length; i++) {
+            String[] place = BUNDLED_PLACE_COORDINATES[i];
+            statements[i] = "UPDATE " + PlaceSchema.TABLE_NAME_PLACES + " SET "
+                    + PlaceSchema.COL_LATITUDE + "=" + place[2] + ", "
+                    + PlaceSchema.COL_LONGITUDE + "=" + place[3]
+                    + " WHERE " + PlaceSchema.COL_ID + "=" + place[0]
+                    + " AND " + PlaceSchema.COL_TITLE + "='" + place[1] + "'";
+        }
+        return statements;
+    }
+}
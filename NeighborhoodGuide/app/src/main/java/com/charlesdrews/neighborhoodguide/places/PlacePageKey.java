@@ -0,0 +1,29 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * Identifies a row's place in a sorted list of places, so the next page of the list can be
+ * queried with "WHERE (search_rank, title, _id) > key" instead of a slow OFFSET
+ */
+public class PlacePageKey {
+    private final int mSearchRank;
+    private final String mTitle;
+    private final int mId;
+
+    public PlacePageKey(int searchRank, String title, int id) {
+        mSearchRank = searchRank;
+        mTitle = title;
+        mId = id;
+    }
+
+    public int getSearchRank() {
+        return mSearchRank;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public int getId() {
+        return mId;
+    }
+}
@@ -0,0 +1,374 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.util.SparseArray;
+
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLanes;
+
+import java.util.Arrays;
+
+/**
+ * A list of places that is loaded from the database one page at a time, instead of as one Cursor
+ * holding every row. Pages are fetched with keyset pagination (see PlaceDbOpenHelper.queryPlaces)
+ * and projected into immutable PlaceRows on the worker thread, so the main thread never touches a
+ * Cursor. Pages near the position being displayed are prefetched in the background, and pages far
+ * from it are dropped so memory stays bounded no matter how long the list is. Pages load on the
+ * read lane (see TaskLanes): the page being displayed ahead of prefetched pages. Only the _id and favorite
+ * status of every place are held for the whole list, which is enough to supply stable ids and to
+ * diff the list against a newer version of itself.
+ *
+ * A list can also be re-ordered in memory (see reorder), e.g. by distance from the user; pages of
+ * a re-ordered list are loaded by id. So are pages of a list whose query no longer matches the
+ * places it held when it was loaded - e.g. a favorite un-faved while the Favorites list is open -
+ * since positions are those of the ids, not of the live table.
+ *
+ * Other than load(), all methods must be called on the main thread.
+ */
+public class PlacePagedList {
+    public static final int PAGE_SIZE = 40;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2; // rows ahead/behind to keep loaded
+    private static final int RETAINED_PAGES = 2; // pages kept on each side of the displayed page
+
+    /**
+     * Notified on the main thread when a page that was not loaded yet becomes available
+     */
+    public interface OnPageLoadedListener {
+        void onPageLoaded(int positionStart, int itemCount);
+    }
+
+    private final PlaceDbOpenHelper mHelper;
+    private final PlaceQuery mQuery;
+    private final int[] mIds;
+    private final boolean[] mIsFavorite;
+    private final int mCount;
+    // true if the ids are not fresh from the query, so pages load by id; set on a worker thread
+    // once a page queried from the table doesn't match the ids
+    private volatile boolean mLoadById;
+
+    private final SparseArray<PlaceRow[]> mPages = new SparseArray<>();
+    private final SparseArray<PlacePageKey> mPageEndKeys = new SparseArray<>(); // kept after eviction
+    private final SparseArray<Task<PlaceRow[]>> mLoadingPages = new SparseArray<>();
+    private OnPageLoadedListener mListener;
+    private boolean mClosed = false;
+
+    private PlacePagedList(PlaceDbOpenHelper helper, PlaceQuery query, int[] ids,
+                           boolean[] isFavorite, boolean loadById) {
+        mHelper = helper;
+        mQuery = query;
+        mIds = ids;
+        mIsFavorite = isFavorite;
+        mCount = ids.length;
+        mLoadById = loadById;
+    }
+
+    /**
+     * Load the ids of the matching places and the first page of rows. Call this on a worker thread.
+     * The ids come from the helper's result cache if the same query has been loaded since the
+     * last write that could change it; the rows are then looked up by id, with no list query.
+     * Ids of a query whose PlaceFilterPlan usesBitsets are intersected from each filter's index.
+     * @param helper - database helper
+     * @param query - which places, in what order
+     * @param cancellationSignal - signal used to abort loading (can be null)
+     * @return - a paged list that is ready to display its first page
+     */
+    public static PlacePagedList load(PlaceDbOpenHelper helper, PlaceQuery query,
+                                      CancellationSignal cancellationSignal) {
+        PlaceResultCache cache = helper.getResultCache();
+        PlaceResultCache.Result cached = cache.get(query);
+        if (cached != null) {
+            PlacePagedList list = new PlacePagedList(helper, query, cached.getIds(),
+                    cached.getIsFavorite(), true);
+            if (list.mCount > 0) {
+                list.putPage(0, list.queryPage(0, null, cancellationSignal));
+            }
+            return list;
+        }
+
+        long cacheVersion = cache.getVersion(); // read before the query, see PlaceResultCache.put
+        int[] ids;
+        boolean[] isFavorite;
+        PlaceFilterPlan plan = helper.planFilters(query);
+        if (plan.usesBitsets()) {
+            PlaceFilterPlan.Matches matches = helper.getFilteredPlaceIds(plan, cancellationSignal);
+            ids = matches.getIds();
+            isFavorite = matches.getIsFavorite();
+        } else {
+            Cursor idCursor = helper.getPlaceIds(query, cancellationSignal);
+            try {
+                ids = new int[idCursor.getCount()];
+                isFavorite = new boolean[ids.length];
+                int idIndex = idCursor.getColumnIndex(PlaceDbOpenHelper.COL_ID);
+                int isFavoriteIndex = idCursor.getColumnIndex(PlaceDbOpenHelper.COL_IS_FAVORITE);
+                for (int i = 0; idCursor.moveToPosition(i); i++) {
+                    ids[i] = idCursor.getInt(idIndex);
+                    isFavorite[i] = (idCursor.getInt(isFavoriteIndex) == 1);
+                }
+            } finally {
+                idCursor.close();
+            }
+        }
+        cache.put(query, ids, isFavorite, cacheVersion);
+        // looked up by id when a page can't be read off an index in list order, or when no one
+        // list query read the ids
+        PlacePagedList list = new PlacePagedList(helper, query, ids, isFavorite,
+                plan.usesBitsets() || plan.isSortedAfterDriver());
+
+        if (ids.length > 0) {
+            list.putPage(0, list.queryPage(0, null, cancellationSignal));
+        }
+        return list;
+    }
+
+    /**
+     * Run this list's query again, e.g. after a write changed which places match it. Only the ids
+     * and the first page are queried; call copyLoadedRows on the main thread to reuse this list's
+     * other rows. Call this on a worker thread.
+     * @param cancellationSignal - signal used to abort loading (can be null)
+     * @return - a new list, in query order
+     */
+    public PlacePagedList reload(CancellationSignal cancellationSignal) {
+        return load(mHelper, mQuery, cancellationSignal);
+    }
+
+    /**
+     * Make a list of the same places in another order. No rows are loaded; call copyLoadedRows on
+     * the main thread to reuse this list's rows instead of reloading them. Safe to call on a
+     * worker thread.
+     * @param positions - positions in this list, in the new order
+     * @return - the re-ordered list
+     */
+    public PlacePagedList reorder(int[] positions) {
+        int[] ids = new int[mCount];
+        boolean[] isFavorite = new boolean[mCount];
+        for (int i = 0; i < mCount; i++) {
+            ids[i] = mIds[positions[i]];
+            isFavorite[i] = mIsFavorite[positions[i]];
+        }
+        return new PlacePagedList(mHelper, mQuery, ids, isFavorite, true);
+    }
+
+    /**
+     * Fill in every page of this list whose rows are all loaded in another list of the same places
+     * @param other - e.g. the list this one was re-ordered from
+     */
+    public void copyLoadedRows(PlacePagedList other) {
+        copyLoadedRows(other, null);
+    }
+
+    /**
+     * Fill in every page of this list whose rows are all loaded in another list, other than the
+     * given rows; pages with any of those rows are loaded again when they are shown
+     * @param other - e.g. an older version of this list
+     * @param staleIds - _ids of rows that have changed since other loaded them (can be null)
+     */
+    public void copyLoadedRows(PlacePagedList other, int[] staleIds) {
+        SparseArray<PlaceRow> loadedRows = new SparseArray<>();
+        for (int i = 0; i < other.mPages.size(); i++) {
+            for (PlaceRow row : other.mPages.valueAt(i)) {
+                loadedRows.put(row.getId(), row);
+            }
+        }
+        if (staleIds != null) {
+            for (int id : staleIds) {
+                loadedRows.remove(id);
+            }
+        }
+        if (loadedRows.size() == 0) {
+            return;
+        }
+
+        for (int page = 0; page * PAGE_SIZE < mCount; page++) {
+            int start = page * PAGE_SIZE;
+            PlaceRow[] rows = new PlaceRow[Math.min(PAGE_SIZE, mCount - start)];
+            boolean complete = true;
+            for (int i = 0; i < rows.length && complete; i++) {
+                rows[i] = loadedRows.get(mIds[start + i]);
+                complete = (rows[i] != null);
+            }
+            if (complete) {
+                putPage(page, rows);
+            }
+        }
+    }
+
+    /**
+     * @return - the query this list is the result of
+     */
+    public PlaceQuery getQuery() {
+        return mQuery;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return - a copy of the _id of every place in the list, in list order
+     */
+    public int[] getIds() {
+        return mIds.clone();
+    }
+
+    /**
+     * @param position - position in the list
+     * @return - _id of the place at that position; available whether or not its page is loaded
+     */
+    public int getId(int position) {
+        return mIds[position];
+    }
+
+    /**
+     * @param position - position in the list
+     * @return - favorite status of the place at that position when the list was loaded, or as
+     * last set by setFavorite
+     */
+    public boolean isFavorite(int position) {
+        return mIsFavorite[position];
+    }
+
+    /**
+     * Record a change to a place's favorite status made after the list was loaded, e.g. one that
+     * is shown right away while it is being written. Call on the main thread.
+     * @param position - position in the list
+     * @param isFavorite - the status to show
+     */
+    public void setFavorite(int position, boolean isFavorite) {
+        mIsFavorite[position] = isFavorite;
+    }
+
+    /**
+     * @param id - _id of a place
+     * @return - the place's position in the list, or -1 if it is not in the list; a linear scan
+     */
+    public int getPosition(int id) {
+        for (int i = 0; i < mCount; i++) {
+            if (mIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Get the row at the given position for display. Also prefetches the pages around it and
+     * drops pages that are far away.
+     * @param position - position in the list
+     * @return - the row, or null if the row's page is still loading
+     */
+    public PlaceRow getRow(int position) {
+        int page = position / PAGE_SIZE;
+        loadPageAsync(page, Task.Priority.NORMAL);
+        loadPageAsync((position + PREFETCH_DISTANCE) / PAGE_SIZE, Task.Priority.LOW);
+        loadPageAsync((position - PREFETCH_DISTANCE) / PAGE_SIZE, Task.Priority.LOW);
+        evictPagesFarFrom(page);
+        return peekRow(position);
+    }
+
+    /**
+     * Get the row at the given position only if its page is already loaded, without loading or
+     * evicting anything
+     * @param position - position in the list
+     * @return - the row, or null if the row's page is not loaded
+     */
+    public PlaceRow peekRow(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+        PlaceRow[] rows = mPages.get(position / PAGE_SIZE);
+        int index = position % PAGE_SIZE;
+        if (rows != null && index < rows.length) {
+            return rows[index];
+        }
+        return null;
+    }
+
+    /**
+     * Drop every loaded page and stop loading more; page loads that haven't started are cancelled,
+     * and those already running are dropped when they finish
+     */
+    public void close() {
+        mClosed = true;
+        mPages.clear();
+        for (int i = 0; i < mLoadingPages.size(); i++) {
+            mLoadingPages.valueAt(i).cancel();
+        }
+        mLoadingPages.clear();
+    }
+
+    private void loadPageAsync(final int page, Task.Priority priority) {
+        if (mClosed || page < 0 || page * PAGE_SIZE >= mCount
+                || mPages.get(page) != null || mLoadingPages.get(page) != null) {
+            return;
+        }
+
+        // if the previous page's last key is known, start right after it; otherwise use an offset
+        final PlacePageKey after = (page == 0 || mLoadById) ? null : mPageEndKeys.get(page - 1);
+
+        Task<PlaceRow[]> task = new Task<PlaceRow[]>() {
+            @Override
+            protected PlaceRow[] doInBackground() {
+                return queryPage(page, after, null);
+            }
+
+            @Override
+            protected void onPostExecute(PlaceRow[] rows) {
+                mLoadingPages.delete(page);
+                if (mClosed) {
+                    return;
+                }
+                putPage(page, rows);
+                if (mListener != null) {
+                    int start = page * PAGE_SIZE;
+                    mListener.onPageLoaded(start, Math.min(PAGE_SIZE, mCount - start));
+                }
+            }
+        };
+        mLoadingPages.put(page, task);
+        TaskLanes.getInstance().getReadLane().execute(task, priority);
+    }
+
+    private PlaceRow[] queryPage(int page, PlacePageKey after, CancellationSignal cancellationSignal) {
+        // the query's limit can end the list part way through a page
+        int start = page * PAGE_SIZE;
+        int[] ids = Arrays.copyOfRange(mIds, start, Math.min(start + PAGE_SIZE, mCount));
+        if (!mLoadById) {
+            PlaceRow[] rows;
+            Cursor cursor = mHelper.getPlacesPage(mQuery, after, start, ids.length,
+                    cancellationSignal);
+            try {
+                rows = PlaceDbOpenHelper.readPlaceRows(cursor);
+            } finally {
+                cursor.close();
+            }
+            if (PlaceRow.hasIds(rows, ids)) {
+                return rows;
+            }
+            // a write since the ids were loaded added or removed places before or on this page,
+            // so the table's positions no longer line up with the ids; this and every later page
+            // are looked up by id. A place deleted since stays null until the list is refreshed.
+            mLoadById = true;
+        }
+        return mHelper.getPlaceRowsByIds(ids);
+    }
+
+    private void putPage(int page, PlaceRow[] rows) {
+        mPages.put(page, rows);
+        if (rows.length > 0) {
+            mPageEndKeys.put(page, rows[rows.length - 1].getPageKey());
+        }
+    }
+
+    private void evictPagesFarFrom(int page) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - page) > RETAINED_PAGES) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+}
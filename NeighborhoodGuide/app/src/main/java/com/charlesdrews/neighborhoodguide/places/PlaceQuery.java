@@ -0,0 +1,278 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Which places a list shows and in what order: all places or favorites only, the categories and
+ * neighborhoods to limit it to, a minimum rating, the user's search, the sort order and at most
+ * how many. Immutable - each "with" method returns a new query. Values are normalized as they are
+ * set, e.g. the search is kept as its tokens and the categories sorted, so "Central  Park!" and
+ * "central park" make equal queries.
+ *
+ * PlaceListSql maps each query to one of a fixed set of SQL shapes, with every value bound as an
+ * argument, so repeated queries re-use a prepared statement (see PlaceStatementCache).
+ */
+public final class PlaceQuery {
+
+    public enum Sort {
+        RELEVANCE, // when searching, places whose title matches every token first; then by title
+        TITLE
+    }
+
+    // most categories or neighborhoods one query can be limited to; each is a bound argument
+    public static final int MAX_FILTER_VALUES = 128;
+
+    private static final PlaceQuery ALL_PLACES = new PlaceQuery(false,
+            Collections.<String>emptyList(), Collections.<String>emptyList(), 0,
+            Collections.<String>emptyList(), Sort.RELEVANCE, 0);
+    private static final PlaceQuery FAVORITES = new PlaceQuery(true,
+            Collections.<String>emptyList(), Collections.<String>emptyList(), 0,
+            Collections.<String>emptyList(), Sort.RELEVANCE, 0);
+
+    private final boolean mFavoritesOnly;
+    private final List<String> mCategories;
+    private final List<String> mNeighborhoods;
+    private final float mMinRating;
+    private final List<String> mTokens;
+    private final Sort mSort;
+    private final int mLimit;
+
+    private PlaceQuery(boolean favoritesOnly, List<String> categories, List<String> neighborhoods,
+                       float minRating, List<String> tokens, Sort sort, int limit) {
+        mFavoritesOnly = favoritesOnly;
+        mCategories = categories;
+        mNeighborhoods = neighborhoods;
+        mMinRating = minRating;
+        mTokens = tokens;
+        mSort = sort;
+        mLimit = limit;
+    }
+
+    /**
+     * @return - every place, sorted by title
+     */
+    public static PlaceQuery allPlaces() {
+        return ALL_PLACES;
+    }
+
+    /**
+     * @return - every favorite place, sorted by title
+     */
+    public static PlaceQuery favorites() {
+        return FAVORITES;
+    }
+
+    /**
+     * @param favoritesOnly - true to limit results to favorites
+     * @return - this query, limited to favorites or not
+     */
+    public PlaceQuery withFavoritesOnly(boolean favoritesOnly) {
+        return new PlaceQuery(favoritesOnly, mCategories, mNeighborhoods, mMinRating, mTokens,
+                mSort, mLimit);
+    }
+
+    /**
+     * @param category - category to limit results to, PlaceListSql.UNCATEGORIZED for places with
+     *                 no category, or null or PlaceListSql.ALL_CATEGORIES for no limit
+     * @return - this query, limited to the category
+     */
+    public PlaceQuery withCategory(String category) {
+        return withCategories((category == null) ? Collections.<String>emptyList()
+                : Collections.singletonList(category));
+    }
+
+    /**
+     * @param categories - categories to limit results to, which may include
+     *                   PlaceListSql.UNCATEGORIZED; empty, or including
+     *                   PlaceListSql.ALL_CATEGORIES, for no limit
+     * @return - this query, limited to places in any of the categories
+     */
+    public PlaceQuery withCategories(Collection<String> categories) {
+        List<String> values = normalizeValues(categories);
+        if (values.contains(PlaceListSql.ALL_CATEGORIES)) {
+            values = Collections.emptyList();
+        }
+        return new PlaceQuery(mFavoritesOnly, values, mNeighborhoods, mMinRating, mTokens, mSort,
+                mLimit);
+    }
+
+    /**
+     * @param neighborhoods - neighborhoods to limit results to; empty for no limit
+     * @return - this query, limited to places in any of the neighborhoods
+     */
+    public PlaceQuery withNeighborhoods(Collection<String> neighborhoods) {
+        return new PlaceQuery(mFavoritesOnly, mCategories, normalizeValues(neighborhoods),
+                mMinRating, mTokens, mSort, mLimit);
+    }
+
+    /**
+     * @param minRating - lowest rating to include, or 0 for no limit (unrated places are rated 0)
+     * @return - this query, limited to places rated at least minRating
+     */
+    public PlaceQuery withMinRating(float minRating) {
+        if (!(minRating >= 0)) {
+            throw new IllegalArgumentException("Minimum rating must not be negative: " + minRating);
+        }
+        return new PlaceQuery(mFavoritesOnly, mCategories, mNeighborhoods, minRating, mTokens,
+                mSort, mLimit);
+    }
+
+    /**
+     * @param search - the string the user entered in the SearchView (can be null)
+     * @return - this query, limited to places matching every token of the search
+     */
+    public PlaceQuery withSearch(String search) {
+        return new PlaceQuery(mFavoritesOnly, mCategories, mNeighborhoods, mMinRating,
+                Collections.unmodifiableList(PlaceFtsQuery.tokenize(search)), mSort, mLimit);
+    }
+
+    /**
+     * @param sort - order of the results
+     * @return - this query, in that order
+     */
+    public PlaceQuery withSort(Sort sort) {
+        return new PlaceQuery(mFavoritesOnly, mCategories, mNeighborhoods, mMinRating, mTokens,
+                sort, mLimit);
+    }
+
+    /**
+     * @param limit - maximum number of results, or 0 for no limit
+     * @return - this query, returning at most limit places
+     */
+    public PlaceQuery withLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        return new PlaceQuery(mFavoritesOnly, mCategories, mNeighborhoods, mMinRating, mTokens,
+                mSort, limit);
+    }
+
+    /**
+     * @return - the values sorted, without duplicates or nulls
+     */
+    private static List<String> normalizeValues(Collection<String> values) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String value : values) {
+            if (value != null) {
+                sorted.add(value);
+            }
+        }
+        if (sorted.size() > MAX_FILTER_VALUES) {
+            throw new IllegalArgumentException("More than " + MAX_FILTER_VALUES + " values: "
+                    + sorted.size());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(sorted));
+    }
+
+    public boolean isFavoritesOnly() {
+        return mFavoritesOnly;
+    }
+
+    /**
+     * @return - the category filter, sorted, which may include PlaceListSql.UNCATEGORIZED; empty
+     * for every category
+     */
+    public List<String> getCategories() {
+        return mCategories;
+    }
+
+    /**
+     * @return - the neighborhood filter, sorted; empty for every neighborhood
+     */
+    public List<String> getNeighborhoods() {
+        return mNeighborhoods;
+    }
+
+    /**
+     * @return - the lowest rating included, or 0 for every rating
+     */
+    public float getMinRating() {
+        return mMinRating;
+    }
+
+    /**
+     * @return - how many of the favorites, category, neighborhood and rating filters are set
+     */
+    public int getFilterCount() {
+        int count = mFavoritesOnly ? 1 : 0;
+        if (!mCategories.isEmpty()) {
+            count++;
+        }
+        if (!mNeighborhoods.isEmpty()) {
+            count++;
+        }
+        if (mMinRating > 0) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return - the search tokens, lower case; empty if not searching
+     */
+    public List<String> getTokens() {
+        return mTokens;
+    }
+
+    public boolean isSearch() {
+        return !mTokens.isEmpty();
+    }
+
+    public Sort getSort() {
+        return mSort;
+    }
+
+    /**
+     * @return - true if title matches are sorted ahead of other matches
+     */
+    public boolean isRanked() {
+        return isSearch() && mSort == Sort.RELEVANCE;
+    }
+
+    /**
+     * @return - maximum number of results, or 0 for no limit
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlaceQuery)) {
+            return false;
+        }
+        PlaceQuery other = (PlaceQuery) o;
+        return mFavoritesOnly == other.mFavoritesOnly
+                && mCategories.equals(other.mCategories)
+                && mNeighborhoods.equals(other.mNeighborhoods)
+                && Float.compare(mMinRating, other.mMinRating) == 0
+                && mTokens.equals(other.mTokens)
+                && mSort == other.mSort
+                && mLimit == other.mLimit;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mFavoritesOnly ? 1 : 0;
+        hash = 31 * hash + mCategories.hashCode();
+        hash = 31 * hash + mNeighborhoods.hashCode();
+        hash = 31 * hash + Float.floatToIntBits(mMinRating);
+        hash = 31 * hash + mTokens.hashCode();
+        hash = 31 * hash + mSort.hashCode();
+        return 31 * hash + mLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceQuery{favoritesOnly=" + mFavoritesOnly + ", categories=" + mCategories
+                + ", neighborhoods=" + mNeighborhoods + ", minRating=" + mMinRating
+                + ", tokens=" + mTokens + ", sort=" + mSort + ", limit=" + mLimit + "}";
+    }
+}
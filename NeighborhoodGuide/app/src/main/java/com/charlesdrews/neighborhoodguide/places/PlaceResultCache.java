@@ -0,0 +1,233 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently loaded lists of place ids and favorite statuses, keyed by their PlaceQuery, so going
+ * back to Main from Favorites, rotating, or retyping a search shows the list without querying
+ * the database again. Least recently used lists are dropped once the ids held pass a memory
+ * budget.
+ *
+ * Every committed write is passed to invalidate, which drops only the lists it can have changed:
+ *  - a new favorite status is patched into the lists of all places that hold the place, and drops
+ *    the favorites lists it adds the place to or removes it from
+ *  - a new rating drops the lists filtered by a minimum rating; notes are in no list query
+ *  - catalog changes and inserted or deleted places drop every list
+ * A list loaded while a write committed is not cached (see getVersion), so a stale list can never
+ * be put back after the write dropped it.
+ *
+ * All methods are thread safe.
+ */
+public class PlaceResultCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 96; // key, entry, map node and array headers
+
+    /**
+     * A cached list; the arrays are copies, which the caller may change
+     */
+    public static class Result {
+        private final int[] mIds;
+        private final boolean[] mIsFavorite;
+
+        private Result(int[] ids, boolean[] isFavorite) {
+            mIds = ids;
+            mIsFavorite = isFavorite;
+        }
+
+        public int[] getIds() {
+            return mIds;
+        }
+
+        public boolean[] getIsFavorite() {
+            return mIsFavorite;
+        }
+    }
+
+    private static class Entry {
+        final int[] mIds;
+        final boolean[] mIsFavorite;
+
+        Entry(int[] ids, boolean[] isFavorite) {
+            mIds = ids;
+            mIsFavorite = isFavorite;
+        }
+
+        int getBytes() {
+            return ENTRY_OVERHEAD_BYTES + mIds.length * 4 + mIsFavorite.length;
+        }
+
+        int indexOf(int id) {
+            for (int i = 0; i < mIds.length; i++) {
+                if (mIds[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final int mMaxBytes;
+    private final LinkedHashMap<PlaceQuery, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mVersion = 0;
+    private int mBytes = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mInvalidated = 0;
+
+    /**
+     * @param maxBytes - memory budget for the cached lists
+     */
+    public PlaceResultCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param query - the list's query
+     * @return - copies of the list's ids and favorite statuses, or null if it is not cached
+     */
+    public synchronized Result get(PlaceQuery query) {
+        Entry entry = mEntries.get(query);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new Result(entry.mIds.clone(), entry.mIsFavorite.clone());
+    }
+
+    /**
+     * @return - the current version; read it before running a query, and pass it to put
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Cache a list, unless a write has committed since its query started
+     * @param query - the list's query
+     * @param ids - the places in the list, in order; copied
+     * @param isFavorite - their favorite statuses; copied
+     * @param version - getVersion() from before the query ran
+     */
+    public synchronized void put(PlaceQuery query, int[] ids, boolean[] isFavorite, long version) {
+        if (version != mVersion) {
+            return; // the list may be missing the write
+        }
+        Entry entry = new Entry(ids.clone(), isFavorite.clone());
+        if (entry.getBytes() > mMaxBytes) {
+            return;
+        }
+        Entry old = mEntries.put(query, entry);
+        if (old != null) {
+            mBytes -= old.getBytes();
+        }
+        mBytes += entry.getBytes();
+
+        // drop least recently used lists until back under budget
+        Iterator<Map.Entry<PlaceQuery, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().getValue().getBytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drop or patch the lists a committed write can have changed. Call before observers are
+     * notified of the write, so a list they re-query is not served from the cache.
+     * @param change - what the write changed (can be null, for nothing)
+     */
+    public synchronized void invalidate(PlaceChange change) {
+        if (change == null) {
+            return;
+        }
+        if (change.isAllRows() || change.affects(PlaceChange.CATALOG | PlaceChange.ROWS)) {
+            mVersion++;
+            mInvalidated += mEntries.size();
+            mEntries.clear();
+            mBytes = 0;
+            return;
+        }
+        boolean favorite = change.affects(PlaceChange.FAVORITE);
+        boolean rating = change.affects(PlaceChange.RATING);
+        if (!favorite && !rating) {
+            return; // notes are in no list query
+        }
+
+        mVersion++;
+        Iterator<Map.Entry<PlaceQuery, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<PlaceQuery, Entry> mapEntry = iterator.next();
+            PlaceQuery query = mapEntry.getKey();
+            if ((rating && query.getMinRating() > 0)
+                    || (favorite && !applyFavoriteChange(query, mapEntry.getValue(), change))) {
+                mBytes -= mapEntry.getValue().getBytes();
+                mInvalidated++;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return - false if the entry has to be dropped
+     */
+    private static boolean applyFavoriteChange(PlaceQuery query, Entry entry, PlaceChange change) {
+        for (int i = 0; i < change.getRowCount(); i++) {
+            Boolean isFavorite = change.getFavoriteStatus(i);
+            int index = entry.indexOf(change.getId(i));
+            if (query.isFavoritesOnly()) {
+                // a new favorite may belong in the list; an un-faved one has to leave it
+                if (isFavorite == null || isFavorite != (index >= 0)) {
+                    return false;
+                }
+            } else if (index >= 0) {
+                if (isFavorite == null) {
+                    return false;
+                }
+                entry.mIsFavorite[index] = isFavorite;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drop every list, e.g. when the system is low on memory
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return - approximate memory held by the cached lists
+     */
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return - fraction of lookups served from the cache, or 0 before any lookup
+     */
+    public synchronized double getHitRate() {
+        long total = mHits + mMisses;
+        return (total == 0) ? 0 : (double) mHits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaceResultCache{lists=" + mEntries.size() + ", bytes=" + mBytes + "/" + mMaxBytes
+                + ", hits=" + mHits + ", misses=" + mMisses + ", invalidated=" + mInvalidated + "}";
+    }
+}
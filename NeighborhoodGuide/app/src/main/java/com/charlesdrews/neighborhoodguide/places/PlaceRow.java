@@ -0,0 +1,90 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * Immutable projection of one row of the place list - just what a card displays, with the text
+ * formatted once when the row is read from the database instead of on every bind
+ */
+public class PlaceRow {
+    private final int mId;
+    private final int mSearchRank;
+    private final String mTitle;
+    private final String mOverview;
+    private final String mImageRes;
+    private final String mThumbnailName;
+    private final String mImageDescription;
+    private final boolean mIsFavorite;
+
+    public PlaceRow(int id, int searchRank, String title, String category, String location,
+                    String neighborhood, String imageRes, boolean isFavorite) {
+        mId = id;
+        mSearchRank = searchRank;
+        mTitle = title;
+        mOverview = category + " | " + location + " | " + neighborhood;
+        mImageRes = imageRes;
+        mThumbnailName = imageRes + "_small";
+        mImageDescription = "Image of " + title;
+        mIsFavorite = isFavorite;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * @return - "category | location | neighborhood", as shown under the title on a card
+     */
+    public String getOverview() {
+        return mOverview;
+    }
+
+    /**
+     * @return - name of the full-size image, w/o extension
+     */
+    public String getImageRes() {
+        return mImageRes;
+    }
+
+    /**
+     * @return - name of the small version of the image used as the card thumbnail
+     */
+    public String getThumbnailName() {
+        return mThumbnailName;
+    }
+
+    public String getImageDescription() {
+        return mImageDescription;
+    }
+
+    public boolean isFavorite() {
+        return mIsFavorite;
+    }
+
+    /**
+     * @param rows - rows read for part of a list, e.g. one page
+     * @param ids - the _ids the list holds for those positions
+     * @return - true if there is a row for every id, in the same order; false if a write since the
+     * ids were loaded changed which places the query matches
+     */
+    public static boolean hasIds(PlaceRow[] rows, int[] ids) {
+        if (rows.length != ids.length) {
+            return false;
+        }
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == null || rows[i].getId() != ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return - key to start the next page of the list after this row
+     */
+    public PlacePageKey getPageKey() {
+        return new PlacePageKey(mSearchRank, mTitle, mId);
+    }
+}
@@ -0,0 +1,286 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * Table and column names and the SQL that defines the places schema. Kept free of Android
+ * dependencies so the JVM benchmarks in :benchmarks build the exact same schema as the app.
+ */
+public final class PlaceSchema {
+
+    private PlaceSchema() {}
+
+    public static final String TABLE_NAME_PLACES = "places";
+    public static final String COL_ID = "_id";
+    public static final String COL_TITLE = "title";
+    public static final String COL_LOCATION = "location";
+    public static final String COL_NEIGHBORHOOD = "neighborhood";
+    public static final String COL_CATEGORY = "category";
+    public static final String COL_DESCRIPTION = "description";
+    public static final String COL_IMAGE_RES = "image_resource";
+    public static final String COL_IMAGE_CREDIT = "image_credit";
+    public static final String COL_IS_FAVORITE = "is_favorite";
+    public static final String COL_RATING = "rating";
+    public static final String COL_NOTE = "note";
+    public static final String COL_LATITUDE = "latitude";   // added by migration 3; null if unknown
+    public static final String COL_LONGITUDE = "longitude"; // added by migration 3; null if unknown
+
+    public static final String COL_SEARCH_RANK = "search_rank"; // computed by list queries, not stored
+
+    public static final String SQL_CREATE_PLACES_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME_PLACES + " ("
+                    + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COL_TITLE + " TEXT, "
+                    + COL_LOCATION + " TEXT, "
+                    + COL_NEIGHBORHOOD + " TEXT, "
+                    + COL_CATEGORY + " TEXT, "
+                    + COL_DESCRIPTION + " TEXT, "
+                    + COL_IMAGE_RES + " TEXT, "
+                    + COL_IMAGE_CREDIT + " TEXT, "
+                    + COL_IS_FAVORITE + " INTEGER, "
+                    + COL_RATING + " REAL, "
+                    + COL_NOTE + " TEXT)";
+
+    // full-text index over the searchable columns; content is read from the places table itself
+    // (FTS4 external content) so the text is not stored twice, and the triggers below keep it in sync
+    public static final String TABLE_NAME_PLACES_FTS = "places_fts";
+    public static final String FTS_DOCID = "docid";
+    private static final String FTS_COLUMNS =
+            COL_TITLE + ", " + COL_LOCATION + ", " + COL_NEIGHBORHOOD + ", " + COL_CATEGORY;
+    private static final String FTS_NEW_VALUES = "new." + COL_TITLE + ", new." + COL_LOCATION
+            + ", new." + COL_NEIGHBORHOOD + ", new." + COL_CATEGORY;
+
+    public static final String SQL_CREATE_PLACES_FTS_TABLE =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME_PLACES_FTS + " USING fts4("
+                    + FTS_COLUMNS + ", content=\"" + TABLE_NAME_PLACES + "\")";
+    public static final String SQL_REBUILD_PLACES_FTS_TABLE =
+            "INSERT INTO " + TABLE_NAME_PLACES_FTS + "(" + TABLE_NAME_PLACES_FTS + ") VALUES('rebuild')";
+    public static final String[] SQL_CREATE_PLACES_FTS_TRIGGERS = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS places_fts_before_update BEFORE UPDATE OF " + FTS_COLUMNS
+                    + " ON " + TABLE_NAME_PLACES + " BEGIN DELETE FROM " + TABLE_NAME_PLACES_FTS
+                    + " WHERE " + FTS_DOCID + "=old." + COL_ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS places_fts_before_delete BEFORE DELETE"
+                    + " ON " + TABLE_NAME_PLACES + " BEGIN DELETE FROM " + TABLE_NAME_PLACES_FTS
+                    + " WHERE " + FTS_DOCID + "=old." + COL_ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS places_fts_after_update AFTER UPDATE OF " + FTS_COLUMNS
+                    + " ON " + TABLE_NAME_PLACES + " BEGIN INSERT INTO " + TABLE_NAME_PLACES_FTS
+                    + "(" + FTS_DOCID + ", " + FTS_COLUMNS + ") VALUES(new." + COL_ID + ", "
+                    + FTS_NEW_VALUES + "); END",
+            "CREATE TRIGGER IF NOT EXISTS places_fts_after_insert AFTER INSERT"
+                    + " ON " + TABLE_NAME_PLACES + " BEGIN INSERT INTO " + TABLE_NAME_PLACES_FTS
+                    + "(" + FTS_DOCID + ", " + FTS_COLUMNS + ") VALUES(new." + COL_ID + ", "
+                    + FTS_NEW_VALUES + "); END"
+    };
+
+    // indexes for the list queries (see PlaceListSql.buildListQuery), one per combination of the
+    // favorites and category filters. Each is sorted by title then _id, the list order, so a page
+    // is read straight off the index without sorting, and each includes is_favorite so the id
+    // list that PlacePagedList loads is answered from the index alone.
+    public static final String INDEX_PLACES_TITLE = "places_title_idx";
+    public static final String INDEX_PLACES_CATEGORY_TITLE = "places_category_title_idx";
+    public static final String INDEX_PLACES_FAVORITE_TITLE = "places_favorite_title_idx";
+    public static final String INDEX_PLACES_FAVORITE_CATEGORY_TITLE = "places_favorite_category_title_idx";
+
+    public static final String[] SQL_CREATE_PLACES_LIST_INDEXES = new String[]{
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_TITLE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_TITLE + ", " + COL_ID + ", " + COL_IS_FAVORITE + ")",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_CATEGORY_TITLE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_CATEGORY + ", " + COL_TITLE + ", " + COL_ID + ", " + COL_IS_FAVORITE + ")",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_FAVORITE_TITLE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_IS_FAVORITE + ", " + COL_TITLE + ", " + COL_ID + ")",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_FAVORITE_CATEGORY_TITLE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_IS_FAVORITE + ", " + COL_CATEGORY + ", " + COL_TITLE + ", " + COL_ID + ")"
+    };
+
+    public static final String[] SQL_ADD_COORDINATE_COLUMNS = new String[]{
+            "ALTER TABLE " + TABLE_NAME_PLACES + " ADD COLUMN " + COL_LATITUDE + " REAL",
+            "ALTER TABLE " + TABLE_NAME_PLACES + " ADD COLUMN " + COL_LONGITUDE + " REAL"
+    };
+
+    // answers viewport and nearby queries (see PlaceGeoSql) from the index alone when the R*Tree
+    // below is not available; the latitude range is a seek and longitude is filtered in the index
+    public static final String INDEX_PLACES_LATITUDE_LONGITUDE = "places_latitude_longitude_idx";
+    public static final String SQL_CREATE_PLACES_COORDINATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_LATITUDE_LONGITUDE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_LATITUDE + ", " + COL_LONGITUDE + ", " + COL_ID + ")";
+
+    // R*Tree side index of each place's coordinates (a point is a box with min = max), keyed by
+    // the place's _id and kept in sync by the triggers below. Not every SQLite build includes the
+    // rtree module, so migration 4 that creates it is optional.
+    public static final String TABLE_NAME_PLACES_RTREE = "places_rtree";
+    public static final String RTREE_ID = "id";
+    public static final String RTREE_MIN_LATITUDE = "min_latitude";
+    public static final String RTREE_MAX_LATITUDE = "max_latitude";
+    public static final String RTREE_MIN_LONGITUDE = "min_longitude";
+    public static final String RTREE_MAX_LONGITUDE = "max_longitude";
+    private static final String RTREE_COLUMNS = RTREE_ID + ", " + RTREE_MIN_LATITUDE + ", "
+            + RTREE_MAX_LATITUDE + ", " + RTREE_MIN_LONGITUDE + ", " + RTREE_MAX_LONGITUDE;
+    private static final String HAS_NEW_COORDINATES =
+            "new." + COL_LATITUDE + " IS NOT NULL AND new." + COL_LONGITUDE + " IS NOT NULL";
+    private static final String RTREE_NEW_VALUES = "new." + COL_ID + ", new." + COL_LATITUDE
+            + ", new." + COL_LATITUDE + ", new." + COL_LONGITUDE + ", new." + COL_LONGITUDE;
+
+    public static final String SQL_CREATE_PLACES_RTREE_TABLE =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME_PLACES_RTREE + " USING rtree("
+                    + RTREE_COLUMNS + ")";
+    public static final String SQL_POPULATE_PLACES_RTREE_TABLE =
+            "INSERT OR REPLACE INTO " + TABLE_NAME_PLACES_RTREE + " (" + RTREE_COLUMNS + ") SELECT "
+                    + COL_ID + ", " + COL_LATITUDE + ", " + COL_LATITUDE + ", " + COL_LONGITUDE + ", "
+                    + COL_LONGITUDE + " FROM " + TABLE_NAME_PLACES + " WHERE " + COL_LATITUDE
+                    + " IS NOT NULL AND " + COL_LONGITUDE + " IS NOT NULL";
+    public static final String[] SQL_CREATE_PLACES_RTREE_TRIGGERS = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS places_rtree_after_insert AFTER INSERT ON "
+                    + TABLE_NAME_PLACES + " WHEN " + HAS_NEW_COORDINATES + " BEGIN INSERT INTO "
+                    + TABLE_NAME_PLACES_RTREE + " (" + RTREE_COLUMNS + ") VALUES("
+                    + RTREE_NEW_VALUES + "); END",
+            "CREATE TRIGGER IF NOT EXISTS places_rtree_after_update AFTER UPDATE OF "
+                    + COL_LATITUDE + ", " + COL_LONGITUDE + " ON " + TABLE_NAME_PLACES
+                    + " BEGIN DELETE FROM " + TABLE_NAME_PLACES_RTREE + " WHERE " + RTREE_ID
+                    + "=old." + COL_ID + "; INSERT INTO " + TABLE_NAME_PLACES_RTREE + " ("
+                    + RTREE_COLUMNS + ") SELECT " + RTREE_NEW_VALUES + " WHERE "
+                    + HAS_NEW_COORDINATES + "; END",
+            "CREATE TRIGGER IF NOT EXISTS places_rtree_after_delete AFTER DELETE ON "
+                    + TABLE_NAME_PLACES + " BEGIN DELETE FROM " + TABLE_NAME_PLACES_RTREE
+                    + " WHERE " + RTREE_ID + "=old." + COL_ID + "; END"
+    };
+
+    // number of places, and of favorites, per category and per neighborhood, for the filter
+    // dialog (see PlaceFacetCounts). Places with no category or neighborhood are counted under a
+    // null value. Kept up to date by the triggers below rather than counted on every read; the
+    // table has one row per distinct value, so it is small enough to scan without an index.
+    public static final String TABLE_NAME_FACET_COUNTS = "place_facet_counts";
+    public static final String COL_FACET = "facet";
+    public static final String COL_FACET_VALUE = "value";
+    public static final String COL_FACET_TOTAL = "total";
+    public static final String COL_FACET_FAVORITES = "favorites";
+    public static final String FACET_CATEGORY = COL_CATEGORY; // each facet is named for its column
+    public static final String FACET_NEIGHBORHOOD = COL_NEIGHBORHOOD;
+    private static final String[] FACET_COLUMNS = new String[]{ COL_CATEGORY, COL_NEIGHBORHOOD };
+
+    public static final String SQL_CREATE_FACET_COUNTS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME_FACET_COUNTS + " ("
+                    + COL_FACET + " TEXT NOT NULL, "
+                    + COL_FACET_VALUE + " TEXT, "
+                    + COL_FACET_TOTAL + " INTEGER NOT NULL, "
+                    + COL_FACET_FAVORITES + " INTEGER NOT NULL)";
+    public static final String[] SQL_POPULATE_FACET_COUNTS_TABLE = new String[]{
+            buildPopulateFacetCounts(COL_CATEGORY), buildPopulateFacetCounts(COL_NEIGHBORHOOD)
+    };
+    public static final String[] SQL_CREATE_FACET_COUNTS_TRIGGERS = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS place_facet_counts_after_insert AFTER INSERT ON "
+                    + TABLE_NAME_PLACES + " BEGIN " + buildFacetCountChanges("new", 1) + "END",
+            "CREATE TRIGGER IF NOT EXISTS place_facet_counts_after_update AFTER UPDATE OF "
+                    + COL_CATEGORY + ", " + COL_NEIGHBORHOOD + ", " + COL_IS_FAVORITE + " ON "
+                    + TABLE_NAME_PLACES + " WHEN old." + COL_CATEGORY + " IS NOT new." + COL_CATEGORY
+                    + " OR old." + COL_NEIGHBORHOOD + " IS NOT new." + COL_NEIGHBORHOOD
+                    + " OR old." + COL_IS_FAVORITE + " IS NOT new." + COL_IS_FAVORITE + " BEGIN "
+                    + buildFacetCountChanges("old", -1) + buildFacetCountChanges("new", 1) + "END",
+            "CREATE TRIGGER IF NOT EXISTS place_facet_counts_after_delete AFTER DELETE ON "
+                    + TABLE_NAME_PLACES + " BEGIN " + buildFacetCountChanges("old", -1) + "END"
+    };
+
+    public static final String SQL_SELECT_FACET_COUNTS = "SELECT " + COL_FACET + ", "
+            + COL_FACET_VALUE + ", " + COL_FACET_TOTAL + ", " + COL_FACET_FAVORITES + " FROM "
+            + TABLE_NAME_FACET_COUNTS;
+
+    private static String buildPopulateFacetCounts(String column) {
+        return "INSERT INTO " + TABLE_NAME_FACET_COUNTS + " (" + COL_FACET + ", " + COL_FACET_VALUE
+                + ", " + COL_FACET_TOTAL + ", " + COL_FACET_FAVORITES + ") SELECT '" + column + "', "
+                + column + ", COUNT(*), SUM(CASE WHEN " + COL_IS_FAVORITE + "=1 THEN 1 ELSE 0 END)"
+                + " FROM " + TABLE_NAME_PLACES + " GROUP BY " + column;
+    }
+
+    /**
+     * Trigger statements adding a place to its category's and neighborhood's counts, or taking it
+     * out of them. Rows are matched with IS, so a null value is counted like any other; a row is
+     * created the first time a value is seen and deleted once no place has it.
+     * @param row - "new" or "old"
+     * @param sign - 1 to add the place, -1 to take it out
+     */
+    private static String buildFacetCountChanges(String row, int sign) {
+        String favorite = "(CASE WHEN " + row + "." + COL_IS_FAVORITE + "=1 THEN 1 ELSE 0 END)";
+        String op = (sign > 0) ? "+" : "-";
+        StringBuilder sql = new StringBuilder();
+        for (String column : FACET_COLUMNS) {
+            String match = COL_FACET + "='" + column + "' AND " + COL_FACET_VALUE + " IS "
+                    + row + "." + column;
+            if (sign > 0) {
+                sql.append("INSERT INTO " + TABLE_NAME_FACET_COUNTS + " (" + COL_FACET + ", "
+                        + COL_FACET_VALUE + ", " + COL_FACET_TOTAL + ", " + COL_FACET_FAVORITES
+                        + ") SELECT '" + column + "', " + row + "." + column + ", 0, 0 WHERE NOT EXISTS"
+                        + " (SELECT 1 FROM " + TABLE_NAME_FACET_COUNTS + " WHERE " + match + "); ");
+            }
+            sql.append("UPDATE " + TABLE_NAME_FACET_COUNTS + " SET " + COL_FACET_TOTAL + "="
+                    + COL_FACET_TOTAL + op + "1, " + COL_FACET_FAVORITES + "=" + COL_FACET_FAVORITES
+                    + op + favorite + " WHERE " + match + "; ");
+            if (sign < 0) {
+                sql.append("DELETE FROM " + TABLE_NAME_FACET_COUNTS + " WHERE " + match + " AND "
+                        + COL_FACET_TOTAL + "<=0; ");
+            }
+        }
+        return sql.toString();
+    }
+
+    // indexes for the neighborhood and minimum rating filters, which a PlaceFilterPlan can choose
+    // to drive a list query with more than one filter. Like the list indexes they include title,
+    // _id and is_favorite, so the other filters and the id list are answered without reading rows;
+    // a neighborhood is read in title order, a rating range is sorted after it is read.
+    public static final String INDEX_PLACES_NEIGHBORHOOD_TITLE = "places_neighborhood_title_idx";
+    public static final String INDEX_PLACES_RATING = "places_rating_idx";
+
+    public static final String[] SQL_CREATE_PLACES_FILTER_INDEXES = new String[]{
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_NEIGHBORHOOD_TITLE + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_NEIGHBORHOOD + ", " + COL_TITLE + ", " + COL_ID + ", " + COL_IS_FAVORITE + ")",
+            "CREATE INDEX IF NOT EXISTS " + INDEX_PLACES_RATING + " ON " + TABLE_NAME_PLACES
+                    + " (" + COL_RATING + ", " + COL_TITLE + ", " + COL_ID + ", " + COL_IS_FAVORITE + ")"
+    };
+
+    // collects the index statistics in sqlite_stat1 that both SQLite's query planner and
+    // PlaceIndexStats read. Run after each catalog import rather than by a migration: statistics
+    // of the few bundled places would only mislead SQLite once the catalog grows.
+    public static final String SQL_ANALYZE_PLACES = "ANALYZE " + TABLE_NAME_PLACES;
+    public static final String SQL_SELECT_PLACES_INDEX_STATS = "SELECT idx, stat FROM sqlite_stat1"
+            + " WHERE tbl='" + TABLE_NAME_PLACES + "'";
+
+    public static final String SQL_SELECT_HAS_PLACES_RTREE_TABLE = "SELECT COUNT(*) FROM sqlite_master"
+            + " WHERE type='table' AND name='" + TABLE_NAME_PLACES_RTREE + "'";
+
+    // flips the status in place, so it never depends on a value read earlier; a missing (null)
+    // status counts as not a favorite
+    public static final String SQL_TOGGLE_FAVORITE = "UPDATE " + TABLE_NAME_PLACES + " SET "
+            + COL_IS_FAVORITE + "=CASE WHEN " + COL_IS_FAVORITE + "=1 THEN 0 ELSE 1 END"
+            + " WHERE " + COL_ID + "=?";
+
+    public static final String SQL_SELECT_IS_FAVORITE = "SELECT " + COL_IS_FAVORITE + " FROM "
+            + TABLE_NAME_PLACES + " WHERE " + COL_ID + "=?";
+
+    // catalog import (see PlaceCatalogImporter), by a place's natural key (title, location).
+    // Catalog columns only overwrite existing values when the catalog has a value for them, and
+    // only rows where one of those differs are updated, so re-importing a place fires none of the
+    // search index, spatial index or facet count triggers. Arguments ?1 to ?7 are neighborhood,
+    // category, description, image_res, image_credit, latitude and longitude; ?8 and ?9 the key.
+    public static final String SQL_UPDATE_CATALOG_PLACE = "UPDATE " + TABLE_NAME_PLACES + " SET "
+            + COL_NEIGHBORHOOD + "=COALESCE(?1," + COL_NEIGHBORHOOD + "), "
+            + COL_CATEGORY + "=COALESCE(?2," + COL_CATEGORY + "), "
+            + COL_DESCRIPTION + "=COALESCE(?3," + COL_DESCRIPTION + "), "
+            + COL_IMAGE_RES + "=COALESCE(?4," + COL_IMAGE_RES + "), "
+            + COL_IMAGE_CREDIT + "=COALESCE(?5," + COL_IMAGE_CREDIT + "), "
+            + COL_LATITUDE + "=COALESCE(?6," + COL_LATITUDE + "), "
+            + COL_LONGITUDE + "=COALESCE(?7," + COL_LONGITUDE + ")"
+            + " WHERE " + COL_TITLE + "=?8 AND " + COL_LOCATION + "=?9"
+            + " AND (" + COL_NEIGHBORHOOD + " IS NOT COALESCE(?1," + COL_NEIGHBORHOOD + ")"
+            + " OR " + COL_CATEGORY + " IS NOT COALESCE(?2," + COL_CATEGORY + ")"
+            + " OR " + COL_DESCRIPTION + " IS NOT COALESCE(?3," + COL_DESCRIPTION + ")"
+            + " OR " + COL_IMAGE_RES + " IS NOT COALESCE(?4," + COL_IMAGE_RES + ")"
+            + " OR " + COL_IMAGE_CREDIT + " IS NOT COALESCE(?5," + COL_IMAGE_CREDIT + ")"
+            + " OR " + COL_LATITUDE + " IS NOT COALESCE(?6," + COL_LATITUDE + ")"
+            + " OR " + COL_LONGITUDE + " IS NOT COALESCE(?7," + COL_LONGITUDE + "))";
+
+    // whether a catalog place the update left alone is already in the database, unchanged
+    public static final String SQL_COUNT_CATALOG_PLACE = "SELECT COUNT(*) FROM " + TABLE_NAME_PLACES
+            + " WHERE " + COL_TITLE + "=? AND " + COL_LOCATION + "=?";
+
+    public static final String SQL_INSERT_CATALOG_PLACE = "INSERT INTO " + TABLE_NAME_PLACES + " ("
+            + COL_TITLE + ", " + COL_LOCATION + ", " + COL_NEIGHBORHOOD + ", " + COL_CATEGORY + ", "
+            + COL_DESCRIPTION + ", " + COL_IMAGE_RES + ", " + COL_IMAGE_CREDIT + ", "
+            + COL_IS_FAVORITE + ", " + COL_LATITUDE + ", " + COL_LONGITUDE + ", " + COL_RATING + ", "
+            + COL_NOTE + ") VALUES (?,?,?,?,?,?,?,0,?,?,0,'')";
+}
@@ -0,0 +1,81 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The SQL text of each list query shape (see PlaceListSql.getListShape) and of each padded ids
+ * lookup, built the first time it is needed. Since every query of a shape runs the exact same
+ * text, SQLite's prepared statement cache - one per connection, keyed on the SQL text, sized by
+ * PlaceDbOpenHelper.onConfigure - parses and plans each shape once rather than on every query. A
+ * hit here is a query that skipped building its SQL, and that the statement cache can serve.
+ *
+ * All methods are thread safe.
+ */
+public class PlaceStatementCache {
+    private static final int ID_COUNT_BUCKETS = 32; // powers of two, see getPaddedIdCount
+
+    // keyed by shape; only the few shapes the app actually runs are ever built
+    private final ConcurrentHashMap<Integer, String> mListSql = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> mIdsSql = new AtomicReferenceArray<>(ID_COUNT_BUCKETS);
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * @param shape - from PlaceListSql.getListShape
+     * @return - the SQL for list queries of that shape
+     */
+    public String getListSql(int shape) {
+        String sql = mListSql.get(shape);
+        if (sql == null) {
+            mMisses.incrementAndGet();
+            sql = PlaceListSql.buildListQuery(shape);
+            mListSql.put(shape, sql); // two threads building the same text at once is harmless
+        } else {
+            mHits.incrementAndGet();
+        }
+        return sql;
+    }
+
+    /**
+     * @param paddedIdCount - from PlaceListSql.getPaddedIdCount
+     * @return - the SQL looking up that many ids
+     */
+    public String getIdsSql(int paddedIdCount) {
+        int bucket = Integer.numberOfTrailingZeros(paddedIdCount);
+        String sql = mIdsSql.get(bucket);
+        if (sql == null) {
+            mMisses.incrementAndGet();
+            sql = PlaceListSql.buildIdsQuery(paddedIdCount);
+            mIdsSql.set(bucket, sql);
+        } else {
+            mHits.incrementAndGet();
+        }
+        return sql;
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return - fraction of lookups that found their SQL already built, or 0 before any lookup
+     */
+    public double getHitRate() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceStatementCache{hits=" + getHits() + ", misses=" + getMisses()
+                + ", hitRate=" + String.format(Locale.US, "%.3f", getHitRate()) + "}";
+    }
+}
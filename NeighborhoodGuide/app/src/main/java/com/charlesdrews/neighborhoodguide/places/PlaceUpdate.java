@@ -0,0 +1,118 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+/**
+ * The user's changes to one place - favorite status, rating and/or note - waiting to be written.
+ * A field that is null is left as it is in the database. The favorite status can also be toggled,
+ * i.e. flipped from whatever it is when written, so toggles from two screens don't overwrite each
+ * other. Immutable.
+ */
+public class PlaceUpdate {
+    private final int mId;
+    private final Boolean mFavorite;
+    private final boolean mToggleFavorite; // only when mFavorite is null
+    private final Float mRating;
+    private final String mNote;
+
+    PlaceUpdate(int id, Boolean favorite, boolean toggleFavorite, Float rating, String note) {
+        mId = id;
+        mFavorite = favorite;
+        mToggleFavorite = (favorite == null) && toggleFavorite;
+        mRating = rating;
+        mNote = note;
+    }
+
+    public static PlaceUpdate favoriteStatus(int id, boolean isFavorite) {
+        return new PlaceUpdate(id, isFavorite, false, null, null);
+    }
+
+    public static PlaceUpdate toggleFavorite(int id) {
+        return new PlaceUpdate(id, null, true, null, null);
+    }
+
+    public static PlaceUpdate rating(int id, float rating) {
+        return new PlaceUpdate(id, null, false, rating, null);
+    }
+
+    public static PlaceUpdate note(int id, String note) {
+        return new PlaceUpdate(id, null, false, null, note);
+    }
+
+    /**
+     * Combine with a later update to the same place; the later value of each field wins, and two
+     * toggles cancel out
+     * @param newer - update made after this one
+     * @return - a single update with the same effect as writing this one and then newer
+     */
+    public PlaceUpdate merge(PlaceUpdate newer) {
+        if (newer.mId != mId) {
+            throw new IllegalArgumentException("Cannot merge updates to places " + mId + " and " + newer.mId);
+        }
+
+        Boolean favorite = mFavorite;
+        boolean toggle = mToggleFavorite;
+        if (newer.mFavorite != null) {
+            favorite = newer.mFavorite;
+            toggle = false;
+        } else if (newer.mToggleFavorite) {
+            if (favorite != null) {
+                favorite = !favorite;
+            } else {
+                toggle = !toggle;
+            }
+        }
+
+        return new PlaceUpdate(mId, favorite, toggle,
+                (newer.mRating != null) ? newer.mRating : mRating,
+                (newer.mNote != null) ? newer.mNote : mNote);
+    }
+
+    /**
+     * @param isFavorite - the favorite status a toggle resulted in
+     * @return - this update with its toggle replaced by that status
+     */
+    PlaceUpdate withFavoriteStatus(boolean isFavorite) {
+        return new PlaceUpdate(mId, isFavorite, false, mRating, mNote);
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return - new favorite status, or null if unchanged or toggled
+     */
+    public Boolean getFavoriteStatus() {
+        return mFavorite;
+    }
+
+    public boolean isFavoriteToggle() {
+        return mToggleFavorite;
+    }
+
+    /**
+     * @return - new rating, or null if unchanged
+     */
+    public Float getRating() {
+        return mRating;
+    }
+
+    /**
+     * @return - new note, or null if unchanged
+     */
+    public String getNote() {
+        return mNote;
+    }
+
+    /**
+     * @return - true if writing this update would change nothing, e.g. a favorite toggled twice
+     */
+    public boolean isEmpty() {
+        return mFavorite == null && !mToggleFavorite && mRating == null && mNote == null;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceUpdate{id=" + mId + ", favorite=" + (mToggleFavorite ? "toggle" : mFavorite)
+                + ", rating=" + mRating + ", note=" + mNote + "}";
+    }
+}
@@ -0,0 +1,419 @@
+package com.charlesdrews.neighborhoodguide.places;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for the user's changes to places. Updates are written by a drain task on the
+ * write executor (normally the write lane, see TaskLanes), which waits a short time for more to
+ * arrive, then commits everything pending in one transaction. The drain task only runs while
+ * updates are waiting, and only one runs at a time. Updates to the same place are coalesced while
+ * they wait, so dragging a rating bar or toggling a favorite back and forth costs one row write
+ * and one disk sync, not one per change.
+ *
+ * Pending updates are not visible to database reads until they are written; call flush() before
+ * anything else reads them - e.g. in onPause, before another screen queries the database - which
+ * also keeps them from being lost if the process is killed in the background.
+ *
+ * All methods are thread safe.
+ */
+public class PlaceWriteQueue {
+    public static final long DEFAULT_DELAY_MS = 250;
+    public static final int MAX_BATCH_SIZE = 100; // write right away once this many places are waiting
+
+    /**
+     * Writes a batch of updates to the database
+     */
+    public interface Writer {
+        /**
+         * Commit every update in one transaction. Throw to roll the whole batch back.
+         * @param updates - at most one update per place
+         * @return - for each update, the values written, with a favorite toggle replaced by the
+         * status it resulted in; null if its place was not found
+         */
+        PlaceUpdate[] writeUpdates(List<PlaceUpdate> updates);
+    }
+
+    public interface OnWrittenListener {
+        /**
+         * Called once the update, and any later update to the same place it was coalesced with,
+         * has been committed or has failed
+         * @param id - id of the updated place
+         * @param written - the values written, including the favorite status a toggle resulted
+         *                in; null if the place was not found or the transaction failed
+         */
+        void onWritten(int id, PlaceUpdate written);
+    }
+
+    private static class PendingUpdate {
+        private PlaceUpdate mUpdate;
+        private final ArrayList<OnWrittenListener> mListeners = new ArrayList<>(1);
+        private final long mEnqueuedNanos; // of the first update to this place in the batch
+
+        PendingUpdate(PlaceUpdate update, long enqueuedNanos) {
+            mUpdate = update;
+            mEnqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final Writer mWriter;
+    private final Executor mWriteExecutor;
+    private final Executor mCallbackExecutor;
+    private final long mDelayNanos;
+
+    // guarded by mLock; the drain task and flush() wait on it
+    private final Object mLock = new Object();
+    private final LinkedHashMap<Integer, PendingUpdate> mPending = new LinkedHashMap<>();
+    private long mOldestPendingNanos;
+    private long mEnqueuedCount; // sequence number of the latest update
+    private long mWrittenCount; // every update up to this sequence number has been written
+    private boolean mFlushRequested;
+    private boolean mClosed;
+    private boolean mDrainScheduled;
+
+    // metrics, guarded by mLock
+    private int mMaxQueueDepth;
+    private long mTransactions;
+    private long mFailedTransactions;
+    private long mPlacesWritten;
+    private long mPlacesAttempted;
+    private long mTotalCommitNanos;
+    private long mMaxCommitNanos;
+    private long mTotalWaitNanos;
+
+    /**
+     * @param writer - commits batches of updates; only ever called from the drain task
+     * @param writeExecutor - runs the drain task
+     * @param callbackExecutor - where OnWrittenListeners are called, e.g. the main thread; null
+     *                         to call them on the write executor's thread
+     * @param delayMs - how long an update waits for others to share its transaction
+     */
+    public PlaceWriteQueue(Writer writer, Executor writeExecutor, Executor callbackExecutor,
+                           long delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("delayMs must not be negative");
+        }
+        mWriter = writer;
+        mWriteExecutor = writeExecutor;
+        mCallbackExecutor = callbackExecutor;
+        mDelayNanos = TimeUnit.MILLISECONDS.toNanos(delayMs);
+    }
+
+    public void setFavoriteStatus(int id, boolean isFavorite, OnWrittenListener listener) {
+        enqueue(PlaceUpdate.favoriteStatus(id, isFavorite), listener);
+    }
+
+    /**
+     * Flip the place's favorite status from whatever it is when the update is written. Listeners
+     * are told the resulting status.
+     */
+    public void toggleFavorite(int id, OnWrittenListener listener) {
+        enqueue(PlaceUpdate.toggleFavorite(id), listener);
+    }
+
+    public void setRating(int id, float rating, OnWrittenListener listener) {
+        enqueue(PlaceUpdate.rating(id, rating), listener);
+    }
+
+    public void setNote(int id, String note, OnWrittenListener listener) {
+        enqueue(PlaceUpdate.note(id, note), listener);
+    }
+
+    /**
+     * Queue an update, merging it into any update still waiting for the same place
+     * @param update - changes to write
+     * @param listener - notified when written (can be null); a listener already waiting on the
+     *                 same place is only notified once
+     */
+    public void enqueue(PlaceUpdate update, OnWrittenListener listener) {
+        synchronized (mLock) {
+            if (mClosed) {
+                throw new IllegalStateException("PlaceWriteQueue is closed");
+            }
+            long now = System.nanoTime();
+            PendingUpdate pending = mPending.get(update.getId());
+            if (pending == null) {
+                if (mPending.isEmpty()) {
+                    mOldestPendingNanos = now;
+                }
+                pending = new PendingUpdate(update, now);
+                mPending.put(update.getId(), pending);
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mPending.size());
+            } else {
+                pending.mUpdate = pending.mUpdate.merge(update);
+            }
+            if (listener != null && !pending.mListeners.contains(listener)) {
+                pending.mListeners.add(listener);
+            }
+            mEnqueuedCount++;
+
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                mWriteExecutor.execute(mDrain);
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Write everything queued so far now, and wait until it has been committed. Blocks the calling
+     * thread, but the writes are already batched, so this is normally one short transaction.
+     * @param timeoutMs - longest time to wait
+     * @return - true if everything queued before the call has been written (or has failed) and
+     * its listeners have been called, or handed to the callback executor
+     */
+    public boolean flush(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (mLock) {
+            long target = mEnqueuedCount;
+            if (!mPending.isEmpty()) { // otherwise at most a batch already being written
+                mFlushRequested = true;
+                mLock.notifyAll();
+            }
+            try {
+                while (mWrittenCount < target) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write everything queued. No more updates can be queued.
+     */
+    public void close(long timeoutMs) {
+        flush(timeoutMs);
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return - places with an update waiting to be written
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    public Metrics getMetrics() {
+        synchronized (mLock) {
+            return new Metrics(mPending.size(), mMaxQueueDepth, mEnqueuedCount, mTransactions,
+                    mFailedTransactions, mPlacesWritten, mPlacesAttempted, mTotalCommitNanos,
+                    mMaxCommitNanos, mTotalWaitNanos);
+        }
+    }
+
+    /**
+     * Writes batches until nothing is pending, then ends; the next enqueue schedules it again
+     */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                ArrayList<PendingUpdate> batch;
+                long batchEnd;
+                synchronized (mLock) {
+                    try {
+                        batch = takeBatch();
+                    } catch (InterruptedException e) {
+                        batch = null;
+                    }
+                    if (batch == null) {
+                        mDrainScheduled = false;
+                        if (!mPending.isEmpty()) { // interrupted with updates still waiting
+                            mDrainScheduled = true;
+                            mWriteExecutor.execute(mDrain);
+                        }
+                        return;
+                    }
+                    batchEnd = mEnqueuedCount;
+                }
+                writeBatch(batch, batchEnd);
+            }
+        }
+    };
+
+    /**
+     * Wait until a batch is due - the oldest update has waited the delay, the batch is full, or a
+     * flush was requested - then take everything pending. Called with mLock held.
+     * @return - the batch, or null once nothing is pending
+     */
+    private ArrayList<PendingUpdate> takeBatch() throws InterruptedException {
+        while (true) {
+            if (mPending.isEmpty()) {
+                return null;
+            }
+            long remaining = mOldestPendingNanos + mDelayNanos - System.nanoTime();
+            if (remaining <= 0 || mFlushRequested || mClosed || mPending.size() >= MAX_BATCH_SIZE) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+        }
+        ArrayList<PendingUpdate> batch = new ArrayList<>(mPending.values());
+        mPending.clear();
+        mFlushRequested = false;
+        return batch;
+    }
+
+    private void writeBatch(final ArrayList<PendingUpdate> batch, long batchEnd) {
+        ArrayList<PlaceUpdate> updates = new ArrayList<>(batch.size());
+        for (PendingUpdate pending : batch) {
+            updates.add(pending.mUpdate);
+        }
+
+        long start = System.nanoTime();
+        PlaceUpdate[] written = null;
+        try {
+            written = mWriter.writeUpdates(updates);
+        } catch (RuntimeException e) {
+            // the transaction was rolled back; each listener is told its update failed
+        }
+        long end = System.nanoTime();
+        final PlaceUpdate[] results = (written != null) ? written : new PlaceUpdate[batch.size()];
+
+        // hand off the listeners before waking flush(), so they run before it returns or at least
+        // are already posted to the callback executor
+        Runnable notifyListeners = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingUpdate pending = batch.get(i);
+                    PlaceUpdate result = (i < results.length) ? results[i] : null;
+                    for (OnWrittenListener listener : pending.mListeners) {
+                        listener.onWritten(pending.mUpdate.getId(), result);
+                    }
+                }
+            }
+        };
+        if (mCallbackExecutor == null) {
+            notifyListeners.run();
+        } else {
+            mCallbackExecutor.execute(notifyListeners);
+        }
+
+        synchronized (mLock) {
+            long commitNanos = end - start;
+            mTransactions++;
+            if (written == null) {
+                mFailedTransactions++;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (i < results.length && results[i] != null) {
+                    mPlacesWritten++;
+                }
+                mTotalWaitNanos += end - batch.get(i).mEnqueuedNanos;
+            }
+            mPlacesAttempted += batch.size();
+            mTotalCommitNanos += commitNanos;
+            mMaxCommitNanos = Math.max(mMaxCommitNanos, commitNanos);
+            mWrittenCount = batchEnd;
+            mLock.notifyAll(); // wake flush()
+        }
+    }
+
+    /**
+     * Snapshot of the queue's counters since it was created
+     */
+    public static class Metrics {
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final long mUpdatesQueued;
+        private final long mTransactions;
+        private final long mFailedTransactions;
+        private final long mPlacesWritten;
+        private final long mPlacesAttempted;
+        private final long mTotalCommitNanos;
+        private final long mMaxCommitNanos;
+        private final long mTotalWaitNanos;
+
+        Metrics(int queueDepth, int maxQueueDepth, long updatesQueued, long transactions,
+                long failedTransactions, long placesWritten, long placesAttempted,
+                long totalCommitNanos, long maxCommitNanos, long totalWaitNanos) {
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = maxQueueDepth;
+            mUpdatesQueued = updatesQueued;
+            mTransactions = transactions;
+            mFailedTransactions = failedTransactions;
+            mPlacesWritten = placesWritten;
+            mPlacesAttempted = placesAttempted;
+            mTotalCommitNanos = totalCommitNanos;
+            mMaxCommitNanos = maxCommitNanos;
+            mTotalWaitNanos = totalWaitNanos;
+        }
+
+        /**
+         * @return - places with an update waiting to be written
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        /**
+         * @return - calls to enqueue, before coalescing
+         */
+        public long getUpdatesQueued() {
+            return mUpdatesQueued;
+        }
+
+        public long getTransactions() {
+            return mTransactions;
+        }
+
+        public long getFailedTransactions() {
+            return mFailedTransactions;
+        }
+
+        /**
+         * @return - rows updated by successful transactions, after coalescing
+         */
+        public long getPlacesWritten() {
+            return mPlacesWritten;
+        }
+
+        /**
+         * @return - average time to write and commit one transaction
+         */
+        public double getAverageCommitMs() {
+            return (mTransactions == 0) ? 0 : mTotalCommitNanos / 1e6 / mTransactions;
+        }
+
+        public double getMaxCommitMs() {
+            return mMaxCommitNanos / 1e6;
+        }
+
+        /**
+         * @return - average time from a place's first queued update to the end of its transaction
+         */
+        public double getAverageWriteLatencyMs() {
+            return (mPlacesAttempted == 0) ? 0 : mTotalWaitNanos / 1e6 / mPlacesAttempted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "depth %d (max %d), %d updates in %d transactions (%d failed), %d rows written, "
+                            + "commit %.2f ms avg / %.2f ms max, write latency %.1f ms avg",
+                    mQueueDepth, mMaxQueueDepth, mUpdatesQueued, mTransactions, mFailedTransactions,
+                    mPlacesWritten, getAverageCommitMs(), getMaxCommitMs(), getAverageWriteLatencyMs());
+        }
+    }
+}
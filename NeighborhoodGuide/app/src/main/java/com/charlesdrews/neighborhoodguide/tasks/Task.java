@@ -0,0 +1,113 @@
+package com.charlesdrews.neighborhoodguide.tasks;
+
+/**
+ * A unit of background work run on a TaskLane, shaped like an AsyncTask: doInBackground runs on
+ * one of the lane's threads, then onPostExecute - or onCancelled, if the task was cancelled in the
+ * meantime - runs on the lane's callback thread, normally the main thread. A task can only be run
+ * once.
+ *
+ * @param <Result> - type of the result handed from doInBackground to onPostExecute
+ */
+public abstract class Task<Result> {
+
+    /**
+     * Order in which tasks waiting for a thread in the same lane are started
+     */
+    public enum Priority {
+        HIGH,   // the user is waiting on the result, e.g. a search or the screen being opened
+        NORMAL, // needed soon, e.g. rows or thumbnails about to be shown
+        LOW     // speculative, e.g. prefetching
+    }
+
+    private volatile boolean mCancelled = false;
+    private boolean mFinished = false; // guarded by this
+    private TaskLane.Job mJob; // guarded by this
+    private TaskGroup mGroup; // guarded by this
+
+    /**
+     * Do the work. Runs on a lane thread; check isCancelled() to stop early.
+     * @return - result to hand to onPostExecute
+     */
+    protected abstract Result doInBackground();
+
+    /**
+     * Called on the callback thread with the result of doInBackground, unless the task was
+     * cancelled
+     * @param result - result of doInBackground
+     */
+    protected void onPostExecute(Result result) {
+    }
+
+    /**
+     * Called on the callback thread instead of onPostExecute if the task was cancelled, e.g. to
+     * release what doInBackground produced
+     * @param result - result of doInBackground, or null if it never ran or did not finish
+     */
+    protected void onCancelled(Result result) {
+    }
+
+    /**
+     * Called on the cancelling thread when the task is cancelled, to abort work already in
+     * progress, e.g. by cancelling a CancellationSignal passed to a query
+     */
+    protected void onCancel() {
+    }
+
+    /**
+     * Keep the task from starting if it is still queued, and make sure onPostExecute is not called
+     * @return - false if the task was already cancelled or has already finished
+     */
+    public final boolean cancel() {
+        TaskLane.Job job;
+        synchronized (this) {
+            if (mCancelled || mFinished) {
+                return false;
+            }
+            mCancelled = true;
+            job = mJob;
+        }
+        onCancel();
+        if (job != null) {
+            job.getLane().remove(job);
+        }
+        return true;
+    }
+
+    public final boolean isCancelled() {
+        return mCancelled;
+    }
+
+    synchronized void setJob(TaskLane.Job job) {
+        if (mJob != null) {
+            throw new IllegalStateException("A task can only be run once");
+        }
+        mJob = job;
+    }
+
+    synchronized void setGroup(TaskGroup group) {
+        if (mGroup != null) {
+            throw new IllegalStateException("A task can only belong to one group");
+        }
+        mGroup = group;
+    }
+
+    /**
+     * Leave the group, then call onPostExecute or onCancelled. Called on the callback thread.
+     */
+    void finish(Result result) {
+        TaskGroup group;
+        synchronized (this) {
+            mFinished = true;
+            group = mGroup;
+            mGroup = null;
+        }
+        if (group != null) {
+            group.remove(this);
+        }
+        if (mCancelled) {
+            onCancelled(result);
+        } else {
+            onPostExecute(result);
+        }
+    }
+}
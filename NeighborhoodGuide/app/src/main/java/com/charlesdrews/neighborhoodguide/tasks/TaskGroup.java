@@ -0,0 +1,66 @@
+package com.charlesdrews.neighborhoodguide.tasks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * The tasks started by one screen, so they can all be cancelled when it is destroyed - or by the
+ * list a screen keeps across rotations, when it is released. A cancelled task never calls
+ * onPostExecute, so it can't touch a destroyed activity's views, and a task that hasn't started
+ * yet is dropped from its lane right away instead of holding on to the activity until it gets a
+ * thread.
+ *
+ * All methods are thread safe.
+ */
+public class TaskGroup {
+    private final HashSet<Task<?>> mTasks = new HashSet<>();
+    private boolean mCancelled = false;
+
+    /**
+     * Run a task on a lane as part of this group. Once the group has been cancelled, the task is
+     * cancelled instead of run.
+     * @param lane - lane to run the task on
+     * @param priority - where the task goes among others waiting for a thread
+     * @param task - task that has not been run before
+     */
+    public void execute(TaskLane lane, Task.Priority priority, Task<?> task) {
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = mCancelled;
+            if (!cancelled) {
+                task.setGroup(this);
+                mTasks.add(task);
+            }
+        }
+        if (cancelled) {
+            task.cancel();
+        }
+        lane.execute(task, priority);
+    }
+
+    /**
+     * Cancel every task in the group that has not finished, and any task run in it from now on
+     */
+    public void cancelAll() {
+        ArrayList<Task<?>> tasks;
+        synchronized (this) {
+            mCancelled = true;
+            tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+        }
+        for (Task<?> task : tasks) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * @return - tasks queued or running, or finished but not yet delivered
+     */
+    public synchronized int size() {
+        return mTasks.size();
+    }
+
+    synchronized void remove(Task<?> task) {
+        mTasks.remove(task);
+    }
+}
@@ -0,0 +1,325 @@
+package com.charlesdrews.neighborhoodguide.tasks;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of worker threads for one kind of background work - e.g. database reads, database
+ * writes or image decoding - so a burst of one kind can't hold up the others. Tasks waiting for a
+ * thread are started in priority order, then in the order they were queued. The lane counts how
+ * long tasks wait for a thread and how long they run.
+ *
+ * Also an Executor, for plain Runnables that need no result; those run at NORMAL priority.
+ *
+ * All methods are thread safe.
+ */
+public class TaskLane implements Executor {
+    private static final long IDLE_THREAD_TIMEOUT_S = 30;
+
+    private final String mName;
+    private final Executor mCallbackExecutor;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    // metrics, guarded by this
+    private int mQueueDepth;
+    private int mMaxQueueDepth;
+    private long mQueued;
+    private long mStarted;
+    private long mCompleted;
+    private long mCancelled;
+    private long mFailed;
+    private long mTotalQueueNanos;
+    private long mMaxQueueNanos;
+    private long mTotalRunNanos;
+    private long mMaxRunNanos;
+
+    /**
+     * @param name - lane name, used for thread names and metrics
+     * @param threads - tasks that can run at once
+     * @param callbackExecutor - where onPostExecute and onCancelled are called, e.g. the main
+     *                         thread; null to call them on the lane thread
+     */
+    public TaskLane(final String name, int threads, Executor callbackExecutor) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        mName = name;
+        mCallbackExecutor = callbackExecutor;
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TaskLane-" + name + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1); // below the main thread, like AsyncTask's
+                return thread;
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Queue a task to run on this lane
+     * @param task - task that has not been run before
+     * @param priority - where the task goes among others waiting for a thread
+     */
+    public void execute(Task<?> task, Task.Priority priority) {
+        Job job = new Job(this, task, priority, mSequence.getAndIncrement(), System.nanoTime());
+        task.setJob(job);
+        synchronized (this) {
+            mQueued++;
+            mQueueDepth++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueueDepth);
+        }
+        if (task.isCancelled()) { // cancelled before it was queued, e.g. by its group
+            remove(job);
+            return;
+        }
+        mExecutor.execute(job);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        execute(new Task<Void>() {
+            @Override
+            protected Void doInBackground() {
+                command.run();
+                return null;
+            }
+        }, Task.Priority.NORMAL);
+    }
+
+    /**
+     * Take a cancelled task out of the queue, if it hasn't started yet. Its onCancelled is still
+     * called, with a null result.
+     */
+    void remove(Job job) {
+        if (!job.mRemoved.compareAndSet(false, true)) {
+            return; // already started, or already removed
+        }
+        mExecutor.remove(job);
+        synchronized (this) {
+            mQueueDepth--;
+            mCancelled++;
+        }
+        deliver(job.mTask, null);
+    }
+
+    private <Result> void run(Job job, Task<Result> task) {
+        if (!job.mRemoved.compareAndSet(false, true)) {
+            return; // cancelled while it was being handed to a thread
+        }
+        long start = System.nanoTime();
+        synchronized (this) {
+            long queueNanos = start - job.mQueuedNanos;
+            mQueueDepth--;
+            mStarted++;
+            mTotalQueueNanos += queueNanos;
+            mMaxQueueNanos = Math.max(mMaxQueueNanos, queueNanos);
+        }
+
+        Result result = null;
+        boolean failed = true;
+        try {
+            if (!task.isCancelled()) {
+                result = task.doInBackground();
+            }
+            failed = false;
+        } finally {
+            long runNanos = System.nanoTime() - start;
+            synchronized (this) {
+                if (failed) {
+                    mFailed++;
+                } else if (task.isCancelled()) {
+                    mCancelled++;
+                } else {
+                    mCompleted++;
+                }
+                mTotalRunNanos += runNanos;
+                mMaxRunNanos = Math.max(mMaxRunNanos, runNanos);
+            }
+        }
+        deliver(task, result);
+    }
+
+    private <Result> void deliver(final Task<Result> task, final Result result) {
+        if (mCallbackExecutor == null) {
+            task.finish(result);
+            return;
+        }
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.finish(result);
+            }
+        });
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(mName, mQueueDepth, mMaxQueueDepth, mQueued, mStarted, mCompleted,
+                mCancelled, mFailed, mTotalQueueNanos, mMaxQueueNanos, mTotalRunNanos, mMaxRunNanos);
+    }
+
+    /**
+     * A queued task, ordered by priority and then by when it was queued
+     */
+    static final class Job implements Runnable, Comparable<Job> {
+        private final TaskLane mLane;
+        private final Task<?> mTask;
+        private final Task.Priority mPriority;
+        private final long mSequence;
+        private final long mQueuedNanos;
+        private final AtomicBoolean mRemoved = new AtomicBoolean(); // taken off the queue, to run or not
+
+        Job(TaskLane lane, Task<?> task, Task.Priority priority, long sequence, long queuedNanos) {
+            mLane = lane;
+            mTask = task;
+            mPriority = priority;
+            mSequence = sequence;
+            mQueuedNanos = queuedNanos;
+        }
+
+        TaskLane getLane() {
+            return mLane;
+        }
+
+        @Override
+        public void run() {
+            mLane.run(this, mTask);
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            return (mSequence < other.mSequence) ? -1 : ((mSequence > other.mSequence) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Snapshot of a lane's counters since it was created
+     */
+    public static class Metrics {
+        private final String mName;
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final long mQueued;
+        private final long mStarted;
+        private final long mCompleted;
+        private final long mCancelled;
+        private final long mFailed;
+        private final long mTotalQueueNanos;
+        private final long mMaxQueueNanos;
+        private final long mTotalRunNanos;
+        private final long mMaxRunNanos;
+
+        Metrics(String name, int queueDepth, int maxQueueDepth, long queued, long started,
+                long completed, long cancelled, long failed, long totalQueueNanos,
+                long maxQueueNanos, long totalRunNanos, long maxRunNanos) {
+            mName = name;
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = maxQueueDepth;
+            mQueued = queued;
+            mStarted = started;
+            mCompleted = completed;
+            mCancelled = cancelled;
+            mFailed = failed;
+            mTotalQueueNanos = totalQueueNanos;
+            mMaxQueueNanos = maxQueueNanos;
+            mTotalRunNanos = totalRunNanos;
+            mMaxRunNanos = maxRunNanos;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return - tasks waiting for a thread
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        public long getQueued() {
+            return mQueued;
+        }
+
+        /**
+         * @return - tasks that got a thread; includes tasks cancelled while running
+         */
+        public long getStarted() {
+            return mStarted;
+        }
+
+        public long getCompleted() {
+            return mCompleted;
+        }
+
+        /**
+         * @return - tasks cancelled before they started or while they ran
+         */
+        public long getCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return - tasks whose doInBackground threw
+         */
+        public long getFailed() {
+            return mFailed;
+        }
+
+        /**
+         * @return - average time a task waited for a thread
+         */
+        public double getAverageQueueMs() {
+            return (mStarted == 0) ? 0 : mTotalQueueNanos / 1e6 / mStarted;
+        }
+
+        public double getMaxQueueMs() {
+            return mMaxQueueNanos / 1e6;
+        }
+
+        /**
+         * @return - average time a task spent in doInBackground
+         */
+        public double getAverageRunMs() {
+            return (mStarted == 0) ? 0 : mTotalRunNanos / 1e6 / mStarted;
+        }
+
+        public double getMaxRunMs() {
+            return mMaxRunNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: depth %d (max %d), %d queued, %d completed, %d cancelled, %d failed, "
+                            + "queue %.1f ms avg / %.1f ms max, run %.1f ms avg / %.1f ms max",
+                    mName, mQueueDepth, mMaxQueueDepth, mQueued, mCompleted, mCancelled, mFailed,
+                    getAverageQueueMs(), getMaxQueueMs(), getAverageRunMs(), getMaxRunMs());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.charlesdrews.neighborhoodguide.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The app's background lanes, each with its own threads, so e.g. decoding a screen full of
+ * thumbnails can't delay a search or a favorite toggle:
+ *  - read: list queries, page loads and single-place lookups
+ *  - write: the write queue's transactions and opening/migrating the database; one thread, since
+ *    SQLite only allows one writer at a time anyway
+ *  - image: thumbnail and hero image decoding
+ * Results are delivered on the main thread.
+ */
+public class TaskLanes {
+    private static final String TAG = "TaskLanes";
+    private static final int READ_THREADS = 2;
+    private static final int WRITE_THREADS = 1;
+    private static final int IMAGE_THREADS = 2;
+
+    private static TaskLanes mInstance;
+
+    private final Executor mMainThreadExecutor;
+    private final TaskLane mReadLane;
+    private final TaskLane mWriteLane;
+    private final TaskLane mImageLane;
+
+    public static synchronized TaskLanes getInstance() {
+        if (mInstance == null) {
+            mInstance = new TaskLanes();
+        }
+        return mInstance;
+    }
+
+    private TaskLanes() {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mMainThreadExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+        mReadLane = new TaskLane("read", READ_THREADS, mMainThreadExecutor);
+        mWriteLane = new TaskLane("write", WRITE_THREADS, mMainThreadExecutor);
+        mImageLane = new TaskLane("image", IMAGE_THREADS, mMainThreadExecutor);
+    }
+
+    public TaskLane getReadLane() {
+        return mReadLane;
+    }
+
+    public TaskLane getWriteLane() {
+        return mWriteLane;
+    }
+
+    public TaskLane getImageLane() {
+        return mImageLane;
+    }
+
+    /**
+     * @return - executor that posts to the main thread
+     */
+    public Executor getMainThreadExecutor() {
+        return mMainThreadExecutor;
+    }
+
+    /**
+     * Log each lane's queue and run times since the process started
+     */
+    public void logMetrics() {
+        Log.d(TAG, mReadLane.getMetrics().toString());
+        Log.d(TAG, mWriteLane.getMetrics().toString());
+        Log.d(TAG, mImageLane.getMetrics().toString());
+    }
+}
@@ -0,0 +1,68 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.CsvPlaceCatalogReader;
+import com.charlesdrews.neighborhoodguide.places.PlaceCatalogRecord;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.CsvPlaceCatalogReader
+ */
+public class CsvPlaceCatalogReaderTest {
+
+    @Test
+    public void testReadsColumnsByHeaderName() throws IOException {
+        CsvPlaceCatalogReader reader = new CsvPlaceCatalogReader(new StringReader(
+                "location,Title,category,image_credit\n"
+                + "5th Ave,Central Park,Park,Wikipedia\n"));
+        PlaceCatalogRecord record = reader.read();
+        assertEquals("Central Park", record.getTitle());
+        assertEquals("5th Ave", record.getLocation());
+        assertEquals("Park", record.getCategory());
+        assertEquals("Wikipedia", record.getImageCredit());
+        assertNull(record.getNeighborhood());
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void testQuotedFields() throws IOException {
+        CsvPlaceCatalogReader reader = new CsvPlaceCatalogReader(new StringReader(
+                "title,location,description\r\n"
+                + "\"Joe's \"\"Famous\"\" Pizza\",\"7 Carmine St, New York\",\"Thin crust.\nCash only.\"\r\n"));
+        PlaceCatalogRecord record = reader.read();
+        assertEquals("Joe's \"Famous\" Pizza", record.getTitle());
+        assertEquals("7 Carmine St, New York", record.getLocation());
+        assertEquals("Thin crust.\nCash only.", record.getDescription());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testBlankLinesAndValuesAreSkipped() throws IOException {
+        CsvPlaceCatalogReader reader = new CsvPlaceCatalogReader(new StringReader(
+                "title,location,category\n\nGrand Central,89 E 42nd St,\n\n,,Park"));
+        PlaceCatalogRecord record = reader.read();
+        assertEquals("Grand Central", record.getTitle());
+        assertNull(record.getCategory());
+        assertTrue(record.hasNaturalKey());
+
+        record = reader.read();
+        assertEquals("Park", record.getCategory());
+        assertFalse(record.hasNaturalKey());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testEmptyCatalog() throws IOException {
+        assertNull(new CsvPlaceCatalogReader(new StringReader("")).read());
+        assertNull(new CsvPlaceCatalogReader(new StringReader("title,location\n")).read());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnterminatedQuoteFails() throws IOException {
+        new CsvPlaceCatalogReader(new StringReader("title,location\n\"Central Park,5th Ave\n")).read();
+    }
+}
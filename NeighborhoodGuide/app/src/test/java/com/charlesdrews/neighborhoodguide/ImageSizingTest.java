@@ -0,0 +1,28 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.images.ImageSizing;
+
+/**
+ * Unit test com.charlesdrews.neighborhoodguide.images.ImageSizing
+ */
+public class ImageSizingTest {
+
+    @Test
+    public void testSourceNarrowerThanTarget() {
+        assertEquals(1, ImageSizing.calculateInSampleSizeForWidth(800, 1080));
+    }
+
+    @Test
+    public void testSourceAtLeastTwiceTarget() {
+        assertEquals(2, ImageSizing.calculateInSampleSizeForWidth(1400, 700));
+        assertEquals(2, ImageSizing.calculateInSampleSizeForWidth(1400, 480));
+        assertEquals(4, ImageSizing.calculateInSampleSizeForWidth(1400, 350));
+    }
+
+    @Test
+    public void testUnknownTargetWidth() {
+        assertEquals(1, ImageSizing.calculateInSampleSizeForWidth(1400, 0));
+    }
+}
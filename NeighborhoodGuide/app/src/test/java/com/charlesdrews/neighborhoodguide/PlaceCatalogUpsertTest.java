@@ -0,0 +1,174 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceMigrations;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Runs the catalog upsert statements of com.charlesdrews.neighborhoodguide.places.PlaceSchema
+ * against SQLite on the JVM, in the order PlaceCatalogImporter runs them: update, then check the
+ * place exists, then insert
+ */
+public class PlaceCatalogUpsertTest {
+    private static final String INSERTED = "inserted";
+    private static final String UPDATED = "updated";
+    private static final String UNCHANGED = "unchanged";
+
+    // title, location, neighborhood, category, latitude
+    private static final Object[][] CATALOG = {
+            {"Central Park", "59th to 110th", "Midtown", "Park", 40.78},
+            {"Grand Central Terminal", "42nd & Park", "Midtown", "Public Transportation", 40.75},
+            {"The Cloisters", "Fort Tryon Park", "Washington Heights", "Museum", 40.86}
+    };
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        statement.execute(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+        for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(0)) {
+            for (String sql : migration.getStatements()) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void testReimportChangesNothing() throws SQLException {
+        for (Object[] place : CATALOG) {
+            assertEquals(INSERTED, upsert(place));
+        }
+        execute("UPDATE places SET is_favorite=1, rating=4.5 WHERE title='Central Park'");
+        String facetCounts = readFacetCounts();
+        long changes = totalChanges();
+
+        for (Object[] place : CATALOG) {
+            assertEquals(UNCHANGED, upsert(place));
+        }
+        assertEquals(changes, totalChanges()); // counts rows written by triggers, too
+        assertEquals(facetCounts, readFacetCounts());
+        assertEquals(1, count("is_favorite=1 AND rating=4.5"));
+    }
+
+    @Test
+    public void testChangedCatalogColumnsAreUpdated() throws SQLException {
+        for (Object[] place : CATALOG) {
+            upsert(place);
+        }
+        execute("UPDATE places SET is_favorite=1 WHERE title='The Cloisters'");
+
+        assertEquals(UPDATED, upsert(new Object[]{"The Cloisters", "Fort Tryon Park",
+                "Inwood", "Museum", 40.86}));
+        assertEquals(1, count("neighborhood='Inwood' AND is_favorite=1"));
+        assertTrue(readFacetCounts(), readFacetCounts().contains("neighborhood:Inwood=1/1"));
+
+        // a value missing from the catalog keeps the one in the database
+        assertEquals(UNCHANGED, upsert(new Object[]{"Central Park", "59th to 110th",
+                null, null, null}));
+        assertEquals(UPDATED, upsert(new Object[]{"Central Park", "59th to 110th",
+                null, null, 40.7829}));
+        assertEquals(1, count("neighborhood='Midtown' AND category='Park' AND latitude=40.7829"));
+    }
+
+    /**
+     * Import one catalog place as PlaceCatalogImporter.importCatalog does
+     */
+    private String upsert(Object[] place) throws SQLException {
+        PreparedStatement update = mConnection.prepareStatement(PlaceSchema.SQL_UPDATE_CATALOG_PLACE);
+        update.setObject(1, place[2]);
+        update.setObject(2, place[3]);
+        update.setNull(3, Types.VARCHAR); // description
+        update.setNull(4, Types.VARCHAR); // image_res
+        update.setNull(5, Types.VARCHAR); // image_credit
+        update.setObject(6, place[4]);
+        update.setNull(7, Types.DOUBLE); // longitude
+        update.setString(8, (String) place[0]);
+        update.setString(9, (String) place[1]);
+        int updated = update.executeUpdate();
+        update.close();
+        if (updated > 0) {
+            return UPDATED;
+        }
+
+        PreparedStatement count = mConnection.prepareStatement(PlaceSchema.SQL_COUNT_CATALOG_PLACE);
+        count.setString(1, (String) place[0]);
+        count.setString(2, (String) place[1]);
+        ResultSet resultSet = count.executeQuery();
+        boolean exists = resultSet.getLong(1) > 0;
+        count.close();
+        if (exists) {
+            return UNCHANGED;
+        }
+
+        PreparedStatement insert = mConnection.prepareStatement(PlaceSchema.SQL_INSERT_CATALOG_PLACE);
+        insert.setString(1, (String) place[0]);
+        insert.setString(2, (String) place[1]);
+        insert.setObject(3, place[2]);
+        insert.setObject(4, place[3]);
+        insert.setNull(5, Types.VARCHAR);
+        insert.setNull(6, Types.VARCHAR);
+        insert.setNull(7, Types.VARCHAR);
+        insert.setObject(8, place[4]);
+        insert.setNull(9, Types.DOUBLE);
+        insert.executeUpdate();
+        insert.close();
+        return INSERTED;
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        statement.execute(sql);
+        statement.close();
+    }
+
+    private long count(String where) throws SQLException {
+        return queryLong("SELECT COUNT(*) FROM places WHERE " + where);
+    }
+
+    private long totalChanges() throws SQLException {
+        return queryLong("SELECT total_changes()");
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql);
+        long value = resultSet.getLong(1);
+        statement.close();
+        return value;
+    }
+
+    /**
+     * @return - e.g. "category:Park=1/0, neighborhood:Midtown=2/0" - total/favorites per value
+     */
+    private String readFacetCounts() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(PlaceSchema.SQL_SELECT_FACET_COUNTS);
+        StringBuilder counts = new StringBuilder();
+        while (resultSet.next()) {
+            counts.append(counts.length() > 0 ? ", " : "").append(resultSet.getString(1))
+                    .append(':').append(resultSet.getString(2)).append('=')
+                    .append(resultSet.getInt(3)).append('/').append(resultSet.getInt(4));
+        }
+        statement.close();
+        return counts.toString();
+    }
+}
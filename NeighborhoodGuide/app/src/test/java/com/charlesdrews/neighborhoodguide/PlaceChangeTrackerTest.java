@@ -0,0 +1,108 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceChange;
+import com.charlesdrews.neighborhoodguide.places.PlaceChangeTracker;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.PlaceChange and PlaceChangeTracker
+ */
+public class PlaceChangeTrackerTest {
+
+    private static class RecordingObserver implements PlaceChangeTracker.Observer {
+        final List<PlaceChange> mChanges = new ArrayList<>();
+
+        @Override
+        public void onPlacesChanged(PlaceChange change) {
+            mChanges.add(change);
+        }
+    }
+
+    /**
+     * Holds callbacks until run, like a main thread that is busy
+     */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> mQueued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+
+        void runAll() {
+            for (Runnable command : mQueued) {
+                command.run();
+            }
+            mQueued.clear();
+        }
+    }
+
+    @Test
+    public void testChangeForUpdatesCarriesColumnsAndFavoriteStatus() {
+        PlaceUpdate[] written = {
+                PlaceUpdate.favoriteStatus(3, true),
+                null, // not found
+                PlaceUpdate.rating(5, 4f).merge(PlaceUpdate.note(5, "go early"))
+        };
+        PlaceChange change = PlaceChange.forUpdates(written);
+
+        assertTrue(change.affects(PlaceChange.FAVORITE));
+        assertTrue(change.affects(PlaceChange.RATING));
+        assertTrue(change.affects(PlaceChange.NOTE));
+        assertFalse(change.affects(PlaceChange.CATALOG | PlaceChange.ROWS));
+        assertFalse(change.isAllRows());
+        assertEquals(2, change.getRowCount());
+        assertEquals(3, change.getId(0));
+        assertEquals(Boolean.TRUE, change.getFavoriteStatus(0));
+        assertEquals(5, change.getId(1));
+        assertNull(change.getFavoriteStatus(1));
+    }
+
+    @Test
+    public void testNoChangeForNoUpdates() {
+        assertNull(PlaceChange.forUpdates(new PlaceUpdate[]{null}));
+    }
+
+    @Test
+    public void testObserversOnlyGetTheirColumns() {
+        PlaceChangeTracker tracker = new PlaceChangeTracker(null);
+        RecordingObserver list = new RecordingObserver();
+        RecordingObserver everything = new RecordingObserver();
+        tracker.addObserver(list, PlaceChange.FAVORITE | PlaceChange.CATALOG | PlaceChange.ROWS);
+        tracker.addObserver(everything, PlaceChange.ALL);
+
+        tracker.notifyChanged(PlaceChange.row(7, PlaceChange.RATING));
+        tracker.notifyChanged(PlaceChange.favoriteStatus(7, false));
+        tracker.notifyChanged(PlaceChange.allRows(PlaceChange.CATALOG | PlaceChange.ROWS));
+        tracker.notifyChanged(null);
+
+        assertEquals(2, list.mChanges.size());
+        assertEquals(Boolean.FALSE, list.mChanges.get(0).getFavoriteStatus(0));
+        assertTrue(list.mChanges.get(1).isAllRows());
+        assertEquals(0, list.mChanges.get(1).getRowCount());
+        assertNull(list.mChanges.get(1).getIds());
+        assertEquals(3, everything.mChanges.size());
+    }
+
+    @Test
+    public void testRemovedObserverGetsNoQueuedChanges() {
+        QueuedExecutor mainThread = new QueuedExecutor();
+        PlaceChangeTracker tracker = new PlaceChangeTracker(mainThread);
+        RecordingObserver observer = new RecordingObserver();
+        tracker.addObserver(observer, PlaceChange.FAVORITE);
+
+        tracker.notifyChanged(PlaceChange.favoriteStatus(1, true));
+        assertEquals(0, observer.mChanges.size()); // not until the callback executor runs it
+
+        tracker.removeObserver(observer); // e.g. the activity was destroyed in between
+        assertEquals(0, tracker.getObserverCount());
+        mainThread.runAll();
+        assertEquals(0, observer.mChanges.size());
+    }
+}
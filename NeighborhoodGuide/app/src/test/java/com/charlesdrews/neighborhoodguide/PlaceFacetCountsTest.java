@@ -0,0 +1,144 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceFacetCounts;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceMigrations;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the triggers of migration 5 keep place_facet_counts in step with the places table,
+ * and that com.charlesdrews.neighborhoodguide.places.PlaceFacetCounts reads it correctly
+ */
+public class PlaceFacetCountsTest {
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        execute(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+        execute("INSERT INTO places (title, neighborhood, category, is_favorite) "
+                + "VALUES ('Central Park', 'Midtown', 'Park', 1)");
+        execute("INSERT INTO places (title, neighborhood, category, is_favorite) "
+                + "VALUES ('Prospect Park', 'Brooklyn', 'Park', 0)");
+        execute("INSERT INTO places (title, neighborhood, category, is_favorite) "
+                + "VALUES ('Grand Central Terminal', 'Midtown', NULL, NULL)");
+        for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(0)) {
+            for (String sql : migration.getStatements()) {
+                execute(sql);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void testMigrationCountsExistingPlaces() throws SQLException {
+        PlaceFacetCounts counts = readCounts();
+        assertEquals("[Park=2/1]", counts.getCategories().toString());
+        assertEquals(1, counts.getUncategorized().getTotal());
+        assertEquals(0, counts.getUncategorized().getFavorites());
+        assertEquals(3, counts.getAll().getTotal());
+        assertEquals(1, counts.getAll().getFavorites());
+        assertEquals("[Brooklyn=1/0, Midtown=2/1]", counts.getNeighborhoods().toString());
+        assertEquals(0, counts.getNoNeighborhood().getTotal());
+    }
+
+    @Test
+    public void testTriggersFollowInsertsUpdatesAndDeletes() throws SQLException {
+        execute("INSERT INTO places (title, neighborhood, category, is_favorite) "
+                + "VALUES ('Birch Coffee', NULL, 'Cafe', 1)");
+        execute("UPDATE places SET is_favorite=1 WHERE title='Grand Central Terminal'");
+        execute("UPDATE places SET category='Garden', neighborhood='Midtown' WHERE title='Prospect Park'");
+        execute("DELETE FROM places WHERE title='Central Park'");
+
+        PlaceFacetCounts counts = readCounts();
+        assertEquals("[Cafe=1/1, Garden=1/0]", counts.getCategories().toString()); // no Park left
+        assertEquals(1, counts.getUncategorized().getFavorites());
+        assertEquals(3, counts.getAll().getTotal());
+        assertEquals(2, counts.getAll().getFavorites());
+        assertEquals("[Midtown=2/1]", counts.getNeighborhoods().toString());
+        assertEquals(1, counts.getNoNeighborhood().getTotal());
+        assertEquals(recount(), readRows());
+    }
+
+    @Test
+    public void testCategoryChoices() throws SQLException {
+        execute("INSERT INTO places (title, category, is_favorite) VALUES ('Lan Sheng', 'Restaurant', 0)");
+        PlaceFacetCounts counts = readCounts();
+
+        List<PlaceFacetCounts.Count> choices = counts.getCategoryChoices(false);
+        assertEquals(4, choices.size());
+        assertEquals(PlaceListSql.ALL_CATEGORIES, choices.get(0).getValue());
+        assertEquals("Restaurant", choices.get(2).getValue());
+        assertEquals(PlaceListSql.UNCATEGORIZED, choices.get(3).getValue());
+
+        choices = counts.getCategoryChoices(true); // no favorite restaurants or uncategorized places
+        assertEquals(2, choices.size());
+        assertEquals("Park", choices.get(1).getValue());
+        assertEquals(1, choices.get(1).getCount(true));
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        statement.execute(sql);
+        statement.close();
+    }
+
+    private PlaceFacetCounts readCounts() throws SQLException {
+        ArrayList<PlaceFacetCounts.Count> categories = new ArrayList<>();
+        ArrayList<PlaceFacetCounts.Count> neighborhoods = new ArrayList<>();
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(PlaceSchema.SQL_SELECT_FACET_COUNTS);
+        while (resultSet.next()) {
+            PlaceFacetCounts.Count count = new PlaceFacetCounts.Count(resultSet.getString(2),
+                    resultSet.getInt(3), resultSet.getInt(4));
+            if (PlaceSchema.FACET_CATEGORY.equals(resultSet.getString(1))) {
+                categories.add(count);
+            } else {
+                neighborhoods.add(count);
+            }
+        }
+        statement.close();
+        return new PlaceFacetCounts(categories, neighborhoods);
+    }
+
+    private String readRows() throws SQLException {
+        return query(PlaceSchema.SQL_SELECT_FACET_COUNTS + " ORDER BY 1, 2");
+    }
+
+    /**
+     * The counts worked out from scratch, as the migration does
+     */
+    private String recount() throws SQLException {
+        return query("SELECT 'category', category, COUNT(*), SUM(is_favorite=1) FROM places GROUP BY 2"
+                + " UNION ALL SELECT 'neighborhood', neighborhood, COUNT(*), SUM(is_favorite=1)"
+                + " FROM places GROUP BY 2 ORDER BY 1, 2");
+    }
+
+    private String query(String sql) throws SQLException {
+        StringBuilder rows = new StringBuilder();
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql);
+        while (resultSet.next()) {
+            rows.append(resultSet.getString(1)).append(',').append(resultSet.getString(2)).append(',')
+                    .append(resultSet.getInt(3)).append(',').append(resultSet.getInt(4)).append('\n');
+        }
+        statement.close();
+        return rows.toString();
+    }
+}
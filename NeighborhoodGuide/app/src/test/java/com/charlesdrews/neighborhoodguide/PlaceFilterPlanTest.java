@@ -0,0 +1,395 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceFacetCounts;
+import com.charlesdrews.neighborhoodguide.places.PlaceFilterPlan;
+import com.charlesdrews.neighborhoodguide.places.PlaceIndexStats;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceMigrations;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that every way of running a multi-filter list query - as SQLite plans it, driven by each
+ * filter's index, or by intersecting bitsets - finds the same places as a brute force filter, and
+ * that com.charlesdrews.neighborhoodguide.places.PlaceFilterPlan drives queries by the most
+ * selective filter
+ */
+public class PlaceFilterPlanTest {
+    private static final int PLACE_COUNT = 3000;
+    private static final int PAGE_SIZE = 40;
+    private static final String[] NEIGHBORHOODS = {"Midtown", "Harlem", "SoHo", "Astoria", "Chelsea"};
+    private static final String[] CATEGORIES = {"Park", "Museum", "Bar", "Restaurant"};
+    private static final String RARE_NEIGHBORHOOD = "Tribeca"; // about 2% of places
+
+    private Connection mConnection;
+    private final String[] mTitles = new String[PLACE_COUNT + 1]; // by _id
+    private final String[] mNeighborhoods = new String[PLACE_COUNT + 1];
+    private final String[] mCategories = new String[PLACE_COUNT + 1];
+    private final boolean[] mIsFavorite = new boolean[PLACE_COUNT + 1];
+    private final float[] mRatings = new float[PLACE_COUNT + 1];
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        statement.execute(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+        for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(0)) {
+            for (String sql : migration.getStatements()) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+
+        Random random = new Random(25);
+        PreparedStatement insert = mConnection.prepareStatement("INSERT INTO places"
+                + " (_id, title, neighborhood, category, is_favorite, rating) VALUES (?,?,?,?,?,?)");
+        for (int id = 1; id <= PLACE_COUNT; id++) {
+            mTitles[id] = "Place " + random.nextInt(PLACE_COUNT / 2); // with duplicate titles
+            int neighborhood = random.nextInt(50);
+            mNeighborhoods[id] = (neighborhood == 0) ? null : (neighborhood == 1) ? RARE_NEIGHBORHOOD
+                    : NEIGHBORHOODS[neighborhood % NEIGHBORHOODS.length];
+            int category = random.nextInt(CATEGORIES.length + 1);
+            mCategories[id] = (category == CATEGORIES.length) ? null : CATEGORIES[category];
+            mIsFavorite[id] = random.nextInt(6) == 0;
+            mRatings[id] = random.nextInt(11) / 2f;
+
+            insert.setInt(1, id);
+            insert.setString(2, mTitles[id]);
+            insert.setString(3, mNeighborhoods[id]);
+            insert.setString(4, mCategories[id]);
+            insert.setInt(5, mIsFavorite[id] ? 1 : 0);
+            insert.setFloat(6, mRatings[id]);
+            insert.executeUpdate();
+        }
+        insert.close();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void testEveryPlanFindsTheSamePlaces() throws SQLException {
+        PlaceFacetCounts counts = readFacetCounts();
+        List<PlaceQuery> queries = Arrays.asList(
+                PlaceQuery.allPlaces().withCategories(Arrays.asList("Park", "Museum")),
+                PlaceQuery.allPlaces().withMinRating(4.5f),
+                PlaceQuery.allPlaces().withCategories(Arrays.asList("Park", PlaceListSql.UNCATEGORIZED))
+                        .withNeighborhoods(Arrays.asList("Harlem", "SoHo")),
+                PlaceQuery.favorites().withCategories(Arrays.asList("Park", "Museum")).withMinRating(3),
+                PlaceQuery.allPlaces().withNeighborhoods(Arrays.asList(RARE_NEIGHBORHOOD))
+                        .withMinRating(2.5f),
+                PlaceQuery.favorites().withCategory(PlaceListSql.UNCATEGORIZED)
+                        .withNeighborhoods(Arrays.asList("Midtown", "Astoria", RARE_NEIGHBORHOOD))
+                        .withMinRating(1),
+                PlaceQuery.favorites().withCategory("Bar"),
+                PlaceQuery.allPlaces().withCategory("Bar").withNeighborhoods(Arrays.asList("Chelsea"))
+                        .withLimit(7));
+
+        for (PlaceQuery query : queries) {
+            List<Integer> expected = filter(query);
+            assertFalse(query.toString(), expected.isEmpty());
+            assertEquals(query.toString(), expected, readIds(query, null, 0));
+            for (PlaceFilterPlan.Predicate driver : PlaceFilterPlan.Predicate.values()) {
+                if (drivesQuery(query, driver)) {
+                    assertEquals(query + " by " + driver, expected, readIds(query, driver, 0));
+                    if (query.getLimit() == 0) {
+                        assertEquals(query + " by " + driver,
+                                expected.subList(0, Math.min(PAGE_SIZE, expected.size())),
+                                readIds(query, driver, PAGE_SIZE));
+                    }
+                }
+            }
+
+            PlaceFilterPlan plan = PlaceFilterPlan.plan(query, counts, null);
+            if (plan.getDriver() != null) {
+                assertEquals(query.toString(), expected, readIdsByBitsets(plan));
+            }
+        }
+    }
+
+    @Test
+    public void testDrivesByMostSelectiveFilter() throws SQLException {
+        PlaceQuery query = PlaceQuery.favorites().withCategory("Park")
+                .withNeighborhoods(Collections.singletonList(RARE_NEIGHBORHOOD)).withMinRating(1);
+        PlaceFilterPlan plan = PlaceFilterPlan.plan(query, readFacetCounts(), null);
+        assertEquals(PlaceFilterPlan.Predicate.NEIGHBORHOOD, plan.getDriver());
+        assertEquals(count(RARE_NEIGHBORHOOD, null), plan.getEstimate(PlaceFilterPlan.Predicate.NEIGHBORHOOD));
+        assertEquals(count(null, "Park"), plan.getEstimate(PlaceFilterPlan.Predicate.CATEGORY));
+        assertEquals(PLACE_COUNT * 4 / 5, plan.getEstimate(PlaceFilterPlan.Predicate.RATING));
+        assertFalse(plan.usesBitsets()); // too few places for the extra queries to pay off
+        assertEquals(Arrays.asList(PlaceFilterPlan.Predicate.CATEGORY,
+                PlaceFilterPlan.Predicate.RATING), plan.getBitsetPredicates());
+
+        // the same choice from the statistics ANALYZE collects, with no counts
+        Statement statement = mConnection.createStatement();
+        statement.execute(PlaceSchema.SQL_ANALYZE_PLACES);
+        statement.close();
+        PlaceIndexStats stats = readIndexStats();
+        assertEquals(PLACE_COUNT, stats.getRowCount());
+        plan = PlaceFilterPlan.plan(query, null, stats);
+        assertEquals(PlaceFilterPlan.Predicate.NEIGHBORHOOD, plan.getDriver());
+
+        assertTrue(PlaceFilterPlan.isPlanned(PlaceQuery.allPlaces().withMinRating(4)));
+        assertFalse(PlaceFilterPlan.needsEstimates(PlaceQuery.allPlaces().withMinRating(4)));
+        assertFalse(PlaceFilterPlan.isPlanned(PlaceQuery.allPlaces()));
+        assertFalse(PlaceFilterPlan.isPlanned(query.withSearch("place")));
+        assertFalse(PlaceFilterPlan.isPlanned(PlaceQuery.favorites().withCategory("Park"))); // own index
+    }
+
+    @Test
+    public void testBitsetsOnlyForLargeDriverAndSmallFilters() {
+        PlaceQuery query = PlaceQuery.allPlaces().withCategory("Park")
+                .withNeighborhoods(Collections.singletonList("Harlem"));
+        assertTrue(PlaceFilterPlan.plan(query, newCounts(10000, 9000), null).usesBitsets());
+        assertFalse(PlaceFilterPlan.plan(query, newCounts(1000, 900), null).usesBitsets());
+        assertFalse(PlaceFilterPlan.plan(query, newCounts(10000, 50000), null).usesBitsets());
+
+        // at each threshold; the category drives, the neighborhood is read into a bitset
+        int minRows = PlaceFilterPlan.BITSET_MIN_DRIVER_ROWS;
+        int maxRows = (int) (minRows * PlaceFilterPlan.BITSET_MAX_ROWS_PER_DRIVER_ROW);
+        PlaceFilterPlan plan = PlaceFilterPlan.plan(query, newCounts(minRows, maxRows), null);
+        assertEquals(PlaceFilterPlan.Predicate.CATEGORY, plan.getDriver());
+        assertTrue(plan.usesBitsets());
+        assertFalse(PlaceFilterPlan.plan(query, newCounts(minRows - 1, maxRows), null).usesBitsets());
+        assertFalse(PlaceFilterPlan.plan(query, newCounts(minRows, maxRows + 1), null).usesBitsets());
+
+        plan = PlaceFilterPlan.plan(query.withLimit(2), newCounts(10000, 9000), null);
+        assertEquals(PlaceFilterPlan.Predicate.NEIGHBORHOOD, plan.getDriver());
+        PlaceFilterPlan.Matches matches = plan.intersect(new int[]{5, 3, 9, 1},
+                new boolean[]{false, true, false, true}, Collections.singletonList(new int[]{1, 3, 9}));
+        assertEquals("[3, 9]", Arrays.toString(matches.getIds())); // in driver order, up to the limit
+        assertEquals("[true, false]", Arrays.toString(matches.getIsFavorite()));
+    }
+
+    @Test
+    public void testDriverIndexIsRead() throws SQLException {
+        PlaceQuery query = PlaceQuery.allPlaces().withNeighborhoods(Arrays.asList("Harlem", "SoHo"))
+                .withMinRating(4.5f);
+        String plan = explain(query, PlaceFilterPlan.Predicate.RATING, 0);
+        assertTrue(plan, plan.contains("USING INDEX " + PlaceSchema.INDEX_PLACES_RATING));
+        plan = explain(query, PlaceFilterPlan.Predicate.NEIGHBORHOOD, 0);
+        assertTrue(plan, plan.contains("USING INDEX " + PlaceSchema.INDEX_PLACES_NEIGHBORHOOD_TITLE));
+
+        // several categories can't be read in title order, yet are still read off their index
+        query = PlaceQuery.allPlaces().withCategories(Arrays.asList("Park", "Museum"));
+        plan = explain(query, PlaceFilterPlan.Predicate.CATEGORY, 0);
+        assertTrue(plan, plan.contains("USING COVERING INDEX " + PlaceSchema.INDEX_PLACES_CATEGORY_TITLE));
+
+        // one neighborhood is read in title order, with no sort
+        query = PlaceQuery.allPlaces().withCategory("Park").withNeighborhoods(Arrays.asList("Harlem"));
+        plan = explain(query, PlaceFilterPlan.Predicate.NEIGHBORHOOD, PAGE_SIZE);
+        assertTrue(plan, plan.contains("USING INDEX " + PlaceSchema.INDEX_PLACES_NEIGHBORHOOD_TITLE));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void testIndexStatsAndQueryValues() {
+        HashMap<String, String> rows = new HashMap<>();
+        rows.put(PlaceSchema.INDEX_PLACES_CATEGORY_TITLE, "1200 150 2 1 1");
+        rows.put(PlaceSchema.INDEX_PLACES_TITLE, "1200 2 1");
+        rows.put(PlaceSchema.INDEX_PLACES_RATING, "unknown");
+        PlaceIndexStats stats = new PlaceIndexStats(rows);
+        assertEquals(1200, stats.getRowCount());
+        assertEquals(150, stats.getRowsPerValue(PlaceSchema.INDEX_PLACES_CATEGORY_TITLE));
+        assertEquals(0, stats.getRowsPerValue(PlaceSchema.INDEX_PLACES_RATING));
+
+        PlaceQuery query = PlaceQuery.allPlaces().withCategories(Arrays.asList("Park", null, "Bar", "Park"));
+        assertEquals(Arrays.asList("Bar", "Park"), query.getCategories());
+        assertEquals(query, PlaceQuery.allPlaces().withCategories(Arrays.asList("Bar", "Park")));
+        assertTrue(query.withCategories(Arrays.asList("Park", PlaceListSql.ALL_CATEGORIES))
+                .getCategories().isEmpty());
+        assertEquals(3, query.withFavoritesOnly(true).withMinRating(2).getFilterCount());
+
+        ArrayList<String> tooMany = new ArrayList<>();
+        for (int i = 0; i <= PlaceQuery.MAX_FILTER_VALUES; i++) {
+            tooMany.add("Neighborhood " + i);
+        }
+        try {
+            query.withNeighborhoods(tooMany);
+            fail("More than " + PlaceQuery.MAX_FILTER_VALUES + " values");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @return - true if the query sets the predicate's filter, so it can drive the query
+     */
+    private static boolean drivesQuery(PlaceQuery query, PlaceFilterPlan.Predicate predicate) {
+        switch (predicate) {
+            case FAVORITES:
+                return query.isFavoritesOnly();
+            case CATEGORY:
+                return !query.getCategories().isEmpty();
+            case NEIGHBORHOOD:
+                return !query.getNeighborhoods().isEmpty();
+            default:
+                return query.getMinRating() > 0;
+        }
+    }
+
+    /**
+     * @return - ids of the places matching the query, sorted by title then _id, up to its limit
+     */
+    private List<Integer> filter(PlaceQuery query) {
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= PLACE_COUNT; id++) {
+            String category = (mCategories[id] == null) ? PlaceListSql.UNCATEGORIZED : mCategories[id];
+            if ((!query.isFavoritesOnly() || mIsFavorite[id])
+                    && (query.getCategories().isEmpty() || query.getCategories().contains(category))
+                    && (query.getNeighborhoods().isEmpty()
+                    || query.getNeighborhoods().contains(mNeighborhoods[id]))
+                    && mRatings[id] >= query.getMinRating()) {
+                ids.add(id);
+            }
+        }
+        Collections.sort(ids, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byTitle = mTitles[a].compareTo(mTitles[b]);
+                return (byTitle != 0) ? byTitle : a.compareTo(b);
+            }
+        });
+        return (query.getLimit() > 0 && ids.size() > query.getLimit())
+                ? ids.subList(0, query.getLimit()) : ids;
+    }
+
+    private int count(String neighborhood, String category) {
+        int count = 0;
+        for (int id = 1; id <= PLACE_COUNT; id++) {
+            if ((neighborhood == null || neighborhood.equals(mNeighborhoods[id]))
+                    && (category == null || category.equals(mCategories[id]))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static PlaceFacetCounts newCounts(int parks, int harlem) {
+        return new PlaceFacetCounts(
+                Arrays.asList(new PlaceFacetCounts.Count("Park", parks, 0),
+                        new PlaceFacetCounts.Count(null, 100000, 0)),
+                Arrays.asList(new PlaceFacetCounts.Count("Harlem", harlem, 0),
+                        new PlaceFacetCounts.Count(null, 100000, 0)));
+    }
+
+    /**
+     * Read the list's ids by one list query, as PlaceDbOpenHelper.queryPlaces runs it
+     * @param limit - page size, or 0 for the whole list (when the query's own limit applies)
+     */
+    private List<Integer> readIds(PlaceQuery query, PlaceFilterPlan.Predicate driver, int limit)
+            throws SQLException {
+        if (limit == 0) {
+            limit = query.getLimit();
+        }
+        int shape = PlaceListSql.getListShape(query, driver, limit == 0, null, 0, limit);
+        PreparedStatement statement = prepare(PlaceListSql.buildListQuery(shape),
+                PlaceListSql.getListArgs(shape, query, null, 0, limit));
+        ResultSet resultSet = statement.executeQuery();
+        List<Integer> ids = new ArrayList<>();
+        while (resultSet.next()) {
+            ids.add(resultSet.getInt(PlaceSchema.COL_ID));
+        }
+        statement.close();
+        return ids;
+    }
+
+    /**
+     * Read the list's ids as PlaceDbOpenHelper.getFilteredPlaceIds does
+     */
+    private List<Integer> readIdsByBitsets(PlaceFilterPlan plan) throws SQLException {
+        List<Integer> driverIds = readIds(plan.getPredicateQuery(plan.getDriver()),
+                PlaceFilterPlan.plan(plan.getPredicateQuery(plan.getDriver()), null, null).getDriver(), 0);
+        int[] ids = new int[driverIds.size()];
+        boolean[] isFavorite = new boolean[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = driverIds.get(i);
+            isFavorite[i] = mIsFavorite[ids[i]];
+        }
+        ArrayList<int[]> predicateIds = new ArrayList<>();
+        for (PlaceFilterPlan.Predicate predicate : plan.getBitsetPredicates()) {
+            List<Integer> matching = readIds(plan.getPredicateQuery(predicate), predicate, 0);
+            int[] array = new int[matching.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = matching.get(i);
+            }
+            predicateIds.add(array);
+        }
+        int[] matches = plan.intersect(ids, isFavorite, predicateIds).getIds();
+        List<Integer> result = new ArrayList<>();
+        for (int id : matches) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    private String explain(PlaceQuery query, PlaceFilterPlan.Predicate driver, int limit)
+            throws SQLException {
+        int shape = PlaceListSql.getListShape(query, driver, limit == 0, null, 0, limit);
+        PreparedStatement statement = prepare("EXPLAIN QUERY PLAN " + PlaceListSql.buildListQuery(shape),
+                PlaceListSql.getListArgs(shape, query, null, 0, limit));
+        ResultSet resultSet = statement.executeQuery();
+        StringBuilder plan = new StringBuilder();
+        while (resultSet.next()) {
+            plan.append(resultSet.getString("detail")).append('\n');
+        }
+        statement.close();
+        return plan.toString();
+    }
+
+    private PlaceFacetCounts readFacetCounts() throws SQLException {
+        ArrayList<PlaceFacetCounts.Count> categories = new ArrayList<>();
+        ArrayList<PlaceFacetCounts.Count> neighborhoods = new ArrayList<>();
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(PlaceSchema.SQL_SELECT_FACET_COUNTS);
+        while (resultSet.next()) {
+            PlaceFacetCounts.Count count = new PlaceFacetCounts.Count(resultSet.getString(2),
+                    resultSet.getInt(3), resultSet.getInt(4));
+            if (PlaceSchema.FACET_CATEGORY.equals(resultSet.getString(1))) {
+                categories.add(count);
+            } else {
+                neighborhoods.add(count);
+            }
+        }
+        statement.close();
+        return new PlaceFacetCounts(categories, neighborhoods);
+    }
+
+    private PlaceIndexStats readIndexStats() throws SQLException {
+        HashMap<String, String> rows = new HashMap<>();
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(PlaceSchema.SQL_SELECT_PLACES_INDEX_STATS);
+        while (resultSet.next()) {
+            rows.put(resultSet.getString(1), resultSet.getString(2));
+        }
+        statement.close();
+        return new PlaceIndexStats(rows);
+    }
+
+    private PreparedStatement prepare(String sql, String[] args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        for (int i = 0; i < args.length; i++) {
+            statement.setString(i + 1, args[i]); // Android binds every argument as a String
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,40 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceFtsQuery;
+
+import java.util.Arrays;
+
+/**
+ * Unit test com.charlesdrews.neighborhoodguide.places.PlaceFtsQuery
+ */
+public class PlaceFtsQueryTest {
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("42nd", "lex"), PlaceFtsQuery.tokenize("42nd & Lex"));
+    }
+
+    @Test
+    public void testTokenizeStripsFtsOperators() {
+        assertEquals(Arrays.asList("park", "or", "museum"),
+                PlaceFtsQuery.tokenize("\"park\" OR* (museum:)"));
+    }
+
+    @Test
+    public void testBuildMatchExpression() {
+        assertEquals("central* pa*", PlaceFtsQuery.buildMatchExpression("Central  Pa"));
+    }
+
+    @Test
+    public void testBuildTitleMatchExpression() {
+        assertEquals("title:central* title:pa*", PlaceFtsQuery.buildTitleMatchExpression("central pa"));
+    }
+
+    @Test
+    public void testBuildMatchExpressionWithNoTokens() {
+        assertNull(PlaceFtsQuery.buildMatchExpression(" & - "));
+        assertNull(PlaceFtsQuery.buildMatchExpression(null));
+    }
+}
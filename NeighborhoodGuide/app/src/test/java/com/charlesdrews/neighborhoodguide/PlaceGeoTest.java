@@ -0,0 +1,88 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.GeoBox;
+import com.charlesdrews.neighborhoodguide.places.NearbyPlace;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeo;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.PlaceGeo and GeoBox
+ */
+public class PlaceGeoTest {
+    private static final double GRAND_CENTRAL_LATITUDE = 40.7527;
+    private static final double GRAND_CENTRAL_LONGITUDE = -73.9772;
+
+    @Test
+    public void testDistance() {
+        // Grand Central Terminal to the Met is about 3.2 km
+        double distance = PlaceGeo.distanceMeters(GRAND_CENTRAL_LATITUDE, GRAND_CENTRAL_LONGITUDE,
+                40.7794, -73.9632);
+        assertEquals(3200, distance, 100);
+        assertEquals(0, PlaceGeo.distanceMeters(40, -74, 40, -74), 0);
+    }
+
+    @Test
+    public void testBoxAroundContainsCircle() {
+        double radius = 2000;
+        GeoBox box = GeoBox.around(GRAND_CENTRAL_LATITUDE, GRAND_CENTRAL_LONGITUDE, radius);
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double latitude = box.getSouth() - 0.01 + random.nextDouble() * (box.getNorth() - box.getSouth() + 0.02);
+            double longitude = box.getWest() - 0.01 + random.nextDouble() * (box.getEast() - box.getWest() + 0.02);
+            if (PlaceGeo.distanceMeters(GRAND_CENTRAL_LATITUDE, GRAND_CENTRAL_LONGITUDE,
+                    latitude, longitude) <= radius) {
+                assertTrue(latitude + ", " + longitude, box.contains(latitude, longitude));
+            }
+        }
+    }
+
+    @Test
+    public void testBoxAroundPoleSpansAllLongitudes() {
+        assertTrue(GeoBox.around(89.99, 0, 5000).getWest() <= -180);
+        assertTrue(GeoBox.around(0, 0, 30000000).coversWholeWorld());
+    }
+
+    @Test
+    public void testFindNearestMatchesBruteForce() {
+        final double[][] places = new double[5000][];
+        Random random = new Random(2);
+        for (int i = 0; i < places.length; i++) {
+            places[i] = new double[]{40.5 + random.nextDouble() * 0.4, -74.2 + random.nextDouble() * 0.5};
+        }
+        PlaceGeo.CandidateSource source = new PlaceGeo.CandidateSource() {
+            @Override
+            public void findInBox(GeoBox box, PlaceGeo.Candidates candidates) {
+                for (int i = 0; i < places.length; i++) {
+                    if (box.contains(places[i][0], places[i][1])) {
+                        candidates.add(i, places[i][0], places[i][1]);
+                    }
+                }
+            }
+        };
+
+        List<NearbyPlace> nearest = PlaceGeo.findNearest(source, GRAND_CENTRAL_LATITUDE,
+                GRAND_CENTRAL_LONGITUDE, 25);
+        assertEquals(25, nearest.size());
+
+        int closer = 0;
+        double furthest = nearest.get(nearest.size() - 1).getDistanceMeters();
+        for (double[] place : places) {
+            if (PlaceGeo.distanceMeters(GRAND_CENTRAL_LATITUDE, GRAND_CENTRAL_LONGITUDE,
+                    place[0], place[1]) <= furthest) {
+                closer++;
+            }
+        }
+        assertEquals(25, closer);
+        for (int i = 1; i < nearest.size(); i++) {
+            assertTrue(nearest.get(i - 1).getDistanceMeters() <= nearest.get(i).getDistanceMeters());
+        }
+
+        // asking for more places than there are returns all of them
+        assertEquals(places.length, PlaceGeo.findNearest(source, 0, 0, places.length + 1).size());
+        assertTrue(PlaceGeo.findNearest(source, 0, 0, 0).isEmpty());
+    }
+}
@@ -0,0 +1,136 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.NearbyPlace;
+import com.charlesdrews.neighborhoodguide.places.PlaceDistanceRanking;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeo;
+import com.charlesdrews.neighborhoodguide.places.PlaceKdTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.PlaceKdTree and PlaceDistanceRanking,
+ * checked against brute force
+ */
+public class PlaceKdTreeTest {
+    private static final double LATITUDE = 40.7527, LONGITUDE = -73.9772;
+
+    private final Random mRandom = new Random(4);
+    private final Map<Integer, double[]> mPlaces = new HashMap<>();
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        PlaceKdTree tree = buildTree(3000);
+        assertNearestMatches(tree, 50);
+        assertNearestMatches(tree, 1);
+        assertEquals(mPlaces.size(), tree.nearest(LATITUDE, LONGITUDE, 10000).size());
+    }
+
+    @Test
+    public void testInsertAndRemoveAcrossRebuilds() {
+        PlaceKdTree tree = buildTree(1000);
+        for (int i = 0; i < 600; i++) { // enough inserts and removes to force several rebuilds
+            int id = 1000 + i;
+            double[] point = randomPoint();
+            mPlaces.put(id, point);
+            tree.insert(id, point[0], point[1]);
+
+            int removed = mRandom.nextInt(1000 + i);
+            assertEquals(mPlaces.remove(removed) != null, tree.remove(removed));
+            assertEquals(mPlaces.size(), tree.size());
+        }
+        assertNearestMatches(tree, 40);
+
+        // moving a place re-indexes it rather than duplicating it
+        int id = mPlaces.keySet().iterator().next();
+        tree.insert(id, LATITUDE, LONGITUDE);
+        mPlaces.put(id, new double[]{LATITUDE, LONGITUDE});
+        assertEquals(mPlaces.size(), tree.size());
+        assertEquals(id, tree.nearest(LATITUDE, LONGITUDE, 1).get(0).getId());
+    }
+
+    @Test
+    public void testNearestOnEmptyTree() {
+        PlaceKdTree tree = new PlaceKdTree(new int[0], new double[0], new double[0]);
+        assertTrue(tree.nearest(LATITUDE, LONGITUDE, 5).isEmpty());
+        tree.insert(7, LATITUDE, LONGITUDE);
+        List<NearbyPlace> nearest = tree.nearest(LATITUDE, LONGITUDE, 5);
+        assertEquals(1, nearest.size());
+        assertEquals(LATITUDE, nearest.get(0).getLatitude(), 1e-9);
+        assertEquals(LONGITUDE, nearest.get(0).getLongitude(), 1e-9);
+        assertEquals(0, nearest.get(0).getDistanceMeters(), 1e-3);
+    }
+
+    @Test
+    public void testRankingOrdersByDistance() {
+        PlaceKdTree tree = buildTree(2000);
+        int[] ids = new int[]{5, 1999, 300, 123456, 42, 7, 654321, 1000};
+        PlaceDistanceRanking ranking = new PlaceDistanceRanking(ids, tree);
+        assertTrue(ranking.needsRank(LATITUDE, LONGITUDE));
+
+        int[] positions = ranking.rank(LATITUDE, LONGITUDE);
+        double previous = -1;
+        for (int i = 0; i < 6; i++) {
+            double[] point = mPlaces.get(ids[positions[i]]);
+            double distance = PlaceGeo.distanceMeters(LATITUDE, LONGITUDE, point[0], point[1]);
+            assertTrue(distance >= previous);
+            assertEquals(distance, ranking.getDistanceMeters(positions[i]), 0.01);
+            previous = distance;
+        }
+        // ids that are not in the tree come last, in list order
+        assertEquals(3, positions[6]);
+        assertEquals(6, positions[7]);
+        assertTrue(Double.isNaN(ranking.getDistanceMeters(3)));
+
+        assertFalse(ranking.needsRank(LATITUDE + 0.0001, LONGITUDE)); // ~11 m
+        assertTrue(ranking.needsRank(LATITUDE + 0.001, LONGITUDE));   // ~111 m
+    }
+
+    private PlaceKdTree buildTree(int count) {
+        int[] ids = new int[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            double[] point = randomPoint();
+            ids[i] = i;
+            latitudes[i] = point[0];
+            longitudes[i] = point[1];
+            mPlaces.put(i, point);
+        }
+        return new PlaceKdTree(ids, latitudes, longitudes);
+    }
+
+    private double[] randomPoint() {
+        return new double[]{40.5 + mRandom.nextDouble() * 0.4, -74.2 + mRandom.nextDouble() * 0.5};
+    }
+
+    private void assertNearestMatches(PlaceKdTree tree, int count) {
+        List<NearbyPlace> nearest = tree.nearest(LATITUDE, LONGITUDE, count);
+
+        final Map<Integer, Double> distances = new HashMap<>();
+        for (Map.Entry<Integer, double[]> place : mPlaces.entrySet()) {
+            distances.put(place.getKey(), PlaceGeo.distanceMeters(LATITUDE, LONGITUDE,
+                    place.getValue()[0], place.getValue()[1]));
+        }
+        ArrayList<Integer> expected = new ArrayList<>(mPlaces.keySet());
+        Collections.sort(expected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(distances.get(a), distances.get(b));
+            }
+        });
+
+        assertEquals(count, nearest.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.get(i).intValue(), nearest.get(i).getId());
+            assertEquals(distances.get(expected.get(i)), nearest.get(i).getDistanceMeters(), 0.01);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.GeoBox;
+import com.charlesdrews.neighborhoodguide.places.NearbyPlace;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeo;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeoSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceMigrations;
+import com.charlesdrews.neighborhoodguide.places.PlacePageKey;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.places.PlaceRow;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the migrations against SQLite on the JVM and checks that the list queries built by
+ * com.charlesdrews.neighborhoodguide.places.PlaceListSql and PlaceGeoSql are answered from
+ * their indexes
+ */
+public class PlaceQueryPlanTest {
+    private static final String[] LIST_COLUMNS = new String[]{ PlaceSchema.COL_ID,
+            PlaceSchema.COL_TITLE, PlaceSchema.COL_CATEGORY, PlaceSchema.COL_LOCATION,
+            PlaceSchema.COL_NEIGHBORHOOD, PlaceSchema.COL_IS_FAVORITE, PlaceSchema.COL_IMAGE_RES};
+    private static final int PAGE_SIZE = 40;
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mConnection.createStatement();
+        statement.execute(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+        statement.execute("INSERT INTO places (title, category, is_favorite, rating, note) "
+                + "VALUES ('Central Park', 'Park', 1, 4.5, 'go in the fall')");
+        statement.execute("INSERT INTO places (title, category, is_favorite, rating, note) "
+                + "VALUES ('Grand Central Terminal', NULL, 0, 0, '')");
+        statement.close();
+        applyMigrations();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void testMigrationsKeepUserData() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery(
+                "SELECT is_favorite, rating, note FROM places WHERE title='Central Park'");
+        assertTrue(resultSet.next());
+        assertEquals(1, resultSet.getInt(1));
+        assertEquals(4.5, resultSet.getDouble(2), 0.001);
+        assertEquals("go in the fall", resultSet.getString(3));
+        statement.close();
+    }
+
+    @Test
+    public void testMigrationsAreOrdered() {
+        List<PlaceMigrations.Migration> migrations = PlaceMigrations.getMigrationsAfter(0);
+        for (int i = 0; i < migrations.size(); i++) {
+            assertEquals(i + 1, migrations.get(i).getVersion());
+        }
+        assertEquals(PlaceMigrations.getLatestVersion(), migrations.size());
+        assertTrue(PlaceMigrations.getMigrationsAfter(PlaceMigrations.getLatestVersion()).isEmpty());
+    }
+
+    @Test
+    public void testSearchIndexIsPopulated() throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = listSql(PlaceQuery.allPlaces().withSearch("centr"), true, null, 0, 0, args);
+        assertEquals(2, countRows(sql, args));
+    }
+
+    @Test
+    public void testSearchPagesByRankThenTitle() throws SQLException {
+        PlaceQuery query = PlaceQuery.allPlaces().withSearch("Central");
+        ArrayList<String> args = new ArrayList<>();
+        assertEquals("[1, 2]", readIds(listSql(query, true, null, 0, 0, args), args).toString());
+
+        // both titles match, so the page after Central Park's key (bound rank 1) holds the other
+        args = new ArrayList<>();
+        String sql = listSql(query, false, new PlacePageKey(1, "Central Park", 1), 0,
+                PAGE_SIZE, args);
+        assertEquals("[2]", readIds(sql, args).toString());
+
+        args = new ArrayList<>();
+        sql = listSql(query, false, null, 1, PAGE_SIZE, args); // the same page, by offset
+        assertEquals("[2]", readIds(sql, args).toString());
+
+        args = new ArrayList<>();
+        PlaceQuery top = query.withSort(PlaceQuery.Sort.TITLE).withLimit(1);
+        sql = listSql(top, true, null, 0, top.getLimit(), args);
+        assertEquals("[1]", readIds(sql, args).toString());
+    }
+
+    @Test
+    public void testValuesAreBoundNotWrittenIntoSql() {
+        PlacePageKey after = new PlacePageKey(1, "Central Park", 1);
+        PlaceQuery park = PlaceQuery.favorites().withCategory("Park").withSearch("central");
+        PlaceQuery museum = PlaceQuery.favorites().withCategory("Museum").withSearch("met art");
+        int shape = PlaceListSql.getListShape(park, false, after, 0, PAGE_SIZE);
+        assertEquals(shape, PlaceListSql.getListShape(museum, false,
+                new PlacePageKey(0, "Met", 7), 0, PAGE_SIZE));
+
+        String sql = PlaceListSql.buildListQuery(shape);
+        assertFalse(sql, sql.contains("Park") || sql.contains("central") || sql.contains("40"));
+        int placeholders = sql.length() - sql.replace("?", "").length();
+        assertEquals(placeholders, PlaceListSql.getListArgs(shape, park, after, 0, PAGE_SIZE).length);
+
+        assertEquals(PlaceQuery.allPlaces(), PlaceQuery.allPlaces().withCategory("All")
+                .withSearch("  "));
+        assertEquals(PlaceQuery.allPlaces().withSearch("Central  park!"),
+                PlaceQuery.allPlaces().withSearch("central park"));
+        assertNotEquals(PlaceQuery.allPlaces(), PlaceQuery.favorites());
+    }
+
+    @Test
+    public void testIdLookupsSharePaddedStatements() {
+        assertEquals(1, PlaceListSql.getPaddedIdCount(1));
+        assertEquals(32, PlaceListSql.getPaddedIdCount(17));
+        assertEquals(32, PlaceListSql.getPaddedIdCount(32));
+        assertEquals(64, PlaceListSql.getPaddedIdCount(PAGE_SIZE));
+    }
+
+    @Test
+    public void testAllPlacesUseTitleIndex() throws SQLException {
+        assertListUsesIndex(PlaceSchema.INDEX_PLACES_TITLE, false, null);
+    }
+
+    @Test
+    public void testCategoryUsesCategoryIndex() throws SQLException {
+        assertListUsesIndex(PlaceSchema.INDEX_PLACES_CATEGORY_TITLE, false, "Park");
+        assertListUsesIndex(PlaceSchema.INDEX_PLACES_CATEGORY_TITLE, false, PlaceListSql.UNCATEGORIZED);
+    }
+
+    @Test
+    public void testFavoritesUseFavoriteIndex() throws SQLException {
+        assertListUsesIndex(PlaceSchema.INDEX_PLACES_FAVORITE_TITLE, true, null);
+    }
+
+    @Test
+    public void testFavoritesByCategoryUseFavoriteCategoryIndex() throws SQLException {
+        assertListUsesIndex(PlaceSchema.INDEX_PLACES_FAVORITE_CATEGORY_TITLE, true, "Park");
+    }
+
+    @Test
+    public void testNextPageSeeksTitleIndex() throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = listSql(PlaceQuery.allPlaces(), false, new PlacePageKey(0, "Central Park", 1),
+                0, PAGE_SIZE, args);
+        String plan = explain(sql, args);
+        assertTrue(plan, plan.contains("USING INDEX " + PlaceSchema.INDEX_PLACES_TITLE + " (title>?)"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertEquals(1, countRows(sql, args));
+    }
+
+    @Test
+    public void testPagesNoLongerMatchIdsAfterWrites() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        for (int i = 1; i <= 5; i++) { // _ids 3 to 7
+            statement.execute("INSERT INTO places (title, is_favorite) VALUES ('Fav " + i + "', 1)");
+        }
+        statement.close();
+        PlaceQuery query = PlaceQuery.favorites();
+        ArrayList<String> args = new ArrayList<>();
+        List<Integer> ids = readIds(listSql(query, true, null, 0, 0, args), args);
+        assertEquals("[1, 3, 4, 5, 6, 7]", ids.toString());
+        PlacePageKey firstPageEnd = new PlacePageKey(0, "Fav 1", 3);
+
+        toggleFavorite(3); // un-faved while the list is open, so still at position 1
+        assertFalse(PlaceRow.hasIds(readPage(query, null, 2, 2), new int[]{4, 5})); // by offset
+        assertTrue(PlaceRow.hasIds(readPage(query, firstPageEnd, 0, 2), new int[]{4, 5}));
+
+        statement = mConnection.createStatement();
+        statement.execute("DELETE FROM places WHERE _id=5");
+        statement.close();
+        assertFalse(PlaceRow.hasIds(readPage(query, firstPageEnd, 0, 2), new int[]{4, 5}));
+        assertFalse(PlaceRow.hasIds(readPage(query, null, 4, 2), new int[]{6, 7})); // short page
+    }
+
+    @Test
+    public void testBundledPlacesGetCoordinates() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT latitude, longitude FROM places"
+                + " WHERE title='Central Park'");
+        assertTrue(resultSet.next());
+        assertEquals(40.7644, resultSet.getDouble(1), 0.0001);
+        assertEquals(-73.9730, resultSet.getDouble(2), 0.0001);
+        statement.close();
+    }
+
+    @Test
+    public void testViewportUsesSpatialIndex() throws SQLException {
+        GeoBox midtown = new GeoBox(40.74, -74.0, 40.77, -73.96);
+        ArrayList<String> args = new ArrayList<>();
+        String sql = PlaceGeoSql.buildViewportQuery(LIST_COLUMNS, true, midtown, 0, args);
+        String plan = explain(sql, args);
+        assertTrue(plan, plan.contains("VIRTUAL TABLE INDEX"));
+        assertEquals(2, countRows(sql, args)); // Central Park and Grand Central Terminal
+
+        args = new ArrayList<>();
+        plan = explain(PlaceGeoSql.buildCandidateQuery(false, midtown, args), args);
+        assertTrue(plan, plan.contains("USING COVERING INDEX "
+                + PlaceSchema.INDEX_PLACES_LATITUDE_LONGITUDE + " (latitude>? AND latitude<?)"));
+    }
+
+    @Test
+    public void testNearestWithAndWithoutSpatialIndex() throws SQLException {
+        PreparedStatement insert = mConnection.prepareStatement("INSERT INTO places (title,"
+                + " category, is_favorite, rating, note, latitude, longitude) VALUES (?,'Park',0,0,'',?,?)");
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            insert.setString(1, "Place " + i);
+            insert.setDouble(2, 40.5 + random.nextDouble() * 0.4);
+            insert.setDouble(3, -74.2 + random.nextDouble() * 0.5);
+            insert.executeUpdate();
+        }
+        insert.close();
+
+        List<NearbyPlace> withRTree = findNearest(true, 40.7527, -73.9772, 30);
+        List<NearbyPlace> withIndex = findNearest(false, 40.7527, -73.9772, 30);
+        assertEquals(30, withRTree.size());
+        for (int i = 0; i < withRTree.size(); i++) {
+            assertEquals(withIndex.get(i).getId(), withRTree.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testToggleFavoriteFlipsStoredStatus() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        statement.execute("UPDATE places SET is_favorite=NULL WHERE _id=2");
+        statement.close();
+
+        assertEquals(0, toggleFavorite(1));
+        assertEquals(1, toggleFavorite(1));
+        assertEquals(1, toggleFavorite(2)); // no status yet counts as not a favorite
+        assertEquals(-1, toggleFavorite(99));
+    }
+
+    /**
+     * @return - the new status, or -1 if there is no such place
+     */
+    private int toggleFavorite(int id) throws SQLException {
+        PreparedStatement toggle = mConnection.prepareStatement(PlaceSchema.SQL_TOGGLE_FAVORITE);
+        toggle.setInt(1, id);
+        int updated = toggle.executeUpdate();
+        toggle.close();
+        if (updated == 0) {
+            return -1;
+        }
+        ArrayList<String> args = new ArrayList<>();
+        args.add(String.valueOf(id));
+        PreparedStatement select = prepare(PlaceSchema.SQL_SELECT_IS_FAVORITE, args);
+        ResultSet resultSet = select.executeQuery();
+        int isFavorite = resultSet.getInt(1);
+        select.close();
+        return isFavorite;
+    }
+
+    private List<NearbyPlace> findNearest(final boolean useRTree, double latitude,
+                                          double longitude, int count) {
+        return PlaceGeo.findNearest(new PlaceGeo.CandidateSource() {
+            @Override
+            public void findInBox(GeoBox box, PlaceGeo.Candidates candidates) {
+                ArrayList<String> args = new ArrayList<>();
+                try {
+                    PreparedStatement statement = prepare(
+                            PlaceGeoSql.buildCandidateQuery(useRTree, box, args), args);
+                    ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        candidates.add(resultSet.getInt(1), resultSet.getDouble(2), resultSet.getDouble(3));
+                    }
+                    statement.close();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, latitude, longitude, count);
+    }
+
+    /**
+     * A page of the list must be read from the index in order (no sort), and the id list must be
+     * read from the index alone
+     */
+    private void assertListUsesIndex(String index, boolean favoritesOnly, String category)
+            throws SQLException {
+        PlaceQuery query = (favoritesOnly ? PlaceQuery.favorites() : PlaceQuery.allPlaces())
+                .withCategory(category);
+        ArrayList<String> args = new ArrayList<>();
+        String pagePlan = explain(listSql(query, false, null, 0, PAGE_SIZE, args), args);
+        assertTrue(pagePlan, pagePlan.contains("USING INDEX " + index));
+        assertFalse(pagePlan, pagePlan.contains("TEMP B-TREE"));
+
+        args = new ArrayList<>();
+        String idsPlan = explain(listSql(query, true, null, 0, 0, args), args);
+        assertTrue(idsPlan, idsPlan.contains("USING COVERING INDEX " + index));
+        assertFalse(idsPlan, idsPlan.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * Build a list query the way PlaceDbOpenHelper runs it
+     */
+    private static String listSql(PlaceQuery query, boolean idsOnly, PlacePageKey after,
+                                  int offset, int limit, List<String> args) {
+        int shape = PlaceListSql.getListShape(query, idsOnly, after, offset, limit);
+        args.addAll(Arrays.asList(PlaceListSql.getListArgs(shape, query, after, offset, limit)));
+        return PlaceListSql.buildListQuery(shape);
+    }
+
+    private List<Integer> readIds(String sql, List<String> args) throws SQLException {
+        PreparedStatement statement = prepare(sql, args);
+        ResultSet resultSet = statement.executeQuery();
+        List<Integer> ids = new ArrayList<>();
+        while (resultSet.next()) {
+            ids.add(resultSet.getInt(PlaceSchema.COL_ID));
+        }
+        statement.close();
+        return ids;
+    }
+
+    /**
+     * Read a page of the list the way PlacePagedList queries it from the table
+     */
+    private PlaceRow[] readPage(PlaceQuery query, PlacePageKey after, int offset, int limit)
+            throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        PreparedStatement statement = prepare(listSql(query, false, after, offset, limit, args), args);
+        ResultSet resultSet = statement.executeQuery();
+        ArrayList<PlaceRow> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            rows.add(new PlaceRow(resultSet.getInt(PlaceSchema.COL_ID), 0,
+                    resultSet.getString(PlaceSchema.COL_TITLE),
+                    resultSet.getString(PlaceSchema.COL_CATEGORY),
+                    resultSet.getString(PlaceSchema.COL_LOCATION),
+                    resultSet.getString(PlaceSchema.COL_NEIGHBORHOOD),
+                    resultSet.getString(PlaceSchema.COL_IMAGE_RES),
+                    resultSet.getInt(PlaceSchema.COL_IS_FAVORITE) == 1));
+        }
+        statement.close();
+        return rows.toArray(new PlaceRow[rows.size()]);
+    }
+
+    private void applyMigrations() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(0)) {
+            for (String sql : migration.getStatements()) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+    }
+
+    private String explain(String sql, List<String> args) throws SQLException {
+        PreparedStatement statement = prepare("EXPLAIN QUERY PLAN " + sql, args);
+        ResultSet resultSet = statement.executeQuery();
+        StringBuilder plan = new StringBuilder();
+        while (resultSet.next()) {
+            plan.append(resultSet.getString("detail")).append('\n');
+        }
+        statement.close();
+        return plan.toString();
+    }
+
+    private int countRows(String sql, List<String> args) throws SQLException {
+        PreparedStatement statement = prepare(sql, args);
+        ResultSet resultSet = statement.executeQuery();
+        int rows = 0;
+        while (resultSet.next()) {
+            rows++;
+        }
+        statement.close();
+        return rows;
+    }
+
+    private PreparedStatement prepare(String sql, List<String> args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        for (int i = 0; i < args.size(); i++) {
+            statement.setString(i + 1, args.get(i)); // Android binds every argument as a String
+        }
+        return statement;
+    }
+}
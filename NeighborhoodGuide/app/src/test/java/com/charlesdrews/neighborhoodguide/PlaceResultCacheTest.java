@@ -0,0 +1,134 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceChange;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.places.PlaceResultCache;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.PlaceResultCache
+ */
+public class PlaceResultCacheTest {
+    private static final int BUDGET_BYTES = 64 * 1024;
+
+    private static final PlaceQuery ALL = PlaceQuery.allPlaces();
+    private static final PlaceQuery PARKS = PlaceQuery.allPlaces().withCategory("Park");
+    private static final PlaceQuery FAVORITES = PlaceQuery.favorites();
+
+    /**
+     * Places 1 to 4; 1 and 3 are favorites, 1 and 2 are parks
+     */
+    private static PlaceResultCache newFilledCache() {
+        PlaceResultCache cache = new PlaceResultCache(BUDGET_BYTES);
+        long version = cache.getVersion();
+        cache.put(ALL, new int[]{1, 2, 3, 4}, new boolean[]{true, false, true, false}, version);
+        cache.put(PARKS, new int[]{1, 2}, new boolean[]{true, false}, version);
+        cache.put(FAVORITES, new int[]{1, 3}, new boolean[]{true, true}, version);
+        return cache;
+    }
+
+    @Test
+    public void testHitsAreKeyedByNormalizedQuery() {
+        PlaceResultCache cache = new PlaceResultCache(BUDGET_BYTES);
+        PlaceQuery search = PlaceQuery.allPlaces().withSearch("Central Park");
+        assertNull(cache.get(search));
+        cache.put(search, new int[]{1, 2}, new boolean[]{true, false}, cache.getVersion());
+
+        PlaceResultCache.Result result = cache.get(PlaceQuery.allPlaces().withSearch("central  park!"));
+        assertNotNull(result);
+        assertEquals("[1, 2]", Arrays.toString(result.getIds()));
+        assertNull(cache.get(PlaceQuery.favorites().withSearch("central park")));
+
+        result.getIsFavorite()[1] = true; // e.g. an optimistic toggle in the list
+        assertFalse(cache.get(search).getIsFavorite()[1]);
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+        assertTrue(cache.getBytes() > 0);
+    }
+
+    @Test
+    public void testFavoriteChangePatchesListsAndDropsFavorites() {
+        PlaceResultCache cache = newFilledCache();
+        cache.invalidate(PlaceChange.favoriteStatus(2, true));
+
+        assertNull(cache.get(FAVORITES)); // place 2 now belongs in it
+        assertTrue(cache.get(ALL).getIsFavorite()[1]);
+        assertTrue(cache.get(PARKS).getIsFavorite()[1]);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testUnchangedMembershipKeepsFavorites() {
+        PlaceResultCache cache = newFilledCache();
+        cache.invalidate(PlaceChange.favoriteStatus(4, false)); // was not a favorite anyway
+        assertNotNull(cache.get(FAVORITES));
+
+        cache.invalidate(PlaceChange.row(3, PlaceChange.RATING));
+        cache.invalidate(PlaceChange.forUpdates(new PlaceUpdate[]{ PlaceUpdate.note(1, "go early") }));
+        assertEquals(3, cache.size());
+
+        cache.invalidate(PlaceChange.favoriteStatus(3, false));
+        assertNull(cache.get(FAVORITES));
+        assertFalse(cache.get(ALL).getIsFavorite()[2]);
+    }
+
+    @Test
+    public void testRatingChangeDropsRatedLists() {
+        PlaceResultCache cache = newFilledCache();
+        PlaceQuery rated = PlaceQuery.allPlaces().withMinRating(4);
+        cache.put(rated, new int[]{2, 4}, new boolean[]{false, false}, cache.getVersion());
+
+        cache.invalidate(PlaceChange.row(3, PlaceChange.RATING)); // place 3 may now belong in it
+        assertNull(cache.get(rated));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testCatalogAndRowChangesDropEverything() {
+        PlaceResultCache cache = newFilledCache();
+        cache.invalidate(PlaceChange.row(9, PlaceChange.ALL)); // a new place
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+
+        cache = newFilledCache();
+        cache.invalidate(PlaceChange.allRows(PlaceChange.CATALOG | PlaceChange.ROWS));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testListQueriedDuringWriteIsNotCached() {
+        PlaceResultCache cache = new PlaceResultCache(BUDGET_BYTES);
+        long version = cache.getVersion();
+        cache.invalidate(PlaceChange.favoriteStatus(2, true)); // commits while the query runs
+        cache.put(FAVORITES, new int[]{1}, new boolean[]{true}, version);
+        assertNull(cache.get(FAVORITES));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedListsAreDroppedOverBudget() {
+        int[] ids = new int[4000]; // 20,000 bytes with their statuses
+        boolean[] isFavorite = new boolean[ids.length];
+        PlaceResultCache cache = new PlaceResultCache(BUDGET_BYTES);
+        PlaceQuery[] queries = new PlaceQuery[4];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = PlaceQuery.allPlaces().withSearch("query " + i);
+            cache.put(queries[i], ids, isFavorite, cache.getVersion());
+            if (i == 2) {
+                cache.get(queries[0]); // used recently, so kept
+            }
+        }
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get(queries[0]));
+        assertNull(cache.get(queries[1]));
+        assertTrue(cache.getBytes() <= BUDGET_BYTES);
+
+        cache.put(ALL, new int[20000], new boolean[20000], cache.getVersion()); // over the whole budget
+        assertNull(cache.get(ALL));
+    }
+}
@@ -0,0 +1,45 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlacePageKey;
+import com.charlesdrews.neighborhoodguide.places.PlaceRow;
+
+/**
+ * Unit test com.charlesdrews.neighborhoodguide.places.PlaceRow
+ */
+public class PlaceRowTest {
+    private PlaceRow row = new PlaceRow(
+            5,
+            1,
+            "Grand Central Terminal",
+            "Public Transportation",
+            "42nd & Lex",
+            "Midtown",
+            "grand_central",
+            true
+    );
+
+    @Test
+    public void testGetOverview() {
+        assertEquals("Public Transportation | 42nd & Lex | Midtown", row.getOverview());
+    }
+
+    @Test
+    public void testGetThumbnailName() {
+        assertEquals("grand_central_small", row.getThumbnailName());
+    }
+
+    @Test
+    public void testGetImageDescription() {
+        assertEquals("Image of Grand Central Terminal", row.getImageDescription());
+    }
+
+    @Test
+    public void testGetPageKey() {
+        PlacePageKey key = row.getPageKey();
+        assertEquals(1, key.getSearchRank());
+        assertEquals("Grand Central Terminal", key.getTitle());
+        assertEquals(5, key.getId());
+    }
+}
@@ -3,6 +3,7 @@ package com.charlesdrews.neighborhoodguide;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import com.charlesdrews.neighborhoodguide.places.Place;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
 
 /**
  * Unit test com.charlesdrews.neighborhoodguide.places.Place
@@ -95,4 +96,53 @@ public class PlaceTest {
         place.setNote("hello");
         assertEquals("hello", place.getNote());
     }
+
+    @Test
+    public void testNewPlaceIsNotDirty() {
+        assertFalse(place.isDirty());
+        assertNull(place.getChanges());
+    }
+
+    @Test
+    public void testSettingSameValuesIsNotDirty() {
+        place.setRating(3.5f);
+        place.setFavoriteStatus(true);
+        place.setNote("look at the stars on the ceiling");
+        assertFalse(place.isDirty());
+    }
+
+    @Test
+    public void testChangesHaveOnlyChangedFields() {
+        place.setRating(5.0f);
+        PlaceUpdate changes = place.getChanges();
+        assertEquals(5, changes.getId());
+        assertEquals(5.0f, changes.getRating(), 0.0f);
+        assertNull(changes.getFavoriteStatus());
+        assertNull(changes.getNote());
+    }
+
+    @Test
+    public void testMarkSaved() {
+        place.setNote("hello");
+        place.setRating(1.0f);
+        place.markSaved(PlaceUpdate.note(5, "hello"));
+        PlaceUpdate changes = place.getChanges();
+        assertNull(changes.getNote());
+        assertEquals(1.0f, changes.getRating(), 0.0f);
+
+        place.markSaved();
+        assertFalse(place.isDirty());
+
+        place.setRating(3.5f); // changed back after the change was saved, so it must be written
+        assertTrue(place.isDirty());
+    }
+
+    @Test
+    public void testMarkUnsavedWritesEverything() {
+        place.markUnsaved();
+        PlaceUpdate changes = place.getChanges();
+        assertEquals(Boolean.TRUE, changes.getFavoriteStatus());
+        assertEquals(3.5f, changes.getRating(), 0.0f);
+        assertEquals("look at the stars on the ceiling", changes.getNote());
+    }
 }
@@ -0,0 +1,246 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.places.PlaceUpdate;
+import com.charlesdrews.neighborhoodguide.places.PlaceWriteQueue;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.places.PlaceWriteQueue
+ */
+public class PlaceWriteQueueTest {
+    private static final long NEVER_MS = 60000; // nothing is written until flushed
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Records each batch and resolves toggles against a stored favorite status of false; fails
+     * every batch while mFail is set
+     */
+    private static class RecordingWriter implements PlaceWriteQueue.Writer {
+        final List<List<PlaceUpdate>> mBatches = new ArrayList<>();
+        volatile boolean mFail;
+
+        @Override
+        public synchronized PlaceUpdate[] writeUpdates(List<PlaceUpdate> updates) {
+            if (mFail) {
+                throw new RuntimeException("disk full");
+            }
+            mBatches.add(new ArrayList<>(updates));
+            PlaceUpdate[] written = new PlaceUpdate[updates.size()];
+            for (int i = 0; i < written.length; i++) {
+                PlaceUpdate update = updates.get(i);
+                if (update.getId() <= 0) {
+                    continue; // no such place
+                }
+                written[i] = update.isFavoriteToggle()
+                        ? update.merge(PlaceUpdate.favoriteStatus(update.getId(), true))
+                        : update;
+            }
+            return written;
+        }
+    }
+
+    /**
+     * @return - a queue that drains on its own single-thread lane and calls listeners on that thread
+     */
+    private static PlaceWriteQueue newQueue(PlaceWriteQueue.Writer writer, long delayMs) {
+        return new PlaceWriteQueue(writer, new TaskLane("write", 1, null), null, delayMs);
+    }
+
+    private static class RecordingListener implements PlaceWriteQueue.OnWrittenListener {
+        final List<String> mCalls = new ArrayList<>();
+
+        @Override
+        public synchronized void onWritten(int id, PlaceUpdate written) {
+            mCalls.add(id + ":" + ((written == null) ? "failed" : written.getFavoriteStatus()));
+        }
+    }
+
+    @Test
+    public void testMergeKeepsLatestValueOfEachField() {
+        PlaceUpdate merged = PlaceUpdate.rating(3, 2f)
+                .merge(PlaceUpdate.favoriteStatus(3, true))
+                .merge(PlaceUpdate.rating(3, 4.5f));
+        assertEquals(Boolean.TRUE, merged.getFavoriteStatus());
+        assertEquals(4.5f, merged.getRating(), 0f);
+        assertNull(merged.getNote());
+    }
+
+    @Test
+    public void testMergeToggles() {
+        PlaceUpdate toggle = PlaceUpdate.toggleFavorite(3);
+        assertTrue(toggle.isFavoriteToggle());
+        assertNull(toggle.getFavoriteStatus());
+        assertTrue(toggle.merge(PlaceUpdate.toggleFavorite(3)).isEmpty()); // cancel out
+
+        PlaceUpdate set = PlaceUpdate.favoriteStatus(3, true).merge(PlaceUpdate.toggleFavorite(3));
+        assertFalse(set.isFavoriteToggle());
+        assertEquals(Boolean.FALSE, set.getFavoriteStatus());
+
+        PlaceUpdate overwritten = toggle.merge(PlaceUpdate.favoriteStatus(3, true));
+        assertFalse(overwritten.isFavoriteToggle());
+        assertEquals(Boolean.TRUE, overwritten.getFavoriteStatus());
+
+        PlaceUpdate three = toggle.merge(PlaceUpdate.rating(3, 1f)).merge(toggle).merge(toggle);
+        assertTrue(three.isFavoriteToggle());
+        assertEquals(1f, three.getRating(), 0f);
+    }
+
+    @Test
+    public void testListenersHearToggleResult() {
+        RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(writer, NEVER_MS);
+        RecordingListener listener = new RecordingListener();
+        queue.toggleFavorite(5, listener);
+        queue.toggleFavorite(6, listener);
+        queue.toggleFavorite(6, listener);
+
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals("5:true", listener.mCalls.get(0));
+        assertEquals("6:null", listener.mCalls.get(1)); // toggled back and forth
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testUpdatesToOnePlaceAreCoalesced() {
+        RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(writer, NEVER_MS);
+        for (int i = 1; i <= 10; i++) {
+            queue.setRating(7, i / 2f, null); // dragging the rating bar
+        }
+        queue.setFavoriteStatus(7, true, null);
+        queue.setFavoriteStatus(7, false, null);
+        assertEquals(1, queue.getQueueDepth());
+
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals(1, writer.mBatches.size());
+        PlaceUpdate written = writer.mBatches.get(0).get(0);
+        assertEquals(5f, written.getRating(), 0f);
+        assertEquals(Boolean.FALSE, written.getFavoriteStatus());
+
+        PlaceWriteQueue.Metrics metrics = queue.getMetrics();
+        assertEquals(12, metrics.getUpdatesQueued());
+        assertEquals(1, metrics.getPlacesWritten());
+        assertEquals(1, metrics.getTransactions());
+        assertEquals(0, metrics.getQueueDepth());
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testPlacesShareOneTransaction() {
+        RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(writer, NEVER_MS);
+        queue.setFavoriteStatus(1, true, null);
+        queue.setNote(2, "Go early", null);
+        queue.setRating(3, 4f, null);
+        assertEquals(3, queue.getMetrics().getMaxQueueDepth());
+
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals(1, writer.mBatches.size());
+        assertEquals(3, writer.mBatches.get(0).size());
+        assertEquals(1, writer.mBatches.get(0).get(0).getId()); // in the order first queued
+        assertTrue(queue.flush(TIMEOUT_MS)); // nothing left to write
+        assertEquals(1, queue.getMetrics().getTransactions());
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testListenersHearResultOncePerCommit() {
+        RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(writer, NEVER_MS);
+        RecordingListener listener = new RecordingListener();
+        queue.setRating(4, 1f, listener);
+        queue.setRating(4, 2f, listener);
+        queue.setNote(-1, "missing place", listener);
+
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals(2, listener.mCalls.size());
+        assertEquals("4:null", listener.mCalls.get(0)); // favorite status not changed
+        assertEquals("-1:failed", listener.mCalls.get(1));
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testFailedTransactionFailsEveryUpdate() {
+        RecordingWriter writer = new RecordingWriter();
+        writer.mFail = true;
+        PlaceWriteQueue queue = newQueue(writer, NEVER_MS);
+        RecordingListener listener = new RecordingListener();
+        queue.setFavoriteStatus(1, true, listener);
+        queue.setFavoriteStatus(2, true, listener);
+
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals("1:failed", listener.mCalls.get(0));
+        assertEquals("2:failed", listener.mCalls.get(1));
+        PlaceWriteQueue.Metrics metrics = queue.getMetrics();
+        assertEquals(1, metrics.getFailedTransactions());
+        assertEquals(0, metrics.getPlacesWritten());
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testWritesAfterDelayWithoutFlush() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(writer, 10);
+        queue.setRating(1, 3f, null);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (queue.getMetrics().getTransactions() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, queue.getMetrics().getTransactions());
+        assertEquals(0, queue.getQueueDepth());
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testFlushWaitsForBatchBeingWritten() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingWriter writer = new RecordingWriter();
+        PlaceWriteQueue queue = newQueue(new PlaceWriteQueue.Writer() {
+            @Override
+            public PlaceUpdate[] writeUpdates(List<PlaceUpdate> updates) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return writer.writeUpdates(updates);
+            }
+        }, 10);
+        RecordingListener listener = new RecordingListener();
+        queue.setFavoriteStatus(1, true, listener);
+        assertTrue(writing.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.getQueueDepth()); // taken out of the queue, but not yet committed
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // release right away
+                }
+                release.countDown();
+            }
+        }).start();
+        assertTrue(queue.flush(TIMEOUT_MS));
+        assertEquals(1, queue.getMetrics().getTransactions());
+        assertEquals("[1:true]", listener.mCalls.toString());
+        queue.close(TIMEOUT_MS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedQueueRejectsUpdates() {
+        PlaceWriteQueue queue = newQueue(new RecordingWriter(), NEVER_MS);
+        queue.close(TIMEOUT_MS);
+        queue.setRating(1, 3f, null);
+    }
+}
@@ -0,0 +1,198 @@
+package com.charlesdrews.neighborhoodguide;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import com.charlesdrews.neighborhoodguide.tasks.Task;
+import com.charlesdrews.neighborhoodguide.tasks.TaskGroup;
+import com.charlesdrews.neighborhoodguide.tasks.TaskLane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for com.charlesdrews.neighborhoodguide.tasks.TaskLane and TaskGroup
+ */
+public class TaskLaneTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Records which of its callbacks were called, and counts down once it has finished either way
+     */
+    private static class RecordingTask extends Task<String> {
+        final String mName;
+        final List<String> mLog;
+        final CountDownLatch mFinished = new CountDownLatch(1);
+        final CountDownLatch mRelease; // doInBackground waits for this, if set
+        volatile boolean mRan;
+
+        RecordingTask(String name, List<String> log, CountDownLatch release) {
+            mName = name;
+            mLog = log;
+            mRelease = release;
+        }
+
+        @Override
+        protected String doInBackground() {
+            mRan = true;
+            if (mRelease != null) {
+                try {
+                    mRelease.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return mName;
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            synchronized (mLog) {
+                mLog.add(result);
+            }
+            mFinished.countDown();
+        }
+
+        @Override
+        protected void onCancelled(String result) {
+            synchronized (mLog) {
+                mLog.add("cancelled " + mName + " with " + result);
+            }
+            mFinished.countDown();
+        }
+
+        void awaitStarted() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!mRan && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(mRan);
+        }
+
+        void awaitFinished() throws InterruptedException {
+            assertTrue(mFinished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testWaitingTasksStartInPriorityOrder() throws InterruptedException {
+        TaskLane lane = new TaskLane("test", 1, null);
+        List<String> log = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTask blocker = new RecordingTask("blocker", log, release);
+        lane.execute(blocker, Task.Priority.LOW);
+        blocker.awaitStarted();
+
+        RecordingTask[] waiting = {
+                new RecordingTask("prefetch", log, null),
+                new RecordingTask("rows", log, null),
+                new RecordingTask("search", log, null),
+                new RecordingTask("detail", log, null)
+        };
+        lane.execute(waiting[0], Task.Priority.LOW);
+        lane.execute(waiting[1], Task.Priority.NORMAL);
+        lane.execute(waiting[2], Task.Priority.HIGH);
+        lane.execute(waiting[3], Task.Priority.HIGH);
+        assertEquals(4, lane.getMetrics().getQueueDepth());
+
+        release.countDown();
+        for (RecordingTask task : waiting) {
+            task.awaitFinished();
+        }
+        assertEquals("[blocker, search, detail, rows, prefetch]", log.toString());
+
+        TaskLane.Metrics metrics = lane.getMetrics();
+        assertEquals(5, metrics.getCompleted());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(4, metrics.getMaxQueueDepth());
+        assertTrue(metrics.getMaxQueueMs() >= metrics.getAverageQueueMs());
+    }
+
+    @Test
+    public void testCancelledTaskIsNotRun() throws InterruptedException {
+        TaskLane lane = new TaskLane("test", 1, null);
+        List<String> log = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTask blocker = new RecordingTask("blocker", log, release);
+        lane.execute(blocker, Task.Priority.NORMAL);
+        blocker.awaitStarted();
+
+        RecordingTask stale = new RecordingTask("stale", log, null);
+        lane.execute(stale, Task.Priority.NORMAL);
+        assertTrue(stale.cancel());
+        assertFalse(stale.cancel());
+        stale.awaitFinished();
+        assertFalse(stale.mRan);
+        assertEquals(0, lane.getMetrics().getQueueDepth());
+
+        release.countDown();
+        blocker.awaitFinished();
+        assertEquals("[cancelled stale with null, blocker]", log.toString());
+        assertEquals(1, lane.getMetrics().getCancelled());
+        assertEquals(1, lane.getMetrics().getCompleted());
+    }
+
+    @Test
+    public void testTaskCancelledWhileRunningGetsOnCancelled() throws InterruptedException {
+        TaskLane lane = new TaskLane("test", 1, null);
+        List<String> log = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTask running = new RecordingTask("running", log, release);
+        lane.execute(running, Task.Priority.NORMAL);
+        running.awaitStarted();
+
+        running.cancel();
+        release.countDown();
+        running.awaitFinished();
+        assertEquals("[cancelled running with running]", log.toString()); // result can be released
+        assertEquals(1, lane.getMetrics().getCancelled());
+    }
+
+    @Test
+    public void testGroupCancelsItsTasks() throws InterruptedException {
+        TaskLane lane = new TaskLane("test", 1, null);
+        List<String> log = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTask blocker = new RecordingTask("blocker", log, release);
+        lane.execute(blocker, Task.Priority.HIGH); // not in the group
+        blocker.awaitStarted();
+
+        TaskGroup group = new TaskGroup();
+        RecordingTask queued = new RecordingTask("queued", log, null);
+        group.execute(lane, Task.Priority.NORMAL, queued);
+        assertEquals(1, group.size());
+
+        group.cancelAll(); // e.g. the activity was destroyed
+        queued.awaitFinished();
+        assertEquals(0, group.size());
+
+        RecordingTask late = new RecordingTask("late", log, null);
+        group.execute(lane, Task.Priority.NORMAL, late);
+        late.awaitFinished();
+        assertFalse(late.mRan);
+
+        release.countDown();
+        blocker.awaitFinished();
+        assertEquals("[cancelled queued with null, cancelled late with null, blocker]", log.toString());
+    }
+
+    @Test
+    public void testFinishedTaskLeavesGroup() throws InterruptedException {
+        TaskLane lane = new TaskLane("test", 2, null);
+        TaskGroup group = new TaskGroup();
+        RecordingTask task = new RecordingTask("done", new ArrayList<String>(), null);
+        group.execute(lane, Task.Priority.NORMAL, task);
+        task.awaitFinished();
+        assertEquals(0, group.size());
+        assertFalse(task.cancel()); // too late
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTaskRunsOnlyOnce() {
+        TaskLane lane = new TaskLane("test", 1, null);
+        RecordingTask task = new RecordingTask("once", new ArrayList<String>(), null);
+        lane.execute(task, Task.Priority.NORMAL);
+        lane.execute(task, Task.Priority.NORMAL);
+    }
+}
@@ -0,0 +1,264 @@
+package com.charlesdrews.neighborhoodguide.benchmarks;
+
+import com.charlesdrews.neighborhoodguide.places.PlaceFacetCounts;
+import com.charlesdrews.neighborhoodguide.places.PlaceFilterPlan;
+import com.charlesdrews.neighborhoodguide.places.PlaceIndexStats;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the filtered list queries, per combination of filters, run three ways:
+ *  - sqlite: one list query, with SQLite choosing the index
+ *  - planned: one list query driven by the index PlaceFilterPlan chooses
+ *  - bitsets: the ids matching each filter read from its own index and intersected in memory
+ * The plan is made as PlaceDbOpenHelper.planFilters makes it, from the facet counts and from the
+ * index statistics ANALYZE collects after an import. The ids benchmarks read what
+ * PlacePagedList.load reads for the whole list; firstPage benchmarks read one page of rows, which
+ * getListShape leaves to SQLite when the driver's places would have to be sorted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    private static final int PAGE_SIZE = 40; // same as PlacePagedList.PAGE_SIZE
+
+    @Param({"10000", "100000", "1000000"})
+    public int placeCount;
+
+    // see buildQuery
+    @Param({"categories", "rating", "category+neighborhood", "favorites+category",
+            "neighborhood+rating", "all"})
+    public String filters;
+
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PlaceQuery mQuery;
+    private PlaceFilterPlan mPlan;
+    private final HashMap<String, PreparedStatement> mPreparedStatements = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabaseFile = PlaceDataset.create(placeCount);
+        mConnection = PlaceDataset.open(mDatabaseFile);
+        Statement statement = mConnection.createStatement();
+        statement.execute(PlaceSchema.SQL_ANALYZE_PLACES); // as after a catalog import
+        statement.close();
+
+        mQuery = buildQuery(filters);
+        mPlan = PlaceFilterPlan.plan(mQuery, readFacetCounts(), readIndexStats());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        for (PreparedStatement statement : mPreparedStatements.values()) {
+            statement.close();
+        }
+        mPreparedStatements.clear();
+        mConnection.close();
+        if (!mDatabaseFile.delete()) {
+            mDatabaseFile.deleteOnExit();
+        }
+    }
+
+    private static PlaceQuery buildQuery(String filters) {
+        PlaceQuery query = PlaceQuery.allPlaces();
+        switch (filters) {
+            case "categories":
+                return query.withCategories(Arrays.asList("Park", "Museum"));
+            case "rating":
+                return query.withMinRating(4.5f);
+            case "category+neighborhood":
+                return query.withCategory("Park").withNeighborhoods(Arrays.asList("Harlem"));
+            case "favorites+category":
+                return query.withFavoritesOnly(true)
+                        .withCategories(Arrays.asList("Museum", "Bar", PlaceListSql.UNCATEGORIZED));
+            case "neighborhood+rating":
+                return query.withNeighborhoods(Arrays.asList("SoHo", "Tribeca")).withMinRating(4.5f);
+            case "all":
+                return query.withFavoritesOnly(true)
+                        .withCategories(Arrays.asList("Park", "Museum"))
+                        .withNeighborhoods(Arrays.asList("Midtown", "Harlem", "Astoria"))
+                        .withMinRating(3);
+            default:
+                throw new IllegalArgumentException("Unknown filters: " + filters);
+        }
+    }
+
+    @Benchmark
+    public int idsBySqlite(Blackhole blackhole) throws SQLException {
+        return runListQuery(mQuery, null, true, 0, blackhole);
+    }
+
+    @Benchmark
+    public int idsByPlan(Blackhole blackhole) throws SQLException {
+        return runListQuery(mQuery, mPlan.getDriver(), true, 0, blackhole);
+    }
+
+    /**
+     * PlaceDbOpenHelper.getFilteredPlaceIds, whether or not the plan would choose it
+     */
+    @Benchmark
+    public int idsByBitsets(Blackhole blackhole) throws SQLException {
+        int[][] driver = readIds(mPlan.getPredicateQuery(mPlan.getDriver()));
+        ArrayList<int[]> predicateIds = new ArrayList<>();
+        for (PlaceFilterPlan.Predicate predicate : mPlan.getBitsetPredicates()) {
+            predicateIds.add(readIds(mPlan.getPredicateQuery(predicate))[0]);
+        }
+        boolean[] isFavorite = new boolean[driver[1].length];
+        for (int i = 0; i < isFavorite.length; i++) {
+            isFavorite[i] = (driver[1][i] == 1);
+        }
+        PlaceFilterPlan.Matches matches = mPlan.intersect(driver[0], isFavorite, predicateIds);
+        blackhole.consume(matches);
+        return matches.getIds().length;
+    }
+
+    @Benchmark
+    public int firstPageBySqlite(Blackhole blackhole) throws SQLException {
+        return runListQuery(mQuery, null, false, PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int firstPageByPlan(Blackhole blackhole) throws SQLException {
+        return runListQuery(mQuery, mPlan.getDriver(), false, PAGE_SIZE, blackhole);
+    }
+
+    /**
+     * Planning, with the counts and statistics read from the database as for the first query
+     * after a write; PlaceDbOpenHelper keeps them in memory in between
+     */
+    @Benchmark
+    public PlaceFilterPlan plan() throws SQLException {
+        return PlaceFilterPlan.plan(mQuery, readFacetCounts(), readIndexStats());
+    }
+
+    private int runListQuery(PlaceQuery query, PlaceFilterPlan.Predicate driver, boolean idsOnly,
+                             int limit, Blackhole blackhole) throws SQLException {
+        int shape = PlaceListSql.getListShape(query, driver, idsOnly, null, 0, limit);
+        PreparedStatement statement = prepare(PlaceListSql.buildListQuery(shape),
+                PlaceListSql.getListArgs(shape, query, null, 0, limit));
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            int columnCount = resultSet.getMetaData().getColumnCount();
+            int rows = 0;
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    blackhole.consume(resultSet.getObject(i));
+                }
+                rows++;
+            }
+            return rows;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * @return - the ids of a list's places, then their is_favorite statuses
+     */
+    private int[][] readIds(PlaceQuery query) throws SQLException {
+        PlaceFilterPlan.Predicate driver = PlaceFilterPlan.plan(query, null, null).getDriver();
+        int shape = PlaceListSql.getListShape(query, driver, true, null, 0, 0);
+        PreparedStatement statement = prepare(PlaceListSql.buildListQuery(shape),
+                PlaceListSql.getListArgs(shape, query, null, 0, 0));
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            int[] ids = new int[1024];
+            int[] isFavorite = new int[ids.length];
+            int count = 0;
+            while (resultSet.next()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    isFavorite = Arrays.copyOf(isFavorite, count * 2);
+                }
+                ids[count] = resultSet.getInt(1);
+                isFavorite[count] = resultSet.getInt(2);
+                count++;
+            }
+            return new int[][]{ Arrays.copyOf(ids, count), Arrays.copyOf(isFavorite, count) };
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Prepare once per SQL, as SQLite's per-connection statement cache does in the app
+     */
+    private PreparedStatement prepare(String sql, String[] args) throws SQLException {
+        PreparedStatement statement = mPreparedStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mPreparedStatements.put(sql, statement);
+        }
+        for (int i = 0; i < args.length; i++) {
+            statement.setString(i + 1, args[i]); // Android binds every argument as a String
+        }
+        return statement;
+    }
+
+    private PlaceFacetCounts readFacetCounts() throws SQLException {
+        List<PlaceFacetCounts.Count> categories = new ArrayList<>();
+        List<PlaceFacetCounts.Count> neighborhoods = new ArrayList<>();
+        PreparedStatement statement = prepare(PlaceSchema.SQL_SELECT_FACET_COUNTS, new String[0]);
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            while (resultSet.next()) {
+                PlaceFacetCounts.Count count = new PlaceFacetCounts.Count(resultSet.getString(2),
+                        resultSet.getInt(3), resultSet.getInt(4));
+                if (PlaceSchema.FACET_CATEGORY.equals(resultSet.getString(1))) {
+                    categories.add(count);
+                } else {
+                    neighborhoods.add(count);
+                }
+            }
+        } finally {
+            resultSet.close();
+        }
+        return new PlaceFacetCounts(categories, neighborhoods);
+    }
+
+    private PlaceIndexStats readIndexStats() throws SQLException {
+        HashMap<String, String> stats = new HashMap<>();
+        PreparedStatement statement = prepare(PlaceSchema.SQL_SELECT_PLACES_INDEX_STATS, new String[0]);
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            while (resultSet.next()) {
+                stats.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        } finally {
+            resultSet.close();
+        }
+        return new PlaceIndexStats(stats);
+    }
+}
@@ -0,0 +1,120 @@
+package com.charlesdrews.neighborhoodguide.benchmarks;
+
+import com.charlesdrews.neighborhoodguide.places.PlaceMigrations;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Generates a synthetic places database of any size, built with the app's schema and migrations.
+ * Values are drawn from small vocabularies with a fixed seed, so a dataset of a given size is the
+ * same on every run and the frequency of each search term scales with the size of the dataset.
+ */
+public class PlaceDataset {
+    private static final long SEED = 20160202L;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    static final String[] TITLE_WORDS = {"Central", "Grand", "Prospect", "Union", "Brooklyn",
+            "Hudson", "Empire", "Liberty", "Harbor", "Garden", "Park", "Museum", "Terminal",
+            "Theater", "Market", "Cafe", "Kitchen", "Hall", "Square", "Tower"};
+    static final String[] NEIGHBORHOODS = {"Midtown", "Upper East Side", "Upper West Side",
+            "Chelsea", "SoHo", "Tribeca", "Harlem", "Williamsburg", "Park Slope", "Astoria"};
+    static final String[] CATEGORIES = {"Park", "Museum", "Restaurant", "Bar", "Coffee Shop",
+            "Movie Theater", "Public Transportation", "Performing Arts"};
+    // places are scattered uniformly over this box, roughly the five boroughs
+    static final double SOUTH = 40.50, WEST = -74.25, NORTH = 40.91, EAST = -73.70;
+    static final String[] IMAGES = {"beer_garden", "brooklyn_museum", "central_park", "coffee",
+            "ethiopian_food", "grand_central", "izakaya", "lincoln_center", "met_museum",
+            "movie_theater", "prospect_park", "seaport", "szechuan_food"};
+
+    private static final String SQL_INSERT_PLACE = "INSERT INTO " + PlaceSchema.TABLE_NAME_PLACES
+            + " (" + PlaceSchema.COL_TITLE + ", " + PlaceSchema.COL_LOCATION + ", "
+            + PlaceSchema.COL_NEIGHBORHOOD + ", " + PlaceSchema.COL_CATEGORY + ", "
+            + PlaceSchema.COL_DESCRIPTION + ", " + PlaceSchema.COL_IMAGE_RES + ", "
+            + PlaceSchema.COL_IMAGE_CREDIT + ", " + PlaceSchema.COL_IS_FAVORITE + ", "
+            + PlaceSchema.COL_RATING + ", " + PlaceSchema.COL_NOTE + ", "
+            + PlaceSchema.COL_LATITUDE + ", " + PlaceSchema.COL_LONGITUDE
+            + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    private PlaceDataset() {}
+
+    /**
+     * Create a database file holding placeCount synthetic places
+     * @param placeCount - number of places to generate
+     * @return - the database file; the caller should delete it when done
+     */
+    public static File create(int placeCount) throws IOException, SQLException {
+        File file = File.createTempFile("places_" + placeCount + "_", ".db");
+        Connection connection = open(file);
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            statement.execute(PlaceSchema.SQL_CREATE_PLACES_TABLE);
+
+            // same migrations PlaceDbOpenHelper applies the first time it opens the bundled
+            // database; applied first because later ones add columns the rows are inserted with
+            for (PlaceMigrations.Migration migration : PlaceMigrations.getMigrationsAfter(0)) {
+                for (String sql : migration.getStatements()) {
+                    statement.execute(sql);
+                }
+            }
+            statement.close();
+            insertPlaces(connection, placeCount);
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        return file;
+    }
+
+    public static Connection open(File file) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+    }
+
+    private static void insertPlaces(Connection connection, int placeCount) throws SQLException {
+        Random random = new Random(SEED);
+        PreparedStatement insert = connection.prepareStatement(SQL_INSERT_PLACE);
+        try {
+            for (int i = 0; i < placeCount; i++) {
+                String title = pick(random, TITLE_WORDS) + " " + pick(random, TITLE_WORDS) + " " + i;
+                String neighborhood = pick(random, NEIGHBORHOODS);
+
+                insert.setString(1, title);
+                insert.setString(2, (1 + random.nextInt(200)) + " " + pick(random, TITLE_WORDS) + " St");
+                insert.setString(3, neighborhood);
+                if (random.nextInt(20) == 0) {
+                    insert.setNull(4, java.sql.Types.VARCHAR); // ~5% uncategorized
+                } else {
+                    insert.setString(4, pick(random, CATEGORIES));
+                }
+                insert.setString(5, "A place called " + title + " in " + neighborhood);
+                insert.setString(6, pick(random, IMAGES));
+                insert.setString(7, "Wikipedia");
+                insert.setInt(8, (random.nextInt(10) == 0) ? 1 : 0); // ~10% favorites
+                insert.setFloat(9, random.nextInt(11) / 2f);
+                insert.setString(10, "");
+                insert.setDouble(11, SOUTH + random.nextDouble() * (NORTH - SOUTH));
+                insert.setDouble(12, WEST + random.nextDouble() * (EAST - WEST));
+                insert.addBatch();
+
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,350 @@
+package com.charlesdrews.neighborhoodguide.benchmarks;
+
+import com.charlesdrews.neighborhoodguide.places.GeoBox;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeo;
+import com.charlesdrews.neighborhoodguide.places.PlaceGeoSql;
+import com.charlesdrews.neighborhoodguide.places.PlaceListSql;
+import com.charlesdrews.neighborhoodguide.places.PlacePageKey;
+import com.charlesdrews.neighborhoodguide.places.PlaceQuery;
+import com.charlesdrews.neighborhoodguide.places.PlaceSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of each query shape PlaceDbOpenHelper runs, on datasets from 1k to 1M
+ * places. The list and search queries are built by PlaceListSql, exactly as in the app; the
+ * searchLike benchmark keeps the LIKE query the app used before the FTS index, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceQueryBenchmark {
+    private static final int PAGE_SIZE = 40; // same as PlacePagedList.PAGE_SIZE
+
+    // same as PlaceListSql's list columns
+    private static final String[] LIST_COLUMNS = new String[]{ PlaceSchema.COL_ID,
+            PlaceSchema.COL_TITLE, PlaceSchema.COL_CATEGORY, PlaceSchema.COL_LOCATION,
+            PlaceSchema.COL_NEIGHBORHOOD, PlaceSchema.COL_IS_FAVORITE, PlaceSchema.COL_IMAGE_RES};
+
+    private static final String CATEGORY = "Park";
+    private static final String SEARCH_ONE_TOKEN = "park";
+    private static final String SEARCH_TWO_TOKENS = "central mid";
+
+    // a map viewport of about 1 km square over Midtown, and the point nearby searches are made from
+    private static final GeoBox VIEWPORT = new GeoBox(40.748, -73.985, 40.757, -73.973);
+    private static final double NEARBY_LATITUDE = 40.7527, NEARBY_LONGITUDE = -73.9772;
+    private static final int NEARBY_COUNT = 20;
+    private static final int VIEWPORT_LIMIT = 500;
+
+    // the place shown on the detail screen; a prime step visits ids in a cache-unfriendly order
+    private static final int PLACE_ID_STEP = 7919;
+
+    // getPlaceById, and the getCategories query the filter dialog ran before the facet counts,
+    // as built by SQLiteDatabase.query
+    private static final String SQL_SELECT_PLACE_BY_ID = "SELECT * FROM "
+            + PlaceSchema.TABLE_NAME_PLACES + " WHERE " + PlaceSchema.COL_ID + "=? LIMIT 1";
+    private static final String SQL_SELECT_CATEGORIES = "SELECT DISTINCT " + PlaceSchema.COL_CATEGORY
+            + " FROM " + PlaceSchema.TABLE_NAME_PLACES + " GROUP BY " + PlaceSchema.COL_CATEGORY
+            + " ORDER BY " + PlaceSchema.COL_CATEGORY;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int placeCount;
+
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private PlacePageKey mMiddleKey;
+    private int mNextPlaceId = 0;
+    private final HashMap<String, PreparedStatement> mPreparedStatements = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabaseFile = PlaceDataset.create(placeCount);
+        mConnection = PlaceDataset.open(mDatabaseFile);
+
+        // key of the last row before the middle of the list, to fetch a deep page by keyset
+        ArrayList<String> args = new ArrayList<>();
+        String sql = buildListQuery(PlaceQuery.allPlaces(), false, null, placeCount / 2 - 1, 1, args);
+        PreparedStatement statement = prepare(sql, args);
+        ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        mMiddleKey = new PlacePageKey(resultSet.getInt(PlaceSchema.COL_SEARCH_RANK),
+                resultSet.getString(PlaceSchema.COL_TITLE), resultSet.getInt(PlaceSchema.COL_ID));
+        statement.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        for (PreparedStatement statement : mPreparedStatements.values()) {
+            statement.close();
+        }
+        mPreparedStatements.clear();
+        mConnection.close();
+        if (!mDatabaseFile.delete()) {
+            mDatabaseFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public int listFirstPage(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces(), false, null, 0, PAGE_SIZE, blackhole);
+    }
+
+    /**
+     * The ids and favorite statuses PlacePagedList.load reads for the whole list
+     */
+    @Benchmark
+    public int listIds(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces(), true, null, 0, 0, blackhole);
+    }
+
+    @Benchmark
+    public int listCategoryFirstPage(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces().withCategory(CATEGORY), false, null, 0,
+                PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int listFavoritesFirstPage(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.favorites(), false, null, 0, PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int listMiddlePageByKeyset(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces(), false, mMiddleKey, 0, PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int listMiddlePageByOffset(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces(), false, null, placeCount / 2, PAGE_SIZE,
+                blackhole);
+    }
+
+    @Benchmark
+    public int searchFirstPage(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces().withSearch(SEARCH_ONE_TOKEN), false, null, 0,
+                PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int searchTwoTokensFirstPage(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces().withSearch(SEARCH_TWO_TOKENS), false, null, 0,
+                PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int searchIds(Blackhole blackhole) throws SQLException {
+        return runListQuery(PlaceQuery.allPlaces().withSearch(SEARCH_ONE_TOKEN), true, null, 0, 0,
+                blackhole);
+    }
+
+    /**
+     * searchFirstPage with its statement prepared once and re-used, as SQLite's per-connection
+     * statement cache does for the app's queries; the difference is the parse and plan time
+     */
+    @Benchmark
+    public int searchFirstPagePrepared(Blackhole blackhole) throws SQLException {
+        PlaceQuery query = PlaceQuery.allPlaces().withSearch(SEARCH_ONE_TOKEN);
+        ArrayList<String> args = new ArrayList<>();
+        String sql = buildListQuery(query, false, null, 0, PAGE_SIZE, args);
+        PreparedStatement statement = mPreparedStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mPreparedStatements.put(sql, statement);
+        }
+        for (int i = 0; i < args.size(); i++) {
+            statement.setString(i + 1, args.get(i));
+        }
+        return readRows(statement, blackhole);
+    }
+
+    /**
+     * The search query the app ran before the FTS index: every token LIKE'd against each of the
+     * four searchable columns, all results at once
+     */
+    @Benchmark
+    public int searchLike(Blackhole blackhole) throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        StringBuilder selection = new StringBuilder();
+        for (String token : SEARCH_ONE_TOKEN.split(" ")) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append("(" + PlaceSchema.COL_TITLE + " LIKE ? OR "
+                    + PlaceSchema.COL_LOCATION + " LIKE ? OR "
+                    + PlaceSchema.COL_NEIGHBORHOOD + " LIKE ? OR "
+                    + PlaceSchema.COL_CATEGORY + " LIKE ?)");
+            for (int i = 0; i < 4; i++) {
+                args.add("%" + token + "%");
+            }
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < LIST_COLUMNS.length; i++) {
+            sql.append((i > 0) ? ", " : "").append(LIST_COLUMNS[i]);
+        }
+        sql.append(" FROM " + PlaceSchema.TABLE_NAME_PLACES + " WHERE ").append(selection)
+                .append(" ORDER BY " + PlaceSchema.COL_TITLE);
+        return runQuery(sql.toString(), args, blackhole);
+    }
+
+    @Benchmark
+    public int viewportByRTree(Blackhole blackhole) throws SQLException {
+        return runViewportQuery(true, blackhole);
+    }
+
+    @Benchmark
+    public int viewportByIndex(Blackhole blackhole) throws SQLException {
+        return runViewportQuery(false, blackhole);
+    }
+
+    @Benchmark
+    public int nearestByRTree() {
+        return findNearest(true);
+    }
+
+    @Benchmark
+    public int nearestByIndex() {
+        return findNearest(false);
+    }
+
+    @Benchmark
+    public int getPlaceById(Blackhole blackhole) throws SQLException {
+        mNextPlaceId = (mNextPlaceId + PLACE_ID_STEP) % placeCount;
+        ArrayList<String> args = new ArrayList<>();
+        args.add(String.valueOf(mNextPlaceId + 1));
+        return runQuery(SQL_SELECT_PLACE_BY_ID, args, blackhole);
+    }
+
+    @Benchmark
+    public int getCategories(Blackhole blackhole) throws SQLException {
+        return runQuery(SQL_SELECT_CATEGORIES, new ArrayList<String>(), blackhole);
+    }
+
+    /**
+     * The per-category and per-neighborhood counts the filter dialog shows, read from the summary
+     * table that replaced getCategories' scan of the places table
+     */
+    @Benchmark
+    public int getFacetCounts(Blackhole blackhole) throws SQLException {
+        return runQuery(PlaceSchema.SQL_SELECT_FACET_COUNTS, new ArrayList<String>(), blackhole);
+    }
+
+    private int runListQuery(PlaceQuery query, boolean idsOnly, PlacePageKey after, int offset,
+                             int limit, Blackhole blackhole) throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = buildListQuery(query, idsOnly, after, offset, limit, args);
+        return runQuery(sql, args, blackhole);
+    }
+
+    /**
+     * Build a list query the way PlaceDbOpenHelper.queryPlaces does
+     */
+    private static String buildListQuery(PlaceQuery query, boolean idsOnly, PlacePageKey after,
+                                         int offset, int limit, ArrayList<String> args) {
+        int shape = PlaceListSql.getListShape(query, idsOnly, after, offset, limit);
+        args.addAll(Arrays.asList(PlaceListSql.getListArgs(shape, query, after, offset, limit)));
+        return PlaceListSql.buildListQuery(shape);
+    }
+
+    private int runViewportQuery(boolean useRTree, Blackhole blackhole) throws SQLException {
+        ArrayList<String> args = new ArrayList<>();
+        String sql = PlaceGeoSql.buildViewportQuery(LIST_COLUMNS, useRTree, VIEWPORT,
+                VIEWPORT_LIMIT, args);
+        return runQuery(sql, args, blackhole);
+    }
+
+    /**
+     * PlaceDbOpenHelper.getNearestPlaces, reading candidates over JDBC instead of a Cursor
+     */
+    private int findNearest(final boolean useRTree) {
+        return PlaceGeo.findNearest(new PlaceGeo.CandidateSource() {
+            @Override
+            public void findInBox(GeoBox box, PlaceGeo.Candidates candidates) {
+                ArrayList<String> args = new ArrayList<>();
+                try {
+                    PreparedStatement statement = prepare(
+                            PlaceGeoSql.buildCandidateQuery(useRTree, box, args), args);
+                    try {
+                        ResultSet resultSet = statement.executeQuery();
+                        while (resultSet.next()) {
+                            candidates.add(resultSet.getInt(1), resultSet.getDouble(2),
+                                    resultSet.getDouble(3));
+                        }
+                    } finally {
+                        statement.close();
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, NEARBY_LATITUDE, NEARBY_LONGITUDE, NEARBY_COUNT).size();
+    }
+
+    /**
+     * Prepare, run and read every column of every row, like filling a CursorWindow
+     * @return - number of rows read
+     */
+    private int runQuery(String sql, ArrayList<String> args, Blackhole blackhole)
+            throws SQLException {
+        PreparedStatement statement = prepare(sql, args);
+        try {
+            return readRows(statement, blackhole);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return - number of rows read
+     */
+    private static int readRows(PreparedStatement statement, Blackhole blackhole)
+            throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            int columnCount = resultSet.getMetaData().getColumnCount();
+            int rows = 0;
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    blackhole.consume(resultSet.getObject(i));
+                }
+                rows++;
+            }
+            return rows;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private PreparedStatement prepare(String sql, ArrayList<String> args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        for (int i = 0; i < args.size(); i++) {
+            statement.setString(i + 1, args.get(i)); // Android binds every argument as a String
+        }
+        return statement;
+    }
+}